@@ -0,0 +1,436 @@
+package com.iot.plc.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 日志归档段文件
+ * 一个段文件按列保存一批日志记录，每列单独压缩:
+ * 设备ID、批次ID、错误信息/串口名使用字典编码，ID和时间使用差值变长编码，条码使用前缀压缩，结果使用位图。
+ * 字典单独成段，只按批次或设备查找时无需解压其余列即可判断该段是否相关。
+ *
+ * 文件格式: 魔数、版本、行数、最小/最大时间，随后依次为各列，每列为 [原始长度][压缩长度][Deflate数据]
+ */
+class ArchiveSegment {
+    private static final int MAGIC = 0x504C4341; // "PLCA"
+    private static final byte VERSION = 1;
+
+    // 各列在文件中的顺序
+    private static final int COL_DEVICE_DICT = 0;
+    private static final int COL_BATCH_DICT = 1;
+    private static final int COL_TEXT_DICT = 2;
+    private static final int COL_ID = 3;
+    private static final int COL_TIME = 4;
+    private static final int COL_DEVICE = 5;
+    private static final int COL_BARCODE = 6;
+    private static final int COL_BATCH = 7;
+    private static final int COL_RESULT = 8;
+    private static final int COL_TEXT = 9;
+    private static final int COLUMN_COUNT = 10;
+    // 只读字典时需要读取的列数
+    private static final int DICT_COLUMN_COUNT = 3;
+
+    /**
+     * 归档记录，条码数据与烧录结果共用:
+     * 条码数据的 text 为串口名，batchId 为空，success 恒为true；烧录结果的 text 为错误信息
+     */
+    static class Row {
+        long id;
+        long time;
+        String deviceId;
+        String barcode;
+        String batchId;
+        boolean success;
+        String text;
+
+        Row(long id, long time, String deviceId, String barcode, String batchId, boolean success, String text) {
+            this.id = id;
+            this.time = time;
+            this.deviceId = deviceId;
+            this.barcode = barcode;
+            this.batchId = batchId;
+            this.success = success;
+            this.text = text;
+        }
+    }
+
+    /**
+     * 段文件中的字典，用于在不解压数据列的情况下判断段是否包含某个设备或批次
+     */
+    static class Dictionaries {
+        final List<String> devices;
+        final List<String> batches;
+        final List<String> texts;
+
+        Dictionaries(List<String> devices, List<String> batches, List<String> texts) {
+            this.devices = devices;
+            this.batches = batches;
+            this.texts = texts;
+        }
+
+        boolean containsDevice(String deviceId) {
+            return devices.contains(deviceId);
+        }
+
+        boolean containsBatch(String batchId) {
+            return batches.contains(batchId);
+        }
+    }
+
+    private ArchiveSegment() {
+    }
+
+    /**
+     * 将记录按列编码压缩后写入段文件，先写临时文件再改名，避免留下不完整的段
+     * @param file 段文件
+     * @param rows 记录，按ID升序
+     */
+    static void write(File file, List<Row> rows) throws IOException {
+        Dictionary devices = new Dictionary();
+        Dictionary batches = new Dictionary();
+        Dictionary texts = new Dictionary();
+        VarIntBuffer ids = new VarIntBuffer();
+        VarIntBuffer times = new VarIntBuffer();
+        VarIntBuffer deviceRefs = new VarIntBuffer();
+        VarIntBuffer barcodes = new VarIntBuffer();
+        VarIntBuffer batchRefs = new VarIntBuffer();
+        VarIntBuffer textRefs = new VarIntBuffer();
+        byte[] resultBits = new byte[(rows.size() + 7) / 8];
+
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        long prevId = 0;
+        long prevTime = 0;
+        byte[] prevBarcode = new byte[0];
+        for (int i = 0; i < rows.size(); i++) {
+            Row row = rows.get(i);
+            ids.writeVarLong(row.id - prevId);
+            times.writeVarLong(zigZag(row.time - prevTime));
+            prevId = row.id;
+            prevTime = row.time;
+            minTime = Math.min(minTime, row.time);
+            maxTime = Math.max(maxTime, row.time);
+
+            deviceRefs.writeVarLong(devices.ref(row.deviceId));
+            batchRefs.writeVarLong(batches.ref(row.batchId));
+            textRefs.writeVarLong(texts.ref(row.text));
+
+            // 相邻条码通常有相同前缀，只保存与上一条不同的后缀
+            byte[] barcode = row.barcode.getBytes(StandardCharsets.UTF_8);
+            int shared = 0;
+            int limit = Math.min(barcode.length, prevBarcode.length);
+            while (shared < limit && barcode[shared] == prevBarcode[shared]) {
+                shared++;
+            }
+            barcodes.writeVarLong(shared);
+            barcodes.writeVarLong(barcode.length - shared);
+            barcodes.write(barcode, shared, barcode.length - shared);
+            prevBarcode = barcode;
+
+            if (row.success) {
+                resultBits[i >> 3] |= (byte) (1 << (i & 7));
+            }
+        }
+
+        byte[][] columns = new byte[COLUMN_COUNT][];
+        columns[COL_DEVICE_DICT] = devices.encode();
+        columns[COL_BATCH_DICT] = batches.encode();
+        columns[COL_TEXT_DICT] = texts.encode();
+        columns[COL_ID] = ids.toByteArray();
+        columns[COL_TIME] = times.toByteArray();
+        columns[COL_DEVICE] = deviceRefs.toByteArray();
+        columns[COL_BARCODE] = barcodes.toByteArray();
+        columns[COL_BATCH] = batchRefs.toByteArray();
+        columns[COL_RESULT] = resultBits;
+        columns[COL_TEXT] = textRefs.toByteArray();
+
+        // 先写临时文件并落盘，再改名并同步目录；调用方在本方法返回后才提交删除源记录的事务，
+        // 掉电时要么段文件完整存在，要么源记录仍在数据库中
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fileOut = new FileOutputStream(tmp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(rows.size());
+            out.writeLong(rows.isEmpty() ? 0 : minTime);
+            out.writeLong(rows.isEmpty() ? 0 : maxTime);
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try {
+                for (byte[] column : columns) {
+                    byte[] compressed = deflate(deflater, column);
+                    out.writeInt(column.length);
+                    out.writeInt(compressed.length);
+                    out.write(compressed);
+                }
+            } finally {
+                deflater.end();
+            }
+            out.flush();
+            fileOut.getFD().sync();
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(file.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * 同步目录项，使改名在掉电后依然有效；Windows不支持打开目录，文件系统本身保证改名的持久性，忽略即可
+     */
+    private static void syncDirectory(File dir) throws IOException {
+        if (dir == null || System.getProperty("os.name", "").toLowerCase().startsWith("windows")) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 读取段文件中的全部记录
+     */
+    static List<Row> read(File file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            int rowCount = readHeader(in, file);
+            byte[][] columns = readColumns(in, COLUMN_COUNT);
+
+            List<String> devices = decodeDictionary(columns[COL_DEVICE_DICT]);
+            List<String> batches = decodeDictionary(columns[COL_BATCH_DICT]);
+            List<String> texts = decodeDictionary(columns[COL_TEXT_DICT]);
+            VarIntReader ids = new VarIntReader(columns[COL_ID]);
+            VarIntReader times = new VarIntReader(columns[COL_TIME]);
+            VarIntReader deviceRefs = new VarIntReader(columns[COL_DEVICE]);
+            VarIntReader barcodes = new VarIntReader(columns[COL_BARCODE]);
+            VarIntReader batchRefs = new VarIntReader(columns[COL_BATCH]);
+            VarIntReader textRefs = new VarIntReader(columns[COL_TEXT]);
+            byte[] resultBits = columns[COL_RESULT];
+
+            List<Row> rows = new ArrayList<>(rowCount);
+            long id = 0;
+            long time = 0;
+            byte[] barcode = new byte[0];
+            for (int i = 0; i < rowCount; i++) {
+                id += ids.readVarLong();
+                time += unZigZag(times.readVarLong());
+
+                int shared = (int) barcodes.readVarLong();
+                int suffix = (int) barcodes.readVarLong();
+                byte[] next = new byte[shared + suffix];
+                System.arraycopy(barcode, 0, next, 0, shared);
+                barcodes.read(next, shared, suffix);
+                barcode = next;
+
+                rows.add(new Row(id, time,
+                        lookup(devices, deviceRefs.readVarLong()),
+                        new String(barcode, StandardCharsets.UTF_8),
+                        lookup(batches, batchRefs.readVarLong()),
+                        (resultBits[i >> 3] & (1 << (i & 7))) != 0,
+                        lookup(texts, textRefs.readVarLong())));
+            }
+            return rows;
+        }
+    }
+
+    /**
+     * 只读取段文件中的字典
+     */
+    static Dictionaries readDictionaries(File file) throws IOException {
+        try (DataInputStream in = open(file)) {
+            readHeader(in, file);
+            byte[][] columns = readColumns(in, DICT_COLUMN_COUNT);
+            return new Dictionaries(decodeDictionary(columns[COL_DEVICE_DICT]),
+                    decodeDictionary(columns[COL_BATCH_DICT]),
+                    decodeDictionary(columns[COL_TEXT_DICT]));
+        }
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private static int readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("不是有效的归档文件: " + file);
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("不支持的归档文件版本: " + version + "，文件: " + file);
+        }
+        int rowCount = in.readInt();
+        in.readLong(); // 最小时间，索引表中已有
+        in.readLong(); // 最大时间
+        return rowCount;
+    }
+
+    private static byte[][] readColumns(DataInputStream in, int count) throws IOException {
+        byte[][] columns = new byte[count][];
+        Inflater inflater = new Inflater();
+        try {
+            for (int i = 0; i < count; i++) {
+                int rawLength = in.readInt();
+                byte[] compressed = new byte[in.readInt()];
+                in.readFully(compressed);
+                columns[i] = inflate(inflater, compressed, rawLength);
+            }
+        } finally {
+            inflater.end();
+        }
+        return columns;
+    }
+
+    private static byte[] deflate(Deflater deflater, byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buffer);
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(Inflater inflater, byte[] compressed, int rawLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] raw = new byte[rawLength];
+        try {
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, offset, rawLength - offset);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += n;
+            }
+            if (offset != rawLength) {
+                throw new IOException("归档数据长度不符，期望 " + rawLength + "，实际 " + offset);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("归档数据解压失败: " + e.getMessage(), e);
+        }
+        return raw;
+    }
+
+    private static List<String> decodeDictionary(byte[] data) throws IOException {
+        VarIntReader reader = new VarIntReader(data);
+        int count = (int) reader.readVarLong();
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[(int) reader.readVarLong()];
+            reader.read(bytes, 0, bytes.length);
+            values.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    private static String lookup(List<String> dictionary, long ref) {
+        return ref == 0 ? null : dictionary.get((int) ref - 1);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 字典编码: 引用0表示空值，其余为字典下标加1
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int ref(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer ref = refs.get(value);
+            if (ref == null) {
+                values.add(value);
+                ref = values.size();
+                refs.put(value, ref);
+            }
+            return ref;
+        }
+
+        byte[] encode() {
+            VarIntBuffer buffer = new VarIntBuffer();
+            buffer.writeVarLong(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                buffer.writeVarLong(bytes.length);
+                buffer.write(bytes, 0, bytes.length);
+            }
+            return buffer.toByteArray();
+        }
+    }
+
+    private static class VarIntBuffer extends ByteArrayOutputStream {
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+    }
+
+    private static class VarIntReader {
+        private final byte[] data;
+        private int position;
+
+        VarIntReader(byte[] data) {
+            this.data = data;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (position >= data.length) {
+                    throw new IOException("归档数据不完整");
+                }
+                byte b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        void read(byte[] target, int offset, int length) throws IOException {
+            if (position + length > data.length) {
+                throw new IOException("归档数据不完整");
+            }
+            System.arraycopy(data, position, target, offset, length);
+            position += length;
+        }
+    }
+}
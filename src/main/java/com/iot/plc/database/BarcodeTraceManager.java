@@ -0,0 +1,240 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.model.TraceEvent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 条码追溯索引管理类
+ * barcode_trace 表按 (barcode, event_time) 建索引，汇集扫码、验证、烧录和EMS回传事件，
+ * 查询一个条码的完整经历只需一次索引范围扫描，与日志总量无关。
+ * 追溯事件与对应的日志记录在同一连接中写入，按日志保留周期与其他日志一起清理。
+ */
+public class BarcodeTraceManager {
+    public static final String TRACE_TABLE = "barcode_trace";
+    // 根据历史日志生成追溯事件的回填任务名
+    public static final String BACKFILL_TASK = TRACE_TABLE;
+
+    private static volatile BarcodeTraceManager instance;
+
+    // 条码事件变化时通知，用于让查询缓存失效
+    private final List<Consumer<String>> changeListeners = new CopyOnWriteArrayList<>();
+
+    private BarcodeTraceManager() {
+    }
+
+    public static BarcodeTraceManager getInstance() {
+        if (instance == null) {
+            synchronized (BarcodeTraceManager.class) {
+                if (instance == null) {
+                    instance = new BarcodeTraceManager();
+                }
+            }
+        }
+        return instance;
+    }
+
+    static String createTraceTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + TRACE_TABLE + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "barcode TEXT NOT NULL," +
+                "event_type TEXT NOT NULL," +
+                "event_time DATETIME NOT NULL," +
+                "device_id TEXT," +
+                "batch_id TEXT," +
+                "success BOOLEAN NOT NULL," +
+                "detail TEXT" +
+                ")";
+    }
+
+    static String createTraceIndexSql() {
+        return "CREATE INDEX IF NOT EXISTS idx_" + TRACE_TABLE + "_barcode_time ON " + TRACE_TABLE + "(barcode, event_time)";
+    }
+
+    /**
+     * 添加条码事件变化监听器，参数为发生变化的条码
+     */
+    public void addChangeListener(Consumer<String> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * 写入追溯事件，需要与对应的日志记录使用同一连接和事务，提交后调用 notifyRecorded
+     * @param conn 数据库连接
+     * @param events 追溯事件列表
+     */
+    public void recordEvents(Connection conn, List<TraceEvent> events) throws SQLException {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + TRACE_TABLE + " (barcode, event_type, event_time, device_id, batch_id, success, detail) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (TraceEvent event : events) {
+                if (event.getBarcode() == null || event.getBarcode().isEmpty()) {
+                    continue;
+                }
+                pstmt.setString(1, event.getBarcode());
+                pstmt.setString(2, event.getEventType());
+                pstmt.setTimestamp(3, Timestamp.valueOf(event.getEventTime()));
+                pstmt.setString(4, event.getDeviceId());
+                pstmt.setString(5, event.getBatchId());
+                pstmt.setBoolean(6, event.isSuccess());
+                pstmt.setString(7, event.getDetail());
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * 事件所在事务提交后调用，通知监听器这些条码的经历已变化
+     */
+    public void notifyRecorded(List<TraceEvent> events) {
+        for (TraceEvent event : events) {
+            notifyChanged(event.getBarcode());
+        }
+    }
+
+    /**
+     * 使用独立连接在一个事务中写入追溯事件，用于没有对应日志表的事件(如EMS回传)
+     */
+    public void recordEvents(List<TraceEvent> events) throws SQLException {
+        if (events == null || events.isEmpty()) {
+            return;
+        }
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                recordEvents(conn, events);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+        notifyRecorded(events);
+    }
+
+    /**
+     * 查询条码的完整经历，按事件时间升序
+     * @param barcode 条码内容
+     * @return 追溯事件列表
+     */
+    public List<TraceEvent> getHistory(String barcode) throws SQLException {
+        List<TraceEvent> events = new ArrayList<>();
+        String sql = "SELECT barcode, event_type, event_time, device_id, batch_id, success, detail FROM " + TRACE_TABLE +
+                " WHERE barcode = ? ORDER BY event_time, id";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, barcode);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    events.add(new TraceEvent(
+                            rs.getString("barcode"),
+                            rs.getString("event_type"),
+                            rs.getTimestamp("event_time").toLocalDateTime(),
+                            rs.getString("device_id"),
+                            rs.getString("batch_id"),
+                            rs.getBoolean("success"),
+                            rs.getString("detail")));
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 删除指定类型的全部追溯事件，手动清空对应日志时调用
+     */
+    public void clearEvents(Connection conn, String eventType) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + TRACE_TABLE + " WHERE event_type = ?")) {
+            pstmt.setString(1, eventType);
+            pstmt.executeUpdate();
+        }
+        notifyChanged(null);
+    }
+
+    private void notifyChanged(String barcode) {
+        for (Consumer<String> listener : changeListeners) {
+            listener.accept(barcode);
+        }
+    }
+
+    /**
+     * 烧录结果各分区按条码建立索引，便于直接按条码核对原始记录
+     * 新建的分区建表时已有该索引，这里只为升级前已存在的分区补建，由后台任务在启动后调用
+     */
+    public void ensureProgramResultIndexes() {
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String table : LogPartitionManager.getInstance().getPartitions(conn, LogPartitionManager.PROGRAM_RESULT)) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + table + "_barcode ON " + table + "(barcode)");
+            }
+        } catch (SQLException e) {
+            Logger.getInstance().error("创建烧录结果条码索引失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 追溯表为空时(升级后首次启动)，登记需要根据现有条码数据和烧录结果生成扫码和烧录事件的范围，
+     * 在建表时、新日志写入之前调用，实际复制由 backfill() 在后台分块完成
+     * 历史验证结果和EMS回传没有记录条码，无法补录
+     */
+    static void planBackfillIfEmpty(Connection conn) throws SQLException {
+        if (LogBackfill.hasPendingWork(conn, BACKFILL_TASK)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + TRACE_TABLE + " LIMIT 1")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        LogPartitionManager partitions = LogPartitionManager.getInstance();
+        List<String> tables = new ArrayList<>(partitions.getReadTables(conn, LogPartitionManager.BARCODE_DATA));
+        tables.addAll(partitions.getReadTables(conn, LogPartitionManager.PROGRAM_RESULT));
+        if (LogBackfill.plan(conn, BACKFILL_TASK, tables) > 0) {
+            Logger.getInstance().info("追溯表为空，已登记根据历史日志生成条码追溯记录，将在后台分块执行");
+        }
+    }
+
+    /**
+     * 执行登记的追溯事件回填，每块一个短事务，可中断，下次继续
+     * @return 生成的追溯事件数
+     */
+    public long backfill() throws SQLException {
+        long rows = LogBackfill.getInstance().run(BACKFILL_TASK, this::backfillChunk);
+        if (rows > 0) {
+            Logger.getInstance().info("已根据历史日志生成 " + rows + " 条条码追溯记录");
+            notifyChanged(null);
+        }
+        return rows;
+    }
+
+    private int backfillChunk(Connection conn, String table, long fromId, long toId) throws SQLException {
+        String select;
+        if (table.startsWith(LogPartitionManager.PROGRAM_RESULT)) {
+            select = "SELECT barcode, '" + TraceEvent.PROGRAM + "', program_time, device_id, batch_id, result, error_message FROM ";
+        } else {
+            select = "SELECT barcode, '" + TraceEvent.SCAN + "', scan_time, device_id, NULL, 1, port_name FROM ";
+        }
+        String sql = "INSERT INTO " + TRACE_TABLE + " (barcode, event_type, event_time, device_id, batch_id, success, detail) " +
+                select + table + " WHERE id >= ? AND id <= ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, fromId);
+            pstmt.setLong(2, toId);
+            return pstmt.executeUpdate();
+        }
+    }
+}
@@ -11,6 +11,8 @@ import java.util.Map;
 
 public class DatabaseManager {
     private static final String DB_URL = "jdbc:sqlite:plc_tasks.db";
+    // PRAGMA auto_vacuum 的增量模式取值
+    public static final int AUTO_VACUUM_INCREMENTAL = 2;
     
     static {
         try {
@@ -25,6 +27,11 @@ public class DatabaseManager {
         try (Connection conn = DriverManager.getConnection(DB_URL);
              Statement stmt = conn.createStatement()) {
             
+            // 增量回收空闲页(仅对新建的数据库立即生效，已有数据库需手动执行 rebuildForIncrementalVacuum)
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            // WAL模式下读写互不阻塞，日志清理时扫码写入不会被长时间挡住
+            stmt.execute("PRAGMA journal_mode = WAL");
+            
             String createTasksTable = "CREATE TABLE IF NOT EXISTS tasks (" +
                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
                     "device_id TEXT NOT NULL," +
@@ -55,14 +62,7 @@ public class DatabaseManager {
                     "FOREIGN KEY (task_id) REFERENCES tasks(id) ON DELETE CASCADE" +
                     ")";
             
-            String createBarcodeDataTable = "CREATE TABLE IF NOT EXISTS barcode_data (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "device_id VARCHAR(20) NOT NULL," +
-                    "barcode VARCHAR(50) NOT NULL," +
-                    "scan_time DATETIME NOT NULL," +
-                    "port_name VARCHAR(20)," +
-                    "created_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
-                    ")";
+            String createBarcodeDataTable = createBarcodeDataTableSql("barcode_data");
             
             String createValidationResultTable = "CREATE TABLE IF NOT EXISTS validation_result (" +
                     "id INTEGER PRIMARY KEY AUTOINCREMENT," +
@@ -73,16 +73,7 @@ public class DatabaseManager {
                     "created_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
                     ")";
             
-            String createProgramResultTable = "CREATE TABLE IF NOT EXISTS program_result (" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    "batch_id VARCHAR(50) NOT NULL," +
-                    "device_id VARCHAR(20) NOT NULL," +
-                    "barcode VARCHAR(50) NOT NULL," +
-                    "result BOOLEAN NOT NULL," +
-                    "error_message TEXT," +
-                    "program_time DATETIME NOT NULL," +
-                    "created_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
-                    ")";
+            String createProgramResultTable = createProgramResultTableSql("program_result");
                     
             // 创建配置表
             String createConfigTable = "CREATE TABLE IF NOT EXISTS config_items (" +
@@ -103,11 +94,47 @@ public class DatabaseManager {
             stmt.execute(createProgramResultTable);
             stmt.execute(createConfigTable);
             
+            // 日志增量清理进度表
+            stmt.execute("CREATE TABLE IF NOT EXISTS log_purge_progress (" +
+                    "table_name TEXT PRIMARY KEY," +
+                    "next_id INTEGER NOT NULL," +
+                    "end_id INTEGER NOT NULL," +
+                    "cutoff_time DATETIME NOT NULL," +
+                    "updated_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
+                    ")");
+            
+            // 历史日志回填进度表
+            stmt.execute(LogBackfill.createProgressTableSql());
+            
+            // 烧录结果汇总表
+            for (String summaryTable : ResultSummaryManager.getSummaryTables()) {
+                stmt.execute(ResultSummaryManager.createSummaryTableSql(summaryTable));
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + ResultSummaryManager.BATCH_SUMMARY + "_last_time ON " +
+                    ResultSummaryManager.BATCH_SUMMARY + "(last_time)");
+            
+            // 条码追溯表
+            stmt.execute(BarcodeTraceManager.createTraceTableSql());
+            stmt.execute(BarcodeTraceManager.createTraceIndexSql());
+            
+            // 日志归档段索引表
+            stmt.execute(LogArchiver.createSegmentTableSql());
+            stmt.execute(LogArchiver.createSegmentIndexSql());
+            
+            // EMS发件箱表
+            stmt.execute(EmsOutboxManager.createOutboxTableSql());
+            stmt.execute(EmsOutboxManager.createOutboxIndexSql());
+            
             // 创建索引
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_barcode_device ON barcode_data(device_id)");
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_barcode_scan_time ON barcode_data(scan_time)");
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_program_batch ON program_result(batch_id)");
             stmt.execute("CREATE INDEX IF NOT EXISTS idx_program_device ON program_result(device_id)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_program_barcode ON program_result(barcode)");
+            
+            // 升级后首次启动时登记需要根据历史日志回填的范围，由后台任务分块执行，不占用首次写入
+            BarcodeTraceManager.planBackfillIfEmpty(conn);
+            ResultSummaryManager.planRebuildIfEmpty(conn);
             
         } catch (SQLException e) {
             e.printStackTrace();
@@ -118,6 +145,68 @@ public class DatabaseManager {
         return DriverManager.getConnection(DB_URL);
     }
     
+    /**
+     * 数据库是否已开启增量空间回收
+     */
+    public static boolean isIncrementalVacuumEnabled() throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA auto_vacuum")) {
+            return rs.next() && rs.getInt(1) == AUTO_VACUUM_INCREMENTAL;
+        }
+    }
+    
+    /**
+     * 整理数据库文件：执行一次完整VACUUM，将未开启auto_vacuum的旧数据库转换为增量回收模式
+     * 重建期间一直持有写锁，耗时与文件大小成正比，只能作为维护操作在停产时执行
+     * @return 是否执行了转换，已是增量模式时返回false
+     */
+    public static boolean rebuildForIncrementalVacuum() throws SQLException {
+        if (isIncrementalVacuumEnabled()) {
+            return false;
+        }
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA auto_vacuum = INCREMENTAL");
+            stmt.execute("VACUUM");
+        }
+        return true;
+    }
+    
+    /**
+     * 条码数据表建表语句，基础表与按时间划分的分区表共用同一结构
+     * @param tableName 表名
+     * @return 建表SQL
+     */
+    static String createBarcodeDataTableSql(String tableName) {
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "device_id VARCHAR(20) NOT NULL," +
+                "barcode VARCHAR(50) NOT NULL," +
+                "scan_time DATETIME NOT NULL," +
+                "port_name VARCHAR(20)," +
+                "created_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+    }
+    
+    /**
+     * 烧录结果表建表语句，基础表与按时间划分的分区表共用同一结构
+     * @param tableName 表名
+     * @return 建表SQL
+     */
+    static String createProgramResultTableSql(String tableName) {
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "batch_id VARCHAR(50) NOT NULL," +
+                "device_id VARCHAR(20) NOT NULL," +
+                "barcode VARCHAR(50) NOT NULL," +
+                "result BOOLEAN NOT NULL," +
+                "error_message TEXT," +
+                "program_time DATETIME NOT NULL," +
+                "created_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+    }
+    
     public static void saveTask(Task task) throws SQLException {
         if (task.getId() > 0) {
             // 更新现有任务
@@ -302,19 +391,26 @@ public class DatabaseManager {
     
     public static List<BarcodeData> getAllBarcodes() throws SQLException {
         List<BarcodeData> barcodes = new ArrayList<>();
-        String sql = "SELECT * FROM barcode_data ORDER BY scan_time DESC";
         
         try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
+             Statement stmt = conn.createStatement()) {
             
-            while (rs.next()) {
-                String deviceId = rs.getString("device_id");
-                String barcode = rs.getString("barcode");
-                String portName = rs.getString("port_name");
-                
-                BarcodeData barcodeData = new BarcodeData(deviceId, barcode, portName);
-                barcodes.add(barcodeData);
+            // 分区按时间从新到旧排列，逐个分区读取即可保持整体按扫描时间倒序
+            for (String table : LogPartitionManager.getInstance().getReadTables(conn, LogPartitionManager.BARCODE_DATA)) {
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " ORDER BY scan_time DESC")) {
+                    while (rs.next()) {
+                        String deviceId = rs.getString("device_id");
+                        String barcode = rs.getString("barcode");
+                        String portName = rs.getString("port_name");
+                        
+                        BarcodeData barcodeData = new BarcodeData(deviceId, barcode, portName);
+                        Timestamp scanTime = rs.getTimestamp("scan_time");
+                        if (scanTime != null) {
+                            barcodeData.setScanTime(scanTime.toLocalDateTime());
+                        }
+                        barcodes.add(barcodeData);
+                    }
+                }
             }
         }
         return barcodes;
@@ -325,11 +421,26 @@ public class DatabaseManager {
         LogManager.getInstance().saveValidationResult(isValid, message, expectedCount, actualCount);
     }
     
+    // 验证结果同时为参与验证的条码记录追溯事件
+    public static void saveValidationResult(boolean isValid, String message, int expectedCount, int actualCount, List<String> barcodes) throws SQLException {
+        LogManager.getInstance().saveValidationResult(isValid, message, expectedCount, actualCount, barcodes);
+    }
+    
     // 修改saveProgramResult方法，通过LogManager调用
     public static void saveProgramResult(String batchId, String deviceId, String barcode, boolean result, String errorMessage, LocalDateTime programTime) throws SQLException {
         LogManager.getInstance().saveProgramResult(batchId, deviceId, barcode, result, errorMessage, programTime);
     }
     
+    // 整个批次的烧录结果在一个事务中保存，同时更新汇总表
+    public static void saveProgramResult(ProgramResult programResult, LocalDateTime programTime) throws SQLException {
+        LogManager.getInstance().saveProgramResult(programResult, programTime);
+    }
+    
+    // 多个烧录结果合并为一个事务保存，用于结果处理流水线的批量写入；日志记录已关闭时返回false
+    public static boolean saveProgramResults(List<ProgramResult> programResults, LocalDateTime programTime) throws SQLException {
+        return LogManager.getInstance().saveProgramResults(programResults, programTime);
+    }
+    
 
     
 
@@ -338,27 +449,30 @@ public class DatabaseManager {
     
     public static List<ProgramResult> getProgramResultsByBatchId(String batchId) throws SQLException {
         List<ProgramResult> results = new ArrayList<>();
-        String sql = "SELECT * FROM program_result WHERE batch_id = ? ORDER BY program_time DESC";
         
-        try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, batchId);
-            ResultSet rs = pstmt.executeQuery();
-            
+        try (Connection conn = getConnection()) {
             ProgramResult programResult = new ProgramResult();
             programResult.setBatchId(batchId);
             
-            while (rs.next()) {
-                String deviceId = rs.getString("device_id");
-                String barcode = rs.getString("barcode");
-                boolean success = rs.getBoolean("result");
-                String errorMessage = rs.getString("error_message");
-                String timestamp = rs.getString("program_time");
-                
-                DeviceResult deviceResult = new DeviceResult(deviceId, barcode, success, errorMessage);
-                programResult.addDeviceResult(deviceResult);
-                programResult.setTimestamp(timestamp);
+            // 同一批次可能跨越分区边界，需要在所有分区中查找
+            for (String table : LogPartitionManager.getInstance().getReadTables(conn, LogPartitionManager.PROGRAM_RESULT)) {
+                String sql = "SELECT * FROM " + table + " WHERE batch_id = ? ORDER BY program_time DESC";
+                try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                    pstmt.setString(1, batchId);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            String deviceId = rs.getString("device_id");
+                            String barcode = rs.getString("barcode");
+                            boolean success = rs.getBoolean("result");
+                            String errorMessage = rs.getString("error_message");
+                            String timestamp = rs.getString("program_time");
+                            
+                            DeviceResult deviceResult = new DeviceResult(deviceId, barcode, success, errorMessage);
+                            programResult.addDeviceResult(deviceResult);
+                            programResult.setTimestamp(timestamp);
+                        }
+                    }
+                }
             }
             
             if (!programResult.getResults().isEmpty()) {
@@ -371,31 +485,33 @@ public class DatabaseManager {
     public static List<ProgramResult> getAllProgramResults() throws SQLException {
         List<ProgramResult> results = new ArrayList<>();
         Map<String, ProgramResult> batchMap = new HashMap<>();
-        String sql = "SELECT * FROM program_result ORDER BY batch_id, program_time DESC";
         
         try (Connection conn = getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql);
-             ResultSet rs = pstmt.executeQuery()) {
+             Statement stmt = conn.createStatement()) {
             
-            while (rs.next()) {
-                String batchId = rs.getString("batch_id");
-                String deviceId = rs.getString("device_id");
-                String barcode = rs.getString("barcode");
-                boolean success = rs.getBoolean("result");
-                String errorMessage = rs.getString("error_message");
-                String timestamp = rs.getString("program_time");
-                
-                // 获取或创建该批次的ProgramResult对象
-                ProgramResult programResult = batchMap.get(batchId);
-                if (programResult == null) {
-                    programResult = new ProgramResult();
-                    programResult.setBatchId(batchId);
-                    programResult.setTimestamp(timestamp);
-                    batchMap.put(batchId, programResult);
+            for (String table : LogPartitionManager.getInstance().getReadTables(conn, LogPartitionManager.PROGRAM_RESULT)) {
+                try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + table + " ORDER BY batch_id, program_time DESC")) {
+                    while (rs.next()) {
+                        String batchId = rs.getString("batch_id");
+                        String deviceId = rs.getString("device_id");
+                        String barcode = rs.getString("barcode");
+                        boolean success = rs.getBoolean("result");
+                        String errorMessage = rs.getString("error_message");
+                        String timestamp = rs.getString("program_time");
+                        
+                        // 获取或创建该批次的ProgramResult对象
+                        ProgramResult programResult = batchMap.get(batchId);
+                        if (programResult == null) {
+                            programResult = new ProgramResult();
+                            programResult.setBatchId(batchId);
+                            programResult.setTimestamp(timestamp);
+                            batchMap.put(batchId, programResult);
+                        }
+                        
+                        DeviceResult deviceResult = new DeviceResult(deviceId, barcode, success, errorMessage);
+                        programResult.addDeviceResult(deviceResult);
+                    }
                 }
-                
-                DeviceResult deviceResult = new DeviceResult(deviceId, barcode, success, errorMessage);
-                programResult.addDeviceResult(deviceResult);
             }
             
             // 将Map中的所有ProgramResult对象添加到结果列表
@@ -0,0 +1,206 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.model.OutboxEntry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * EMS发件箱管理类
+ * 待回传的烧录结果先写入 ems_outbox 表再由投递线程发送，程序重启或EMS停机期间不会丢失；
+ * idempotency_key 唯一，同一结果重复入队会被忽略，投递时作为请求头发送，EMS据此去重，
+ * 确认后的记录保留一段时间再清理，期间重复入队同样被忽略。
+ */
+public class EmsOutboxManager {
+    public static final String OUTBOX_TABLE = "ems_outbox";
+
+    public static final String STATUS_PENDING = "pending";    // 待投递
+    public static final String STATUS_ACKED = "acked";        // EMS已确认
+    public static final String STATUS_REJECTED = "rejected";  // EMS拒收，不再重试
+
+    private static volatile EmsOutboxManager instance;
+
+    private EmsOutboxManager() {
+    }
+
+    public static EmsOutboxManager getInstance() {
+        if (instance == null) {
+            synchronized (EmsOutboxManager.class) {
+                if (instance == null) {
+                    instance = new EmsOutboxManager();
+                }
+            }
+        }
+        return instance;
+    }
+
+    static String createOutboxTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + OUTBOX_TABLE + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "idempotency_key TEXT NOT NULL UNIQUE," +
+                "batch_id TEXT," +
+                "payload TEXT NOT NULL," +
+                "status TEXT NOT NULL DEFAULT '" + STATUS_PENDING + "'," +
+                "attempts INTEGER NOT NULL DEFAULT 0," +
+                "last_error TEXT," +
+                "created_at DATETIME NOT NULL," +
+                "acked_at DATETIME" +
+                ")";
+    }
+
+    static String createOutboxIndexSql() {
+        return "CREATE INDEX IF NOT EXISTS idx_" + OUTBOX_TABLE + "_status_id ON " + OUTBOX_TABLE + "(status, id)";
+    }
+
+    /**
+     * 在同一事务中写入一组待回传记录，幂等键已存在的记录忽略
+     * @param entries 待回传记录
+     * @return 实际新增的记录数
+     */
+    public int enqueue(List<OutboxEntry> entries) throws SQLException {
+        if (entries == null || entries.isEmpty()) {
+            return 0;
+        }
+        String sql = "INSERT OR IGNORE INTO " + OUTBOX_TABLE +
+                " (idempotency_key, batch_id, payload, status, attempts, created_at) VALUES (?, ?, ?, ?, 0, ?)";
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            int inserted = 0;
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (OutboxEntry entry : entries) {
+                    pstmt.setString(1, entry.getIdempotencyKey());
+                    pstmt.setString(2, entry.getBatchId());
+                    pstmt.setString(3, entry.getPayload());
+                    pstmt.setString(4, STATUS_PENDING);
+                    pstmt.setTimestamp(5, Timestamp.valueOf(entry.getCreatedAt()));
+                    inserted += pstmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            return inserted;
+        }
+    }
+
+    /**
+     * 按入队顺序读取最早的待投递记录
+     * @param limit 最多读取的记录数
+     */
+    public List<OutboxEntry> fetchPending(int limit) throws SQLException {
+        List<OutboxEntry> entries = new ArrayList<>();
+        String sql = "SELECT id, idempotency_key, batch_id, payload, attempts, created_at FROM " + OUTBOX_TABLE +
+                " WHERE status = ? ORDER BY id LIMIT ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, STATUS_PENDING);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    OutboxEntry entry = new OutboxEntry(rs.getString("idempotency_key"),
+                            rs.getString("batch_id"), rs.getString("payload"));
+                    entry.setId(rs.getLong("id"));
+                    entry.setAttempts(rs.getInt("attempts"));
+                    entry.setCreatedAt(rs.getTimestamp("created_at").toLocalDateTime());
+                    entries.add(entry);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * 在同一事务中标记一组记录已被EMS确认
+     */
+    public void markAcked(List<Long> ids) throws SQLException {
+        if (ids == null || ids.isEmpty()) {
+            return;
+        }
+        String sql = "UPDATE " + OUTBOX_TABLE + " SET status = ?, acked_at = ?, last_error = NULL WHERE id = ?";
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (Long id : ids) {
+                    pstmt.setString(1, STATUS_ACKED);
+                    pstmt.setTimestamp(2, now);
+                    pstmt.setLong(3, id);
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 记录一次投递失败，记录保持待投递状态
+     */
+    public void markFailed(long id, String error) throws SQLException {
+        String sql = "UPDATE " + OUTBOX_TABLE + " SET attempts = attempts + 1, last_error = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, error);
+            pstmt.setLong(2, id);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 标记记录被EMS拒收，不再重试，保留在表中供排查
+     */
+    public void markRejected(long id, String error) throws SQLException {
+        String sql = "UPDATE " + OUTBOX_TABLE + " SET status = ?, attempts = attempts + 1, last_error = ? WHERE id = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, STATUS_REJECTED);
+            pstmt.setString(2, error);
+            pstmt.setLong(3, id);
+            pstmt.executeUpdate();
+        }
+        Logger.getInstance().error("EMS发件箱记录被拒收，id: " + id + ", 原因: " + error);
+    }
+
+    /**
+     * 统计指定状态的记录数
+     */
+    public int countByStatus(String status) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM " + OUTBOX_TABLE + " WHERE status = ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, status);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    /**
+     * 清理确认时间早于指定时间的记录，待投递和被拒收的记录不清理
+     * @return 清理的记录数
+     */
+    public int purgeAcked(LocalDateTime cutoff) throws SQLException {
+        String sql = "DELETE FROM " + OUTBOX_TABLE + " WHERE status = ? AND acked_at < ?";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, STATUS_ACKED);
+            pstmt.setTimestamp(2, Timestamp.valueOf(cutoff));
+            int deleted = pstmt.executeUpdate();
+            if (deleted > 0) {
+                Logger.getInstance().info("清理EMS发件箱已确认记录: " + deleted + " 条");
+            }
+            return deleted;
+        }
+    }
+}
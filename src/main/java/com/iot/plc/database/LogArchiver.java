@@ -0,0 +1,369 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.model.BarcodeData;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ProgramResult;
+import com.iot.plc.model.TraceEvent;
+import com.iot.plc.service.ConfigService;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 日志归档类
+ * 把超过归档天数的条码数据和烧录结果从SQLite移到磁盘上的压缩列式段文件中(见 ArchiveSegment)，
+ * 每个段在 archive_segment 表中记录ID范围和最小/最大时间，查询时按时间范围跳过无关的段。
+ * 段文件写完后，索引记录和源数据删除在同一事务中提交；中途失败时源数据保留，下次重新归档会覆盖同名段文件。
+ */
+public class LogArchiver {
+    public static final String SEGMENT_TABLE = "archive_segment";
+
+    private static final String ARCHIVE_DAYS_KEY = "log_archive_days";
+    private static final String ARCHIVE_DIR_KEY = "log_archive_dir";
+    private static final String DEFAULT_ARCHIVE_DIR = "archive";
+    private static final int SEGMENT_ROWS = 50000;
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static volatile LogArchiver instance;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    private LogArchiver() {
+    }
+
+    public static LogArchiver getInstance() {
+        if (instance == null) {
+            synchronized (LogArchiver.class) {
+                if (instance == null) {
+                    instance = new LogArchiver();
+                }
+            }
+        }
+        return instance;
+    }
+
+    static String createSegmentTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + SEGMENT_TABLE + " (" +
+                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "base_table TEXT NOT NULL," +
+                "source_table TEXT NOT NULL," +
+                "file_name TEXT NOT NULL UNIQUE," +
+                "row_count INTEGER NOT NULL," +
+                "min_id INTEGER NOT NULL," +
+                "max_id INTEGER NOT NULL," +
+                "min_time DATETIME NOT NULL," +
+                "max_time DATETIME NOT NULL," +
+                "file_size INTEGER NOT NULL," +
+                "created_at DATETIME DEFAULT CURRENT_TIMESTAMP" +
+                ")";
+    }
+
+    static String createSegmentIndexSql() {
+        return "CREATE INDEX IF NOT EXISTS idx_" + SEGMENT_TABLE + "_time ON " + SEGMENT_TABLE + "(base_table, min_time, max_time)";
+    }
+
+    /**
+     * 获取归档天数配置，0表示不归档
+     */
+    public int getArchiveDays() {
+        return Math.max(0, ConfigService.getInstance().getIntConfigValue(ARCHIVE_DAYS_KEY, 0));
+    }
+
+    private File getArchiveDir() {
+        String dir = null;
+        try {
+            dir = ConfigService.getInstance().getConfigValueByKey(ARCHIVE_DIR_KEY);
+        } catch (RuntimeException e) {
+            Logger.getInstance().error("读取归档目录配置失败: " + e.getMessage());
+        }
+        return new File(dir == null || dir.trim().isEmpty() ? DEFAULT_ARCHIVE_DIR : dir.trim());
+    }
+
+    /**
+     * 归档早于截止时间的条码数据和烧录结果，并删除已归档完的分区
+     * @param cutoffTime 截止时间
+     * @return 归档的记录总数
+     */
+    public long archiveBefore(LocalDateTime cutoffTime) throws SQLException, IOException {
+        if (!running.compareAndSet(false, true)) {
+            Logger.getInstance().warn("日志归档正在进行中，跳过本次归档");
+            return 0;
+        }
+        try {
+            File dir = getArchiveDir();
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("无法创建归档目录: " + dir.getAbsolutePath());
+            }
+            long total = 0;
+            try (Connection conn = DatabaseManager.getConnection()) {
+                LogPartitionManager partitions = LogPartitionManager.getInstance();
+                for (String base : new String[]{LogPartitionManager.BARCODE_DATA, LogPartitionManager.PROGRAM_RESULT}) {
+                    for (String table : partitions.getReadTables(conn, base)) {
+                        total += archiveTable(conn, dir, base, table, cutoffTime);
+                    }
+                    // 整个时间范围都已归档的分区此时为空，直接删除
+                    partitions.dropPartitionsBefore(conn, base, cutoffTime.toLocalDate());
+                }
+            }
+            if (total > 0) {
+                Logger.getInstance().info("已归档 " + total + " 条早于 " + cutoffTime.format(TIMESTAMP_FORMATTER) + " 的日志");
+            }
+            return total;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private long archiveTable(Connection conn, File dir, String base, String table, LocalDateTime cutoffTime) throws SQLException, IOException {
+        boolean barcodeTable = LogPartitionManager.BARCODE_DATA.equals(base);
+        String timeColumn = barcodeTable ? "scan_time" : "program_time";
+        String selectSql = barcodeTable
+                ? "SELECT id, scan_time, device_id, barcode, port_name FROM " + table +
+                  " WHERE scan_time < ? ORDER BY id LIMIT ?"
+                : "SELECT id, program_time, device_id, barcode, batch_id, result, error_message FROM " + table +
+                  " WHERE program_time < ? ORDER BY id LIMIT ?";
+        long archived = 0;
+
+        while (true) {
+            List<ArchiveSegment.Row> rows = new ArrayList<>();
+            try (PreparedStatement pstmt = conn.prepareStatement(selectSql)) {
+                pstmt.setTimestamp(1, Timestamp.valueOf(cutoffTime));
+                pstmt.setInt(2, SEGMENT_ROWS);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        long time = rs.getTimestamp(2).getTime();
+                        if (barcodeTable) {
+                            rows.add(new ArchiveSegment.Row(rs.getLong(1), time, rs.getString(3), rs.getString(4),
+                                    null, true, rs.getString(5)));
+                        } else {
+                            rows.add(new ArchiveSegment.Row(rs.getLong(1), time, rs.getString(3), rs.getString(4),
+                                    rs.getString(5), rs.getBoolean(6), rs.getString(7)));
+                        }
+                    }
+                }
+            }
+            if (rows.isEmpty()) {
+                return archived;
+            }
+
+            long minId = rows.get(0).id;
+            long maxId = rows.get(rows.size() - 1).id;
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            for (ArchiveSegment.Row row : rows) {
+                minTime = Math.min(minTime, row.time);
+                maxTime = Math.max(maxTime, row.time);
+            }
+
+            // 源表名和ID范围确定段文件名，重复归档同一批数据会覆盖同一个文件
+            String fileName = table + "_" + minId + "_" + maxId + ".seg";
+            File file = new File(dir, fileName);
+            // write 返回时段文件和目录项都已落盘，之后才提交删除源记录的事务
+            ArchiveSegment.write(file, rows);
+
+            conn.setAutoCommit(false);
+            try {
+                String insertSql = "INSERT OR REPLACE INTO " + SEGMENT_TABLE +
+                        " (base_table, source_table, file_name, row_count, min_id, max_id, min_time, max_time, file_size) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                try (PreparedStatement pstmt = conn.prepareStatement(insertSql)) {
+                    pstmt.setString(1, base);
+                    pstmt.setString(2, table);
+                    pstmt.setString(3, fileName);
+                    pstmt.setInt(4, rows.size());
+                    pstmt.setLong(5, minId);
+                    pstmt.setLong(6, maxId);
+                    pstmt.setTimestamp(7, new Timestamp(minTime));
+                    pstmt.setTimestamp(8, new Timestamp(maxTime));
+                    pstmt.setLong(9, file.length());
+                    pstmt.executeUpdate();
+                }
+                String deleteSql = "DELETE FROM " + table + " WHERE id >= ? AND id <= ? AND " + timeColumn + " < ?";
+                try (PreparedStatement pstmt = conn.prepareStatement(deleteSql)) {
+                    pstmt.setLong(1, minId);
+                    pstmt.setLong(2, maxId);
+                    pstmt.setTimestamp(3, Timestamp.valueOf(cutoffTime));
+                    pstmt.executeUpdate();
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                if (!file.delete()) {
+                    Logger.getInstance().warn("删除未提交的归档文件失败: " + file.getAbsolutePath());
+                }
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            archived += rows.size();
+            Logger.getInstance().info("已归档 " + table + " 中 " + rows.size() + " 条记录到 " + fileName +
+                    "，文件大小 " + file.length() + " 字节");
+        }
+    }
+
+    /**
+     * 查询归档的条码数据
+     * @param from 开始时间(含)
+     * @param to 结束时间(含)
+     * @return 条码数据列表，按扫描时间升序
+     */
+    public List<BarcodeData> getArchivedBarcodes(LocalDateTime from, LocalDateTime to) throws SQLException, IOException {
+        List<BarcodeData> barcodes = new ArrayList<>();
+        long fromMillis = toMillis(from);
+        long toMillis = toMillis(to);
+        scan(LogPartitionManager.BARCODE_DATA, from, to, null, row -> {
+            if (row.time >= fromMillis && row.time <= toMillis) {
+                barcodes.add(toBarcodeData(row));
+            }
+        });
+        barcodes.sort((b1, b2) -> b1.getScanTime().compareTo(b2.getScanTime()));
+        return barcodes;
+    }
+
+    /**
+     * 查询归档的烧录结果，按批次分组
+     * @param from 开始时间(含)
+     * @param to 结束时间(含)
+     * @return 烧录结果列表，按时间升序
+     */
+    public List<ProgramResult> getArchivedProgramResults(LocalDateTime from, LocalDateTime to) throws SQLException, IOException {
+        Map<String, ProgramResult> batchMap = new LinkedHashMap<>();
+        long fromMillis = toMillis(from);
+        long toMillis = toMillis(to);
+        scan(LogPartitionManager.PROGRAM_RESULT, from, to, null, row -> {
+            if (row.time >= fromMillis && row.time <= toMillis) {
+                addToBatch(batchMap, row);
+            }
+        });
+        List<ProgramResult> results = new ArrayList<>(batchMap.values());
+        results.sort((r1, r2) -> r1.getCompleteTime().compareTo(r2.getCompleteTime()));
+        return results;
+    }
+
+    /**
+     * 按批次ID查询归档的烧录结果，只解压字典中包含该批次的段
+     */
+    public List<ProgramResult> getArchivedProgramResultsByBatchId(String batchId) throws SQLException, IOException {
+        Map<String, ProgramResult> batchMap = new LinkedHashMap<>();
+        scan(LogPartitionManager.PROGRAM_RESULT, null, null, batchId, row -> {
+            if (batchId.equals(row.batchId)) {
+                addToBatch(batchMap, row);
+            }
+        });
+        return new ArrayList<>(batchMap.values());
+    }
+
+    /**
+     * 查询条码在归档数据中的扫码和烧录记录
+     * 条码没有段级索引，需要解压所有段，适合偶尔的质量追溯而非频繁查询
+     * @param barcode 条码内容
+     * @return 追溯事件列表，按时间升序
+     */
+    public List<TraceEvent> getArchivedHistory(String barcode) throws SQLException, IOException {
+        List<TraceEvent> events = new ArrayList<>();
+        scan(LogPartitionManager.BARCODE_DATA, null, null, null, row -> {
+            if (barcode.equals(row.barcode)) {
+                events.add(new TraceEvent(row.barcode, TraceEvent.SCAN, toLocalDateTime(row.time),
+                        row.deviceId, null, true, row.text));
+            }
+        });
+        scan(LogPartitionManager.PROGRAM_RESULT, null, null, null, row -> {
+            if (barcode.equals(row.barcode)) {
+                events.add(new TraceEvent(row.barcode, TraceEvent.PROGRAM, toLocalDateTime(row.time),
+                        row.deviceId, row.batchId, row.success, row.text));
+            }
+        });
+        events.sort((e1, e2) -> e1.getEventTime().compareTo(e2.getEventTime()));
+        return events;
+    }
+
+    /**
+     * 遍历与时间范围重叠的段
+     * @param baseTable 基础表名
+     * @param from 开始时间，为null时不限制
+     * @param to 结束时间，为null时不限制
+     * @param batchId 不为null时跳过字典中不含该批次的段
+     * @param consumer 记录处理
+     */
+    private void scan(String baseTable, LocalDateTime from, LocalDateTime to, String batchId,
+                      Consumer<ArchiveSegment.Row> consumer) throws SQLException, IOException {
+        File dir = getArchiveDir();
+        for (String fileName : findSegments(baseTable, from, to)) {
+            File file = new File(dir, fileName);
+            if (!file.isFile()) {
+                Logger.getInstance().warn("归档文件不存在: " + file.getAbsolutePath());
+                continue;
+            }
+            if (batchId != null && !ArchiveSegment.readDictionaries(file).containsBatch(batchId)) {
+                continue;
+            }
+            for (ArchiveSegment.Row row : ArchiveSegment.read(file)) {
+                consumer.accept(row);
+            }
+        }
+    }
+
+    private List<String> findSegments(String baseTable, LocalDateTime from, LocalDateTime to) throws SQLException {
+        List<String> files = new ArrayList<>();
+        String sql = "SELECT file_name FROM " + SEGMENT_TABLE + " WHERE base_table = ? AND max_time >= ? AND min_time <= ? ORDER BY min_time";
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, baseTable);
+            pstmt.setTimestamp(2, new Timestamp(from != null ? toMillis(from) : Long.MIN_VALUE));
+            pstmt.setTimestamp(3, new Timestamp(to != null ? toMillis(to) : Long.MAX_VALUE));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    files.add(rs.getString(1));
+                }
+            }
+        }
+        return files;
+    }
+
+    private void addToBatch(Map<String, ProgramResult> batchMap, ArchiveSegment.Row row) {
+        ProgramResult programResult = batchMap.get(row.batchId);
+        LocalDateTime time = toLocalDateTime(row.time);
+        if (programResult == null) {
+            programResult = new ProgramResult();
+            programResult.setBatchId(row.batchId);
+            programResult.setCompleteTime(time);
+            batchMap.put(row.batchId, programResult);
+        }
+        if (!time.isBefore(programResult.getCompleteTime())) {
+            programResult.setCompleteTime(time);
+            programResult.setTimestamp(time.format(TIMESTAMP_FORMATTER));
+        }
+        programResult.addDeviceResult(new DeviceResult(row.deviceId, row.barcode, row.success, row.text));
+    }
+
+    private BarcodeData toBarcodeData(ArchiveSegment.Row row) {
+        BarcodeData barcodeData = new BarcodeData(row.deviceId, row.barcode, row.text);
+        barcodeData.setScanTime(toLocalDateTime(row.time));
+        return barcodeData;
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return Timestamp.valueOf(time).getTime();
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
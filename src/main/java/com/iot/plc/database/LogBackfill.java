@@ -0,0 +1,313 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.service.ConfigService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 历史日志回填类
+ * 升级后需要根据已有日志生成的派生数据(条码追溯事件、烧录结果汇总)不在写入路径上一次性生成，
+ * 程序启动建表时登记各来源表当时的rowid范围，之后由后台任务按rowid分小块处理，
+ * 每块的写入与进度更新在同一个短事务中提交，不会长时间占用写锁，程序重启后从上次的位置继续。
+ * 登记之后新写入的日志由正常写入路径同步生成派生数据，回填只处理登记时已有的记录，不会重复统计。
+ */
+public class LogBackfill {
+    public static final String PROGRESS_TABLE = "log_backfill_progress";
+
+    private static final String CHUNK_SIZE_KEY = "log_backfill_chunk_size";
+    private static final String PAUSE_MS_KEY = "log_backfill_pause_ms";
+    private static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final int DEFAULT_PAUSE_MS = 20;
+
+    /**
+     * 处理来源表中一块记录，在回填任务的事务中调用
+     */
+    public interface ChunkHandler {
+        /**
+         * @param conn 数据库连接，处于事务中
+         * @param table 来源表
+         * @param fromId 起始rowid(含)
+         * @param toId 结束rowid(含)
+         * @return 处理的记录数
+         */
+        int handle(Connection conn, String table, long fromId, long toId) throws SQLException;
+    }
+
+    private static volatile LogBackfill instance;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopRequested = false;
+
+    private LogBackfill() {
+    }
+
+    public static LogBackfill getInstance() {
+        if (instance == null) {
+            synchronized (LogBackfill.class) {
+                if (instance == null) {
+                    instance = new LogBackfill();
+                }
+            }
+        }
+        return instance;
+    }
+
+    static String createProgressTableSql() {
+        return "CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE + " (" +
+                "task TEXT NOT NULL," +
+                "table_name TEXT NOT NULL," +
+                "next_id INTEGER NOT NULL," +
+                "end_id INTEGER NOT NULL," +
+                "updated_at DATETIME DEFAULT CURRENT_TIMESTAMP," +
+                "PRIMARY KEY (task, table_name)" +
+                ")";
+    }
+
+    /**
+     * 登记回填范围：各来源表现有的最小到最大rowid，只查询主键，不扫描表
+     * 需要在新日志写入之前(建表时)或与清空派生数据在同一事务中调用
+     * @param conn 数据库连接
+     * @param task 回填任务名
+     * @param tables 来源表
+     * @return 登记的表数，来源表都为空时为0
+     */
+    static int plan(Connection conn, String task, List<String> tables) throws SQLException {
+        int planned = 0;
+        String sql = "INSERT OR REPLACE INTO " + PROGRESS_TABLE + " (task, table_name, next_id, end_id, updated_at) " +
+                "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (String table : tables) {
+                long minId = queryId(conn, "SELECT MIN(id) FROM " + table);
+                long maxId = queryId(conn, "SELECT MAX(id) FROM " + table);
+                if (minId < 0 || maxId < 0) {
+                    continue;
+                }
+                pstmt.setString(1, task);
+                pstmt.setString(2, table);
+                pstmt.setLong(3, minId);
+                pstmt.setLong(4, maxId);
+                pstmt.executeUpdate();
+                planned++;
+            }
+        }
+        return planned;
+    }
+
+    /**
+     * 删除任务尚未完成的回填范围
+     */
+    static void cancel(Connection conn, String task) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + PROGRESS_TABLE + " WHERE task = ?")) {
+            pstmt.setString(1, task);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 任务是否有未完成的回填范围
+     */
+    static boolean hasPendingWork(Connection conn, String task) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM " + PROGRESS_TABLE + " WHERE task = ? LIMIT 1")) {
+            pstmt.setString(1, task);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * 是否存在未完成的回填
+     */
+    public boolean hasPendingWork() {
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM " + PROGRESS_TABLE)) {
+            return rs.next() && rs.getInt(1) > 0;
+        } catch (SQLException e) {
+            Logger.getInstance().error("读取日志回填进度失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 分块执行任务登记的全部回填范围
+     * @param task 回填任务名
+     * @param handler 每块记录的处理方法
+     * @return 处理的记录总数
+     */
+    public long run(String task, ChunkHandler handler) throws SQLException {
+        if (!running.compareAndSet(false, true)) {
+            Logger.getInstance().warn("日志回填正在进行中，跳过本次执行: " + task);
+            return 0;
+        }
+        stopRequested = false;
+        long total = 0;
+        try (Connection conn = DatabaseManager.getConnection()) {
+            int chunkSize = Math.max(1, ConfigService.getInstance().getIntConfigValue(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE));
+            int pauseMs = Math.max(0, ConfigService.getInstance().getIntConfigValue(PAUSE_MS_KEY, DEFAULT_PAUSE_MS));
+            for (String table : pendingTables(conn, task)) {
+                if (stopRequested) {
+                    break;
+                }
+                total += runTable(conn, task, table, handler, chunkSize, pauseMs);
+            }
+        } finally {
+            running.set(false);
+        }
+        return total;
+    }
+
+    /**
+     * 请求停止当前回填，已完成的进度会保留，下次继续
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    private List<String> pendingTables(Connection conn, String task) throws SQLException {
+        List<String> tables = new ArrayList<>();
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT table_name FROM " + PROGRESS_TABLE + " WHERE task = ?")) {
+            pstmt.setString(1, task);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    tables.add(rs.getString(1));
+                }
+            }
+        }
+        return tables;
+    }
+
+    private long runTable(Connection conn, String task, String table, ChunkHandler handler,
+                          int chunkSize, int pauseMs) throws SQLException {
+        long[] range = loadRange(conn, task, table);
+        if (range == null) {
+            return 0;
+        }
+        if (!tableExists(conn, table)) {
+            // 登记后分区已被日志清理删除
+            clearProgress(conn, task, table);
+            return 0;
+        }
+        String boundSql = "SELECT id FROM " + table + " WHERE id >= ? AND id <= ? ORDER BY id LIMIT 1 OFFSET ?";
+        long nextId = range[0];
+        long endId = range[1];
+        long handled = 0;
+
+        while (nextId <= endId && !stopRequested) {
+            // 按已有记录的rowid确定本块的上界，避免在删除后留下的空洞中空转
+            long upper = endId;
+            try (PreparedStatement pstmt = conn.prepareStatement(boundSql)) {
+                pstmt.setLong(1, nextId);
+                pstmt.setLong(2, endId);
+                pstmt.setInt(3, chunkSize - 1);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        upper = rs.getLong(1);
+                    }
+                }
+            }
+
+            conn.setAutoCommit(false);
+            try {
+                int count = handler.handle(conn, table, nextId, upper);
+                // 进度按预期值更新，期间范围被重新登记或取消(如手动重建汇总)时放弃本块
+                if (!advanceProgress(conn, task, table, nextId, upper + 1, endId)) {
+                    conn.rollback();
+                    Logger.getInstance().info("日志回填 " + task + ": " + table + " 的回填范围已变更，停止本表处理");
+                    break;
+                }
+                conn.commit();
+                handled += count;
+                nextId = upper + 1;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            pause(pauseMs);
+        }
+        if (handled > 0) {
+            Logger.getInstance().info("日志回填 " + task + ": 已处理 " + table + " 中的 " + handled + " 条记录");
+        }
+        return handled;
+    }
+
+    private void pause(int pauseMs) {
+        if (pauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRequested = true;
+        }
+    }
+
+    private static long[] loadRange(Connection conn, String task, String table) throws SQLException {
+        String sql = "SELECT next_id, end_id FROM " + PROGRESS_TABLE + " WHERE task = ? AND table_name = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, task);
+            pstmt.setString(2, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? new long[]{rs.getLong(1), rs.getLong(2)} : null;
+            }
+        }
+    }
+
+    /**
+     * 把进度从 expectedNextId 推进到 nextId，超过结束位置时删除进度
+     * @return 进度已不是预期值时返回false
+     */
+    private static boolean advanceProgress(Connection conn, String task, String table,
+                                           long expectedNextId, long nextId, long endId) throws SQLException {
+        String sql = nextId > endId
+                ? "DELETE FROM " + PROGRESS_TABLE + " WHERE task = ? AND table_name = ? AND next_id = ? AND end_id = ?"
+                : "UPDATE " + PROGRESS_TABLE + " SET next_id = " + nextId + ", updated_at = CURRENT_TIMESTAMP " +
+                  "WHERE task = ? AND table_name = ? AND next_id = ? AND end_id = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, task);
+            pstmt.setString(2, table);
+            pstmt.setLong(3, expectedNextId);
+            pstmt.setLong(4, endId);
+            return pstmt.executeUpdate() == 1;
+        }
+    }
+
+    private static void clearProgress(Connection conn, String task, String table) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM " + PROGRESS_TABLE + " WHERE task = ? AND table_name = ?")) {
+            pstmt.setString(1, task);
+            pstmt.setString(2, table);
+            pstmt.executeUpdate();
+        }
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?")) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    private static long queryId(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() && rs.getObject(1) != null ? rs.getLong(1) : -1;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.service.ConfigService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 日志分区管理类
+ * 条码数据和烧录结果按天(或按周)写入独立的分区表，例如 barcode_data_p20250101、program_result_w20241230，
+ * 负责插入路由、跨分区查询，以及按整个分区删除过期日志。
+ * 分区出现之前写入的历史数据仍保留在基础表(barcode_data/program_result)中，查询时作为最旧的分区处理。
+ */
+public class LogPartitionManager {
+    public static final String BARCODE_DATA = "barcode_data";
+    public static final String PROGRAM_RESULT = "program_result";
+
+    private static final String PARTITION_PERIOD_KEY = "log_partition_period";
+    private static final DateTimeFormatter SUFFIX_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final Pattern PARTITION_SUFFIX = Pattern.compile("_([pw])(\\d{8})$");
+
+    /**
+     * 分区周期: DAY 每天一个分区(后缀p)，WEEK 每周一个分区(后缀w，以周一日期命名)
+     */
+    public enum PartitionPeriod { DAY, WEEK }
+
+    private static volatile LogPartitionManager instance;
+
+    // 已确认存在的分区表，避免每次插入都执行建表语句
+    private final Set<String> knownPartitions = ConcurrentHashMap.newKeySet();
+    private volatile PartitionPeriod period;
+
+    private LogPartitionManager() {
+        period = loadPartitionPeriod();
+    }
+
+    public static LogPartitionManager getInstance() {
+        if (instance == null) {
+            synchronized (LogPartitionManager.class) {
+                if (instance == null) {
+                    instance = new LogPartitionManager();
+                }
+            }
+        }
+        return instance;
+    }
+
+    private PartitionPeriod loadPartitionPeriod() {
+        try {
+            String value = ConfigService.getInstance().getConfigValueByKey(PARTITION_PERIOD_KEY);
+            if (value != null) {
+                return PartitionPeriod.valueOf(value.trim().toUpperCase());
+            }
+        } catch (Exception e) {
+            Logger.getInstance().error("读取日志分区周期配置失败，使用按天分区: " + e.getMessage());
+        }
+        return PartitionPeriod.DAY;
+    }
+
+    /**
+     * 重新加载分区周期配置，只影响之后新建的分区
+     */
+    public void reloadConfig() {
+        period = loadPartitionPeriod();
+        Logger.getInstance().info("日志分区周期: " + period);
+    }
+
+    public PartitionPeriod getPeriod() {
+        return period;
+    }
+
+    /**
+     * 获取写入时间所属的分区表名，分区不存在时在同一连接上创建
+     * @param conn 数据库连接
+     * @param baseTable 基础表名
+     * @param time 记录时间
+     * @return 分区表名
+     */
+    public String routeInsert(Connection conn, String baseTable, LocalDateTime time) throws SQLException {
+        String partition = partitionName(baseTable, time.toLocalDate());
+        if (!knownPartitions.contains(partition)) {
+            createPartition(conn, baseTable, partition);
+            knownPartitions.add(partition);
+        }
+        return partition;
+    }
+
+    /**
+     * 计算指定日期所属的分区表名
+     */
+    public String partitionName(String baseTable, LocalDate date) {
+        if (period == PartitionPeriod.WEEK) {
+            LocalDate monday = date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            return baseTable + "_w" + monday.format(SUFFIX_FORMATTER);
+        }
+        return baseTable + "_p" + date.format(SUFFIX_FORMATTER);
+    }
+
+    private void createPartition(Connection conn, String baseTable, String partition) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            if (BARCODE_DATA.equals(baseTable)) {
+                stmt.execute(DatabaseManager.createBarcodeDataTableSql(partition));
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition + "_device ON " + partition + "(device_id)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition + "_scan_time ON " + partition + "(scan_time)");
+            } else if (PROGRAM_RESULT.equals(baseTable)) {
+                stmt.execute(DatabaseManager.createProgramResultTableSql(partition));
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition + "_batch ON " + partition + "(batch_id)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition + "_device ON " + partition + "(device_id)");
+                stmt.execute("CREATE INDEX IF NOT EXISTS idx_" + partition + "_barcode ON " + partition + "(barcode)");
+            } else {
+                throw new IllegalArgumentException("不支持分区的日志表: " + baseTable);
+            }
+        }
+    }
+
+    /**
+     * 获取现有分区表，按分区时间从新到旧排列
+     * @param conn 数据库连接
+     * @param baseTable 基础表名
+     * @return 分区表名列表
+     */
+    public List<String> getPartitions(Connection conn, String baseTable) throws SQLException {
+        List<String> partitions = new ArrayList<>();
+        String sql = "SELECT name FROM sqlite_master WHERE type = 'table' AND name LIKE ? ESCAPE '\\'";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, baseTable.replace("_", "\\_") + "\\_%");
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String name = rs.getString(1);
+                    if (partitionStart(baseTable, name) != null) {
+                        partitions.add(name);
+                    }
+                }
+            }
+        }
+        partitions.sort((p1, p2) -> partitionStart(baseTable, p2).compareTo(partitionStart(baseTable, p1)));
+        return partitions;
+    }
+
+    /**
+     * 获取查询需要覆盖的全部表：各分区从新到旧，最后是保存历史数据的基础表
+     */
+    public List<String> getReadTables(Connection conn, String baseTable) throws SQLException {
+        List<String> tables = getPartitions(conn, baseTable);
+        tables.add(baseTable);
+        return tables;
+    }
+
+    /**
+     * 删除整个时间范围都早于截止日期的分区
+     * 截止日期所在的分区会保留到下一次清理，保留时长按分区粒度向上取整
+     * @param conn 数据库连接
+     * @param baseTable 基础表名
+     * @param cutoff 截止日期
+     * @return 删除的分区数量
+     */
+    public int dropPartitionsBefore(Connection conn, String baseTable, LocalDate cutoff) throws SQLException {
+        int dropped = 0;
+        for (String partition : getPartitions(conn, baseTable)) {
+            if (!partitionEnd(baseTable, partition).isAfter(cutoff)) {
+                dropPartition(conn, partition);
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * 删除基础表的所有分区
+     * @return 删除的分区数量
+     */
+    public int dropAllPartitions(Connection conn, String baseTable) throws SQLException {
+        List<String> partitions = getPartitions(conn, baseTable);
+        for (String partition : partitions) {
+            dropPartition(conn, partition);
+        }
+        return partitions.size();
+    }
+
+    private void dropPartition(Connection conn, String partition) throws SQLException {
+        knownPartitions.remove(partition);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE IF EXISTS " + partition);
+        }
+        Logger.getInstance().info("已删除日志分区: " + partition);
+    }
+
+    /**
+     * 解析分区起始日期，表名不是该基础表的分区时返回null
+     */
+    LocalDate partitionStart(String baseTable, String partition) {
+        if (!partition.startsWith(baseTable + "_")) {
+            return null;
+        }
+        Matcher matcher = PARTITION_SUFFIX.matcher(partition);
+        if (!matcher.find() || matcher.start() != baseTable.length()) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(matcher.group(2), SUFFIX_FORMATTER);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 分区结束日期(不含)
+     */
+    LocalDate partitionEnd(String baseTable, String partition) {
+        LocalDate start = partitionStart(baseTable, partition);
+        return partition.charAt(baseTable.length() + 1) == 'w' ? start.plusWeeks(1) : start.plusDays(1);
+    }
+}
@@ -0,0 +1,343 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.service.ConfigService;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 日志增量清理类
+ * 按rowid区间分小块删除过期日志，每块一个短事务，块与块之间暂停，避免长时间占用写锁影响扫码和结果写入。
+ * 清理进度记录在 log_purge_progress 表中，程序重启后从上次的位置继续。
+ */
+public class LogPurger {
+    private static final String CHUNK_SIZE_KEY = "log_purge_chunk_size";
+    private static final String PAUSE_MS_KEY = "log_purge_pause_ms";
+    private static final int DEFAULT_CHUNK_SIZE = 500;
+    private static final int DEFAULT_PAUSE_MS = 50;
+    // 每删除多少块做一次WAL检查点
+    private static final int CHECKPOINT_INTERVAL = 20;
+
+    // created_at 列由 CURRENT_TIMESTAMP 生成，为UTC文本格式
+    private static final DateTimeFormatter UTC_TEXT_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * 需要按保留周期清理的日志表
+     */
+    private static final PurgeTarget[] TARGETS = {
+            new PurgeTarget("barcode_data", "scan_time", false),
+            new PurgeTarget("program_result", "program_time", false),
+            new PurgeTarget("plc_data", "created_at", true),
+            new PurgeTarget("validation_result", "created_at", true),
+            new PurgeTarget(BarcodeTraceManager.TRACE_TABLE, "event_time", false)
+    };
+
+    private static volatile LogPurger instance;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopRequested = false;
+
+    private LogPurger() {
+    }
+
+    public static LogPurger getInstance() {
+        if (instance == null) {
+            synchronized (LogPurger.class) {
+                if (instance == null) {
+                    instance = new LogPurger();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 清理所有日志表中早于截止时间的记录
+     * 若上次清理未完成，先按上次的截止时间继续完成剩余部分
+     * @param cutoffTime 截止时间
+     * @return 删除的记录总数
+     */
+    public long purgeBefore(LocalDateTime cutoffTime) throws SQLException {
+        if (!running.compareAndSet(false, true)) {
+            Logger.getInstance().warn("日志清理正在进行中，跳过本次清理");
+            return 0;
+        }
+        stopRequested = false;
+        long total = 0;
+        try {
+            int chunkSize = Math.max(1, ConfigService.getInstance().getIntConfigValue(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE));
+            int pauseMs = Math.max(0, ConfigService.getInstance().getIntConfigValue(PAUSE_MS_KEY, DEFAULT_PAUSE_MS));
+            for (PurgeTarget target : TARGETS) {
+                if (stopRequested) {
+                    break;
+                }
+                total += purgeTable(target, cutoffTime, chunkSize, pauseMs);
+            }
+            checkpoint("TRUNCATE");
+        } finally {
+            running.set(false);
+        }
+        return total;
+    }
+
+    /**
+     * 请求停止当前清理，已完成的进度会保留，下次继续
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 是否存在上次未完成的清理
+     */
+    public boolean hasPendingWork() {
+        String sql = "SELECT COUNT(*) FROM log_purge_progress";
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() && rs.getInt(1) > 0;
+        } catch (SQLException e) {
+            Logger.getInstance().error("读取日志清理进度失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private long purgeTable(PurgeTarget target, LocalDateTime cutoffTime, int chunkSize, int pauseMs) throws SQLException {
+        long deleted = 0;
+        try (Connection conn = DatabaseManager.getConnection()) {
+            Progress progress = loadProgress(conn, target.table);
+            if (progress != null) {
+                Logger.getInstance().info("继续上次未完成的清理: " + target.table + "，起始ID: " + progress.nextId);
+                deleted += purgeRange(conn, target, progress, chunkSize, pauseMs);
+                if (stopRequested) {
+                    return deleted;
+                }
+            }
+
+            Progress fresh = newProgress(conn, target, cutoffTime);
+            if (fresh != null) {
+                saveProgress(conn, target.table, fresh);
+                deleted += purgeRange(conn, target, fresh, chunkSize, pauseMs);
+            }
+        }
+        if (deleted > 0) {
+            Logger.getInstance().info("从表 " + target.table + " 中分块删除了 " + deleted + " 条历史记录");
+        }
+        return deleted;
+    }
+
+    /**
+     * 计算本次需要清理的rowid范围，没有过期数据时返回null
+     * 日志按发生顺序追加，时间列随id递增，用rowid二分查找最后一条过期记录，每一步都是主键查找，
+     * 不需要时间列索引，也不会扫描整张表；个别时间乱序的记录由删除语句中的时间条件保护，不会误删
+     */
+    private Progress newProgress(Connection conn, PurgeTarget target, LocalDateTime cutoffTime) throws SQLException {
+        long low = queryId(conn, "SELECT MIN(id) FROM " + target.table);
+        long high = queryId(conn, "SELECT MAX(id) FROM " + target.table);
+        if (low < 0 || high < 0) {
+            return null;
+        }
+        String probeSql = "SELECT id, " + target.timeColumn + " < ? FROM " + target.table + " WHERE id >= ? ORDER BY id LIMIT 1";
+        try (PreparedStatement pstmt = conn.prepareStatement(probeSql)) {
+            target.bindCutoff(pstmt, 1, cutoffTime);
+            long[] first = probe(pstmt, low);
+            if (first == null || first[1] == 0) {
+                return null;
+            }
+            // 不变式: low 是已知过期的记录，high 之后没有过期记录
+            while (low < high) {
+                long mid = low + (high - low + 1) / 2;
+                long[] row = probe(pstmt, mid);
+                if (row == null || row[0] > high || row[1] == 0) {
+                    high = mid - 1;
+                } else {
+                    low = row[0];
+                }
+            }
+        }
+        return new Progress(queryId(conn, "SELECT MIN(id) FROM " + target.table), low, cutoffTime);
+    }
+
+    /**
+     * 查找id不小于 fromId 的第一条记录
+     * @return [id, 是否过期(1/0)]，不存在时返回null
+     */
+    private static long[] probe(PreparedStatement pstmt, long fromId) throws SQLException {
+        pstmt.setLong(2, fromId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            return rs.next() ? new long[]{rs.getLong(1), rs.getInt(2)} : null;
+        }
+    }
+
+    private static long queryId(Connection conn, String sql) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() && rs.getObject(1) != null ? rs.getLong(1) : -1;
+        }
+    }
+
+    private long purgeRange(Connection conn, PurgeTarget target, Progress progress, int chunkSize, int pauseMs) throws SQLException {
+        String boundSql = "SELECT id FROM " + target.table + " WHERE id >= ? AND id <= ? ORDER BY id LIMIT 1 OFFSET ?";
+        String deleteSql = "DELETE FROM " + target.table + " WHERE id >= ? AND id <= ? AND " + target.timeColumn + " < ?";
+        long deleted = 0;
+        int chunks = 0;
+
+        while (progress.nextId <= progress.endId && !stopRequested) {
+            // 按已有记录的rowid确定本块的上界，避免在删除后留下的空洞中空转
+            long upper = progress.endId;
+            try (PreparedStatement pstmt = conn.prepareStatement(boundSql)) {
+                pstmt.setLong(1, progress.nextId);
+                pstmt.setLong(2, progress.endId);
+                pstmt.setInt(3, chunkSize - 1);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (rs.next()) {
+                        upper = rs.getLong(1);
+                    }
+                }
+            }
+
+            // 删除与进度更新放在同一个短事务中
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(deleteSql)) {
+                pstmt.setLong(1, progress.nextId);
+                pstmt.setLong(2, upper);
+                target.bindCutoff(pstmt, 3, progress.cutoffTime);
+                deleted += pstmt.executeUpdate();
+
+                progress.nextId = upper + 1;
+                if (progress.nextId > progress.endId) {
+                    clearProgress(conn, target.table);
+                } else {
+                    saveProgress(conn, target.table, progress);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            if (++chunks % CHECKPOINT_INTERVAL == 0) {
+                checkpoint("PASSIVE");
+            }
+            pause(pauseMs);
+        }
+        return deleted;
+    }
+
+    private void pause(int pauseMs) {
+        if (pauseMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stopRequested = true;
+        }
+    }
+
+    /**
+     * 执行WAL检查点，把已提交的数据写回主数据库文件，避免WAL文件持续增长
+     * @param mode PASSIVE 不等待读写，TRUNCATE 完成后截断WAL文件
+     */
+    public static void checkpoint(String mode) {
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA wal_checkpoint(" + mode + ")")) {
+            if (rs.next() && rs.getInt(1) != 0) {
+                Logger.getInstance().debug("WAL检查点未完成，数据库繁忙");
+            }
+        } catch (SQLException e) {
+            Logger.getInstance().error("执行WAL检查点失败: " + e.getMessage());
+        }
+    }
+
+    private Progress loadProgress(Connection conn, String table) throws SQLException {
+        String sql = "SELECT next_id, end_id, cutoff_time FROM log_purge_progress WHERE table_name = ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return new Progress(rs.getLong(1), rs.getLong(2), rs.getTimestamp(3).toLocalDateTime());
+                }
+            }
+        }
+        return null;
+    }
+
+    private void saveProgress(Connection conn, String table, Progress progress) throws SQLException {
+        String sql = "INSERT OR REPLACE INTO log_purge_progress (table_name, next_id, end_id, cutoff_time, updated_at) " +
+                "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, table);
+            pstmt.setLong(2, progress.nextId);
+            pstmt.setLong(3, progress.endId);
+            pstmt.setTimestamp(4, Timestamp.valueOf(progress.cutoffTime));
+            pstmt.executeUpdate();
+        }
+    }
+
+    private void clearProgress(Connection conn, String table) throws SQLException {
+        try (PreparedStatement pstmt = conn.prepareStatement("DELETE FROM log_purge_progress WHERE table_name = ?")) {
+            pstmt.setString(1, table);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 清理目标表及其时间列
+     */
+    private static class PurgeTarget {
+        private final String table;
+        private final String timeColumn;
+        private final boolean utcText;
+
+        PurgeTarget(String table, String timeColumn, boolean utcText) {
+            this.table = table;
+            this.timeColumn = timeColumn;
+            this.utcText = utcText;
+        }
+
+        void bindCutoff(PreparedStatement pstmt, int index, LocalDateTime cutoffTime) throws SQLException {
+            if (utcText) {
+                String utc = cutoffTime.atZone(ZoneId.systemDefault())
+                        .withZoneSameInstant(ZoneOffset.UTC)
+                        .format(UTC_TEXT_FORMATTER);
+                pstmt.setString(index, utc);
+            } else {
+                pstmt.setTimestamp(index, Timestamp.valueOf(cutoffTime));
+            }
+        }
+    }
+
+    /**
+     * 单表清理进度: [nextId, endId] 为尚未处理的rowid范围
+     */
+    private static class Progress {
+        private long nextId;
+        private final long endId;
+        private final LocalDateTime cutoffTime;
+
+        Progress(long nextId, long endId, LocalDateTime cutoffTime) {
+            this.nextId = nextId;
+            this.endId = endId;
+            this.cutoffTime = cutoffTime;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package com.iot.plc.database;
+
+import com.iot.plc.logger.Logger;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ResultSummary;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 烧录结果汇总管理类
+ * 按批次、按小时、按设备以及按失败信息维护汇总表，与烧录结果在同一事务中增量更新，
+ * 良率统计和报表直接读取汇总表，查询耗时与历史数据量无关。
+ * 日志清理不会减少汇总数量，只有手动清空烧录结果时才一并清空汇总表。
+ */
+public class ResultSummaryManager {
+    public static final String BATCH_SUMMARY = "result_batch_summary";
+    public static final String HOURLY_SUMMARY = "result_hourly_summary";
+    public static final String DEVICE_SUMMARY = "result_device_summary";
+    public static final String FAILURE_SUMMARY = "result_failure_summary";
+
+    // 根据历史烧录结果重建汇总的回填任务名
+    public static final String BACKFILL_TASK = "result_summary";
+
+    private static final String[] SUMMARY_TABLES = {BATCH_SUMMARY, HOURLY_SUMMARY, DEVICE_SUMMARY, FAILURE_SUMMARY};
+    private static final DateTimeFormatter HOUR_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00");
+
+    private static volatile ResultSummaryManager instance;
+
+    private ResultSummaryManager() {
+    }
+
+    public static ResultSummaryManager getInstance() {
+        if (instance == null) {
+            synchronized (ResultSummaryManager.class) {
+                if (instance == null) {
+                    instance = new ResultSummaryManager();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 汇总表建表语句，四张汇总表结构相同，summary_key 分别为批次ID、小时、设备ID和失败信息
+     */
+    static String createSummaryTableSql(String tableName) {
+        return "CREATE TABLE IF NOT EXISTS " + tableName + " (" +
+                "summary_key TEXT PRIMARY KEY," +
+                "total_count INTEGER NOT NULL DEFAULT 0," +
+                "success_count INTEGER NOT NULL DEFAULT 0," +
+                "failure_count INTEGER NOT NULL DEFAULT 0," +
+                "first_time DATETIME," +
+                "last_time DATETIME" +
+                ")";
+    }
+
+    static String[] getSummaryTables() {
+        return SUMMARY_TABLES.clone();
+    }
+
+    /**
+     * 累加一组烧录结果到汇总表，需要在写入烧录结果的同一连接和事务中调用
+     * @param conn 数据库连接
+     * @param batchId 批次ID
+     * @param results 设备结果列表
+     * @param programTime 烧录时间
+     */
+    public void recordResults(Connection conn, String batchId, List<DeviceResult> results, LocalDateTime programTime) throws SQLException {
+        if (results == null || results.isEmpty()) {
+            return;
+        }
+        Map<String, Counter> batch = new LinkedHashMap<>();
+        Map<String, Counter> hourly = new LinkedHashMap<>();
+        Map<String, Counter> device = new LinkedHashMap<>();
+        Map<String, Counter> failure = new LinkedHashMap<>();
+        for (DeviceResult result : results) {
+            accumulate(batch, hourly, device, failure, batchId, result.getDeviceId(),
+                    result.isSuccess(), result.getErrorMessage(), programTime);
+        }
+        upsert(conn, BATCH_SUMMARY, batch);
+        upsert(conn, HOURLY_SUMMARY, hourly);
+        upsert(conn, DEVICE_SUMMARY, device);
+        upsert(conn, FAILURE_SUMMARY, failure);
+    }
+
+    private void accumulate(Map<String, Counter> batch, Map<String, Counter> hourly,
+                            Map<String, Counter> device, Map<String, Counter> failure,
+                            String batchId, String deviceId, boolean success, String errorMessage,
+                            LocalDateTime programTime) {
+        String hour = programTime.truncatedTo(ChronoUnit.HOURS).format(HOUR_FORMATTER);
+        counter(batch, batchId).add(success, programTime);
+        counter(hourly, hour).add(success, programTime);
+        counter(device, deviceId).add(success, programTime);
+        if (!success) {
+            counter(failure, errorMessage == null || errorMessage.isEmpty() ? "未知错误" : errorMessage)
+                    .add(false, programTime);
+        }
+    }
+
+    private Counter counter(Map<String, Counter> counters, String key) {
+        return counters.computeIfAbsent(key == null ? "" : key, k -> new Counter());
+    }
+
+    private void upsert(Connection conn, String table, Map<String, Counter> counters) throws SQLException {
+        if (counters.isEmpty()) {
+            return;
+        }
+        String sql = "INSERT INTO " + table + " (summary_key, total_count, success_count, failure_count, first_time, last_time) " +
+                "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT(summary_key) DO UPDATE SET " +
+                "total_count = total_count + excluded.total_count, " +
+                "success_count = success_count + excluded.success_count, " +
+                "failure_count = failure_count + excluded.failure_count, " +
+                "first_time = MIN(first_time, excluded.first_time), " +
+                "last_time = MAX(last_time, excluded.last_time)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+                Counter counter = entry.getValue();
+                pstmt.setString(1, entry.getKey());
+                pstmt.setInt(2, counter.success + counter.failure);
+                pstmt.setInt(3, counter.success);
+                pstmt.setInt(4, counter.failure);
+                pstmt.setTimestamp(5, Timestamp.valueOf(counter.firstTime));
+                pstmt.setTimestamp(6, Timestamp.valueOf(counter.lastTime));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+    }
+
+    /**
+     * 汇总表为空时(升级后首次启动)，登记需要根据现有烧录结果重建汇总的范围，
+     * 在建表时、新结果写入之前调用，实际统计由 backfill() 在后台分块完成
+     */
+    static void planRebuildIfEmpty(Connection conn) throws SQLException {
+        if (LogBackfill.hasPendingWork(conn, BACKFILL_TASK)) {
+            return;
+        }
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + BATCH_SUMMARY + " LIMIT 1")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+        List<String> tables = LogPartitionManager.getInstance().getReadTables(conn, LogPartitionManager.PROGRAM_RESULT);
+        if (LogBackfill.plan(conn, BACKFILL_TASK, tables) > 0) {
+            Logger.getInstance().info("烧录结果汇总为空，已登记根据历史烧录结果重建汇总，将在后台分块执行");
+        }
+    }
+
+    /**
+     * 清空汇总表并根据所有分区中的烧录结果重新统计
+     * 清空与登记范围在同一事务中完成，之后写入的结果照常累加，历史结果分块统计
+     */
+    public void rebuild() throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                clearAll(conn);
+                LogBackfill.cancel(conn, BACKFILL_TASK);
+                LogBackfill.plan(conn, BACKFILL_TASK,
+                        LogPartitionManager.getInstance().getReadTables(conn, LogPartitionManager.PROGRAM_RESULT));
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        backfill();
+    }
+
+    /**
+     * 执行登记的汇总重建，每块一个短事务，内存占用只与块大小有关，可中断，下次继续
+     * @return 统计的烧录结果数
+     */
+    public long backfill() throws SQLException {
+        long rows = LogBackfill.getInstance().run(BACKFILL_TASK, this::backfillChunk);
+        if (rows > 0) {
+            Logger.getInstance().info("已根据 " + rows + " 条历史烧录结果重建汇总");
+        }
+        return rows;
+    }
+
+    private int backfillChunk(Connection conn, String table, long fromId, long toId) throws SQLException {
+        Map<String, Counter> batch = new LinkedHashMap<>();
+        Map<String, Counter> hourly = new LinkedHashMap<>();
+        Map<String, Counter> device = new LinkedHashMap<>();
+        Map<String, Counter> failure = new LinkedHashMap<>();
+        int rows = 0;
+
+        String sql = "SELECT batch_id, device_id, result, error_message, program_time FROM " + table + " WHERE id >= ? AND id <= ?";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setLong(1, fromId);
+            pstmt.setLong(2, toId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    Timestamp programTime = rs.getTimestamp("program_time");
+                    accumulate(batch, hourly, device, failure,
+                            rs.getString("batch_id"), rs.getString("device_id"),
+                            rs.getBoolean("result"), rs.getString("error_message"),
+                            programTime != null ? programTime.toLocalDateTime() : LocalDateTime.now());
+                    rows++;
+                }
+            }
+        }
+        upsert(conn, BATCH_SUMMARY, batch);
+        upsert(conn, HOURLY_SUMMARY, hourly);
+        upsert(conn, DEVICE_SUMMARY, device);
+        upsert(conn, FAILURE_SUMMARY, failure);
+        return rows;
+    }
+
+    /**
+     * 清空所有汇总表
+     */
+    public void clearAll(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String table : SUMMARY_TABLES) {
+                stmt.executeUpdate("DELETE FROM " + table);
+            }
+        }
+    }
+
+    /**
+     * 获取批次汇总
+     * @param batchId 批次ID
+     * @return 批次汇总，批次不存在时返回null
+     */
+    public ResultSummary getBatchSummary(String batchId) throws SQLException {
+        List<ResultSummary> summaries = query("SELECT * FROM " + BATCH_SUMMARY + " WHERE summary_key = ?", batchId);
+        return summaries.isEmpty() ? null : summaries.get(0);
+    }
+
+    /**
+     * 获取最近的批次汇总，按最后结果时间倒序
+     * @param limit 最多返回的批次数
+     */
+    public List<ResultSummary> getRecentBatchSummaries(int limit) throws SQLException {
+        return query("SELECT * FROM " + BATCH_SUMMARY + " ORDER BY last_time DESC LIMIT ?", limit);
+    }
+
+    /**
+     * 获取时间范围内的每小时汇总，按小时升序
+     * @param from 开始时间(含)
+     * @param to 结束时间(含)
+     */
+    public List<ResultSummary> getHourlySummaries(LocalDateTime from, LocalDateTime to) throws SQLException {
+        return query("SELECT * FROM " + HOURLY_SUMMARY + " WHERE summary_key >= ? AND summary_key <= ? ORDER BY summary_key",
+                from.truncatedTo(ChronoUnit.HOURS).format(HOUR_FORMATTER),
+                to.truncatedTo(ChronoUnit.HOURS).format(HOUR_FORMATTER));
+    }
+
+    /**
+     * 获取各设备的汇总
+     */
+    public List<ResultSummary> getDeviceSummaries() throws SQLException {
+        return query("SELECT * FROM " + DEVICE_SUMMARY + " ORDER BY summary_key");
+    }
+
+    /**
+     * 获取出现次数最多的失败信息
+     * @param limit 最多返回的条数
+     */
+    public List<ResultSummary> getTopFailureMessages(int limit) throws SQLException {
+        return query("SELECT * FROM " + FAILURE_SUMMARY + " ORDER BY failure_count DESC LIMIT ?", limit);
+    }
+
+    /**
+     * 获取全部烧录结果的总体汇总，由设备汇总累加得到
+     */
+    public ResultSummary getOverallSummary() throws SQLException {
+        String sql = "SELECT 'all' AS summary_key, COALESCE(SUM(total_count), 0) AS total_count, " +
+                "COALESCE(SUM(success_count), 0) AS success_count, COALESCE(SUM(failure_count), 0) AS failure_count, " +
+                "MIN(first_time) AS first_time, MAX(last_time) AS last_time FROM " + DEVICE_SUMMARY;
+        return query(sql).get(0);
+    }
+
+    private List<ResultSummary> query(String sql, Object... params) throws SQLException {
+        List<ResultSummary> summaries = new ArrayList<>();
+        try (Connection conn = DatabaseManager.getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) {
+                pstmt.setObject(i + 1, params[i]);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    ResultSummary summary = new ResultSummary(rs.getString("summary_key"),
+                            rs.getInt("total_count"), rs.getInt("success_count"), rs.getInt("failure_count"));
+                    Timestamp firstTime = rs.getTimestamp("first_time");
+                    Timestamp lastTime = rs.getTimestamp("last_time");
+                    if (firstTime != null) {
+                        summary.setFirstTime(firstTime.toLocalDateTime());
+                    }
+                    if (lastTime != null) {
+                        summary.setLastTime(lastTime.toLocalDateTime());
+                    }
+                    summaries.add(summary);
+                }
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * 单个汇总键的累加值
+     */
+    private static class Counter {
+        private int success;
+        private int failure;
+        private LocalDateTime firstTime;
+        private LocalDateTime lastTime;
+
+        void add(boolean isSuccess, LocalDateTime time) {
+            if (isSuccess) {
+                success++;
+            } else {
+                failure++;
+            }
+            if (firstTime == null || time.isBefore(firstTime)) {
+                firstTime = time;
+            }
+            if (lastTime == null || time.isAfter(lastTime)) {
+                lastTime = time;
+            }
+        }
+    }
+}
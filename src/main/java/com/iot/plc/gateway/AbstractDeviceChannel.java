@@ -0,0 +1,358 @@
+package com.iot.plc.gateway;
+
+import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.util.SharedEventLoop;
+
+import io.netty.channel.EventLoop;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * 设备通道基类
+ * 负责状态切换、断线重连、发送队列和统计，具体传输只需实现建立连接、写出和释放连接。
+ * 每个通道固定绑定共享事件循环中的一个线程，连接、重连定时和写出都在这个线程上执行，
+ * 通道数量增加或反复重连都不会创建新线程。
+ * 这个线程同时服务其他网络连接，doConnect 和 doWrite 只能发起异步操作，不能阻塞；
+ * 只提供阻塞接口的传输需要在自己的执行器上完成打开和写出，再回到事件循环切换状态(见 SerialDeviceChannel)。
+ */
+public abstract class AbstractDeviceChannel implements DeviceChannel {
+    private static final Logger logger = LoggerFactory.getLogger(AbstractDeviceChannel.class.getName());
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    // 重连间隔(毫秒)，每次重连翻倍直到上限，连接保持稳定后恢复
+    public static final long DEFAULT_RECONNECT_MIN_DELAY_MS = 1000;
+    public static final long DEFAULT_RECONNECT_MAX_DELAY_MS = 30000;
+    private static final long STABLE_CONNECTION_MS = 10000;
+
+    // 每次调度最多写出的帧数，避免一个通道长时间占用共享线程
+    private static final int FLUSH_BATCH = 64;
+
+    private final String id;
+    private final EventLoop eventLoop;
+    private final ArrayBlockingQueue<byte[]> queue;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final DeviceChannelMetrics metrics = new DeviceChannelMetrics();
+
+    private volatile boolean opened = false;
+    private volatile long reconnectMinDelayMs = DEFAULT_RECONNECT_MIN_DELAY_MS;
+    private volatile long reconnectMaxDelayMs = DEFAULT_RECONNECT_MAX_DELAY_MS;
+    private volatile long reconnectDelayMs = DEFAULT_RECONNECT_MIN_DELAY_MS;
+    private volatile ScheduledFuture<?> reconnectFuture;
+    private volatile long connectedAt;
+
+    protected AbstractDeviceChannel(String id, int queueCapacity) {
+        this.id = id;
+        this.eventLoop = SharedEventLoop.getInstance().group().next();
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+    }
+
+    /**
+     * 发起一次连接，在通道的事件循环线程上调用，不能阻塞；
+     * 成功后调用 connected()，失败调用 connectFailed()，可以异步完成
+     */
+    protected abstract void doConnect();
+
+    /**
+     * 按顺序写出一批帧，在通道的事件循环线程上调用，不能阻塞
+     * @throws Exception 写出失败时通道按断开处理
+     */
+    protected abstract void doWrite(List<byte[]> frames) throws Exception;
+
+    /**
+     * 释放当前连接，可能在任意线程上调用，未连接时直接返回
+     */
+    protected abstract void doClose();
+
+    /**
+     * 传输层当前能否继续写出，返回false时暂停写出，恢复后调用 requestFlush()
+     */
+    protected boolean isWritable() {
+        return true;
+    }
+
+    protected final EventLoop eventLoop() {
+        return eventLoop;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public final void open() {
+        if (opened) {
+            return;
+        }
+        opened = true;
+        reconnectDelayMs = reconnectMinDelayMs;
+        setState(State.CONNECTING);
+        eventLoop.execute(this::connect);
+    }
+
+    @Override
+    public final void close() {
+        if (!opened) {
+            return;
+        }
+        opened = false;
+        ScheduledFuture<?> pending = reconnectFuture;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        doClose();
+        int discarded = queue.size();
+        queue.clear();
+        metrics.onSendDropped(discarded);
+        State previous = state.getAndSet(State.CLOSED);
+        if (previous == State.CONNECTED) {
+            metrics.onDisconnected();
+        }
+        if (previous != State.CLOSED) {
+            fireStateChanged(previous, State.CLOSED);
+        }
+        logger.info("Device channel " + id + " closed");
+    }
+
+    private void connect() {
+        reconnectFuture = null;
+        if (!opened || state.get() == State.CONNECTED) {
+            return;
+        }
+        setState(State.CONNECTING);
+        try {
+            doConnect();
+        } catch (RuntimeException e) {
+            connectFailed(e);
+        }
+    }
+
+    /**
+     * 连接建立，由子类在连接成功后调用
+     */
+    protected final void connected() {
+        if (!opened) {
+            // 连接建立前通道已关闭
+            doClose();
+            return;
+        }
+        connectedAt = System.currentTimeMillis();
+        metrics.onConnected();
+        setState(State.CONNECTED);
+        logger.info("Device channel " + id + " connected to " + getEndpoint());
+        requestFlush();
+    }
+
+    /**
+     * 连接失败，由子类调用，按退避间隔安排重连
+     */
+    protected final void connectFailed(Throwable cause) {
+        metrics.onConnectFailed();
+        if (opened) {
+            logger.warning("Device channel " + id + " failed to connect to " + getEndpoint() + ": "
+                    + (cause != null ? cause.getMessage() : "unknown"));
+        }
+        scheduleReconnect();
+    }
+
+    /**
+     * 已建立的连接断开，由子类调用，释放连接并安排重连
+     */
+    protected final void connectionLost(Throwable cause) {
+        if (!state.compareAndSet(State.CONNECTED, State.RECONNECTING)) {
+            return;
+        }
+        metrics.onDisconnected();
+        // 连接稳定一段时间后才恢复最小重连间隔，避免对端反复断开时频繁重连
+        if (System.currentTimeMillis() - connectedAt >= STABLE_CONNECTION_MS) {
+            reconnectDelayMs = reconnectMinDelayMs;
+        }
+        logger.warning("Device channel " + id + " lost connection to " + getEndpoint()
+                + (cause != null ? ": " + cause.getMessage() : ""));
+        doClose();
+        fireStateChanged(State.CONNECTED, State.RECONNECTING);
+        scheduleReconnect();
+    }
+
+    /**
+     * 计划重连，同一时间最多只有一个待执行的重连
+     */
+    private void scheduleReconnect() {
+        if (!opened) {
+            return;
+        }
+        setState(State.RECONNECTING);
+        ScheduledFuture<?> pending = reconnectFuture;
+        if (pending != null && !pending.isDone()) {
+            return;
+        }
+        long delay = reconnectDelayMs;
+        reconnectDelayMs = Math.min(delay * 2, reconnectMaxDelayMs);
+        logger.info("Scheduling reconnect of device channel " + id + " in " + delay + " ms");
+        reconnectFuture = eventLoop.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean send(byte[] data) {
+        if (!opened) {
+            metrics.onSendDropped(1);
+            return false;
+        }
+        if (!queue.offer(data)) {
+            metrics.onSendDropped(1);
+            return false;
+        }
+        if (state.get() == State.CONNECTED) {
+            requestFlush();
+        }
+        return true;
+    }
+
+    /**
+     * 安排写出发送队列中的数据
+     */
+    protected final void requestFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        if (state.get() != State.CONNECTED || !isWritable()) {
+            return;
+        }
+        List<byte[]> frames = new ArrayList<>(Math.min(FLUSH_BATCH, queue.size()));
+        queue.drainTo(frames, FLUSH_BATCH);
+        if (frames.isEmpty()) {
+            return;
+        }
+        try {
+            doWrite(frames);
+            for (byte[] frame : frames) {
+                metrics.onSent(frame.length);
+            }
+        } catch (Exception e) {
+            metrics.onSendDropped(frames.size());
+            connectionLost(e);
+            return;
+        }
+        if (!queue.isEmpty()) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * 交给监听器一帧完整数据，由子类在收到数据时调用
+     */
+    protected final void fireFrame(byte[] frame) {
+        metrics.onReceived(frame.length);
+        for (Listener listener : listeners) {
+            try {
+                listener.onFrame(this, frame);
+            } catch (RuntimeException e) {
+                metrics.onListenerError();
+                logger.warning("Device channel " + id + " listener failed to handle frame: " + e.getMessage());
+            }
+        }
+    }
+
+    private void setState(State next) {
+        State previous = state.getAndSet(next);
+        if (previous != next) {
+            fireStateChanged(previous, next);
+        }
+    }
+
+    private void fireStateChanged(State previous, State current) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChanged(this, previous, current);
+            } catch (RuntimeException e) {
+                metrics.onListenerError();
+                logger.warning("Device channel " + id + " listener failed to handle state change: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public State getState() {
+        return state.get();
+    }
+
+    @Override
+    public boolean awaitConnected(long timeoutMs) throws InterruptedException {
+        if (isConnected()) {
+            return true;
+        }
+        if (eventLoop.inEventLoop()) {
+            throw new IllegalStateException("awaitConnected must not be called on the channel's I/O thread");
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        Listener waiter = new Listener() {
+            @Override
+            public void onFrame(DeviceChannel channel, byte[] frame) {
+            }
+
+            @Override
+            public void onStateChanged(DeviceChannel channel, State previous, State current) {
+                if (current == State.CONNECTED) {
+                    latch.countDown();
+                }
+            }
+        };
+        listeners.add(waiter);
+        try {
+            return isConnected() || latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            listeners.remove(waiter);
+        }
+    }
+
+    /**
+     * 设置重连间隔，从最小值开始每次翻倍直到最大值
+     */
+    public void setReconnectDelay(long minDelayMs, long maxDelayMs) {
+        this.reconnectMinDelayMs = Math.max(1, minDelayMs);
+        this.reconnectMaxDelayMs = Math.max(reconnectMinDelayMs, maxDelayMs);
+        this.reconnectDelayMs = reconnectMinDelayMs;
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    @Override
+    public DeviceChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s %s] %s, 队列=%d, %s", id, getTransport(), getEndpoint(),
+                getState().getDisplayName(), getQueuedCount(), metrics);
+    }
+}
@@ -0,0 +1,98 @@
+package com.iot.plc.gateway;
+
+/**
+ * 设备通道
+ * PLC、串口扫码枪、上位机、网络设备等外部设备的统一抽象：打开后在后台建立连接，断开后按退避间隔自动重连，直到关闭；
+ * 收到的数据按通道配置的分帧规则切成完整的帧交给监听器，发送的数据先进入有界队列，连接可用时按顺序写出。
+ */
+public interface DeviceChannel {
+
+    /**
+     * 通道状态
+     */
+    enum State {
+        CLOSED("已关闭"),
+        CONNECTING("连接中"),
+        CONNECTED("已连接"),
+        RECONNECTING("等待重连"),
+        // 已打开但连接断开，且不会自动重连，需要所属服务重新打开
+        DISCONNECTED("已断开");
+
+        private final String displayName;
+
+        State(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+    }
+
+    /**
+     * 通道事件监听器，在通道的IO线程上调用(串口通道的帧在该串口的读线程上调用)，不要在回调中执行耗时操作
+     */
+    interface Listener {
+        /**
+         * 收到一帧完整数据
+         */
+        void onFrame(DeviceChannel channel, byte[] frame);
+
+        default void onStateChanged(DeviceChannel channel, State previous, State current) {
+        }
+    }
+
+    /**
+     * 通道ID，在 DeviceGateway 中唯一
+     */
+    String getId();
+
+    /**
+     * 传输方式，如 tcp、serial
+     */
+    String getTransport();
+
+    /**
+     * 连接目标，如 192.168.1.10:502、COM3
+     */
+    String getEndpoint();
+
+    /**
+     * 打开通道，立即返回，连接在后台建立，失败或断开后自动重连
+     */
+    void open();
+
+    /**
+     * 关闭通道，停止重连并丢弃发送队列中未写出的数据
+     */
+    void close();
+
+    /**
+     * 发送一帧数据，放入发送队列后立即返回；未连接时数据在队列中等待连接建立
+     * @return 通道已关闭或发送队列已满时返回false
+     */
+    boolean send(byte[] data);
+
+    State getState();
+
+    default boolean isConnected() {
+        return getState() == State.CONNECTED;
+    }
+
+    /**
+     * 等待通道连接成功，不能在通道的IO线程上调用
+     * @return 超时仍未连接返回false
+     */
+    boolean awaitConnected(long timeoutMs) throws InterruptedException;
+
+    /**
+     * 发送队列中等待写出的帧数
+     */
+    int getQueuedCount();
+
+    DeviceChannelMetrics getMetrics();
+
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+}
@@ -0,0 +1,116 @@
+package com.iot.plc.gateway;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备通道的收发与连接统计
+ */
+public class DeviceChannelMetrics {
+    private final LongAdder framesReceived = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder sendDropped = new LongAdder();
+    private final LongAdder connectCount = new LongAdder();
+    private final LongAdder connectFailedCount = new LongAdder();
+    private final LongAdder disconnectCount = new LongAdder();
+    private final LongAdder listenerErrors = new LongAdder();
+    private volatile long lastReceivedAt;
+    private volatile long connectedAt;
+
+    void onReceived(int length) {
+        framesReceived.increment();
+        bytesReceived.add(length);
+        lastReceivedAt = System.currentTimeMillis();
+    }
+
+    void onSent(int length) {
+        framesSent.increment();
+        bytesSent.add(length);
+    }
+
+    void onSendDropped(int frames) {
+        sendDropped.add(frames);
+    }
+
+    void onConnected() {
+        connectCount.increment();
+        connectedAt = System.currentTimeMillis();
+    }
+
+    void onConnectFailed() {
+        connectFailedCount.increment();
+    }
+
+    void onDisconnected() {
+        disconnectCount.increment();
+        connectedAt = 0;
+    }
+
+    void onListenerError() {
+        listenerErrors.increment();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.sum();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getFramesSent() {
+        return framesSent.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * 发送队列已满被拒绝，或关闭、写出失败时丢弃的帧数
+     */
+    public long getSendDropped() {
+        return sendDropped.sum();
+    }
+
+    public long getConnectCount() {
+        return connectCount.sum();
+    }
+
+    public long getConnectFailedCount() {
+        return connectFailedCount.sum();
+    }
+
+    public long getDisconnectCount() {
+        return disconnectCount.sum();
+    }
+
+    /**
+     * 监听器处理帧或状态变化时抛出异常的次数
+     */
+    public long getListenerErrors() {
+        return listenerErrors.sum();
+    }
+
+    /**
+     * 最近一次收到数据的时间，从未收到为0
+     */
+    public long getLastReceivedAt() {
+        return lastReceivedAt;
+    }
+
+    /**
+     * 本次连接建立的时间，未连接为0
+     */
+    public long getConnectedAt() {
+        return connectedAt;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("rx=%d帧/%d字节, tx=%d帧/%d字节, 丢弃=%d, 连接=%d, 连接失败=%d, 断开=%d",
+                getFramesReceived(), getBytesReceived(), getFramesSent(), getBytesSent(), getSendDropped(),
+                getConnectCount(), getConnectFailedCount(), getDisconnectCount());
+    }
+}
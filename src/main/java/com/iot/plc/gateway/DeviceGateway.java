@@ -0,0 +1,129 @@
+package com.iot.plc.gateway;
+
+import com.iot.plc.logger.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * 设备网关
+ * 登记程序中所有的设备通道，统一打开、关闭并汇总连接状态和收发统计。
+ * 通道共用 SharedEventLoop 的IO线程，设备数量和重连次数都不影响线程数；串口通道的阻塞读写另在各串口自己的线程上执行。
+ * 上位机工位、网络服务等自行管理连接的链路以 ExternalDeviceChannel 登记，同样计入状态和统计。
+ */
+public class DeviceGateway {
+    private static final Logger logger = LoggerFactory.getLogger(DeviceGateway.class.getName());
+
+    private static volatile DeviceGateway instance;
+
+    private final Map<String, DeviceChannel> channels = new ConcurrentHashMap<>();
+
+    private DeviceGateway() {
+    }
+
+    public static DeviceGateway getInstance() {
+        if (instance == null) {
+            synchronized (DeviceGateway.class) {
+                if (instance == null) {
+                    instance = new DeviceGateway();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 登记设备通道，不会自动打开
+     * @throws IllegalStateException ID已被其他通道使用
+     */
+    public <T extends DeviceChannel> T register(T channel) {
+        DeviceChannel existing = channels.putIfAbsent(channel.getId(), channel);
+        if (existing != null && existing != channel) {
+            throw new IllegalStateException("Device channel " + channel.getId() + " already registered");
+        }
+        logger.info("Registered device channel " + channel.getId() + " (" + channel.getTransport() + " "
+                + channel.getEndpoint() + ")");
+        return channel;
+    }
+
+    /**
+     * 注销并关闭设备通道
+     * @return 被注销的通道，不存在时返回null
+     */
+    public DeviceChannel unregister(String id) {
+        DeviceChannel channel = channels.remove(id);
+        if (channel != null) {
+            channel.close();
+            logger.info("Unregistered device channel " + id);
+        }
+        return channel;
+    }
+
+    public DeviceChannel getChannel(String id) {
+        return channels.get(id);
+    }
+
+    /**
+     * 所有已登记的通道，按ID排序
+     */
+    public List<DeviceChannel> getChannels() {
+        List<DeviceChannel> list = new ArrayList<>(channels.values());
+        list.sort(Comparator.comparing(DeviceChannel::getId));
+        return list;
+    }
+
+    public void openAll() {
+        for (DeviceChannel channel : channels.values()) {
+            channel.open();
+        }
+    }
+
+    public void closeAll() {
+        for (DeviceChannel channel : channels.values()) {
+            channel.close();
+        }
+    }
+
+    /**
+     * 各状态的通道数
+     */
+    public Map<DeviceChannel.State, Integer> getStateCounts() {
+        Map<DeviceChannel.State, Integer> counts = new EnumMap<>(DeviceChannel.State.class);
+        for (DeviceChannel.State state : DeviceChannel.State.values()) {
+            counts.put(state, 0);
+        }
+        for (DeviceChannel channel : channels.values()) {
+            counts.merge(channel.getState(), 1, Integer::sum);
+        }
+        return counts;
+    }
+
+    /**
+     * 已打开的通道是否全部连接
+     */
+    public boolean isAllConnected() {
+        for (DeviceChannel channel : channels.values()) {
+            DeviceChannel.State state = channel.getState();
+            if (state != DeviceChannel.State.CONNECTED && state != DeviceChannel.State.CLOSED) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 各通道的状态和统计，每个通道一行
+     */
+    public String getStatusReport() {
+        StringBuilder sb = new StringBuilder();
+        for (DeviceChannel channel : getChannels()) {
+            sb.append(channel).append('\n');
+        }
+        return sb.toString();
+    }
+}
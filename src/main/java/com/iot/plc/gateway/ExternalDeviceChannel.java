@@ -0,0 +1,244 @@
+package com.iot.plc.gateway;
+
+import com.iot.plc.logger.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+/**
+ * 外部管理的设备通道
+ * 连接、重连和编解码由所属服务自行完成(如上位机工位、网络服务)，通道只把这条链路接入 DeviceGateway，
+ * 与其他通道一起汇总连接状态和收发统计。所属服务在连接状态变化和收发数据时调用 mark/record 方法报告；
+ * 收到的数据由所属服务处理，监听器只收到状态变化。
+ */
+public class ExternalDeviceChannel implements DeviceChannel {
+    private static final Logger logger = LoggerFactory.getLogger(ExternalDeviceChannel.class.getName());
+
+    /**
+     * 所属服务提供的链路操作
+     */
+    public interface Link {
+        /**
+         * 建立连接，应当立即返回
+         */
+        void open();
+
+        void close();
+
+        /**
+         * 发送一帧数据
+         * @return 链路未连接时返回false
+         */
+        boolean send(byte[] data);
+    }
+
+    private final String id;
+    private final Link link;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final DeviceChannelMetrics metrics = new DeviceChannelMetrics();
+    private volatile String transport;
+    private volatile String endpoint;
+
+    public ExternalDeviceChannel(String id, String transport, String endpoint, Link link) {
+        this.id = id;
+        this.transport = transport;
+        this.endpoint = endpoint;
+        this.link = link;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getTransport() {
+        return transport;
+    }
+
+    @Override
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * 链路重新配置后更新传输方式和连接目标
+     */
+    public void setEndpoint(String transport, String endpoint) {
+        this.transport = transport;
+        this.endpoint = endpoint;
+    }
+
+    @Override
+    public void open() {
+        link.open();
+    }
+
+    @Override
+    public void close() {
+        link.close();
+    }
+
+    @Override
+    public boolean send(byte[] data) {
+        if (state.get() != State.CONNECTED || !link.send(data)) {
+            metrics.onSendDropped(1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 开始建立连接
+     */
+    public void markConnecting() {
+        setState(State.CONNECTING);
+    }
+
+    /**
+     * 连接已可用
+     */
+    public void markConnected() {
+        State previous = state.getAndSet(State.CONNECTED);
+        if (previous != State.CONNECTED) {
+            metrics.onConnected();
+            fireStateChanged(previous, State.CONNECTED);
+        }
+    }
+
+    /**
+     * 连接失败，通道已关闭时忽略
+     * @param retry 所属服务是否会自动重连
+     */
+    public void markConnectFailed(boolean retry) {
+        if (state.get() == State.CLOSED) {
+            return;
+        }
+        metrics.onConnectFailed();
+        setState(retry ? State.RECONNECTING : State.DISCONNECTED);
+    }
+
+    /**
+     * 连接断开，通道已关闭时忽略
+     * @param retry 所属服务是否会自动重连
+     */
+    public void markDisconnected(boolean retry) {
+        State next = retry ? State.RECONNECTING : State.DISCONNECTED;
+        State previous;
+        do {
+            previous = state.get();
+            if (previous == State.CLOSED || previous == next) {
+                return;
+            }
+        } while (!state.compareAndSet(previous, next));
+        if (previous == State.CONNECTED) {
+            metrics.onDisconnected();
+        }
+        fireStateChanged(previous, next);
+    }
+
+    /**
+     * 所属服务已关闭链路，不再重连
+     */
+    public void markClosed() {
+        State previous = state.getAndSet(State.CLOSED);
+        if (previous == State.CONNECTED) {
+            metrics.onDisconnected();
+        }
+        if (previous != State.CLOSED) {
+            fireStateChanged(previous, State.CLOSED);
+            logger.info("Device channel " + id + " closed");
+        }
+    }
+
+    public void recordReceived(int bytes) {
+        metrics.onReceived(bytes);
+    }
+
+    public void recordSent(int bytes) {
+        metrics.onSent(bytes);
+    }
+
+    public void recordSendDropped(int frames) {
+        metrics.onSendDropped(frames);
+    }
+
+    private void setState(State next) {
+        State previous = state.getAndSet(next);
+        if (previous != next) {
+            fireStateChanged(previous, next);
+        }
+    }
+
+    private void fireStateChanged(State previous, State current) {
+        for (Listener listener : listeners) {
+            try {
+                listener.onStateChanged(this, previous, current);
+            } catch (RuntimeException e) {
+                metrics.onListenerError();
+                logger.warning("Device channel " + id + " listener failed to handle state change: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public State getState() {
+        return state.get();
+    }
+
+    @Override
+    public boolean awaitConnected(long timeoutMs) throws InterruptedException {
+        if (isConnected()) {
+            return true;
+        }
+        CountDownLatch latch = new CountDownLatch(1);
+        Listener waiter = new Listener() {
+            @Override
+            public void onFrame(DeviceChannel channel, byte[] frame) {
+            }
+
+            @Override
+            public void onStateChanged(DeviceChannel channel, State previous, State current) {
+                if (current == State.CONNECTED) {
+                    latch.countDown();
+                }
+            }
+        };
+        listeners.add(waiter);
+        try {
+            return isConnected() || latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            listeners.remove(waiter);
+        }
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return 0;
+    }
+
+    @Override
+    public DeviceChannelMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s [%s %s] %s, %s", id, getTransport(), getEndpoint(), getState().getDisplayName(), metrics);
+    }
+}
@@ -0,0 +1,265 @@
+package com.iot.plc.gateway;
+
+import com.iot.plc.logger.LoggerFactory;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * 串口设备通道
+ * jssc的打开、写出和关闭都是阻塞调用(9600波特率下写出1KB约需1秒)，全部在通道自己的串口线程上按提交顺序执行，
+ * 共享事件循环线程只负责提交任务和切换状态，不会被串口拖慢；串口线程空闲一段时间后自动退出。
+ * 接收由jssc为每个已打开串口创建的读线程完成，收到的数据按分隔符切帧，默认以回车或换行结束一帧(扫码枪的常见格式)，空帧忽略，
+ * 监听器在该读线程上收到帧。
+ * 串口被拔出或读写出错时关闭串口并按退避间隔重新打开，串口重新插入后自动恢复。
+ */
+public class SerialDeviceChannel extends AbstractDeviceChannel {
+    private static final Logger logger = LoggerFactory.getLogger(SerialDeviceChannel.class.getName());
+
+    public static final byte[] DEFAULT_DELIMITERS = {'\r', '\n'};
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 4096;
+    private static final long IO_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final String portName;
+    private final int baudRate;
+    private final int dataBits;
+    private final int stopBits;
+    private final int parity;
+    private volatile byte[] delimiters = DEFAULT_DELIMITERS;
+    private volatile int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
+    private volatile SerialPort serialPort;
+
+    // 串口线程，最多一个，按提交顺序执行打开、写出和关闭
+    private final ExecutorService ioExecutor;
+    // 串口线程上是否有尚未完成的写出，完成前暂停从发送队列取数据
+    private final AtomicBoolean writing = new AtomicBoolean(false);
+
+    // 尚未遇到分隔符的数据，只在jssc读线程上访问
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+
+    public SerialDeviceChannel(String id, String portName, int baudRate, int dataBits, int stopBits, int parity) {
+        this(id, portName, baudRate, dataBits, stopBits, parity, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public SerialDeviceChannel(String id, String portName, int baudRate, int dataBits, int stopBits, int parity,
+                               int queueCapacity) {
+        super(id, queueCapacity);
+        this.portName = portName;
+        this.baudRate = baudRate;
+        this.dataBits = dataBits;
+        this.stopBits = stopBits;
+        this.parity = parity;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, IO_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DefaultThreadFactory("serial-" + portName, true));
+        executor.allowCoreThreadTimeOut(true);
+        this.ioExecutor = executor;
+    }
+
+    @Override
+    public String getTransport() {
+        return "serial";
+    }
+
+    @Override
+    public String getEndpoint() {
+        return portName;
+    }
+
+    /**
+     * 设置帧分隔符，遇到其中任意一个字节即结束一帧；为空时每次读到的数据作为一帧
+     */
+    public void setDelimiters(byte... delimiters) {
+        this.delimiters = delimiters != null ? delimiters.clone() : new byte[0];
+    }
+
+    /**
+     * 设置最大帧长度，超过仍未遇到分隔符时丢弃已缓存的数据
+     */
+    public void setMaxFrameLength(int maxFrameLength) {
+        this.maxFrameLength = Math.max(1, maxFrameLength);
+    }
+
+    @Override
+    protected void doConnect() {
+        ioExecutor.execute(() -> {
+            SerialPort port = new SerialPort(portName);
+            try {
+                port.openPort();
+                port.setParams(baudRate, dataBits, stopBits, parity);
+                // 丢弃打开前残留的数据，清除失败说明串口不可用
+                port.purgePort(SerialPort.PURGE_RXCLEAR | SerialPort.PURGE_TXCLEAR);
+            } catch (SerialPortException e) {
+                closeQuietly(port);
+                eventLoop().execute(() -> {
+                    // 关闭后立即重新打开时，排在后面的打开会因串口已被占用而失败
+                    if (serialPort == null) {
+                        connectFailed(e);
+                    }
+                });
+                return;
+            }
+            eventLoop().execute(() -> attach(port));
+        });
+    }
+
+    /**
+     * 串口打开后在事件循环线程上登记并开始接收
+     */
+    private void attach(SerialPort port) {
+        serialPort = port;
+        writing.set(false);
+        pending.reset();
+        try {
+            port.addEventListener(event -> onSerialEvent(port, event), SerialPort.MASK_RXCHAR);
+        } catch (SerialPortException e) {
+            serialPort = null;
+            closeLater(port);
+            connectFailed(e);
+            return;
+        }
+        // 打开期间通道已关闭时 connected() 会调用 doClose 释放串口
+        connected();
+    }
+
+    private void onSerialEvent(SerialPort port, SerialPortEvent event) {
+        if (!event.isRXCHAR() || event.getEventValue() <= 0 || serialPort != port) {
+            return;
+        }
+        byte[] data;
+        try {
+            data = port.readBytes();
+        } catch (SerialPortException e) {
+            lost(port, e);
+            return;
+        }
+        if (data != null) {
+            splitFrames(data);
+        }
+    }
+
+    private void splitFrames(byte[] data) {
+        byte[] delims = delimiters;
+        if (delims.length == 0) {
+            fireFrame(data);
+            return;
+        }
+        for (byte b : data) {
+            if (isDelimiter(delims, b)) {
+                if (pending.size() > 0) {
+                    byte[] frame = pending.toByteArray();
+                    pending.reset();
+                    fireFrame(frame);
+                }
+            } else if (pending.size() < maxFrameLength) {
+                pending.write(b);
+            } else {
+                logger.warning("Device channel " + getId() + " frame exceeds " + maxFrameLength + " bytes, discarded");
+                pending.reset();
+            }
+        }
+    }
+
+    private static boolean isDelimiter(byte[] delims, byte b) {
+        for (byte d : delims) {
+            if (d == b) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void doWrite(List<byte[]> frames) throws Exception {
+        SerialPort port = serialPort;
+        if (port == null) {
+            throw new IOException("serial port closed");
+        }
+        List<byte[]> batch = new ArrayList<>(frames);
+        writing.set(true);
+        try {
+            ioExecutor.execute(() -> {
+                try {
+                    for (byte[] frame : batch) {
+                        if (serialPort != port) {
+                            return;
+                        }
+                        if (!port.writeBytes(frame)) {
+                            throw new IOException("write to " + portName + " failed");
+                        }
+                    }
+                } catch (SerialPortException | IOException e) {
+                    lost(port, e);
+                    return;
+                } finally {
+                    writing.set(false);
+                }
+                requestFlush();
+            });
+        } catch (RejectedExecutionException e) {
+            writing.set(false);
+            throw new IOException("serial I/O thread unavailable", e);
+        }
+    }
+
+    @Override
+    protected boolean isWritable() {
+        return !writing.get();
+    }
+
+    /**
+     * 读写出错，回到事件循环线程按断开处理；串口已被替换或关闭时忽略
+     */
+    private void lost(SerialPort port, Exception cause) {
+        eventLoop().execute(() -> {
+            if (serialPort == port) {
+                connectionLost(cause);
+            }
+        });
+    }
+
+    @Override
+    protected void doClose() {
+        SerialPort port = serialPort;
+        serialPort = null;
+        if (port != null) {
+            closeLater(port);
+        }
+    }
+
+    /**
+     * 在串口线程上关闭串口，排在已提交的写出之后
+     */
+    private void closeLater(SerialPort port) {
+        try {
+            ioExecutor.execute(() -> closeQuietly(port));
+        } catch (RejectedExecutionException e) {
+            closeQuietly(port);
+        }
+    }
+
+    private void closeQuietly(SerialPort port) {
+        if (!port.isOpened()) {
+            return;
+        }
+        try {
+            port.closePort();
+        } catch (SerialPortException e) {
+            logger.warning("Failed to close serial port " + portName + ": " + e.getMessage());
+        }
+    }
+}
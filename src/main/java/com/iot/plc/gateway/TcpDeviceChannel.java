@@ -0,0 +1,193 @@
+package com.iot.plc.gateway;
+
+import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.service.NetworkFraming;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * TCP客户端设备通道
+ * 连接注册在通道绑定的共享事件循环线程上；收到的数据经分帧解码器切成完整的帧，解码出错视为数据流失步，
+ * 关闭连接后重连，从新连接的第一个字节重新分帧。设置了读空闲超时时，超时没有收到任何数据也按断开处理。
+ */
+public class TcpDeviceChannel extends AbstractDeviceChannel {
+    private static final Logger logger = LoggerFactory.getLogger(TcpDeviceChannel.class.getName());
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 5000;
+
+    private final String host;
+    private final int port;
+    private final Supplier<ChannelHandler> frameDecoder;
+    private volatile int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+    private volatile long readIdleTimeoutMs = 0;
+    private volatile Channel channel;
+
+    /**
+     * @param frameDecoder 每次连接创建新的分帧解码器，为null或返回null时每次读到的数据作为一帧
+     */
+    public TcpDeviceChannel(String id, String host, int port, Supplier<ChannelHandler> frameDecoder) {
+        this(id, host, port, frameDecoder, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public TcpDeviceChannel(String id, String host, int port, Supplier<ChannelHandler> frameDecoder, int queueCapacity) {
+        super(id, queueCapacity);
+        this.host = host;
+        this.port = port;
+        this.frameDecoder = frameDecoder;
+    }
+
+    /**
+     * 按网络服务的分帧配置切分数据
+     */
+    public TcpDeviceChannel(String id, String host, int port, NetworkFraming framing) {
+        this(id, host, port, framing::newDecoder);
+    }
+
+    @Override
+    public String getTransport() {
+        return "tcp";
+    }
+
+    @Override
+    public String getEndpoint() {
+        return host + ":" + port;
+    }
+
+    public void setConnectTimeoutMillis(int connectTimeoutMs) {
+        this.connectTimeoutMs = Math.max(1, connectTimeoutMs);
+    }
+
+    /**
+     * 设置读空闲超时，超过该时间没有收到数据即关闭连接并重连，0表示不检测；下次连接时生效
+     */
+    public void setReadIdleTimeoutMillis(long readIdleTimeoutMs) {
+        this.readIdleTimeoutMs = Math.max(0, readIdleTimeoutMs);
+    }
+
+    @Override
+    protected void doConnect() {
+        Bootstrap bootstrap = new Bootstrap()
+                .group(eventLoop())
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        long idle = readIdleTimeoutMs;
+                        if (idle > 0) {
+                            pipeline.addLast("idleHandler", new IdleStateHandler(idle, 0, 0, TimeUnit.MILLISECONDS));
+                        }
+                        ChannelHandler decoder = frameDecoder != null ? frameDecoder.get() : null;
+                        if (decoder != null) {
+                            pipeline.addLast("frameDecoder", decoder);
+                        }
+                        pipeline.addLast("deviceHandler", new FrameHandler());
+                    }
+                });
+        bootstrap.connect(host, port).addListener((ChannelFutureListener) future -> {
+            if (!future.isSuccess()) {
+                connectFailed(future.cause());
+                return;
+            }
+            Channel newChannel = future.channel();
+            Channel current = channel;
+            if (current != null && current.isActive()) {
+                // 关闭后立即重新打开时，之前发起的连接可能晚于新连接完成
+                newChannel.close();
+                return;
+            }
+            channel = newChannel;
+            // 连接关闭是唯一触发重连的地方，主动关闭时 channel 已经清空
+            newChannel.closeFuture().addListener((ChannelFutureListener) f -> {
+                if (channel == newChannel) {
+                    channel = null;
+                    connectionLost(null);
+                }
+            });
+            connected();
+        });
+    }
+
+    @Override
+    protected void doWrite(List<byte[]> frames) throws Exception {
+        Channel current = channel;
+        if (current == null || !current.isActive()) {
+            throw new IOException("connection closed");
+        }
+        for (byte[] frame : frames) {
+            current.write(Unpooled.wrappedBuffer(frame), current.voidPromise());
+        }
+        current.flush();
+    }
+
+    @Override
+    protected boolean isWritable() {
+        Channel current = channel;
+        return current == null || current.isWritable();
+    }
+
+    @Override
+    protected void doClose() {
+        Channel current = channel;
+        channel = null;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private class FrameHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+            fireFrame(ByteBufUtil.getBytes(msg));
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (ctx.channel().isWritable()) {
+                requestFlush();
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                logger.warning("Device channel " + getId() + " received no data for " + readIdleTimeoutMs
+                        + " ms, closing connection");
+                ctx.close();
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warning("Device channel " + getId() + " error: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
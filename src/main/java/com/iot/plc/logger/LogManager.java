@@ -1,18 +1,28 @@
 package com.iot.plc.logger;
 
+import com.iot.plc.database.BarcodeTraceManager;
 import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.database.LogPartitionManager;
+import com.iot.plc.database.ResultSummaryManager;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ProgramResult;
+import com.iot.plc.model.TraceEvent;
 import com.iot.plc.service.ConfigService;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public class LogManager {
     private static final String LOG_RETENTION_PERIOD_KEY = "log_retention_period";
     private static volatile LogManager instance;
     private final ConfigService configService;
     private boolean shouldLog = true; // 默认记录日志
+    private volatile long lastWriteTime = System.currentTimeMillis(); // 最近一次写入日志的时间
 
     private LogManager() {
         configService = ConfigService.getInstance();
@@ -63,18 +73,37 @@ public class LogManager {
         if (!shouldLog) {
             return;
         }
+        lastWriteTime = System.currentTimeMillis();
         
-        String sql = "INSERT INTO barcode_data (device_id, barcode, scan_time, port_name) VALUES (?, ?, ?, ?)";
+        LocalDateTime scanTime = LocalDateTime.now();
+        BarcodeTraceManager traceManager = BarcodeTraceManager.getInstance();
+        List<TraceEvent> events = Collections.singletonList(
+                new TraceEvent(barcode, TraceEvent.SCAN, scanTime, deviceId, null, true, portName));
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, deviceId);
-            pstmt.setString(2, barcode);
-            pstmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
-            pstmt.setString(4, portName);
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // 按扫描时间写入对应的日志分区
+            String table = LogPartitionManager.getInstance().routeInsert(conn, LogPartitionManager.BARCODE_DATA, scanTime);
+            String sql = "INSERT INTO " + table + " (device_id, barcode, scan_time, port_name) VALUES (?, ?, ?, ?)";
             
-            pstmt.executeUpdate();
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setString(1, deviceId);
+                pstmt.setString(2, barcode);
+                pstmt.setTimestamp(3, Timestamp.valueOf(scanTime));
+                pstmt.setString(4, portName);
+                
+                pstmt.executeUpdate();
+                
+                // 扫码事件与条码数据同时提交
+                traceManager.recordEvents(conn, events);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            traceManager.notifyRecorded(events);
         } catch (SQLException e) {
             Logger.getInstance().error("保存条码数据日志失败: " + e.getMessage());
         }
@@ -84,21 +113,47 @@ public class LogManager {
      * 保存验证结果日志
      */
     public void saveValidationResult(boolean isValid, String message, int expectedCount, int actualCount) {
+        saveValidationResult(isValid, message, expectedCount, actualCount, Collections.<String>emptyList());
+    }
+
+    /**
+     * 保存验证结果日志，并为参与本次验证的每个条码记录验证事件
+     */
+    public void saveValidationResult(boolean isValid, String message, int expectedCount, int actualCount, List<String> barcodes) {
         if (!shouldLog) {
             return;
         }
+        lastWriteTime = System.currentTimeMillis();
+        
+        LocalDateTime validateTime = LocalDateTime.now();
+        BarcodeTraceManager traceManager = BarcodeTraceManager.getInstance();
+        List<TraceEvent> events = new ArrayList<>();
+        for (String barcode : barcodes) {
+            events.add(new TraceEvent(barcode, TraceEvent.VALIDATE, validateTime, null, null, isValid,
+                    message + " (期望: " + expectedCount + ", 实际: " + actualCount + ")"));
+        }
         
         String sql = "INSERT INTO validation_result (is_valid, message, expected_count, actual_count) VALUES (?, ?, ?, ?)";
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setBoolean(1, isValid);
-            pstmt.setString(2, message);
-            pstmt.setInt(3, expectedCount);
-            pstmt.setInt(4, actualCount);
-            
-            pstmt.executeUpdate();
+        try (Connection conn = DatabaseManager.getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                pstmt.setBoolean(1, isValid);
+                pstmt.setString(2, message);
+                pstmt.setInt(3, expectedCount);
+                pstmt.setInt(4, actualCount);
+                
+                pstmt.executeUpdate();
+                
+                traceManager.recordEvents(conn, events);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            traceManager.notifyRecorded(events);
         } catch (SQLException e) {
             Logger.getInstance().error("保存验证结果日志失败: " + e.getMessage());
         }
@@ -107,27 +162,85 @@ public class LogManager {
     /**
      * 保存烧录结果日志
      */
-    public void saveProgramResult(String batchId, String deviceId, String barcode, boolean result, String errorMessage, LocalDateTime programTime) {
-        if (!shouldLog) {
-            return;
+    public void saveProgramResult(String batchId, String deviceId, String barcode, boolean result, String errorMessage, LocalDateTime programTime) throws SQLException {
+        ProgramResult programResult = new ProgramResult();
+        programResult.setBatchId(batchId);
+        programResult.addDeviceResult(new DeviceResult(deviceId, barcode, result, errorMessage));
+        saveProgramResults(Collections.singletonList(programResult), programTime);
+    }
+
+    /**
+     * 保存一个批次的烧录结果日志，所有设备结果和汇总表更新在同一事务中提交
+     */
+    public void saveProgramResult(ProgramResult programResult, LocalDateTime programTime) throws SQLException {
+        saveProgramResults(Collections.singletonList(programResult), programTime);
+    }
+
+    /**
+     * 保存多个批次(或同一批次的多个部分)的烧录结果日志，全部在同一事务中提交
+     * @return 是否已保存，日志记录已关闭时不保存并返回false
+     * @throws SQLException 保存失败，事务已回滚
+     */
+    public boolean saveProgramResults(List<ProgramResult> programResults, LocalDateTime programTime) throws SQLException {
+        if (!shouldLog || programResults == null) {
+            return false;
         }
+        List<TraceEvent> events = new ArrayList<>();
+        for (ProgramResult programResult : programResults) {
+            if (programResult.getResults() == null) {
+                continue;
+            }
+            for (DeviceResult result : programResult.getResults()) {
+                events.add(new TraceEvent(result.getBarcode(), TraceEvent.PROGRAM, programTime, result.getDeviceId(),
+                        programResult.getBatchId(), result.isSuccess(), result.getErrorMessage()));
+            }
+        }
+        if (events.isEmpty()) {
+            return true;
+        }
+        lastWriteTime = System.currentTimeMillis();
         
-        String sql = "INSERT INTO program_result (batch_id, device_id, barcode, result, error_message, program_time) VALUES (?, ?, ?, ?, ?, ?)";
+        // 在开启事务之前完成初始化，首次初始化可能需要重建汇总表和追溯表
+        ResultSummaryManager summaryManager = ResultSummaryManager.getInstance();
+        BarcodeTraceManager traceManager = BarcodeTraceManager.getInstance();
         
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            
-            pstmt.setString(1, batchId);
-            pstmt.setString(2, deviceId);
-            pstmt.setString(3, barcode);
-            pstmt.setBoolean(4, result);
-            pstmt.setString(5, errorMessage);
-            pstmt.setTimestamp(6, Timestamp.valueOf(programTime));
+        try (Connection conn = DatabaseManager.getConnection()) {
+            // 按烧录时间写入对应的日志分区
+            String table = LogPartitionManager.getInstance().routeInsert(conn, LogPartitionManager.PROGRAM_RESULT, programTime);
+            String sql = "INSERT INTO " + table + " (batch_id, device_id, barcode, result, error_message, program_time) VALUES (?, ?, ?, ?, ?, ?)";
             
-            pstmt.executeUpdate();
-        } catch (SQLException e) {
-            Logger.getInstance().error("保存烧录结果日志失败: " + e.getMessage());
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+                for (ProgramResult programResult : programResults) {
+                    List<DeviceResult> results = programResult.getResults();
+                    if (results == null || results.isEmpty()) {
+                        continue;
+                    }
+                    for (DeviceResult result : results) {
+                        pstmt.setString(1, programResult.getBatchId());
+                        pstmt.setString(2, result.getDeviceId());
+                        pstmt.setString(3, result.getBarcode());
+                        pstmt.setBoolean(4, result.isSuccess());
+                        pstmt.setString(5, result.getErrorMessage());
+                        pstmt.setTimestamp(6, Timestamp.valueOf(programTime));
+                        pstmt.addBatch();
+                    }
+                    
+                    // 汇总表与烧录结果同时提交
+                    summaryManager.recordResults(conn, programResult.getBatchId(), results, programTime);
+                }
+                pstmt.executeBatch();
+                traceManager.recordEvents(conn, events);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            traceManager.notifyRecorded(events);
         }
+        return true;
     }
 
     /**
@@ -137,6 +250,7 @@ public class LogManager {
         if (!shouldLog) {
             return;
         }
+        lastWriteTime = System.currentTimeMillis();
         
         String sql = "INSERT INTO plc_data (device_id, data_json) VALUES (?, ?)";
         
@@ -152,6 +266,13 @@ public class LogManager {
         }
     }
 
+    /**
+     * 获取最近一次写入日志的时间，用于判断系统是否空闲
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
     /**
      * 获取当前日志记录状态
      */
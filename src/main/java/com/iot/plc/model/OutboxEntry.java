@@ -0,0 +1,86 @@
+package com.iot.plc.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * EMS待回传记录类
+ * 用于存储发件箱中的一条待回传的烧录结果，按id顺序投递
+ */
+public class OutboxEntry {
+    private long id;                 // 记录ID，决定投递顺序
+    private String idempotencyKey;   // 幂等键，同一结果只入队和确认一次
+    private String batchId;          // 批次ID
+    private String payload;          // 回传内容(JSON)
+    private int attempts;            // 已失败的投递次数
+    private LocalDateTime createdAt; // 入队时间
+
+    public OutboxEntry() {
+        this.createdAt = LocalDateTime.now();
+    }
+
+    public OutboxEntry(String idempotencyKey, String batchId, String payload) {
+        this();
+        this.idempotencyKey = idempotencyKey;
+        this.batchId = batchId;
+        this.payload = payload;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public void setIdempotencyKey(String idempotencyKey) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEntry{" +
+                "id=" + id +
+                ", idempotencyKey='" + idempotencyKey + '\'' +
+                ", batchId='" + batchId + '\'' +
+                ", attempts=" + attempts +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+}
@@ -3,6 +3,7 @@ package com.iot.plc.model;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * 烧录结果类
@@ -13,10 +14,12 @@ public class ProgramResult {
     private List<DeviceResult> results; // 设备结果列表
     private String batchId;        // 批次ID
     private LocalDateTime completeTime; // 完成时间
+    private String resultId;       // 结果ID，创建时生成，每次烧录的结果各不相同，用作EMS回传的幂等键
     
     public ProgramResult() {
         this.completeTime = LocalDateTime.now();
         this.results = new ArrayList<>();
+        this.resultId = UUID.randomUUID().toString();
     }
     
     public String getStatus() {
@@ -43,6 +46,14 @@ public class ProgramResult {
         this.batchId = batchId;
     }
     
+    public String getResultId() {
+        return resultId;
+    }
+    
+    public void setResultId(String resultId) {
+        this.resultId = resultId;
+    }
+    
     public LocalDateTime getCompleteTime() {
         return completeTime;
     }
@@ -82,11 +93,7 @@ public class ProgramResult {
             return 0.0;
         }
         
-        long successCount = results.stream()
-                .filter(DeviceResult::isSuccess)
-                .count();
-        
-        return (double) successCount / results.size() * 100.0;
+        return (double) getSuccessCount() / results.size() * 100.0;
     }
     
     /**
@@ -98,9 +105,14 @@ public class ProgramResult {
             return 0;
         }
         
-        return (int) results.stream()
-                .filter(DeviceResult::isSuccess)
-                .count();
+        // 设备结果的成功状态可以随时修改，每次调用重新统计
+        int count = 0;
+        for (DeviceResult result : results) {
+            if (result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
     }
     
     /**
@@ -112,9 +124,7 @@ public class ProgramResult {
             return 0;
         }
         
-        return (int) results.stream()
-                .filter(result -> !result.isSuccess())
-                .count();
+        return results.size() - getSuccessCount();
     }
     
     @Override
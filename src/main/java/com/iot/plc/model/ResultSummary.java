@@ -0,0 +1,97 @@
+package com.iot.plc.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * 烧录结果汇总类
+ * 用于存储按批次、按小时、按设备或按失败信息汇总的烧录数量
+ */
+public class ResultSummary {
+    private String key;            // 汇总键: 批次ID/小时/设备ID/失败信息
+    private int totalCount;        // 总数量
+    private int successCount;      // 成功数量
+    private int failureCount;      // 失败数量
+    private LocalDateTime firstTime; // 第一条结果时间
+    private LocalDateTime lastTime;  // 最后一条结果时间
+
+    public ResultSummary() {
+    }
+
+    public ResultSummary(String key, int totalCount, int successCount, int failureCount) {
+        this.key = key;
+        this.totalCount = totalCount;
+        this.successCount = successCount;
+        this.failureCount = failureCount;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public int getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(int totalCount) {
+        this.totalCount = totalCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    public void setSuccessCount(int successCount) {
+        this.successCount = successCount;
+    }
+
+    public int getFailureCount() {
+        return failureCount;
+    }
+
+    public void setFailureCount(int failureCount) {
+        this.failureCount = failureCount;
+    }
+
+    public LocalDateTime getFirstTime() {
+        return firstTime;
+    }
+
+    public void setFirstTime(LocalDateTime firstTime) {
+        this.firstTime = firstTime;
+    }
+
+    public LocalDateTime getLastTime() {
+        return lastTime;
+    }
+
+    public void setLastTime(LocalDateTime lastTime) {
+        this.lastTime = lastTime;
+    }
+
+    /**
+     * 计算成功率
+     * @return 成功率百分比
+     */
+    public double getSuccessRate() {
+        if (totalCount == 0) {
+            return 0.0;
+        }
+        return (double) successCount / totalCount * 100.0;
+    }
+
+    @Override
+    public String toString() {
+        return "ResultSummary{" +
+                "key='" + key + '\'' +
+                ", totalCount=" + totalCount +
+                ", successCount=" + successCount +
+                ", failureCount=" + failureCount +
+                ", firstTime=" + firstTime +
+                ", lastTime=" + lastTime +
+                '}';
+    }
+}
@@ -0,0 +1,106 @@
+package com.iot.plc.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * 条码追溯事件类
+ * 用于存储某个条码在扫码、验证、烧录和EMS回传各环节中的一条记录
+ */
+public class TraceEvent {
+    public static final String SCAN = "SCAN";          // 扫码
+    public static final String VALIDATE = "VALIDATE";  // 数量验证
+    public static final String PROGRAM = "PROGRAM";    // 烧录
+    public static final String EMS = "EMS";            // EMS回传
+
+    private String barcode;        // 条码内容
+    private String eventType;      // 事件类型
+    private LocalDateTime eventTime; // 事件时间
+    private String deviceId;       // 设备ID
+    private String batchId;        // 批次ID
+    private boolean success;       // 是否成功
+    private String detail;         // 详细信息
+
+    public TraceEvent() {
+        this.eventTime = LocalDateTime.now();
+    }
+
+    public TraceEvent(String barcode, String eventType, LocalDateTime eventTime, String deviceId,
+                      String batchId, boolean success, String detail) {
+        this.barcode = barcode;
+        this.eventType = eventType;
+        this.eventTime = eventTime;
+        this.deviceId = deviceId;
+        this.batchId = batchId;
+        this.success = success;
+        this.detail = detail;
+    }
+
+    public String getBarcode() {
+        return barcode;
+    }
+
+    public void setBarcode(String barcode) {
+        this.barcode = barcode;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public LocalDateTime getEventTime() {
+        return eventTime;
+    }
+
+    public void setEventTime(LocalDateTime eventTime) {
+        this.eventTime = eventTime;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public void setBatchId(String batchId) {
+        this.batchId = batchId;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    public void setDetail(String detail) {
+        this.detail = detail;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceEvent{" +
+                "barcode='" + barcode + '\'' +
+                ", eventType='" + eventType + '\'' +
+                ", eventTime=" + eventTime +
+                ", deviceId='" + deviceId + '\'' +
+                ", batchId='" + batchId + '\'' +
+                ", success=" + success +
+                ", detail='" + detail + '\'' +
+                '}';
+    }
+}
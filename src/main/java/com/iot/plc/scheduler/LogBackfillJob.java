@@ -0,0 +1,45 @@
+package com.iot.plc.scheduler;
+
+import com.iot.plc.database.BarcodeTraceManager;
+import com.iot.plc.database.LogBackfill;
+import com.iot.plc.database.ResultSummaryManager;
+import com.iot.plc.logger.Logger;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.InterruptableJob;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.UnableToInterruptJobException;
+
+import java.sql.SQLException;
+
+/**
+ * 历史日志回填任务
+ * 调度器启动后执行一次：为升级前已存在的烧录结果分区补建条码索引，再分块完成建表时登记的回填，
+ * 扫码和结果写入不需要等待，中断后进度保留，下次启动继续。
+ */
+@DisallowConcurrentExecution
+public class LogBackfillJob implements InterruptableJob {
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        BarcodeTraceManager.getInstance().ensureProgramResultIndexes();
+        if (!LogBackfill.getInstance().hasPendingWork()) {
+            return;
+        }
+        Logger.getInstance().info("开始执行历史日志回填");
+        try {
+            BarcodeTraceManager.getInstance().backfill();
+            ResultSummaryManager.getInstance().backfill();
+        } catch (SQLException e) {
+            Logger.getInstance().error("历史日志回填失败: " + e.getMessage());
+            throw new JobExecutionException("历史日志回填失败", e);
+        }
+        Logger.getInstance().info("历史日志回填执行完成");
+    }
+
+    @Override
+    public void interrupt() throws UnableToInterruptJobException {
+        LogBackfill.getInstance().requestStop();
+        Logger.getInstance().info("历史日志回填已中断，剩余部分将在下次启动后继续");
+    }
+}
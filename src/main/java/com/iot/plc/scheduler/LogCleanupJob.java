@@ -1,11 +1,17 @@
 package com.iot.plc.scheduler;
 
 import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.database.LogArchiver;
+import com.iot.plc.database.LogPartitionManager;
+import com.iot.plc.database.LogPurger;
 import com.iot.plc.logger.Logger;
-import org.quartz.Job;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.InterruptableJob;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.UnableToInterruptJobException;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -15,7 +21,8 @@ import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
 
-public class LogCleanupJob implements Job {
+@DisallowConcurrentExecution
+public class LogCleanupJob implements InterruptableJob {
     private static final String LOG_RETENTION_PERIOD_KEY = "log_retention_period";
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
@@ -25,6 +32,9 @@ public class LogCleanupJob implements Job {
         try {
             int retentionDays = getLogRetentionPeriod();
             Logger.getInstance().info("当前日志清理周期: " + retentionDays + " 天");
+            
+            // 先归档，再清理，保证开启归档后不会有未归档的记录被删除
+            archiveLogs(retentionDays);
 
             if (retentionDays == 0) {
                 // 不记录日志 - 清空所有日志
@@ -43,6 +53,13 @@ public class LogCleanupJob implements Job {
         Logger.getInstance().info("日志清理任务执行完成");
     }
 
+    @Override
+    public void interrupt() throws UnableToInterruptJobException {
+        // 停止分块清理，进度已保存，下次启动后继续
+        LogPurger.getInstance().requestStop();
+        Logger.getInstance().info("日志清理任务已中断，剩余部分将在下次执行时继续");
+    }
+
     private int getLogRetentionPeriod() {
         try {
             String sql = "SELECT config_value FROM config_items WHERE config_key = ?";
@@ -64,46 +81,54 @@ public class LogCleanupJob implements Job {
         return 0;
     }
 
+    private void archiveLogs(int retentionDays) throws SQLException, IOException {
+        LogArchiver archiver = LogArchiver.getInstance();
+        int archiveDays = archiver.getArchiveDays();
+        if (archiveDays <= 0) {
+            return;
+        }
+        LocalDateTime cutoffTime = LocalDateTime.now().minusDays(archiveDays);
+        if (retentionDays >= 0 && retentionDays < archiveDays) {
+            // 清理周期短于归档天数时，即将被清理的记录也要先归档
+            cutoffTime = LocalDateTime.now().minusDays(retentionDays);
+        }
+        long archivedRows = archiver.archiveBefore(cutoffTime);
+        Logger.getInstance().info("日志归档完成，归档 " + archivedRows + " 条记录");
+    }
+
     private void cleanupAllLogs() throws SQLException {
-        // 清空条码数据日志
-        cleanupTable("barcode_data");
+        // 删除条码数据和烧录结果的所有分区
+        dropAllPartitions(LogPartitionManager.BARCODE_DATA);
+        dropAllPartitions(LogPartitionManager.PROGRAM_RESULT);
         
-        // 清空程序执行结果日志
-        cleanupTable("program_result");
-        
-        // 如果有其他日志表，也需要在这里添加对应的清理逻辑
-        Logger.getInstance().info("已清空所有日志表数据");
+        // 其余日志按当前时间分块清空
+        long deletedRows = LogPurger.getInstance().purgeBefore(LocalDateTime.now());
+        Logger.getInstance().info("已清空所有日志表数据，分块删除 " + deletedRows + " 条记录");
     }
 
     private void cleanupLogsBefore(LocalDateTime cutoffTime) throws SQLException {
         String cutoffDateStr = cutoffTime.format(DATE_FORMATTER);
         
-        // 清理条码数据日志
-        cleanupTableBefore("barcode_data", "scan_time", cutoffDateStr);
-        
-        // 清理程序执行结果日志
-        cleanupTableBefore("program_result", "timestamp", cutoffDateStr);
+        // 过期分区整体删除，不需要逐行DELETE
+        dropPartitionsBefore(LogPartitionManager.BARCODE_DATA, cutoffTime);
+        dropPartitionsBefore(LogPartitionManager.PROGRAM_RESULT, cutoffTime);
         
-        // 如果有其他日志表，也需要在这里添加对应的清理逻辑
-        Logger.getInstance().info("已清理所有早于 " + cutoffDateStr + " 的历史日志");
+        // 基础表中分区之前的历史日志以及PLC数据、验证结果日志分块清理
+        long deletedRows = LogPurger.getInstance().purgeBefore(cutoffTime);
+        Logger.getInstance().info("已清理所有早于 " + cutoffDateStr + " 的历史日志，分块删除 " + deletedRows + " 条记录");
     }
 
-    private void cleanupTable(String tableName) throws SQLException {
-        String sql = "DELETE FROM " + tableName;
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            int deletedRows = pstmt.executeUpdate();
-            Logger.getInstance().info("从表 " + tableName + " 中删除了 " + deletedRows + " 条记录");
+    private void dropAllPartitions(String baseTable) throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            int dropped = LogPartitionManager.getInstance().dropAllPartitions(conn, baseTable);
+            Logger.getInstance().info("删除了 " + baseTable + " 的 " + dropped + " 个日志分区");
         }
     }
 
-    private void cleanupTableBefore(String tableName, String dateColumn, String cutoffDateStr) throws SQLException {
-        String sql = "DELETE FROM " + tableName + " WHERE " + dateColumn + " < ?";
-        try (Connection conn = DatabaseManager.getConnection();
-             PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, cutoffDateStr);
-            int deletedRows = pstmt.executeUpdate();
-            Logger.getInstance().info("从表 " + tableName + " 中删除了 " + deletedRows + " 条历史记录");
+    private void dropPartitionsBefore(String baseTable, LocalDateTime cutoffTime) throws SQLException {
+        try (Connection conn = DatabaseManager.getConnection()) {
+            int dropped = LogPartitionManager.getInstance().dropPartitionsBefore(conn, baseTable, cutoffTime.toLocalDate());
+            Logger.getInstance().info("删除了 " + baseTable + " 的 " + dropped + " 个过期日志分区");
         }
     }
-}
\ No newline at end of file
+}
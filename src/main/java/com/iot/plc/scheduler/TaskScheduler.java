@@ -1,5 +1,6 @@
 package com.iot.plc.scheduler;
 
+import com.iot.plc.database.LogPurger;
 import com.iot.plc.logger.Logger;
 import org.quartz.*;
 import org.quartz.impl.StdSchedulerFactory;
@@ -16,6 +17,8 @@ public class TaskScheduler {
         try {
             scheduler = StdSchedulerFactory.getDefaultScheduler();
             initLogCleanupTask();
+            initVacuumTask();
+            initBackfillTask();
         } catch (SchedulerException e) {
             Logger.getInstance().error("初始化调度器失败: " + e.getMessage());
         }
@@ -37,6 +40,8 @@ public class TaskScheduler {
             if (scheduler != null && !scheduler.isStarted()) {
                 scheduler.start();
                 Logger.getInstance().info("任务调度器已启动");
+                resumePendingLogCleanup();
+                startLogBackfill();
             }
         } catch (SchedulerException e) {
             Logger.getInstance().error("启动调度器失败: " + e.getMessage());
@@ -46,6 +51,9 @@ public class TaskScheduler {
     public void stop() {
         try {
             if (scheduler != null && !scheduler.isShutdown()) {
+                // 先中断正在进行的日志清理，清理进度已保存，下次启动后继续
+                scheduler.interrupt(new JobKey("logCleanupJob", "systemGroup"));
+                scheduler.interrupt(new JobKey("logBackfillJob", "systemGroup"));
                 scheduler.shutdown(true);
                 Logger.getInstance().info("任务调度器已停止");
             }
@@ -122,4 +130,63 @@ public class TaskScheduler {
             Logger.getInstance().error("初始化日志清理任务失败: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    private void initVacuumTask() {
+        try {
+            JobKey vacuumJobKey = new JobKey("vacuumJob", "systemGroup");
+            
+            if (!scheduler.checkExists(vacuumJobKey)) {
+                JobDetail vacuumJob = JobBuilder.newJob(VacuumJob.class)
+                        .withIdentity(vacuumJobKey)
+                        .build();
+                
+                // 每分钟检查一次，空闲时小步回收数据库空闲页
+                CronTrigger vacuumTrigger = TriggerBuilder.newTrigger()
+                        .withIdentity("vacuumTrigger", "systemGroup")
+                        .withSchedule(CronScheduleBuilder.cronSchedule("0 * * * * ?"))
+                        .build();
+                
+                scheduler.scheduleJob(vacuumJob, vacuumTrigger);
+                Logger.getInstance().info("数据库空间回收任务已初始化，空闲时每分钟执行");
+            } else {
+                Logger.getInstance().info("数据库空间回收任务已存在，跳过初始化");
+            }
+        } catch (SchedulerException e) {
+            Logger.getInstance().error("初始化数据库空间回收任务失败: " + e.getMessage());
+        }
+    }
+
+    private void initBackfillTask() {
+        try {
+            JobKey backfillJobKey = new JobKey("logBackfillJob", "systemGroup");
+            
+            if (!scheduler.checkExists(backfillJobKey)) {
+                // 没有触发器，调度器启动时手动触发一次
+                JobDetail backfillJob = JobBuilder.newJob(LogBackfillJob.class)
+                        .withIdentity(backfillJobKey)
+                        .storeDurably()
+                        .build();
+                scheduler.addJob(backfillJob, false);
+            }
+        } catch (SchedulerException e) {
+            Logger.getInstance().error("初始化历史日志回填任务失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 启动后在后台补建索引并完成升级时登记的历史日志回填
+     */
+    private void startLogBackfill() throws SchedulerException {
+        scheduler.triggerJob(new JobKey("logBackfillJob", "systemGroup"));
+    }
+
+    /**
+     * 上次日志清理被中断时，启动后立即继续
+     */
+    private void resumePendingLogCleanup() throws SchedulerException {
+        if (LogPurger.getInstance().hasPendingWork()) {
+            scheduler.triggerJob(new JobKey("logCleanupJob", "systemGroup"));
+            Logger.getInstance().info("检测到未完成的日志清理，已触发继续执行");
+        }
+    }
+}
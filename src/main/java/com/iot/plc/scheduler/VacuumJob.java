@@ -0,0 +1,76 @@
+package com.iot.plc.scheduler;
+
+import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.database.LogPurger;
+import com.iot.plc.logger.LogManager;
+import com.iot.plc.logger.Logger;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 数据库空间回收任务
+ * 只在没有日志写入且没有清理任务运行时执行，每次以小步 incremental_vacuum 释放空闲页，
+ * 单次执行时间受限，不会长时间阻塞扫码和结果写入。
+ * 未开启 auto_vacuum 的旧数据库需要一次完整VACUUM才能转换，期间一直持有写锁，
+ * 由日志管理界面的"整理数据库文件"在停产时手动执行(DatabaseManager.rebuildForIncrementalVacuum)，这里不自动触发。
+ */
+@DisallowConcurrentExecution
+public class VacuumJob implements Job {
+    // 最近多长时间内没有日志写入才视为空闲
+    private static final long IDLE_THRESHOLD_MS = 60_000;
+    // 单次执行的时间预算
+    private static final long TIME_BUDGET_MS = 500;
+    // 每步释放的页数
+    private static final int PAGES_PER_STEP = 64;
+
+    @Override
+    public void execute(JobExecutionContext context) throws JobExecutionException {
+        if (!isIdle()) {
+            return;
+        }
+        try (Connection conn = DatabaseManager.getConnection();
+             Statement stmt = conn.createStatement()) {
+            int freePages = queryInt(stmt, "PRAGMA freelist_count");
+            if (freePages == 0) {
+                return;
+            }
+
+            if (queryInt(stmt, "PRAGMA auto_vacuum") != DatabaseManager.AUTO_VACUUM_INCREMENTAL) {
+                // 旧数据库文件创建时未开启auto_vacuum，增量回收不起作用，等待手动整理
+                return;
+            }
+
+            long deadline = System.currentTimeMillis() + TIME_BUDGET_MS;
+            int remaining = freePages;
+            while (remaining > 0 && System.currentTimeMillis() < deadline && isIdle()) {
+                // execute() 只执行一步只释放一页，executeUpdate() 才会执行到结束
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + PAGES_PER_STEP + ")");
+                remaining = queryInt(stmt, "PRAGMA freelist_count");
+            }
+            Logger.getInstance().debug("数据库空间回收: 释放 " + (freePages - remaining) + " 页，剩余空闲页 " + remaining);
+        } catch (SQLException e) {
+            Logger.getInstance().error("数据库空间回收失败: " + e.getMessage());
+        }
+        LogPurger.checkpoint("PASSIVE");
+    }
+
+    private boolean isIdle() {
+        if (LogPurger.getInstance().isRunning()) {
+            return false;
+        }
+        return System.currentTimeMillis() - LogManager.getInstance().getLastWriteTime() >= IDLE_THRESHOLD_MS;
+    }
+
+    private int queryInt(Statement stmt, String sql) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+}
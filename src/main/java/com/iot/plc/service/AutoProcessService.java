@@ -11,6 +11,8 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
@@ -54,6 +56,9 @@ public class AutoProcessService {
     private AtomicBoolean programCommandSent = new AtomicBoolean(false);
     private AtomicBoolean waitingForProgramResult = new AtomicBoolean(false);
     
+    // 当前等待结果的烧录批次，流程重置后迟到的结果按批次ID忽略
+    private volatile String currentBatchId;
+    
     // 单例模式
     private AutoProcessService() {
         this.serialPortService = SerialPortService.getInstance();
@@ -81,23 +86,10 @@ public class AutoProcessService {
             }
         });
         
-        // 初始化流程定时器
-        new Thread(() -> {
-            while (true) {
-                try {
-                    Thread.sleep(500);
-                    if (processStarted.get()) {
-                        checkProcessStatus();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-        }).start();
+        // 烧录结果和超时由烧录指令的Future回调处理，不再轮询流程状态
         
-        // 初始化上位机结果监听器
-        initUpperComputerResultListener();
+        // 每个模块烧录完成即通知PLC，合格品可以提前下料
+        upperComputerService.addModuleResultListener(this::handleModuleResult);
     }
     
     private void handleProductCountMessage(String message) {
@@ -149,73 +141,111 @@ public class AutoProcessService {
                 currentBarcodes.add(barcode.getBarcode());
             }
             
-            // 发送烧录指令
-            String result = upperComputerService.sendProgramCommand(deviceId, currentBarcodes);
-            log("发送烧录指令结果: " + result);
+            // 发送烧录指令，结果按批次ID回调
+            UpperComputerService.ProgramCommandFuture future =
+                    upperComputerService.submitProgramCommand(deviceId, new ArrayList<>(currentBarcodes));
+            String batchId = future.getBatchId();
+            currentBatchId = batchId;
+            log("发送烧录指令，批次ID: " + batchId);
             
             programCommandSent.set(true);
             waitingForProgramResult.set(true);
             currentStatus = "等待烧录结果";
+            
+            future.whenComplete((result, error) -> {
+                if (error == null) {
+                    handleProgramResult(batchId, result);
+                } else {
+                    handleProgramFailure(batchId, error);
+                }
+            });
         }
     }
     
-    private void checkProcessStatus() {
-        // 这里可以检查流程状态并处理超时等异常情况
-        if (processStarted.get()) {
-            // 检查是否超过预设的处理时间
-            // 如果需要实现超时逻辑，可以在这里添加
+    /**
+     * 处理本批次单个模块的烧录结果
+     */
+    private void handleModuleResult(String batchId, DeviceResult module) {
+        if (batchId == null || !batchId.equals(currentBatchId) || !waitingForProgramResult.get()) {
+            return;
         }
+        log("模块烧录完成，条码: " + module.getBarcode() + ", 状态: " + (module.isSuccess() ? "成功" : "失败"));
+        
+        JsonObject message = new JsonObject();
+        message.addProperty("type", "module_result");
+        message.addProperty("barcode", module.getBarcode());
+        message.addProperty("status", module.isSuccess() ? "ok" : "error");
+        if (!module.isSuccess() && module.getErrorMessage() != null) {
+            message.addProperty("message", module.getErrorMessage());
+        }
+        plcService.sendToPlc(deviceId, "127.0.0.1", 502, message.toString());
     }
     
     /**
-     * 初始化上位机结果监听器
+     * 处理本批次的烧录结果，结果已由上位机服务保存并回传EMS
      */
-    private void initUpperComputerResultListener() {
-        // 添加烧录结果监听器
-        upperComputerService.addProgramResultListener(result -> {
-            if (processStarted.get() && programCommandSent.get() && waitingForProgramResult.get()) {
-                log("收到上位机烧录结果，批次ID: " + result.getBatchId());
-                currentStatus = "处理结果";
-                
-                // 显示烧录结果
-                StringBuilder resultSummary = new StringBuilder();
-                resultSummary.append("烧录结果:\n");
-                
-                boolean allSuccess = true;
-                for (DeviceResult deviceResult : result.getResults()) {
-                    String status = deviceResult.isSuccess() ? "成功" : "失败";
-                    resultSummary.append("  条码: ")
-                              .append(deviceResult.getBarcode())
-                              .append(", 状态: ")
-                              .append(status);
-                    
-                    if (!deviceResult.isSuccess() && deviceResult.getErrorMessage() != null) {
-                        resultSummary.append(", 错误: ")
-                                  .append(deviceResult.getErrorMessage());
-                        allSuccess = false;
-                    }
-                    resultSummary.append("\n");
-                }
-                
-                log(resultSummary.toString());
-                
-                // EMS已在上位机服务中发送，这里只记录状态
-                log("结果已回传给EMS");
-                
-                // 流程完成
-                currentStatus = allSuccess ? "完成" : "部分失败";
-                waitingForProgramResult.set(false);
-                
-                if (allSuccess) {
-                    log("流程执行完成！");
-                } else {
-                    log("警告: 流程执行完成，但部分条码烧录失败！");
-                }
-                
-                // 注意：根据用户需求，流程完成后需要保持当前状态，不需要自动重置
-                // 用户要求："且这5个步骤需要按顺序执行，不然就需要清空，重新从1走。"
+    private void handleProgramResult(String batchId, ProgramResult result) {
+        if (!batchId.equals(currentBatchId) || !waitingForProgramResult.get()) {
+            log("忽略非当前流程的烧录结果，批次ID: " + batchId);
+            return;
+        }
+        log("收到上位机烧录结果，批次ID: " + batchId);
+        currentStatus = "处理结果";
+        
+        // 显示烧录结果
+        StringBuilder resultSummary = new StringBuilder();
+        resultSummary.append("烧录结果:\n");
+        
+        boolean allSuccess = true;
+        for (DeviceResult deviceResult : result.getResults()) {
+            String status = deviceResult.isSuccess() ? "成功" : "失败";
+            resultSummary.append("  条码: ")
+                      .append(deviceResult.getBarcode())
+                      .append(", 状态: ")
+                      .append(status);
+            
+            if (!deviceResult.isSuccess() && deviceResult.getErrorMessage() != null) {
+                resultSummary.append(", 错误: ")
+                          .append(deviceResult.getErrorMessage());
+                allSuccess = false;
             }
-        });
+            resultSummary.append("\n");
+        }
+        
+        log(resultSummary.toString());
+        
+        // EMS已在上位机服务中发送，这里只记录状态
+        log("结果已回传给EMS");
+        
+        // 流程完成
+        currentStatus = allSuccess ? "完成" : "部分失败";
+        waitingForProgramResult.set(false);
+        
+        if (allSuccess) {
+            log("流程执行完成！");
+        } else {
+            log("警告: 流程执行完成，但部分条码烧录失败！");
+        }
+        
+        // 注意：根据用户需求，流程完成后需要保持当前状态，不需要自动重置
+        // 用户要求："且这5个步骤需要按顺序执行，不然就需要清空，重新从1走。"
+    }
+    
+    /**
+     * 烧录指令发送失败或等待结果超时，流程需要从头开始
+     */
+    private void handleProgramFailure(String batchId, Throwable error) {
+        if (!batchId.equals(currentBatchId) || !waitingForProgramResult.get()) {
+            return;
+        }
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            log("错误: 等待烧录结果超时，批次ID: " + batchId);
+        } else {
+            log("错误: 发送烧录指令失败，批次ID: " + batchId + ", 错误: " + cause.getMessage());
+        }
+        resetProcess();
+        currentStatus = cause instanceof TimeoutException ? "超时" : "异常";
     }
     
     private void updateStatus() {
@@ -232,7 +262,7 @@ public class AutoProcessService {
         // EMS状态检查
         try {
             String emsStatusJson = plcService.getEmsConnectionStatus();
-            boolean emsConnected = emsStatusJson.contains("connected");
+            boolean emsConnected = emsStatusJson.contains("\"status\":\"connected\"");
             emsStatus = emsConnected ? "已连接" : "未连接";
         } catch (Exception e) {
             emsStatus = "未连接";
@@ -292,6 +322,7 @@ public class AutoProcessService {
         waitingForStartCommand.set(false);
         programCommandSent.set(false);
         waitingForProgramResult.set(false);
+        currentBatchId = null;
         currentStatus = "空闲";
         expectedBarcodeCount = 0;
         currentBarcodes.clear();
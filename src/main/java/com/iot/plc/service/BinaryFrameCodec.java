@@ -0,0 +1,497 @@
+package com.iot.plc.service;
+
+import com.iot.plc.model.BarcodeInfo;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ProgramCommand;
+import com.iot.plc.model.ProgramResult;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.CharsetUtil;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 上位机二进制帧编解码
+ * 帧外层由4字节长度字段分隔，帧内容为 [版本号1字节][帧类型1字节][帧体]。
+ * 帧体中的整数使用varint编码；设备ID和错误信息放在帧内字符串表中按序号引用；
+ * 条码按与前一条码的公共前缀长度+后缀编码；UUID批次ID按16字节写入，子批次序号为varint。
+ * 时间按本地时间换算的毫秒数写入，不涉及时区。
+ */
+public final class BinaryFrameCodec {
+    public static final int VERSION = 1;
+
+    public static final byte TYPE_PROGRAM_COMMAND = 1;
+    public static final byte TYPE_PROGRAM_RESULT = 2;
+    public static final byte TYPE_MODULE_RESULT = 3;
+    public static final byte TYPE_BATCH_COMPLETE = 4;
+    public static final byte TYPE_PING = 5;
+    public static final byte TYPE_PONG = 6;
+
+    // 批次ID编码方式
+    private static final int BATCH_ID_NULL = 0;
+    private static final int BATCH_ID_STRING = 1;
+    private static final int BATCH_ID_UUID = 2;
+
+    // 设备结果标志位
+    private static final int FLAG_SUCCESS = 1;
+
+    private static final char PART_SEPARATOR = '#';
+
+    private BinaryFrameCodec() {
+    }
+
+    /**
+     * 解码后的帧，按帧类型只有对应字段有值
+     */
+    public static class Frame {
+        private final byte type;
+        private final String batchId;
+        private ProgramCommand command;
+        private ProgramResult result;
+        private DeviceResult module;
+        private String status;
+        private long seq;
+
+        Frame(byte type, String batchId) {
+            this.type = type;
+            this.batchId = batchId;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public String getBatchId() {
+            return batchId;
+        }
+
+        public ProgramCommand getCommand() {
+            return command;
+        }
+
+        public ProgramResult getResult() {
+            return result;
+        }
+
+        public DeviceResult getModule() {
+            return module;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        /**
+         * 心跳序号，仅 ping/pong 帧有值
+         */
+        public long getSeq() {
+            return seq;
+        }
+    }
+
+    /**
+     * 编码烧录指令
+     */
+    public static void encodeCommand(ProgramCommand command, ByteBuf out) {
+        writeHeader(out, TYPE_PROGRAM_COMMAND);
+        writeBatchId(out, command.getBatchId());
+        writeNullableString(out, command.getCommand());
+        writeTime(out, command.getSendTime());
+
+        List<BarcodeInfo> barcodes = command.getBarcodes() != null ? command.getBarcodes() : new ArrayList<>();
+        StringTable table = new StringTable();
+        int[] deviceRefs = new int[barcodes.size()];
+        for (int i = 0; i < barcodes.size(); i++) {
+            deviceRefs[i] = table.ref(barcodes.get(i).getDeviceId());
+        }
+        table.write(out);
+
+        writeVarInt(out, barcodes.size());
+        String previous = "";
+        for (int i = 0; i < barcodes.size(); i++) {
+            writeVarInt(out, deviceRefs[i]);
+            previous = writeFrontCoded(out, previous, barcodes.get(i).getBarcode());
+        }
+    }
+
+    /**
+     * 编码整批烧录结果
+     */
+    public static void encodeResult(ProgramResult result, ByteBuf out) {
+        writeHeader(out, TYPE_PROGRAM_RESULT);
+        writeBatchId(out, result.getBatchId());
+        writeNullableString(out, result.getStatus());
+        writeTime(out, result.getCompleteTime());
+
+        List<DeviceResult> results = result.getResults() != null ? result.getResults() : new ArrayList<>();
+        StringTable table = new StringTable();
+        int[] refs = new int[results.size() * 2];
+        for (int i = 0; i < results.size(); i++) {
+            refs[i * 2] = table.ref(results.get(i).getDeviceId());
+            refs[i * 2 + 1] = table.ref(results.get(i).getErrorMessage());
+        }
+        table.write(out);
+
+        writeVarInt(out, results.size());
+        String previous = "";
+        for (int i = 0; i < results.size(); i++) {
+            DeviceResult deviceResult = results.get(i);
+            out.writeByte(deviceResult.isSuccess() ? FLAG_SUCCESS : 0);
+            writeVarInt(out, refs[i * 2]);
+            writeVarInt(out, refs[i * 2 + 1]);
+            previous = writeFrontCoded(out, previous, deviceResult.getBarcode());
+        }
+    }
+
+    /**
+     * 编码单个模块结果
+     */
+    public static void encodeModuleResult(String batchId, DeviceResult module, ByteBuf out) {
+        writeHeader(out, TYPE_MODULE_RESULT);
+        writeBatchId(out, batchId);
+        out.writeByte(module.isSuccess() ? FLAG_SUCCESS : 0);
+        writeNullableString(out, module.getDeviceId());
+        writeNullableString(out, module.getBarcode());
+        writeNullableString(out, module.getErrorMessage());
+    }
+
+    /**
+     * 编码批次完成帧
+     */
+    public static void encodeBatchComplete(String batchId, String status, ByteBuf out) {
+        writeHeader(out, TYPE_BATCH_COMPLETE);
+        writeBatchId(out, batchId);
+        writeNullableString(out, status);
+    }
+
+    /**
+     * 编码心跳帧
+     * @param type TYPE_PING 或 TYPE_PONG
+     * @param seq 心跳序号，pong 帧原样带回 ping 的序号
+     */
+    public static void encodeHeartbeat(byte type, long seq, ByteBuf out) {
+        writeHeader(out, type);
+        writeBatchId(out, null);
+        writeVarLong(out, seq);
+    }
+
+    /**
+     * 读取帧类型但不移动读位置，用于在完整解码前分流心跳帧
+     */
+    public static byte peekType(ByteBuf in) {
+        return in.getByte(in.readerIndex() + 1);
+    }
+
+    /**
+     * 解码一帧(不含长度字段)
+     * @throws IllegalArgumentException 版本号或帧类型不支持、数据不完整或格式错误时抛出
+     */
+    public static Frame decode(ByteBuf in) {
+        try {
+            return decodeFrame(in);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or malformed binary frame", e);
+        }
+    }
+
+    private static Frame decodeFrame(ByteBuf in) {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary frame version: " + version);
+        }
+        byte type = in.readByte();
+        Frame frame = new Frame(type, readBatchId(in));
+        switch (type) {
+            case TYPE_PROGRAM_COMMAND: {
+                String commandType = readNullableString(in);
+                LocalDateTime sendTime = readTime(in);
+                List<String> table = readTable(in);
+                int count = readCount(in);
+                List<BarcodeInfo> barcodes = new ArrayList<>(count);
+                String previous = "";
+                for (int i = 0; i < count; i++) {
+                    String deviceId = lookup(table, readVarInt(in));
+                    String barcode = readFrontCoded(in, previous);
+                    previous = barcode != null ? barcode : "";
+                    barcodes.add(new BarcodeInfo(deviceId, barcode));
+                }
+                ProgramCommand command = new ProgramCommand(barcodes, frame.batchId);
+                command.setCommand(commandType);
+                command.setSendTime(sendTime);
+                frame.command = command;
+                break;
+            }
+            case TYPE_PROGRAM_RESULT: {
+                ProgramResult result = new ProgramResult();
+                result.setBatchId(frame.batchId);
+                result.setStatus(readNullableString(in));
+                result.setCompleteTime(readTime(in));
+                List<String> table = readTable(in);
+                int count = readCount(in);
+                List<DeviceResult> results = new ArrayList<>(count);
+                String previous = "";
+                for (int i = 0; i < count; i++) {
+                    int flags = in.readUnsignedByte();
+                    String deviceId = lookup(table, readVarInt(in));
+                    String errorMessage = lookup(table, readVarInt(in));
+                    String barcode = readFrontCoded(in, previous);
+                    previous = barcode != null ? barcode : "";
+                    results.add(new DeviceResult(deviceId, barcode, (flags & FLAG_SUCCESS) != 0, errorMessage));
+                }
+                result.setResults(results);
+                frame.result = result;
+                break;
+            }
+            case TYPE_MODULE_RESULT: {
+                int flags = in.readUnsignedByte();
+                String deviceId = readNullableString(in);
+                String barcode = readNullableString(in);
+                String errorMessage = readNullableString(in);
+                frame.module = new DeviceResult(deviceId, barcode, (flags & FLAG_SUCCESS) != 0, errorMessage);
+                break;
+            }
+            case TYPE_BATCH_COMPLETE:
+                frame.status = readNullableString(in);
+                break;
+            case TYPE_PING:
+            case TYPE_PONG:
+                frame.seq = readVarLong(in);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown binary frame type: " + type);
+        }
+        return frame;
+    }
+
+    private static void writeHeader(ByteBuf out, byte type) {
+        out.writeByte(VERSION);
+        out.writeByte(type);
+    }
+
+    /**
+     * 批次ID为 UUID 或 UUID#序号 时写成16字节UUID加varint序号，其他格式按字符串写入
+     */
+    private static void writeBatchId(ByteBuf out, String batchId) {
+        if (batchId == null) {
+            out.writeByte(BATCH_ID_NULL);
+            return;
+        }
+        int separator = batchId.indexOf(PART_SEPARATOR);
+        String uuidPart = separator < 0 ? batchId : batchId.substring(0, separator);
+        if (uuidPart.length() == 36) {
+            try {
+                UUID uuid = UUID.fromString(uuidPart);
+                int part = separator < 0 ? 0 : Integer.parseInt(batchId.substring(separator + 1));
+                boolean canonical = uuid.toString().equals(uuidPart)
+                        && (separator < 0 || (part > 0 && String.valueOf(part).equals(batchId.substring(separator + 1))));
+                if (canonical) {
+                    out.writeByte(BATCH_ID_UUID);
+                    out.writeLong(uuid.getMostSignificantBits());
+                    out.writeLong(uuid.getLeastSignificantBits());
+                    writeVarInt(out, part);
+                    return;
+                }
+            } catch (IllegalArgumentException e) {
+                // 不是标准UUID格式，按字符串写入
+            }
+        }
+        out.writeByte(BATCH_ID_STRING);
+        writeString(out, batchId);
+    }
+
+    private static String readBatchId(ByteBuf in) {
+        int kind = in.readUnsignedByte();
+        switch (kind) {
+            case BATCH_ID_NULL:
+                return null;
+            case BATCH_ID_UUID: {
+                String uuid = new UUID(in.readLong(), in.readLong()).toString();
+                int part = readVarInt(in);
+                return part == 0 ? uuid : uuid + PART_SEPARATOR + part;
+            }
+            case BATCH_ID_STRING:
+                return readString(in);
+            default:
+                throw new IllegalArgumentException("Unknown batch id encoding: " + kind);
+        }
+    }
+
+    private static void writeTime(ByteBuf out, LocalDateTime time) {
+        if (time == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        long millis = time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1000000;
+        writeVarLong(out, millis + 1);
+    }
+
+    private static LocalDateTime readTime(ByteBuf in) {
+        long value = readVarLong(in);
+        if (value == 0) {
+            return null;
+        }
+        long millis = value - 1;
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    /**
+     * 与前一条码的公共前缀长度 + 后缀
+     * @return 本次写入的条码，作为下一个条码的参照
+     */
+    private static String writeFrontCoded(ByteBuf out, String previous, String value) {
+        if (value == null) {
+            // 0 表示null，其他值为公共前缀长度+1
+            writeVarInt(out, 0);
+            return "";
+        }
+        int max = Math.min(previous.length(), value.length());
+        int common = 0;
+        while (common < max && previous.charAt(common) == value.charAt(common)) {
+            common++;
+        }
+        writeVarInt(out, common + 1);
+        writeString(out, value.substring(common));
+        return value;
+    }
+
+    private static String readFrontCoded(ByteBuf in, String previous) {
+        int common = readVarInt(in);
+        if (common == 0) {
+            return null;
+        }
+        return previous.substring(0, common - 1) + readString(in);
+    }
+
+    private static List<String> readTable(ByteBuf in) {
+        int size = readCount(in);
+        List<String> table = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            table.add(readString(in));
+        }
+        return table;
+    }
+
+    /**
+     * 读取元素个数，每个元素至少占1字节，超过剩余字节数说明数据已损坏，在分配列表前拒绝
+     */
+    private static int readCount(ByteBuf in) {
+        int count = readVarInt(in);
+        if (count < 0 || count > in.readableBytes()) {
+            throw new IllegalArgumentException("Invalid element count " + count + ", " + in.readableBytes()
+                    + " bytes remaining");
+        }
+        return count;
+    }
+
+    private static String lookup(List<String> table, int ref) {
+        return ref == 0 ? null : table.get(ref - 1);
+    }
+
+    private static void writeNullableString(ByteBuf out, String value) {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(CharsetUtil.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.writeBytes(bytes);
+    }
+
+    private static String readNullableString(ByteBuf in) {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        String value = in.toString(in.readerIndex(), length - 1, CharsetUtil.UTF_8);
+        in.skipBytes(length - 1);
+        return value;
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        byte[] bytes = value.getBytes(CharsetUtil.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = readVarInt(in);
+        String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+    static void writeVarInt(ByteBuf out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ByteBuf in) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static void writeVarLong(ByteBuf out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(ByteBuf in) {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * 帧内字符串表，序号从1开始，0表示null
+     */
+    private static class StringTable {
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        int ref(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer ref = index.get(value);
+            if (ref == null) {
+                values.add(value);
+                ref = values.size();
+                index.put(value, ref);
+            }
+            return ref;
+        }
+
+        void write(ByteBuf out) {
+            writeVarInt(out, values.size());
+            for (String value : values) {
+                writeString(out, value);
+            }
+        }
+    }
+}
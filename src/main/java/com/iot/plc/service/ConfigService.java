@@ -124,6 +124,26 @@ public class ConfigService {
         }
     }
 
+    /**
+     * 根据配置键获取整数配置值
+     * @param configKey 配置键
+     * @param defaultValue 配置不存在或格式错误时使用的默认值
+     * @return 配置值
+     */
+    public int getIntConfigValue(String configKey, int defaultValue) {
+        try {
+            String value = getConfigValueByKey(configKey);
+            if (value != null && !value.trim().isEmpty()) {
+                return Integer.parseInt(value.trim());
+            }
+        } catch (NumberFormatException e) {
+            logger.warn("配置值格式错误，配置键: {}, 使用默认值: {}", configKey, defaultValue);
+        } catch (RuntimeException e) {
+            logger.warn("读取配置值失败，配置键: {}, 使用默认值: {}", configKey, defaultValue);
+        }
+        return defaultValue;
+    }
+
     /**
      * 验证配置项
      * @param configItem 配置项对象
@@ -0,0 +1,426 @@
+package com.iot.plc.service;
+
+import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.util.LatencyHistogram;
+import com.iot.plc.util.SharedEventLoop;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.pool.AbstractChannelPoolHandler;
+import io.netty.channel.pool.ChannelHealthChecker;
+import io.netty.channel.pool.FixedChannelPool;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * EMS HTTP客户端
+ * 基于Netty HTTP编解码，在共享事件循环上运行：连接池中的长连接复用，连接数即同时在途的请求数上限，
+ * 超出上限的请求排队等待空闲连接；请求体超过阈值时gzip压缩，响应在事件循环上处理并完成返回的Future。
+ * 记录请求延迟直方图和各类错误计数。
+ */
+public class EmsHttpClient {
+    private static final Logger logger = LoggerFactory.getLogger(EmsHttpClient.class.getName());
+
+    private static final int MAX_RESPONSE_BYTES = 1024 * 1024;
+    private static final long IDLE_CLOSE_SECONDS = 30;
+    private static final AttributeKey<PendingRequest> PENDING = AttributeKey.valueOf("emsPendingRequest");
+
+    /**
+     * EMS响应
+     */
+    public static class Response {
+        private final int statusCode;
+        private final String body;
+        private final long latencyNanos;
+
+        Response(int statusCode, String body, long latencyNanos) {
+            this.statusCode = statusCode;
+            this.body = body;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        public long getLatencyNanos() {
+            return latencyNanos;
+        }
+    }
+
+    private final URI uri;
+    private final String host;
+    private final int port;
+    private final int maxInFlight;
+    private final long timeoutMs;
+    private final boolean gzip;
+    private final int gzipMinBytes;
+    private final FixedChannelPool pool;
+
+    // 统计
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong successCount = new AtomicLong();
+    private final AtomicLong httpErrorCount = new AtomicLong();
+    private final AtomicLong ioErrorCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong bodyBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    /**
+     * @param url EMS接口地址，支持http和https
+     * @param maxInFlight 最大连接数，即同时在途的请求数
+     * @param timeoutMs 等待空闲连接和等待响应各自的超时时间
+     * @param gzip 是否压缩请求体
+     * @param gzipMinBytes 请求体达到此大小才压缩
+     */
+    public EmsHttpClient(String url, int maxInFlight, long timeoutMs, boolean gzip, int gzipMinBytes) {
+        this.uri = URI.create(url);
+        this.host = uri.getHost();
+        boolean https = "https".equalsIgnoreCase(uri.getScheme());
+        this.port = uri.getPort() > 0 ? uri.getPort() : (https ? 443 : 80);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.timeoutMs = timeoutMs;
+        this.gzip = gzip;
+        this.gzipMinBytes = gzipMinBytes;
+
+        SslContext sslContext = null;
+        if (https) {
+            try {
+                sslContext = SslContextBuilder.forClient().build();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to create SSL context for EMS: " + e.getMessage(), e);
+            }
+        }
+        SslContext ssl = sslContext;
+
+        Bootstrap bootstrap = new Bootstrap()
+                .group(SharedEventLoop.getInstance().group())
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) Math.min(timeoutMs, 5000))
+                .remoteAddress(host, port);
+        this.pool = new FixedChannelPool(bootstrap, new AbstractChannelPoolHandler() {
+            @Override
+            public void channelCreated(Channel ch) {
+                connectionCount.incrementAndGet();
+                ChannelPipeline pipeline = ch.pipeline();
+                if (ssl != null) {
+                    pipeline.addLast(ssl.newHandler(ch.alloc(), host, port));
+                }
+                // 空闲连接由本端关闭，避免服务端先关闭时下一个请求写入失败
+                pipeline.addLast(new IdleStateHandler(0, 0, IDLE_CLOSE_SECONDS, TimeUnit.SECONDS));
+                pipeline.addLast(new HttpClientCodec());
+                pipeline.addLast(new HttpContentDecompressor());
+                pipeline.addLast(new HttpObjectAggregator(MAX_RESPONSE_BYTES));
+                pipeline.addLast(new ResponseHandler());
+            }
+        }, ChannelHealthChecker.ACTIVE, FixedChannelPool.AcquireTimeoutAction.FAIL, timeoutMs, this.maxInFlight, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 向构造时指定的地址发送POST请求
+     * @param body 请求体(JSON)
+     * @param headers 额外的请求头，可以为null
+     * @return 收到响应时完成，连接或超时错误时异常完成；非2xx响应同样正常完成
+     */
+    public CompletableFuture<Response> post(String body, Map<String, String> headers) {
+        return post(getPath(), body, headers);
+    }
+
+    /**
+     * 向同一主机上的其他路径发送POST请求，与默认地址共用连接池
+     * @param path 请求路径，可以带查询参数
+     */
+    public CompletableFuture<Response> post(String path, String body, Map<String, String> headers) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        byte[] raw = body.getBytes(CharsetUtil.UTF_8);
+        ByteBuf content;
+        boolean compressed = gzip && raw.length >= gzipMinBytes;
+        try {
+            content = compressed ? gzip(raw) : Unpooled.wrappedBuffer(raw);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, path, content);
+        request.headers().set(HttpHeaderNames.HOST, uri.getPort() > 0 ? host + ":" + port : host);
+        request.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON + "; charset=utf-8");
+        request.headers().set(HttpHeaderNames.ACCEPT, HttpHeaderValues.APPLICATION_JSON);
+        request.headers().set(HttpHeaderNames.ACCEPT_ENCODING, HttpHeaderValues.GZIP);
+        request.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+        request.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        if (compressed) {
+            request.headers().set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP);
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                request.headers().set(header.getKey(), header.getValue());
+            }
+        }
+
+        requestCount.incrementAndGet();
+        inFlight.incrementAndGet();
+        bodyBytes.addAndGet(raw.length);
+        sentBytes.addAndGet(content.readableBytes());
+        future.whenComplete((response, error) -> {
+            inFlight.decrementAndGet();
+            if (error == null) {
+                latency.record(response.getLatencyNanos());
+                if (response.getStatusCode() >= 200 && response.getStatusCode() < 300) {
+                    successCount.incrementAndGet();
+                } else {
+                    httpErrorCount.incrementAndGet();
+                }
+            } else if (error instanceof TimeoutException) {
+                timeoutCount.incrementAndGet();
+            } else {
+                ioErrorCount.incrementAndGet();
+            }
+        });
+
+        // 等待空闲连接，超过超时时间由连接池使获取失败；延迟从请求写出开始计算，不含排队时间
+        pool.acquire().addListener(acquired -> {
+            if (!acquired.isSuccess()) {
+                request.release();
+                Throwable cause = acquired.cause();
+                future.completeExceptionally(cause instanceof TimeoutException
+                        ? cause : new IOException("Failed to connect to EMS: " + cause.getMessage(), cause));
+                return;
+            }
+            Channel ch = (Channel) acquired.getNow();
+            ch.eventLoop().execute(() -> send(ch, request, future));
+        });
+        return future;
+    }
+
+    /**
+     * 在连接的事件循环上发送请求，同一连接同时只有一个请求
+     */
+    private void send(Channel ch, FullHttpRequest request, CompletableFuture<Response> future) {
+        PendingRequest pending = new PendingRequest(future, System.nanoTime());
+        pending.timeout = ch.eventLoop().schedule(() -> {
+            // 超时后连接上可能还会收到迟到的响应，直接关闭
+            if (ch.attr(PENDING).compareAndSet(pending, null)) {
+                future.completeExceptionally(new TimeoutException("EMS request timed out after " + timeoutMs + " ms"));
+                ch.close();
+                pool.release(ch);
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+        ch.attr(PENDING).set(pending);
+        ch.writeAndFlush(request).addListener(written -> {
+            if (!written.isSuccess()) {
+                fail(ch, written.cause());
+            }
+        });
+    }
+
+    /**
+     * 请求失败时关闭连接，连接池在下次获取时丢弃已关闭的连接
+     */
+    private void fail(Channel ch, Throwable cause) {
+        PendingRequest pending = ch.attr(PENDING).getAndSet(null);
+        if (pending == null) {
+            return;
+        }
+        pending.timeout.cancel(false);
+        pending.future.completeExceptionally(cause instanceof IOException ? cause : new IOException(cause.getMessage(), cause));
+        ch.close();
+        pool.release(ch);
+    }
+
+    /**
+     * 获取构造时指定的请求路径(含查询参数)
+     */
+    public String getPath() {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        return uri.getRawQuery() != null ? path + "?" + uri.getRawQuery() : path;
+    }
+
+    private static ByteBuf gzip(byte[] raw) throws IOException {
+        ByteBuf buf = Unpooled.buffer(Math.max(64, raw.length / 4));
+        try (GZIPOutputStream out = new GZIPOutputStream(new ByteBufOutputStream(buf))) {
+            out.write(raw);
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+        return buf;
+    }
+
+    private static class PendingRequest {
+        final CompletableFuture<Response> future;
+        final long start;
+        ScheduledFuture<?> timeout;
+
+        PendingRequest(CompletableFuture<Response> future, long start) {
+            this.future = future;
+            this.start = start;
+        }
+    }
+
+    /**
+     * 响应处理器，在事件循环上完成请求的Future并归还连接
+     */
+    private class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse response) {
+            Channel ch = ctx.channel();
+            PendingRequest pending = ch.attr(PENDING).getAndSet(null);
+            if (pending == null) {
+                // 已超时的请求的迟到响应
+                return;
+            }
+            pending.timeout.cancel(false);
+            boolean keepAlive = HttpUtil.isKeepAlive(response);
+            pending.future.complete(new Response(response.status().code(),
+                    response.content().toString(CharsetUtil.UTF_8), System.nanoTime() - pending.start));
+            if (!keepAlive) {
+                ch.close();
+            }
+            pool.release(ch);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent && ctx.channel().attr(PENDING).get() == null) {
+                ctx.close();
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            fail(ctx.channel(), new IOException("EMS connection closed"));
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.warning("EMS connection error: " + cause.getMessage());
+            fail(ctx.channel(), cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * 关闭连接池
+     */
+    public void close() {
+        pool.close();
+    }
+
+    public String getUrl() {
+        return uri.toString();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * 获取请求延迟直方图，只统计收到响应的请求
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * 获取非2xx响应数
+     */
+    public long getHttpErrorCount() {
+        return httpErrorCount.get();
+    }
+
+    /**
+     * 获取连接或传输错误数
+     */
+    public long getIoErrorCount() {
+        return ioErrorCount.get();
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * 获取建立过的连接数，远小于请求数说明连接得到复用
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * 获取请求体压缩率(发送字节数/原始字节数)
+     */
+    public double getCompressionRatio() {
+        long raw = bodyBytes.get();
+        return raw == 0 ? 1 : (double) sentBytes.get() / raw;
+    }
+
+    /**
+     * 获取统计摘要
+     */
+    public String getMetrics() {
+        return String.format("requests=%d, ok=%d, httpErrors=%d, ioErrors=%d, timeouts=%d, inFlight=%d/%d, connections=%d, "
+                        + "compression=%.2f, latency[%s]",
+                getRequestCount(), getSuccessCount(), getHttpErrorCount(), getIoErrorCount(), getTimeoutCount(),
+                getInFlight(), maxInFlight, getConnectionCount(), getCompressionRatio(), latency);
+    }
+}
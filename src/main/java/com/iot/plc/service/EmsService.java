@@ -1,23 +1,55 @@
 package com.iot.plc.service;
 
+import com.iot.plc.database.BarcodeTraceManager;
+import com.iot.plc.database.EmsOutboxManager;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.OutboxEntry;
 import com.iot.plc.model.ProgramResult;
+import com.iot.plc.model.TraceEvent;
+import com.iot.plc.logger.LogManager;
 import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.util.CircuitBreaker;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.concurrent.ExecutorService;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 /**
  * EMS服务类
- * 用于处理与EMS系统的通信，将烧录结果发送到EMS系统
+ * 用于处理与EMS系统的通信，将烧录结果发送到EMS系统。
+ * 烧录结果先写入发件箱表(ems_outbox)，由单独的投递线程按入队顺序分批发送；
+ * 发送失败时整个队列按指数退避等待后从失败的记录继续，程序重启后继续投递未确认的记录。
+ * 每条记录以结果创建时生成的结果ID为幂等键，作为 Idempotency-Key 请求头发送，EMS据此识别重试造成的重复请求；
+ * 内容相同的两次烧录结果ID不同，不会被当作重复。
+ * 请求通过 {@link EmsHttpClient} 的长连接发送，一批记录同时在途的请求数不超过 ems.http.max_in_flight，
+ * 因此同一批内EMS收到的顺序可能与入队顺序不同；需要严格按顺序到达时将其设为1。
+ * 批量模式下一段时间(ems.bulk.linger_ms)内入队的结果合并为一个批量请求发送到批量接口，
+ * EMS在响应中逐条返回状态；批量接口不存在(404/405/501)时自动退回逐条发送。
+ * 投递前经过熔断器：EMS持续出错或响应过慢时熔断打开，期间不发出请求，结果只写入发件箱，
+ * 等待一段时间后以单条记录探测，成功则恢复投递。
  */
 public class EmsService {
     private static final Logger logger = LoggerFactory.getLogger(EmsService.class.getName());
@@ -26,11 +58,92 @@ public class EmsService {
     // 单例模式
     private static EmsService instance;
     
+    // 发件箱配置
+    private static final String BATCH_SIZE_KEY = "ems.outbox.batch_size";
+    private static final String MAX_BACKOFF_KEY = "ems.outbox.max_backoff_ms";
+    private static final String RETENTION_DAYS_KEY = "ems.outbox.retention_days";
+    private static final int DEFAULT_BATCH_SIZE = 50;
+    private static final int DEFAULT_MAX_BACKOFF_MS = 60000;
+    private static final int DEFAULT_RETENTION_DAYS = 7;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long POLL_INTERVAL_MS = 1000;
+    private static final long PURGE_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+    
+    // HTTP传输配置
+    private static final String MAX_IN_FLIGHT_KEY = "ems.http.max_in_flight";
+    private static final String TIMEOUT_KEY = "ems.http.timeout_ms";
+    private static final String GZIP_KEY = "ems.http.gzip";
+    private static final String GZIP_MIN_BYTES_KEY = "ems.http.gzip_min_bytes";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final int DEFAULT_TIMEOUT_MS = 5000;
+    private static final int DEFAULT_GZIP_MIN_BYTES = 1024;
+    
+    // 批量发送配置
+    private static final String BULK_ENABLED_KEY = "ems.bulk.enabled";
+    private static final String BULK_PATH_KEY = "ems.bulk.path";
+    private static final String BULK_MAX_ITEMS_KEY = "ems.bulk.max_items";
+    private static final String BULK_MAX_BYTES_KEY = "ems.bulk.max_bytes";
+    private static final String BULK_LINGER_KEY = "ems.bulk.linger_ms";
+    private static final int DEFAULT_BULK_MAX_ITEMS = 50;
+    private static final int DEFAULT_BULK_MAX_BYTES = 256 * 1024;
+    private static final int DEFAULT_BULK_LINGER_MS = 200;
+    
+    // 熔断配置
+    private static final String BREAKER_WINDOW_KEY = "ems.breaker.window_ms";
+    private static final String BREAKER_MIN_CALLS_KEY = "ems.breaker.min_calls";
+    private static final String BREAKER_FAILURE_RATE_KEY = "ems.breaker.failure_rate_percent";
+    private static final String BREAKER_SLOW_CALL_KEY = "ems.breaker.slow_call_ms";
+    private static final String BREAKER_OPEN_KEY = "ems.breaker.open_ms";
+    private static final String BREAKER_PROBES_KEY = "ems.breaker.half_open_probes";
+    private static final int DEFAULT_BREAKER_WINDOW_MS = 30000;
+    private static final int DEFAULT_BREAKER_MIN_CALLS = 5;
+    private static final int DEFAULT_BREAKER_FAILURE_RATE = 50;
+    private static final int DEFAULT_BREAKER_SLOW_CALL_MS = 3000;
+    private static final int DEFAULT_BREAKER_OPEN_MS = 15000;
+    private static final int DEFAULT_BREAKER_PROBES = 1;
+    
     // EMS系统API地址
-    private String emsApiUrl;
+    private volatile String emsApiUrl;
+    private volatile EmsHttpClient httpClient;
+    
+    // 投递线程，所有投递在这一个线程上顺序执行
+    private final ScheduledExecutorService deliveryExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ems-outbox");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean deliveryStarted = new AtomicBoolean(false);
+    private final AtomicBoolean wakeScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean lingerScheduled = new AtomicBoolean(false);
+    private final AtomicInteger lingering = new AtomicInteger();
+    private final EmsOutboxManager outbox = EmsOutboxManager.getInstance();
+    
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile long maxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+    private volatile int retentionDays = DEFAULT_RETENTION_DAYS;
+    private volatile boolean bulkEnabled = true;
+    private volatile boolean bulkSupported = true;
+    private volatile String bulkPath;
+    private volatile int bulkMaxItems = DEFAULT_BULK_MAX_ITEMS;
+    private volatile int bulkMaxBytes = DEFAULT_BULK_MAX_BYTES;
+    private volatile long bulkLingerMs = DEFAULT_BULK_LINGER_MS;
+    private volatile CircuitBreaker breaker = createBreaker(DEFAULT_BREAKER_WINDOW_MS, DEFAULT_BREAKER_MIN_CALLS,
+            DEFAULT_BREAKER_FAILURE_RATE, DEFAULT_BREAKER_SLOW_CALL_MS, DEFAULT_BREAKER_OPEN_MS, DEFAULT_BREAKER_PROBES);
+    private volatile LocalDateTime breakerChangedAt;
+    
+    // 投递状态，只在投递线程上修改
+    private int consecutiveFailures = 0;
+    private volatile long retryAt = 0;
+    private long lastPurgeAt = 0;
     
-    // 线程池
-    private final ExecutorService executorService = Executors.newFixedThreadPool(5);
+    // 统计
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong failedAttemptCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong duplicateEnqueueCount = new AtomicLong();
+    private final AtomicLong bulkRequestCount = new AtomicLong();
+    private final AtomicLong bulkItemCount = new AtomicLong();
+    private volatile String lastError;
     
     private EmsService() {
         // 私有构造函数
@@ -44,18 +157,86 @@ public class EmsService {
     }
     
     /**
-     * 初始化EMS服务
+     * 初始化EMS服务，启动发件箱投递线程
      * @param apiUrl EMS系统API地址
      */
     public void init(String apiUrl) {
+        int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        int timeoutMs = DEFAULT_TIMEOUT_MS;
+        boolean gzip = true;
+        int gzipMinBytes = DEFAULT_GZIP_MIN_BYTES;
+        String configuredBulkPath = null;
+        try {
+            ConfigService config = ConfigService.getInstance();
+            batchSize = Math.max(1, config.getIntConfigValue(BATCH_SIZE_KEY, DEFAULT_BATCH_SIZE));
+            maxBackoffMs = Math.max(MIN_BACKOFF_MS, config.getIntConfigValue(MAX_BACKOFF_KEY, DEFAULT_MAX_BACKOFF_MS));
+            retentionDays = Math.max(1, config.getIntConfigValue(RETENTION_DAYS_KEY, DEFAULT_RETENTION_DAYS));
+            maxInFlight = Math.max(1, config.getIntConfigValue(MAX_IN_FLIGHT_KEY, DEFAULT_MAX_IN_FLIGHT));
+            timeoutMs = Math.max(100, config.getIntConfigValue(TIMEOUT_KEY, DEFAULT_TIMEOUT_MS));
+            gzip = !"false".equalsIgnoreCase(config.getConfigValueByKey(GZIP_KEY));
+            gzipMinBytes = Math.max(0, config.getIntConfigValue(GZIP_MIN_BYTES_KEY, DEFAULT_GZIP_MIN_BYTES));
+            bulkEnabled = !"false".equalsIgnoreCase(config.getConfigValueByKey(BULK_ENABLED_KEY));
+            configuredBulkPath = config.getConfigValueByKey(BULK_PATH_KEY);
+            bulkMaxItems = Math.max(1, config.getIntConfigValue(BULK_MAX_ITEMS_KEY, DEFAULT_BULK_MAX_ITEMS));
+            bulkMaxBytes = Math.max(1024, config.getIntConfigValue(BULK_MAX_BYTES_KEY, DEFAULT_BULK_MAX_BYTES));
+            bulkLingerMs = Math.max(0, config.getIntConfigValue(BULK_LINGER_KEY, DEFAULT_BULK_LINGER_MS));
+            breaker = createBreaker(config.getIntConfigValue(BREAKER_WINDOW_KEY, DEFAULT_BREAKER_WINDOW_MS),
+                    config.getIntConfigValue(BREAKER_MIN_CALLS_KEY, DEFAULT_BREAKER_MIN_CALLS),
+                    config.getIntConfigValue(BREAKER_FAILURE_RATE_KEY, DEFAULT_BREAKER_FAILURE_RATE),
+                    config.getIntConfigValue(BREAKER_SLOW_CALL_KEY, DEFAULT_BREAKER_SLOW_CALL_MS),
+                    config.getIntConfigValue(BREAKER_OPEN_KEY, DEFAULT_BREAKER_OPEN_MS),
+                    config.getIntConfigValue(BREAKER_PROBES_KEY, DEFAULT_BREAKER_PROBES));
+        } catch (RuntimeException e) {
+            logger.warning("Failed to read EMS outbox config, using defaults: " + e.getMessage());
+        }
+        EmsHttpClient previous = httpClient;
+        try {
+            httpClient = new EmsHttpClient(apiUrl, maxInFlight, timeoutMs, gzip, gzipMinBytes);
+        } catch (RuntimeException e) {
+            logger.severe("Invalid EMS API URL " + apiUrl + ": " + e.getMessage());
+            return;
+        }
         this.emsApiUrl = apiUrl;
-        logger.info("EMS service initialized with API URL: " + apiUrl);
+        // 默认批量接口为结果接口下的 /bulk，地址变更后重新探测是否支持
+        String defaultPath = httpClient.getPath();
+        int query = defaultPath.indexOf('?');
+        if (query >= 0) {
+            defaultPath = defaultPath.substring(0, query);
+        }
+        bulkPath = configuredBulkPath != null && !configuredBulkPath.trim().isEmpty()
+                ? configuredBulkPath.trim() : (defaultPath.endsWith("/") ? defaultPath + "bulk" : defaultPath + "/bulk");
+        bulkSupported = true;
+        if (previous != null) {
+            // 旧连接池上在途的请求会失败，对应记录在下一轮按新地址重试
+            previous.close();
+        }
+        if (deliveryStarted.compareAndSet(false, true)) {
+            // 定期检查发件箱，重启前未投递的记录也由这里接着发送
+            deliveryExecutor.scheduleWithFixedDelay(this::deliverPending, 0, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        wakeUp();
+        logger.info("EMS service initialized with API URL: " + apiUrl + (bulkEnabled ? ", bulk path: " + bulkPath : ""));
+    }
+    
+    private CircuitBreaker createBreaker(int windowMs, int minCalls, int failureRatePercent, int slowCallMs,
+                                         int openMs, int probes) {
+        CircuitBreaker created = new CircuitBreaker("EMS", Math.max(1000, windowMs), minCalls,
+                Math.min(100, Math.max(1, failureRatePercent)) / 100.0, Math.max(0, slowCallMs), Math.max(1000, openMs), probes);
+        created.setListener((cb, from, to) -> {
+            breakerChangedAt = LocalDateTime.now();
+            if (to == CircuitBreaker.State.OPEN) {
+                logger.warning("EMS circuit breaker opened (was " + from + "), deliveries paused for "
+                        + cb.getRemainingOpenMillis() + " ms, results kept in outbox");
+            } else if (to == CircuitBreaker.State.CLOSED) {
+                logger.info("EMS circuit breaker closed, resuming delivery");
+                wakeUp();
+            } else {
+                logger.info("EMS circuit breaker half-open, probing EMS");
+            }
+        });
+        return created;
     }
     
-    /**
-     * 发送烧录结果到EMS系统
-     * @param result 烧录结果
-     */
     /**
      * 解析数据
      * @param rawData 原始数据
@@ -64,97 +245,575 @@ public class EmsService {
     public String parseData(String rawData) {
         return "{\"status\":\"success\",\"parsed\":\"" + rawData + "\"}";
     }
-
+    
+    /**
+     * 发送烧录结果到EMS系统
+     * 结果写入发件箱后立即返回，由投递线程异步发送
+     * @param result 烧录结果
+     */
     public void sendProgramResult(ProgramResult result) {
+        sendProgramResults(Collections.singletonList(result));
+    }
+    
+    /**
+     * 批量发送烧录结果到EMS系统，一组结果在同一事务中写入发件箱
+     * @param results 烧录结果列表
+     */
+    public void sendProgramResults(List<ProgramResult> results) {
         if (emsApiUrl == null || emsApiUrl.isEmpty()) {
             logger.warning("EMS API URL not configured");
             return;
         }
         
-        // 使用线程池异步发送
-        executorService.submit(() -> {
+        List<OutboxEntry> entries = new ArrayList<>(results.size());
+        for (ProgramResult result : results) {
             try {
-                // 转换为JSON
-                String json = gson.toJson(result);
-                
-                // 发送HTTP请求
-                URL url = new URL(emsApiUrl);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("POST");
-                conn.setRequestProperty("Content-Type", "application/json");
-                conn.setRequestProperty("Accept", "application/json");
-                conn.setDoOutput(true);
-                
-                // 设置超时
-                conn.setConnectTimeout(5000);
-                conn.setReadTimeout(5000);
-                
-                // 发送请求体
-                try (OutputStream os = conn.getOutputStream()) {
-                    byte[] input = json.getBytes("utf-8");
-                    os.write(input, 0, input.length);
+                entries.add(new OutboxEntry(idempotencyKey(result), result.getBatchId(), gson.toJson(result)));
+            } catch (RuntimeException e) {
+                logger.severe("Error serializing program result for EMS: " + e.getMessage());
+            }
+        }
+        try {
+            int inserted = outbox.enqueue(entries);
+            if (inserted < entries.size()) {
+                duplicateEnqueueCount.addAndGet(entries.size() - inserted);
+                logger.info("Skipped " + (entries.size() - inserted) + " program result(s) already in EMS outbox");
+            }
+            if (isBulkActive() && bulkLingerMs > 0 && lingering.addAndGet(inserted) < bulkMaxItems) {
+                // 等待一段时间，让后续结果合并到同一个批量请求
+                wakeUpAfterLinger();
+                return;
+            }
+        } catch (SQLException e) {
+            logger.severe("Error writing program results to EMS outbox: " + e.getMessage());
+            return;
+        }
+        wakeUp();
+    }
+    
+    /**
+     * 幂等键即结果ID，同一个结果对象重复提交时键相同；没有结果ID(如外部反序列化时显式置空)的结果在此补发一个
+     */
+    static String idempotencyKey(ProgramResult result) {
+        if (result.getResultId() == null || result.getResultId().isEmpty()) {
+            result.setResultId(UUID.randomUUID().toString());
+        }
+        return result.getResultId();
+    }
+    
+    /**
+     * 唤醒投递线程，已有待执行的唤醒时不重复提交
+     */
+    private void wakeUp() {
+        if (!deliveryStarted.get() || !wakeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            deliveryExecutor.execute(() -> {
+                wakeScheduled.set(false);
+                deliverPending();
+            });
+        } catch (RejectedExecutionException e) {
+            wakeScheduled.set(false);
+        }
+    }
+    
+    /**
+     * 在合并窗口结束时唤醒投递线程，窗口内只安排一次
+     */
+    private void wakeUpAfterLinger() {
+        if (!deliveryStarted.get() || !lingerScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            deliveryExecutor.schedule(() -> {
+                lingerScheduled.set(false);
+                deliverPending();
+            }, bulkLingerMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            lingerScheduled.set(false);
+        }
+    }
+    
+    /**
+     * 按入队顺序投递发件箱中的记录，直到发件箱为空或遇到需要重试的失败
+     * 只在投递线程上执行
+     */
+    private void deliverPending() {
+        try {
+            purgeIfDue();
+            EmsHttpClient client = httpClient;
+            if (client == null || System.currentTimeMillis() < retryAt) {
+                return;
+            }
+            lingering.set(0);
+            CircuitBreaker cb = breaker;
+            if (cb.rejectIfOpen()) {
+                // 熔断中，记录留在发件箱，不读取也不发送
+                return;
+            }
+            List<OutboxEntry> entries = outbox.fetchPending(Math.max(batchSize, isBulkActive() ? bulkMaxItems : 0));
+            while (!entries.isEmpty()) {
+                if (!cb.tryAcquire()) {
+                    return;
                 }
-                
-                // 获取响应
-                int responseCode = conn.getResponseCode();
-                
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    // 读取响应
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"))) {
-                        StringBuilder response = new StringBuilder();
-                        String responseLine;
-                        while ((responseLine = br.readLine()) != null) {
-                            response.append(responseLine.trim());
-                        }
-                        logger.info("EMS response: " + response.toString());
+                if (cb.getState() == CircuitBreaker.State.HALF_OPEN) {
+                    // 半开状态只发送一条记录探测EMS是否恢复
+                    entries = entries.subList(0, 1);
+                }
+                // 一批记录同时发出，由连接池限制在途请求数，再按入队顺序处理结果
+                List<CompletableFuture<Delivery>> deliveries = new ArrayList<>(entries.size());
+                if (isBulkActive()) {
+                    for (List<OutboxEntry> chunk : splitBulk(entries)) {
+                        deliveries.addAll(postBulk(client, chunk));
                     }
-                    
-                    logger.info("Program result sent to EMS successfully");
                 } else {
-                    logger.warning("Failed to send program result to EMS. Response code: " + responseCode);
-                    
-                    // 读取错误响应
-                    try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getErrorStream(), "utf-8"))) {
-                        StringBuilder response = new StringBuilder();
-                        String responseLine;
-                        while ((responseLine = br.readLine()) != null) {
-                            response.append(responseLine.trim());
-                        }
-                        logger.warning("EMS error response: " + response.toString());
+                    for (OutboxEntry entry : entries) {
+                        deliveries.add(post(client, entry));
                     }
-                    
-                    // 重试逻辑
-                    scheduleRetry(result);
                 }
-            } catch (Exception e) {
-                logger.severe("Error sending program result to EMS: " + e.getMessage());
-                
-                // 重试逻辑
-                scheduleRetry(result);
+                List<Long> acked = new ArrayList<>(entries.size());
+                List<TraceEvent> traceEvents = new ArrayList<>();
+                OutboxEntry failedEntry = null;
+                String failedDetail = null;
+                for (int i = 0; i < entries.size(); i++) {
+                    OutboxEntry entry = entries.get(i);
+                    Delivery delivery = deliveries.get(i).join();
+                    if (delivery.outcome == Outcome.ACKED) {
+                        // 失败记录之后已被确认的记录同样标记，重试时不再重复发送
+                        acked.add(entry.getId());
+                        addTraceEvents(traceEvents, entry, true, delivery.detail);
+                    } else if (delivery.outcome == Outcome.REJECTED) {
+                        // 重试也不会成功，跳过以免阻塞后续记录
+                        outbox.markRejected(entry.getId(), delivery.detail);
+                        rejectedCount.incrementAndGet();
+                        addTraceEvents(traceEvents, entry, false, delivery.detail);
+                    } else if (failedEntry == null) {
+                        failedEntry = entry;
+                        failedDetail = delivery.detail;
+                    } else {
+                        outbox.markFailed(entry.getId(), delivery.detail);
+                    }
+                }
+                outbox.markAcked(acked);
+                deliveredCount.addAndGet(acked.size());
+                recordTraceEvents(traceEvents);
+                if (failedEntry != null) {
+                    onRetryableFailure(failedEntry, failedDetail);
+                    return;
+                }
+                if (consecutiveFailures > 0) {
+                    logger.info("EMS delivery recovered after " + consecutiveFailures + " failed attempt(s)");
+                }
+                consecutiveFailures = 0;
+                lastError = null;
+                if (cb.getState() == CircuitBreaker.State.OPEN) {
+                    return;
+                }
+                entries = outbox.fetchPending(Math.max(batchSize, isBulkActive() ? bulkMaxItems : 0));
             }
-        });
+        } catch (SQLException e) {
+            logger.severe("Error reading EMS outbox: " + e.getMessage());
+        } catch (RuntimeException e) {
+            logger.severe("Error delivering EMS outbox: " + e.getMessage());
+        }
     }
     
     /**
-     * 计划重试发送
-     * @param result 烧录结果
+     * 记录一次可重试的失败，整个队列按指数退避暂停
      */
-    private void scheduleRetry(ProgramResult result) {
-        executorService.submit(() -> {
-            try {
-                logger.info("Scheduling retry in 5 seconds...");
-                Thread.sleep(5000);
-                sendProgramResult(result);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+    private void onRetryableFailure(OutboxEntry entry, String detail) throws SQLException {
+        outbox.markFailed(entry.getId(), detail);
+        failedAttemptCount.incrementAndGet();
+        lastError = detail;
+        if (entry.getAttempts() == 0) {
+            List<TraceEvent> traceEvents = new ArrayList<>();
+            addTraceEvents(traceEvents, entry, false, detail);
+            recordTraceEvents(traceEvents);
+        }
+        consecutiveFailures++;
+        long backoff = Math.min(maxBackoffMs, MIN_BACKOFF_MS << Math.min(consecutiveFailures - 1, 16));
+        retryAt = System.currentTimeMillis() + backoff;
+        logger.warning("Failed to send program result to EMS (" + detail + "), batchId: " + entry.getBatchId()
+                + ", retrying in " + backoff + " ms");
+    }
+    
+    private void purgeIfDue() throws SQLException {
+        long now = System.currentTimeMillis();
+        if (now - lastPurgeAt < PURGE_INTERVAL_MS) {
+            return;
+        }
+        lastPurgeAt = now;
+        outbox.purgeAcked(LocalDateTime.now().minusDays(retentionDays));
+    }
+    
+    private enum Outcome {
+        ACKED, REJECTED, RETRY
+    }
+    
+    private static class Delivery {
+        final Outcome outcome;
+        final String detail;
+        
+        Delivery(Outcome outcome, String detail) {
+            this.outcome = outcome;
+            this.detail = detail;
+        }
+    }
+    
+    /**
+     * 发送一条记录
+     * 2xx视为确认；409表示EMS已按幂等键处理过，同样视为确认；
+     * 408、429和5xx以及网络异常、超时需要重试，其余4xx为请求本身有误，重试无意义
+     */
+    private CompletableFuture<Delivery> post(EmsHttpClient client, OutboxEntry entry) {
+        return client.post(entry.getPayload(), Collections.singletonMap("Idempotency-Key", entry.getIdempotencyKey()))
+                .handle((response, error) -> {
+                    recordCall(response, error);
+                    if (error != null) {
+                        return retry(error);
+                    }
+                    int responseCode = response.getStatusCode();
+                    if (isAcked(responseCode)) {
+                        logger.fine("EMS response: " + response.getBody());
+                    } else {
+                        logger.warning("EMS error response: " + response.getBody());
+                    }
+                    return classify(responseCode);
+                });
+    }
+    
+    /**
+     * 把一次请求的结果计入熔断器，连接错误、超时和服务端错误计为失败，请求有误(4xx)说明EMS可用，计为成功
+     */
+    private void recordCall(EmsHttpClient.Response response, Throwable error) {
+        if (error != null || isServerFailure(response.getStatusCode())) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess(response.getLatencyNanos());
+        }
+    }
+    
+    private static boolean isServerFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+    
+    private static boolean isAcked(int statusCode) {
+        return statusCode >= 200 && statusCode < 300 || statusCode == 409;
+    }
+    
+    private static Delivery classify(int statusCode) {
+        String detail = "HTTP " + statusCode;
+        if (isAcked(statusCode)) {
+            return new Delivery(Outcome.ACKED, detail);
+        }
+        return new Delivery(isServerFailure(statusCode) ? Outcome.RETRY : Outcome.REJECTED, detail);
+    }
+    
+    private static Delivery retry(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        return new Delivery(Outcome.RETRY, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName());
+    }
+    
+    /**
+     * 按条数和请求体大小上限把记录分成若干个批量请求
+     */
+    private List<List<OutboxEntry>> splitBulk(List<OutboxEntry> entries) {
+        List<List<OutboxEntry>> chunks = new ArrayList<>();
+        List<OutboxEntry> chunk = new ArrayList<>();
+        int bytes = 0;
+        for (OutboxEntry entry : entries) {
+            int size = entry.getPayload().length() + 64;
+            if (!chunk.isEmpty() && (chunk.size() >= bulkMaxItems || bytes + size > bulkMaxBytes)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                bytes = 0;
             }
-        });
+            chunk.add(entry);
+            bytes += size;
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+    
+    /**
+     * 以一个批量请求发送一组记录，返回与记录一一对应的投递结果
+     * 请求体: {"items":[{"idempotencyKey":"...","result":{...}}, ...]}
+     * 响应体: {"items":[{"idempotencyKey":"...","status":200}, ...]}，每条状态按单条发送的响应码规则处理，
+     * 响应中缺少的记录视为需要重试；批量接口不存在时退回逐条发送，整体被拒收(其他4xx)时本批逐条发送以定位有误的记录
+     */
+    private List<CompletableFuture<Delivery>> postBulk(EmsHttpClient client, List<OutboxEntry> chunk) {
+        StringBuilder body = new StringBuilder(chunk.size() * 256);
+        StringBuilder keys = new StringBuilder();
+        body.append("{\"items\":[");
+        for (int i = 0; i < chunk.size(); i++) {
+            OutboxEntry entry = chunk.get(i);
+            if (i > 0) {
+                body.append(',');
+            }
+            // 幂等键为UUID，无需转义；payload本身是JSON，直接嵌入
+            body.append("{\"idempotencyKey\":\"").append(entry.getIdempotencyKey())
+                    .append("\",\"result\":").append(entry.getPayload()).append('}');
+            keys.append(entry.getIdempotencyKey());
+        }
+        body.append("]}");
+        String bulkKey = UUID.nameUUIDFromBytes(keys.toString().getBytes(StandardCharsets.UTF_8)).toString();
+        bulkRequestCount.incrementAndGet();
+        bulkItemCount.addAndGet(chunk.size());
+        
+        CompletableFuture<List<Delivery>> bulk = client.post(bulkPath, body.toString(),
+                Collections.singletonMap("Idempotency-Key", bulkKey))
+                .handle((response, error) -> {
+                    recordCall(response, error);
+                    if (error != null) {
+                        return Collections.nCopies(chunk.size(), retry(error));
+                    }
+                    int responseCode = response.getStatusCode();
+                    if (responseCode == 404 || responseCode == 405 || responseCode == 501) {
+                        if (bulkSupported) {
+                            bulkSupported = false;
+                            logger.warning("EMS bulk endpoint " + bulkPath + " not supported (HTTP " + responseCode
+                                    + "), falling back to single sends");
+                        }
+                        return null;
+                    }
+                    if (!isAcked(responseCode)) {
+                        logger.warning("EMS bulk error response: " + response.getBody());
+                        Delivery delivery = classify(responseCode);
+                        return delivery.outcome == Outcome.REJECTED ? null : Collections.nCopies(chunk.size(), delivery);
+                    }
+                    return parseBulkResponse(chunk, response.getBody());
+                })
+                .thenCompose(deliveries -> {
+                    if (deliveries != null) {
+                        return CompletableFuture.completedFuture(deliveries);
+                    }
+                    List<CompletableFuture<Delivery>> singles = new ArrayList<>(chunk.size());
+                    for (OutboxEntry entry : chunk) {
+                        singles.add(post(client, entry));
+                    }
+                    return CompletableFuture.allOf(singles.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                        List<Delivery> results = new ArrayList<>(singles.size());
+                        for (CompletableFuture<Delivery> single : singles) {
+                            results.add(single.join());
+                        }
+                        return results;
+                    });
+                });
+        
+        List<CompletableFuture<Delivery>> deliveries = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            int index = i;
+            deliveries.add(bulk.thenApply(results -> results.get(index)));
+        }
+        return deliveries;
+    }
+    
+    /**
+     * 解析批量响应中每条记录的状态
+     */
+    private List<Delivery> parseBulkResponse(List<OutboxEntry> chunk, String body) {
+        Map<String, Integer> statuses = new HashMap<>();
+        try {
+            JsonElement root = JsonParser.parseString(body);
+            JsonArray items = root.isJsonObject() && root.getAsJsonObject().has("items")
+                    ? root.getAsJsonObject().getAsJsonArray("items") : null;
+            if (items != null) {
+                for (JsonElement item : items) {
+                    JsonObject object = item.getAsJsonObject();
+                    statuses.put(object.get("idempotencyKey").getAsString(), object.get("status").getAsInt());
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warning("Invalid EMS bulk response: " + e.getMessage());
+        }
+        List<Delivery> deliveries = new ArrayList<>(chunk.size());
+        for (OutboxEntry entry : chunk) {
+            Integer status = statuses.get(entry.getIdempotencyKey());
+            deliveries.add(status != null ? classify(status) : new Delivery(Outcome.RETRY, "missing in EMS bulk response"));
+        }
+        return deliveries;
+    }
+    
+    /**
+     * 为记录中的每个条码生成EMS回传事件，一批记录的事件汇总后由 recordTraceEvents 在一个事务中写入
+     * @param events 追加到的事件列表
+     * @param entry 发件箱记录
+     * @param success 是否回传成功
+     * @param detail 响应码或错误信息
+     */
+    private void addTraceEvents(List<TraceEvent> events, OutboxEntry entry, boolean success, String detail) {
+        if (!LogManager.getInstance().isLoggingEnabled()) {
+            return;
+        }
+        ProgramResult result;
+        try {
+            result = gson.fromJson(entry.getPayload(), ProgramResult.class);
+        } catch (RuntimeException e) {
+            return;
+        }
+        if (result == null || result.getResults() == null) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        for (DeviceResult deviceResult : result.getResults()) {
+            events.add(new TraceEvent(deviceResult.getBarcode(), TraceEvent.EMS, now,
+                    deviceResult.getDeviceId(), result.getBatchId(), success, detail));
+        }
+    }
+    
+    private void recordTraceEvents(List<TraceEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            BarcodeTraceManager.getInstance().recordEvents(events);
+        } catch (SQLException e) {
+            logger.warning("Failed to record EMS trace events: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * 获取发件箱中待投递的记录数
+     */
+    public int getPendingCount() {
+        try {
+            return outbox.countByStatus(EmsOutboxManager.STATUS_PENDING);
+        } catch (SQLException e) {
+            logger.warning("Failed to count EMS outbox: " + e.getMessage());
+            return -1;
+        }
+    }
+    
+    /**
+     * 获取本次运行已确认的记录数
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+    
+    /**
+     * 获取本次运行失败的投递次数
+     */
+    public long getFailedAttemptCount() {
+        return failedAttemptCount.get();
     }
     
     /**
-     * 关闭服务
+     * 获取本次运行被EMS拒收的记录数
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+    
+    /**
+     * 获取因幂等键已存在而忽略的入队次数
+     */
+    public long getDuplicateEnqueueCount() {
+        return duplicateEnqueueCount.get();
+    }
+    
+    /**
+     * 获取最近一次投递失败的原因，投递恢复后为null
+     */
+    public String getLastError() {
+        return lastError;
+    }
+    
+    /**
+     * 投递是否处于失败退避中
+     */
+    public boolean isBackingOff() {
+        return System.currentTimeMillis() < retryAt;
+    }
+    
+    /**
+     * 获取EMS熔断器
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+    
+    /**
+     * 获取熔断器状态
+     */
+    public CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+    
+    /**
+     * 获取熔断器最近一次状态变化的时间，未变化过时为null
+     */
+    public LocalDateTime getCircuitChangedAt() {
+        return breakerChangedAt;
+    }
+    
+    /**
+     * 获取用于界面显示的EMS状态
+     */
+    public String getStatusSummary() {
+        if (httpClient == null) {
+            return "未连接";
+        }
+        CircuitBreaker cb = breaker;
+        switch (cb.getState()) {
+            case OPEN:
+                return String.format("熔断中(%ds后探测, 待投递%d)", (cb.getRemainingOpenMillis() + 999) / 1000, getPendingCount());
+            case HALF_OPEN:
+                return "探测中";
+            default:
+                int pending = getPendingCount();
+                return pending > 0 ? "已连接(待投递" + pending + ")" : "已连接";
+        }
+    }
+    
+    /**
+     * 批量发送是否生效(已启用且EMS支持批量接口)
+     */
+    public boolean isBulkActive() {
+        return bulkEnabled && bulkSupported;
+    }
+    
+    /**
+     * 获取本次运行发出的批量请求数
+     */
+    public long getBulkRequestCount() {
+        return bulkRequestCount.get();
+    }
+    
+    /**
+     * 获取平均每个批量请求合并的记录数
+     */
+    public double getAverageBulkSize() {
+        long requests = bulkRequestCount.get();
+        return requests == 0 ? 0 : (double) bulkItemCount.get() / requests;
+    }
+    
+    /**
+     * 获取HTTP传输的统计摘要(请求数、错误数、连接数、压缩率和延迟分布)
+     */
+    public String getHttpMetrics() {
+        EmsHttpClient client = httpClient;
+        return client != null ? client.getMetrics() + ", " + breaker : "未初始化";
+    }
+    
+    /**
+     * 获取HTTP传输客户端，未初始化时为null
+     */
+    public EmsHttpClient getHttpClient() {
+        return httpClient;
+    }
+    
+    /**
+     * 关闭服务，未投递的记录留在发件箱中，下次启动后继续投递
      */
     public void shutdown() {
-        executorService.shutdown();
+        deliveryExecutor.shutdownNow();
+        EmsHttpClient client = httpClient;
+        if (client != null) {
+            client.close();
+        }
     }
-}
\ No newline at end of file
+}
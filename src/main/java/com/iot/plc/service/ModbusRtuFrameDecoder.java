@@ -0,0 +1,180 @@
+package com.iot.plc.service;
+
+import com.iot.plc.logger.LoggerFactory;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Modbus RTU over TCP 帧解码器
+ * RTU报文没有长度字段，报文格式为 [从站地址1字节][功能码1字节][数据][CRC16 2字节，低字节在前]。
+ * 按功能码推算请求或响应报文的候选长度，数据到齐后用CRC确认；所有候选都校验失败时丢弃一个字节重新同步。
+ * 干扰字节可能推算出一个永远等不到的长度，因此未完成的数据静默超过帧间隔后视为残帧，逐字节丢弃直到找到完整报文，
+ * 对应RTU协议以3.5字符静默划分报文的规则。
+ */
+public class ModbusRtuFrameDecoder extends ByteToMessageDecoder {
+    private static final Logger logger = LoggerFactory.getLogger(ModbusRtuFrameDecoder.class.getName());
+
+    // RTU报文最长256字节
+    private static final int MAX_FRAME = 256;
+    private static final int MIN_FRAME = 4;
+    // 经网关转发时帧间隔无法精确到3.5字符，按毫秒级静默判断
+    private static final long FRAME_GAP_MILLIS = 100;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0xA001 : crc >>> 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private int discarded;
+    private long reads;
+    private ScheduledFuture<?> gapTimer;
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+        reads++;
+        if (!decodeFrames(ctx, in, out, false) && gapTimer == null) {
+            scheduleGapCheck(ctx, reads);
+        }
+    }
+
+    /**
+     * 帧间隔内没有新数据时按残帧处理剩余数据
+     */
+    private void scheduleGapCheck(ChannelHandlerContext ctx, long readsAtSchedule) {
+        gapTimer = ctx.executor().schedule(() -> {
+            gapTimer = null;
+            ByteBuf buffer = internalBuffer();
+            if (!ctx.channel().isActive() || !buffer.isReadable()) {
+                return;
+            }
+            if (reads != readsAtSchedule) {
+                scheduleGapCheck(ctx, reads);
+                return;
+            }
+            List<Object> out = new ArrayList<>();
+            decodeFrames(ctx, buffer, out, true);
+            if (discarded > 0) {
+                logger.warning("Modbus RTU: discarded " + discarded + " byte(s) of incomplete frame from " + ctx.channel().remoteAddress());
+                discarded = 0;
+            }
+            for (Object frame : out) {
+                ctx.fireChannelRead(frame);
+            }
+            if (!out.isEmpty()) {
+                ctx.fireChannelReadComplete();
+            }
+        }, FRAME_GAP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext ctx) {
+        if (gapTimer != null) {
+            gapTimer.cancel(false);
+            gapTimer = null;
+        }
+    }
+
+    /**
+     * 切分出缓冲区中的完整报文
+     * @param gapElapsed 已超过帧间隔，等待中的候选长度不再等待
+     * @return 缓冲区是否已处理完，false表示剩余数据在等待后续字节
+     */
+    private boolean decodeFrames(ChannelHandlerContext ctx, ByteBuf in, List<Object> out, boolean gapElapsed) {
+        while (in.readableBytes() >= MIN_FRAME) {
+            int start = in.readerIndex();
+            int readable = in.readableBytes();
+            int[] candidates = candidateLengths(in, start, readable);
+            boolean waiting = false;
+            int matched = 0;
+            for (int length : candidates) {
+                if (length < 0) {
+                    // 推算长度所需的字节还没到
+                    waiting = true;
+                } else if (length > MAX_FRAME) {
+                    continue;
+                } else if (length > readable) {
+                    waiting = true;
+                } else if (crc16(in, start, length - 2) == in.getUnsignedShortLE(start + length - 2)) {
+                    matched = length;
+                    break;
+                }
+            }
+            if (matched > 0) {
+                if (discarded > 0) {
+                    logger.warning("Modbus RTU: discarded " + discarded + " byte(s) before a valid frame from " + ctx.channel().remoteAddress());
+                    discarded = 0;
+                }
+                out.add(in.readRetainedSlice(matched));
+            } else if (waiting && !gapElapsed) {
+                return false;
+            } else {
+                in.skipBytes(1);
+                discarded++;
+            }
+        }
+        if (gapElapsed && in.isReadable()) {
+            discarded += in.readableBytes();
+            in.skipBytes(in.readableBytes());
+        }
+        return !in.isReadable();
+    }
+
+    /**
+     * 按功能码推算候选报文长度，-1表示还需要更多字节才能推算
+     */
+    private static int[] candidateLengths(ByteBuf in, int start, int readable) {
+        int function = in.getUnsignedByte(start + 1);
+        if ((function & 0x80) != 0) {
+            // 异常响应: 地址 功能码 异常码 CRC
+            return new int[]{5};
+        }
+        switch (function) {
+            case 0x01:
+            case 0x02:
+            case 0x03:
+            case 0x04:
+                // 请求: 地址 功能码 起始地址(2) 数量(2) CRC；响应: 地址 功能码 字节数 数据 CRC
+                return new int[]{8, readable > 2 ? 5 + in.getUnsignedByte(start + 2) : -1};
+            case 0x05:
+            case 0x06:
+                // 请求和响应相同: 地址 功能码 地址(2) 值(2) CRC
+                return new int[]{8};
+            case 0x0F:
+            case 0x10:
+                // 响应: 地址 功能码 起始地址(2) 数量(2) CRC；请求: 地址 功能码 起始地址(2) 数量(2) 字节数 数据 CRC
+                return new int[]{8, readable > 6 ? 9 + in.getUnsignedByte(start + 6) : -1};
+            case 0x17:
+                // 读写多个寄存器，响应: 地址 功能码 字节数 数据 CRC；请求: 地址 功能码 读地址(2) 读数量(2) 写地址(2) 写数量(2) 字节数 数据 CRC
+                return new int[]{readable > 2 ? 5 + in.getUnsignedByte(start + 2) : -1,
+                        readable > 10 ? 13 + in.getUnsignedByte(start + 10) : -1};
+            default:
+                return new int[0];
+        }
+    }
+
+    /**
+     * 计算Modbus CRC16(多项式0xA001，初值0xFFFF)
+     */
+    public static int crc16(ByteBuf buf, int offset, int length) {
+        int crc = 0xFFFF;
+        for (int i = offset; i < offset + length; i++) {
+            crc = (crc >>> 8) ^ CRC_TABLE[(crc ^ buf.getByte(i)) & 0xFF];
+        }
+        return crc;
+    }
+}
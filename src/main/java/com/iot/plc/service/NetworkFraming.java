@@ -0,0 +1,480 @@
+package com.iot.plc.service;
+
+import com.iot.plc.model.ConfigItem;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.DelimiterBasedFrameDecoder;
+import io.netty.handler.codec.FixedLengthFrameDecoder;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * 网络接收分帧配置
+ * TCP是字节流，一次读取可能包含半个或多个报文，按设备协议选择分帧方式后，
+ * 由管道中的帧解码器切分出完整报文再交给监听器。UDP数据报本身即是完整报文，不做分帧。
+ * 默认配置保存在 config_items 的 network.framing.* 配置项中；协议不同的设备可以按对端地址单独配置，
+ * 保存在 network.framing.endpoint.{地址}.* 中，地址可以是 IP、IP:端口 或 IP/前缀长度 表示的网段。
+ */
+public class NetworkFraming {
+
+    public enum Type {
+        // 不分帧，每次读取的数据作为一条报文(原有行为)
+        NONE("不分帧"),
+        // 按分隔符切分，分隔符不包含在报文中
+        DELIMITER("分隔符"),
+        // 报文头中带长度字段
+        LENGTH_FIELD("长度字段"),
+        // 固定长度
+        FIXED_LENGTH("固定长度"),
+        // Modbus TCP，按MBAP报文头的长度字段切分
+        MODBUS_TCP("Modbus TCP"),
+        // Modbus RTU over TCP，按功能码推算报文长度并校验CRC
+        MODBUS_RTU("Modbus RTU");
+
+        private final String displayName;
+
+        Type(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        public static Type fromDisplayName(String displayName) {
+            for (Type type : values()) {
+                if (type.displayName.equals(displayName)) {
+                    return type;
+                }
+            }
+            return NONE;
+        }
+    }
+
+    private static final String KEY_PREFIX = "network.framing.";
+    // 按对端地址的分帧配置，键为 前缀 + 地址 + "." + 参数名
+    public static final String ENDPOINT_KEY_PREFIX = KEY_PREFIX + "endpoint.";
+
+    private static final String TYPE = "type";
+    private static final String DELIMITER = "delimiter";
+    private static final String LENGTH_FIELD_OFFSET = "lengthFieldOffset";
+    private static final String LENGTH_FIELD_LENGTH = "lengthFieldLength";
+    private static final String LITTLE_ENDIAN = "littleEndian";
+    private static final String LENGTH_ADJUSTMENT = "lengthAdjustment";
+    private static final String STRIP_BYTES = "stripBytes";
+    private static final String FIXED_LENGTH = "fixedLength";
+    private static final String MAX_FRAME_LENGTH = "maxFrameLength";
+    private static final String[] FIELDS = {TYPE, DELIMITER, LENGTH_FIELD_OFFSET, LENGTH_FIELD_LENGTH, LITTLE_ENDIAN,
+            LENGTH_ADJUSTMENT, STRIP_BYTES, FIXED_LENGTH, MAX_FRAME_LENGTH};
+
+    public static final String KEY_TYPE = KEY_PREFIX + TYPE;
+    public static final String KEY_DELIMITER = KEY_PREFIX + DELIMITER;
+    public static final String KEY_LENGTH_FIELD_OFFSET = KEY_PREFIX + LENGTH_FIELD_OFFSET;
+    public static final String KEY_LENGTH_FIELD_LENGTH = KEY_PREFIX + LENGTH_FIELD_LENGTH;
+    public static final String KEY_LITTLE_ENDIAN = KEY_PREFIX + LITTLE_ENDIAN;
+    public static final String KEY_LENGTH_ADJUSTMENT = KEY_PREFIX + LENGTH_ADJUSTMENT;
+    public static final String KEY_STRIP_BYTES = KEY_PREFIX + STRIP_BYTES;
+    public static final String KEY_FIXED_LENGTH = KEY_PREFIX + FIXED_LENGTH;
+    public static final String KEY_MAX_FRAME_LENGTH = KEY_PREFIX + MAX_FRAME_LENGTH;
+
+    // 精确到端口的地址优先于单个地址，单个地址优先于任何网段
+    private static final int MATCH_HOST_PORT = 1000;
+    private static final int MATCH_HOST = 200;
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+
+    // Modbus TCP报文最长260字节(MBAP头7字节+PDU 253字节)
+    private static final int MODBUS_TCP_MAX_FRAME = 260;
+
+    private Type type = Type.NONE;
+    private String delimiter = "\\r\\n";
+    private int lengthFieldOffset = 0;
+    private int lengthFieldLength = 2;
+    private boolean littleEndian = false;
+    private int lengthAdjustment = 0;
+    private int stripBytes = 0;
+    private int fixedLength = 0;
+    private int maxFrameLength = 65536;
+
+    public NetworkFraming() {
+    }
+
+    public NetworkFraming(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * 从配置管理系统加载默认配置，没有配置时为不分帧
+     */
+    public static NetworkFraming load() {
+        ConfigService config = ConfigService.getInstance();
+        return load(field -> config.getConfigValueByKey(KEY_PREFIX + field));
+    }
+
+    /**
+     * 从配置管理系统加载所有按地址的分帧配置
+     * @return 地址到分帧配置，按地址排序
+     */
+    public static Map<String, NetworkFraming> loadEndpoints() {
+        Map<String, String> values = new HashMap<>();
+        for (ConfigItem item : ConfigService.getInstance().getAllConfigItems()) {
+            if (item.getConfigKey().startsWith(ENDPOINT_KEY_PREFIX)) {
+                values.put(item.getConfigKey(), item.getConfigValue());
+            }
+        }
+        Map<String, NetworkFraming> endpoints = new TreeMap<>();
+        String typeSuffix = "." + TYPE;
+        for (String key : values.keySet()) {
+            if (key.endsWith(typeSuffix)) {
+                String endpoint = key.substring(ENDPOINT_KEY_PREFIX.length(), key.length() - typeSuffix.length());
+                endpoints.put(endpoint, load(field -> values.get(endpointKey(endpoint, field))));
+            }
+        }
+        return endpoints;
+    }
+
+    private static NetworkFraming load(Function<String, String> lookup) {
+        NetworkFraming framing = new NetworkFraming();
+        String type = lookup.apply(TYPE);
+        if (type != null) {
+            try {
+                framing.type = Type.valueOf(type.trim());
+            } catch (IllegalArgumentException e) {
+                framing.type = Type.NONE;
+            }
+        }
+        String delimiter = lookup.apply(DELIMITER);
+        if (delimiter != null) {
+            framing.delimiter = delimiter;
+        }
+        framing.lengthFieldOffset = intValue(lookup.apply(LENGTH_FIELD_OFFSET), framing.lengthFieldOffset);
+        framing.lengthFieldLength = intValue(lookup.apply(LENGTH_FIELD_LENGTH), framing.lengthFieldLength);
+        framing.littleEndian = Boolean.parseBoolean(lookup.apply(LITTLE_ENDIAN));
+        framing.lengthAdjustment = intValue(lookup.apply(LENGTH_ADJUSTMENT), framing.lengthAdjustment);
+        framing.stripBytes = intValue(lookup.apply(STRIP_BYTES), framing.stripBytes);
+        framing.fixedLength = intValue(lookup.apply(FIXED_LENGTH), framing.fixedLength);
+        framing.maxFrameLength = intValue(lookup.apply(MAX_FRAME_LENGTH), framing.maxFrameLength);
+        return framing;
+    }
+
+    private static int intValue(String value, int defaultValue) {
+        try {
+            return value != null && !value.trim().isEmpty() ? Integer.parseInt(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * 保存为默认配置
+     */
+    public void save() {
+        save(KEY_PREFIX, "");
+    }
+
+    /**
+     * 保存为指定地址的分帧配置
+     * @param endpoint IP、IP:端口 或 IP/前缀长度
+     */
+    public void save(String endpoint) {
+        save(ENDPOINT_KEY_PREFIX + endpoint + ".", "(" + endpoint + ")");
+    }
+
+    private void save(String prefix, String scope) {
+        ConfigService config = ConfigService.getInstance();
+        config.saveConfigItem(new ConfigItem(prefix + TYPE, type.name(), "网络接收分帧方式" + scope, "STRING", false));
+        config.saveConfigItem(new ConfigItem(prefix + DELIMITER, delimiter, "分帧分隔符，支持\\r\\n等转义或0x开头的十六进制" + scope, "STRING", false));
+        config.saveConfigItem(new ConfigItem(prefix + LENGTH_FIELD_OFFSET, String.valueOf(lengthFieldOffset), "长度字段偏移" + scope, "INTEGER", false));
+        config.saveConfigItem(new ConfigItem(prefix + LENGTH_FIELD_LENGTH, String.valueOf(lengthFieldLength), "长度字段字节数(1/2/4)" + scope, "INTEGER", false));
+        config.saveConfigItem(new ConfigItem(prefix + LITTLE_ENDIAN, String.valueOf(littleEndian), "长度字段是否小端" + scope, "BOOLEAN", false));
+        config.saveConfigItem(new ConfigItem(prefix + LENGTH_ADJUSTMENT, String.valueOf(lengthAdjustment), "长度修正值" + scope, "INTEGER", false));
+        config.saveConfigItem(new ConfigItem(prefix + STRIP_BYTES, String.valueOf(stripBytes), "报文开头去掉的字节数" + scope, "INTEGER", false));
+        config.saveConfigItem(new ConfigItem(prefix + FIXED_LENGTH, String.valueOf(fixedLength), "固定报文长度" + scope, "INTEGER", false));
+        config.saveConfigItem(new ConfigItem(prefix + MAX_FRAME_LENGTH, String.valueOf(maxFrameLength), "最大报文长度" + scope, "INTEGER", false));
+    }
+
+    /**
+     * 删除指定地址的分帧配置，之后该地址使用默认配置
+     */
+    public static void removeEndpoint(String endpoint) {
+        ConfigService config = ConfigService.getInstance();
+        Set<String> keys = new HashSet<>();
+        for (String field : FIELDS) {
+            keys.add(endpointKey(endpoint, field));
+        }
+        for (ConfigItem item : config.getAllConfigItems()) {
+            if (keys.contains(item.getConfigKey())) {
+                config.deleteConfigItem(item.getId());
+            }
+        }
+    }
+
+    private static String endpointKey(String endpoint, String field) {
+        return ENDPOINT_KEY_PREFIX + endpoint + "." + field;
+    }
+
+    /**
+     * 检查地址格式，有误时返回错误信息，正确时返回null
+     * @param endpoint IP、主机名、IP:端口 或 IP/前缀长度
+     */
+    public static String validateEndpoint(String endpoint) {
+        if (endpoint == null || endpoint.trim().isEmpty()) {
+            return "地址不能为空";
+        }
+        if (!endpoint.equals(endpoint.trim()) || endpoint.contains(" ")) {
+            return "地址不能包含空格";
+        }
+        int slash = endpoint.indexOf('/');
+        if (slash >= 0) {
+            InetAddress network = literalAddress(endpoint.substring(0, slash));
+            if (network == null) {
+                return "网段必须是IP地址/前缀长度，如 192.168.1.0/24";
+            }
+            int bits = intValue(endpoint.substring(slash + 1), -1);
+            if (bits < 0 || bits > network.getAddress().length * 8) {
+                return "网段前缀长度超出范围";
+            }
+            return null;
+        }
+        int port = portOf(endpoint);
+        if (port == 0 || port > 65535) {
+            return "端口号必须在1-65535之间";
+        }
+        return null;
+    }
+
+    /**
+     * 地址与对端的匹配程度，不匹配返回-1，数值越大越具体
+     * @param endpoint IP、主机名、IP:端口 或 IP/前缀长度
+     * @param remote 对端地址，TCP客户端模式下为未解析的目标地址
+     */
+    public static int matchEndpoint(String endpoint, InetSocketAddress remote) {
+        if (remote == null) {
+            return -1;
+        }
+        int slash = endpoint.indexOf('/');
+        if (slash >= 0) {
+            InetAddress network = literalAddress(endpoint.substring(0, slash));
+            InetAddress address = remote.isUnresolved() ? literalAddress(remote.getHostString()) : remote.getAddress();
+            int bits = intValue(endpoint.substring(slash + 1), -1);
+            return network != null && address != null && inSubnet(address, network, bits) ? bits : -1;
+        }
+        int port = portOf(endpoint);
+        String host = port > 0 ? endpoint.substring(0, endpoint.lastIndexOf(':')) : endpoint;
+        if (port > 0 && port != remote.getPort()) {
+            return -1;
+        }
+        if (!sameHost(host, remote)) {
+            return -1;
+        }
+        return port > 0 ? MATCH_HOST_PORT : MATCH_HOST;
+    }
+
+    /**
+     * IP:端口 形式时返回端口，没有端口返回-1，端口不是数字返回0
+     */
+    private static int portOf(String endpoint) {
+        int colon = endpoint.lastIndexOf(':');
+        // 只有一个冒号时才是端口，IPv6地址不带端口
+        if (colon < 0 || endpoint.indexOf(':') != colon) {
+            return -1;
+        }
+        return Math.max(0, intValue(endpoint.substring(colon + 1), 0));
+    }
+
+    private static boolean sameHost(String host, InetSocketAddress remote) {
+        if (host.equalsIgnoreCase(remote.getHostString())) {
+            return true;
+        }
+        InetAddress expected = literalAddress(host);
+        InetAddress actual = remote.isUnresolved() ? literalAddress(remote.getHostString()) : remote.getAddress();
+        return expected != null && expected.equals(actual);
+    }
+
+    private static boolean inSubnet(InetAddress address, InetAddress network, int bits) {
+        byte[] a = address.getAddress();
+        byte[] n = network.getAddress();
+        if (a.length != n.length || bits < 0 || bits > n.length * 8) {
+            return false;
+        }
+        for (int i = 0; i < bits; i++) {
+            int mask = 0x80 >>> (i % 8);
+            if ((a[i / 8] & mask) != (n[i / 8] & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 解析IP地址字面量，不是IP地址时返回null，不做DNS查询
+     */
+    private static InetAddress literalAddress(String text) {
+        if (text == null || !(IPV4.matcher(text).matches() || text.indexOf(':') >= 0)) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(text);
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 检查参数，有误时返回错误信息，正确时返回null
+     */
+    public String validate() {
+        switch (type) {
+            case DELIMITER:
+                try {
+                    if (parseDelimiter(delimiter).length == 0) {
+                        return "分隔符不能为空";
+                    }
+                } catch (IllegalArgumentException e) {
+                    return "分隔符格式错误：" + e.getMessage();
+                }
+                break;
+            case LENGTH_FIELD:
+                if (lengthFieldLength != 1 && lengthFieldLength != 2 && lengthFieldLength != 4) {
+                    return "长度字段字节数必须是1、2或4";
+                }
+                if (lengthFieldOffset < 0 || stripBytes < 0) {
+                    return "长度字段偏移和去掉的字节数不能小于0";
+                }
+                break;
+            case FIXED_LENGTH:
+                if (fixedLength <= 0) {
+                    return "固定报文长度必须大于0";
+                }
+                break;
+            default:
+                break;
+        }
+        if (maxFrameLength <= 0) {
+            return "最大报文长度必须大于0";
+        }
+        return null;
+    }
+
+    /**
+     * 创建帧解码器，不分帧时返回null
+     * 解码器有状态，每个连接需要新建一个
+     */
+    public ChannelHandler newDecoder() {
+        switch (type) {
+            case DELIMITER:
+                return new DelimiterBasedFrameDecoder(maxFrameLength, Unpooled.wrappedBuffer(parseDelimiter(delimiter)));
+            case LENGTH_FIELD:
+                return new LengthFieldBasedFrameDecoder(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN,
+                        maxFrameLength, lengthFieldOffset, lengthFieldLength, lengthAdjustment, stripBytes, true);
+            case FIXED_LENGTH:
+                return new FixedLengthFrameDecoder(fixedLength);
+            case MODBUS_TCP:
+                // MBAP头: 事务标识(2) 协议标识(2) 长度(2，大端，含单元标识和PDU) 单元标识(1)
+                return new LengthFieldBasedFrameDecoder(MODBUS_TCP_MAX_FRAME, 4, 2, 0, 0);
+            case MODBUS_RTU:
+                return new ModbusRtuFrameDecoder();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 解析分隔符：0x开头按十六进制解析，否则按文本解析并支持 \r \n \t \\ \xHH 转义
+     */
+    static byte[] parseDelimiter(String text) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (text.startsWith("0x") || text.startsWith("0X")) {
+            String hex = text.substring(2).replace(" ", "");
+            if (hex.length() % 2 != 0) {
+                throw new IllegalArgumentException("十六进制长度必须是偶数");
+            }
+            for (int i = 0; i < hex.length(); i += 2) {
+                out.write(Integer.parseInt(hex.substring(i, i + 2), 16));
+            }
+            return out.toByteArray();
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\\' || i + 1 >= text.length()) {
+                byte[] bytes = String.valueOf(c).getBytes();
+                out.write(bytes, 0, bytes.length);
+                continue;
+            }
+            char next = text.charAt(++i);
+            switch (next) {
+                case 'r':
+                    out.write('\r');
+                    break;
+                case 'n':
+                    out.write('\n');
+                    break;
+                case 't':
+                    out.write('\t');
+                    break;
+                case '0':
+                    out.write(0);
+                    break;
+                case '\\':
+                    out.write('\\');
+                    break;
+                case 'x':
+                    if (i + 2 >= text.length()) {
+                        throw new IllegalArgumentException("\\x后需要两位十六进制");
+                    }
+                    out.write(Integer.parseInt(text.substring(i + 1, i + 3), 16));
+                    i += 2;
+                    break;
+                default:
+                    throw new IllegalArgumentException("不支持的转义 \\" + next);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public Type getType() { return type; }
+    public void setType(Type type) { this.type = type; }
+    public String getDelimiter() { return delimiter; }
+    public void setDelimiter(String delimiter) { this.delimiter = delimiter; }
+    public int getLengthFieldOffset() { return lengthFieldOffset; }
+    public void setLengthFieldOffset(int lengthFieldOffset) { this.lengthFieldOffset = lengthFieldOffset; }
+    public int getLengthFieldLength() { return lengthFieldLength; }
+    public void setLengthFieldLength(int lengthFieldLength) { this.lengthFieldLength = lengthFieldLength; }
+    public boolean isLittleEndian() { return littleEndian; }
+    public void setLittleEndian(boolean littleEndian) { this.littleEndian = littleEndian; }
+    public int getLengthAdjustment() { return lengthAdjustment; }
+    public void setLengthAdjustment(int lengthAdjustment) { this.lengthAdjustment = lengthAdjustment; }
+    public int getStripBytes() { return stripBytes; }
+    public void setStripBytes(int stripBytes) { this.stripBytes = stripBytes; }
+    public int getFixedLength() { return fixedLength; }
+    public void setFixedLength(int fixedLength) { this.fixedLength = fixedLength; }
+    public int getMaxFrameLength() { return maxFrameLength; }
+    public void setMaxFrameLength(int maxFrameLength) { this.maxFrameLength = maxFrameLength; }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case DELIMITER:
+                return type + "(" + delimiter + ")";
+            case LENGTH_FIELD:
+                return type + "(offset=" + lengthFieldOffset + ", length=" + lengthFieldLength + (littleEndian ? ", LE" : ", BE")
+                        + ", adjust=" + lengthAdjustment + ", strip=" + stripBytes + ")";
+            case FIXED_LENGTH:
+                return type + "(" + fixedLength + ")";
+            default:
+                return type.name();
+        }
+    }
+}
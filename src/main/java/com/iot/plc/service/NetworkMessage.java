@@ -0,0 +1,143 @@
+package com.iot.plc.service;
+
+import com.iot.plc.util.HexCodec;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * 网络服务收到的一条报文
+ * 报文内容在IO线程上复制一次，之后由所有订阅者共享，只提供只读视图；文本和HEX形式按需生成并缓存。
+ */
+public class NetworkMessage {
+    private final NetworkService.ProtocolType protocolType;
+    private final NetworkService.DataMode dataMode;
+    private final SocketAddress source;
+    private final String clientId;
+    private final long receivedAt;
+    private final byte[] data;
+    private volatile String text;
+    private volatile String hex;
+
+    NetworkMessage(NetworkService.ProtocolType protocolType, NetworkService.DataMode dataMode,
+                   SocketAddress source, String clientId, byte[] data) {
+        this.protocolType = protocolType;
+        this.dataMode = dataMode;
+        this.source = source;
+        this.clientId = clientId;
+        this.receivedAt = System.currentTimeMillis();
+        this.data = data;
+    }
+
+    public NetworkService.ProtocolType getProtocolType() {
+        return protocolType;
+    }
+
+    /**
+     * 发送方地址，TCP客户端模式下为服务端地址
+     */
+    public SocketAddress getSource() {
+        return source;
+    }
+
+    /**
+     * TCP服务端模式下发送方的客户端ID(IP:端口)，其他模式为null
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public int getLength() {
+        return data.length;
+    }
+
+    /**
+     * 报文内容的只读视图，每次调用返回独立的读位置
+     */
+    public ByteBuffer getBytes() {
+        return ByteBuffer.wrap(data).asReadOnlyBuffer();
+    }
+
+    /**
+     * 报文内容的副本
+     */
+    public byte[] copyBytes() {
+        return Arrays.copyOf(data, data.length);
+    }
+
+    public byte getByte(int index) {
+        return data[index];
+    }
+
+    /**
+     * 按系统默认字符集解码的文本
+     */
+    public String getText() {
+        String value = text;
+        if (value == null) {
+            value = new String(data, Charset.defaultCharset());
+            text = value;
+        }
+        return value;
+    }
+
+    /**
+     * 大写十六进制形式
+     */
+    public String getHex() {
+        String value = hex;
+        if (value == null) {
+            value = HexCodec.toHex(data);
+            hex = value;
+        }
+        return value;
+    }
+
+    /**
+     * 按服务配置的数据格式转换的字符串，与 NetworkListener 收到的内容相同
+     */
+    @Override
+    public String toString() {
+        return dataMode == NetworkService.DataMode.HEX ? getHex() : getText();
+    }
+
+    /**
+     * 只接收指定客户端的报文
+     */
+    public static Predicate<NetworkMessage> fromClient(String clientId) {
+        return message -> clientId.equals(message.clientId);
+    }
+
+    /**
+     * 只接收指定主机的报文，不限端口
+     */
+    public static Predicate<NetworkMessage> fromHost(String host) {
+        return message -> message.source instanceof InetSocketAddress
+                && host.equals(((InetSocketAddress) message.source).getAddress().getHostAddress());
+    }
+
+    /**
+     * 只接收以指定字节开头的报文，如按功能码或报文头区分
+     */
+    public static Predicate<NetworkMessage> startsWith(byte... prefix) {
+        return message -> {
+            if (message.data.length < prefix.length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (message.data[i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+}
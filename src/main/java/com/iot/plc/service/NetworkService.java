@@ -1,31 +1,143 @@
 package com.iot.plc.service;
 
+import com.iot.plc.gateway.DeviceGateway;
+import com.iot.plc.gateway.ExternalDeviceChannel;
 import com.iot.plc.logger.LoggerFactory;
-import java.io.IOException;
-import java.net.*;
-import java.util.logging.Logger;
+import com.iot.plc.util.HexCodec;
+import com.iot.plc.util.SharedEventLoop;
+import com.iot.plc.util.UdpSocketStats;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelGroupFuture;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioDatagramChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
 
 /**
  * 网络接收服务类
  * 支持TCP服务端、TCP客户端和UDP协议
  * 支持ASCII和HEX格式的数据接收
+ * 所有模式运行在共享的Netty事件循环上，线程数固定，与连接的设备数无关；接收缓冲区来自池化分配器。
+ * UDP高速模式另外使用按配置数量创建的epoll接收线程，服务停止时关闭。
+ * 监听器在IO线程上回调，不能执行阻塞操作；需要多个消费者或耗时处理时使用 {@link #subscribe} 订阅，
+ * 每个订阅有自己的队列和执行线程。
+ * TCP服务端模式下维护已接入客户端的登记表，可向单个客户端、分组或全部客户端发送数据；
+ * 分组和广播发送时数据只编码一次，各连接共享同一个引用计数的缓冲区。
+ * 服务作为一个设备通道(ID为network)登记在设备网关中，监听、连接或绑定成功视为已连接，收发的报文计入通道统计。
  */
 public class NetworkService {
     private static final Logger logger = LoggerFactory.getLogger(NetworkService.class.getName());
     private static final NetworkService instance = new NetworkService();
-    private ExecutorService executorService;
-    private boolean isRunning = false;
-    private NetworkListener listener;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private volatile boolean isRunning = false;
+    private volatile NetworkListener listener;
+    private volatile PipelineCustomizer pipelineCustomizer;
+    // 报文订阅，服务重启后保留
+    private final List<NetworkSubscription<?>> subscriptions = new CopyOnWriteArrayList<>();
+    private static final int DEFAULT_SUBSCRIPTION_QUEUE = 1024;
+    
+    // UDP接收配置
+    public static final String UDP_HIGH_RATE_KEY = "network.udp.highRate";
+    public static final String UDP_RECEIVERS_KEY = "network.udp.receivers";
+    public static final String UDP_MAX_DATAGRAM_SIZE_KEY = "network.udp.maxDatagramSize";
+    public static final String UDP_RECEIVE_BUFFER_KB_KEY = "network.udp.receiveBufferKb";
+    public static final String UDP_BATCH_SIZE_KEY = "network.udp.batchSize";
+    private static final int MAX_UDP_PAYLOAD = 65507;
+    // 高速模式的epoll接收线程和除第一个以外的接收通道
+    private volatile EventLoopGroup udpGroup;
+    private final ChannelGroup udpReceivers = new DefaultChannelGroup("network-udp-receivers", GlobalEventExecutor.INSTANCE);
+    private volatile int udpMaxDatagramSize = MAX_UDP_PAYLOAD;
+    private final LongAdder udpReceived = new LongAdder();
+    private final LongAdder udpTruncated = new LongAdder();
     
     // 当前配置
-    private Config currentConfig;
+    private volatile Config currentConfig;
     
-    // 连接对象
-    private ServerSocket tcpServerSocket;
-    private Socket tcpClientSocket;
-    private DatagramSocket udpSocket;
+    // 连接对象：TCP服务端的监听通道、TCP客户端的连接或UDP通道
+    private final AtomicReference<Channel> channel = new AtomicReference<>();
+    // 每次启动加一，用于丢弃上一次启动迟到的连接结果
+    private final AtomicInteger generation = new AtomicInteger();
+    // TCP服务端已接入的客户端连接
+    private final ChannelGroup clientChannels = new DefaultChannelGroup("network-clients", GlobalEventExecutor.INSTANCE);
+    // 客户端登记表，键为客户端ID(远端地址)
+    private final Map<String, ClientInfo> clients = new ConcurrentHashMap<>();
+    // 客户端分组，断开的连接由ChannelGroup自动移除
+    private final Map<String, ChannelGroup> groups = new ConcurrentHashMap<>();
+    private static final AttributeKey<ClientInfo> CLIENT_INFO = AttributeKey.valueOf("networkClientInfo");
+    
+    // 设备网关中的通道，连接由本服务管理，TCP客户端断开后不自动重连
+    public static final String CHANNEL_ID = "network";
+    private final ExternalDeviceChannel deviceChannel = new ExternalDeviceChannel(CHANNEL_ID, "tcp", "-", new ExternalDeviceChannel.Link() {
+        @Override
+        public void open() {
+            Config config = currentConfig;
+            if (!isRunning && config != null) {
+                startService(config);
+            }
+        }
+        
+        @Override
+        public void close() {
+            stopService();
+        }
+        
+        @Override
+        public boolean send(byte[] data) {
+            return sendFrame(data);
+        }
+    });
     
     // 数据解析模式
     public enum DataMode { ASCII, HEX }
@@ -39,6 +151,9 @@ public class NetworkService {
         private String host;
         private int port;
         private DataMode dataMode;
+        private NetworkFraming framing = new NetworkFraming();
+        // 按对端地址的分帧配置，键为 IP、IP:端口 或 IP/前缀长度
+        private Map<String, NetworkFraming> endpointFramings = new LinkedHashMap<>();
         
         public Config(ProtocolType protocolType, String host, int port, DataMode dataMode) {
             this.protocolType = protocolType;
@@ -47,6 +162,11 @@ public class NetworkService {
             this.dataMode = dataMode;
         }
         
+        public Config(ProtocolType protocolType, String host, int port, DataMode dataMode, NetworkFraming framing) {
+            this(protocolType, host, port, dataMode);
+            setFraming(framing);
+        }
+        
         // Getters and setters
         public ProtocolType getProtocolType() { return protocolType; }
         public void setProtocolType(ProtocolType protocolType) { this.protocolType = protocolType; }
@@ -56,16 +176,110 @@ public class NetworkService {
         public void setPort(int port) { this.port = port; }
         public DataMode getDataMode() { return dataMode; }
         public void setDataMode(DataMode dataMode) { this.dataMode = dataMode; }
+        public NetworkFraming getFraming() { return framing; }
+        public void setFraming(NetworkFraming framing) { this.framing = framing != null ? framing : new NetworkFraming(); }
+        public Map<String, NetworkFraming> getEndpointFramings() { return endpointFramings; }
+        public void setEndpointFramings(Map<String, NetworkFraming> endpointFramings) {
+            this.endpointFramings = endpointFramings != null ? new LinkedHashMap<>(endpointFramings) : new LinkedHashMap<>();
+        }
+        
+        /**
+         * 选择与对端通信使用的分帧配置：地址最具体的按地址配置优先，都不匹配时使用默认配置
+         * @param remote 对端地址，TCP客户端模式下为未解析的目标地址
+         */
+        public NetworkFraming framingFor(InetSocketAddress remote) {
+            NetworkFraming selected = framing;
+            int best = -1;
+            for (Map.Entry<String, NetworkFraming> entry : endpointFramings.entrySet()) {
+                int score = NetworkFraming.matchEndpoint(entry.getKey(), remote);
+                if (score > best) {
+                    best = score;
+                    selected = entry.getValue();
+                }
+            }
+            return selected;
+        }
     }
     
     // 数据监听器接口
     public interface NetworkListener {
         void onDataReceived(String data);
         void onConnectionStatusChanged(boolean connected);
+        
+        // TCP服务端模式下客户端接入和断开
+        default void onClientConnected(ClientInfo client) {
+        }
+        
+        default void onClientDisconnected(ClientInfo client) {
+        }
+    }
+    
+    /**
+     * TCP服务端已接入的客户端信息
+     */
+    public static class ClientInfo {
+        private final String id;
+        private final SocketAddress remoteAddress;
+        private final LocalDateTime connectedAt;
+        private final Channel channel;
+        private final Set<String> groups = ConcurrentHashMap.newKeySet();
+        private volatile long lastSeenMillis;
+        private final AtomicLong messagesIn = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong messagesOut = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+        
+        ClientInfo(Channel channel) {
+            this.channel = channel;
+            this.remoteAddress = channel.remoteAddress();
+            this.id = remoteAddress instanceof InetSocketAddress
+                    ? ((InetSocketAddress) remoteAddress).getAddress().getHostAddress() + ":" + ((InetSocketAddress) remoteAddress).getPort()
+                    : String.valueOf(remoteAddress);
+            this.connectedAt = LocalDateTime.now();
+            this.lastSeenMillis = System.currentTimeMillis();
+        }
+        
+        void recordIn(int bytes) {
+            lastSeenMillis = System.currentTimeMillis();
+            messagesIn.incrementAndGet();
+            bytesIn.addAndGet(bytes);
+        }
+        
+        void recordOut(int bytes) {
+            messagesOut.incrementAndGet();
+            bytesOut.addAndGet(bytes);
+        }
+        
+        // 客户端ID，格式为 IP:端口
+        public String getId() { return id; }
+        public SocketAddress getRemoteAddress() { return remoteAddress; }
+        public LocalDateTime getConnectedAt() { return connectedAt; }
+        // 最近一次收到数据的时间(毫秒时间戳)，未收到过数据时为接入时间
+        public long getLastSeenMillis() { return lastSeenMillis; }
+        public long getMessagesIn() { return messagesIn.get(); }
+        public long getBytesIn() { return bytesIn.get(); }
+        public long getMessagesOut() { return messagesOut.get(); }
+        public long getBytesOut() { return bytesOut.get(); }
+        public Set<String> getGroups() { return Collections.unmodifiableSet(groups); }
+        public boolean isActive() { return channel.isActive(); }
+        
+        @Override
+        public String toString() {
+            return id + "(in=" + messagesIn.get() + "/" + bytesIn.get() + "B, out=" + messagesOut.get() + "/" + bytesOut.get()
+                    + "B, idle=" + (System.currentTimeMillis() - lastSeenMillis) + "ms" + (groups.isEmpty() ? "" : ", groups=" + groups) + ")";
+        }
+    }
+    
+    /**
+     * 管道定制接口，在内置帧解码器之后、数据处理器之前加入自定义处理器
+     * TCP连接每个连接调用一次，UDP通道调用一次；加入的处理器需向后传递ByteBuf(UDP为DatagramPacket)
+     */
+    public interface PipelineCustomizer {
+        void customize(ChannelPipeline pipeline, ProtocolType protocolType);
     }
     
     private NetworkService() {
-        executorService = Executors.newCachedThreadPool();
+        DeviceGateway.getInstance().register(deviceChannel);
     }
     
     public static NetworkService getInstance() {
@@ -76,6 +290,54 @@ public class NetworkService {
         this.listener = listener;
     }
     
+    /**
+     * 订阅收到的报文，消费者在订阅自己的线程上按接收顺序收到报文
+     * @param name 订阅名称，用于线程名和日志
+     * @param filter 过滤条件，为null时接收全部报文；在IO线程上判断，应当很快返回
+     */
+    public NetworkSubscription<NetworkMessage> subscribe(String name, Predicate<NetworkMessage> filter, Consumer<NetworkMessage> consumer) {
+        return subscribe(name, filter, Function.identity(), consumer);
+    }
+    
+    /**
+     * 订阅收到的报文并解码为指定类型，解码在订阅自己的线程上执行，返回null的报文不交给消费者
+     */
+    public <T> NetworkSubscription<T> subscribe(String name, Predicate<NetworkMessage> filter,
+                                                Function<NetworkMessage, T> decoder, Consumer<T> consumer) {
+        return subscribe(name, filter, decoder, consumer, DEFAULT_SUBSCRIPTION_QUEUE, null);
+    }
+    
+    /**
+     * 订阅收到的报文
+     * @param queueCapacity 队列容量，满时丢弃最旧的报文
+     * @param executor 执行解码和消费的执行器，为null时为订阅创建一个守护线程，取消订阅时关闭
+     */
+    public <T> NetworkSubscription<T> subscribe(String name, Predicate<NetworkMessage> filter, Function<NetworkMessage, T> decoder,
+                                                Consumer<T> consumer, int queueCapacity, Executor executor) {
+        ExecutorService owned = executor == null
+                ? Executors.newSingleThreadExecutor(new DefaultThreadFactory("network-sub-" + name, true))
+                : null;
+        NetworkSubscription<T> subscription = new NetworkSubscription<>(name, filter, decoder, consumer, queueCapacity,
+                owned != null ? owned : executor, owned, subscriptions::remove);
+        subscriptions.add(subscription);
+        logger.info("Network subscription added: " + name + ", subscriptions: " + subscriptions.size());
+        return subscription;
+    }
+    
+    /**
+     * 获取当前的订阅
+     */
+    public List<NetworkSubscription<?>> getSubscriptions() {
+        return Collections.unmodifiableList(subscriptions);
+    }
+    
+    /**
+     * 设置管道定制，下次启动服务时生效
+     */
+    public void setPipelineCustomizer(PipelineCustomizer pipelineCustomizer) {
+        this.pipelineCustomizer = pipelineCustomizer;
+    }
+    
     /**
      * 启动网络服务
      */
@@ -84,7 +346,10 @@ public class NetworkService {
         currentConfig = config;
         isRunning = true;
         
-        logger.info("Starting network service: " + config.protocolType + ", host: " + config.host + ", port: " + config.port + ", mode: " + config.dataMode);
+        logger.info("Starting network service: " + config.protocolType + ", host: " + config.host + ", port: " + config.port + ", mode: " + config.dataMode + ", framing: " + config.framing
+                + (config.endpointFramings.isEmpty() ? "" : ", endpoint framing: " + config.endpointFramings));
+        deviceChannel.setEndpoint(transportOf(config), endpointOf(config));
+        deviceChannel.markConnecting();
         
         switch (config.protocolType) {
             case TCP_SERVER:
@@ -101,30 +366,27 @@ public class NetworkService {
     
     /**
      * 停止网络服务
+     * 只关闭本服务的连接，共享事件循环继续运行
      */
     public synchronized void stopService() {
         if (!isRunning) return;
         
         isRunning = false;
+        generation.incrementAndGet();
+        deviceChannel.markClosed();
         
-        try {
-            if (tcpServerSocket != null && !tcpServerSocket.isClosed()) {
-                tcpServerSocket.close();
-            }
-        } catch (IOException e) {
-            logger.warning("Failed to close TCP server socket: " + e.getMessage());
+        Channel current = channel.getAndSet(null);
+        if (current != null) {
+            current.close().awaitUninterruptibly();
         }
-        
-        try {
-            if (tcpClientSocket != null && !tcpClientSocket.isClosed()) {
-                tcpClientSocket.close();
-            }
-        } catch (IOException e) {
-            logger.warning("Failed to close TCP client socket: " + e.getMessage());
-        }
-        
-        if (udpSocket != null && !udpSocket.isClosed()) {
-            udpSocket.close();
+        clientChannels.close().awaitUninterruptibly();
+        clients.clear();
+        groups.clear();
+        udpReceivers.close().awaitUninterruptibly();
+        EventLoopGroup group = udpGroup;
+        udpGroup = null;
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
         }
         
         logger.info("Network service stopped");
@@ -132,173 +394,375 @@ public class NetworkService {
     }
     
     /**
-     * 启动TCP服务端
+     * 启动TCP服务端，接入的连接分配到共享事件循环的IO线程上
      */
     private void startTcpServer() {
-        executorService.submit(() -> {
-            try {
-                tcpServerSocket = new ServerSocket(currentConfig.getPort());
-                logger.info("TCP server started on port: " + currentConfig.getPort());
-                
-                while (isRunning) {
-                    try {
-                        Socket clientSocket = tcpServerSocket.accept();
-                        logger.info("Client connected: " + clientSocket.getInetAddress().getHostAddress());
-                        notifyConnectionStatus(true);
-                        
-                        // 为每个客户端创建一个线程处理数据
-                        executorService.submit(() -> handleTcpConnection(clientSocket));
-                    } catch (IOException e) {
-                        if (isRunning) { // 只有在服务运行时才记录错误
-                            logger.warning("Error accepting TCP connection: " + e.getMessage());
-                            notifyConnectionStatus(false);
-                        }
+        Config config = currentConfig;
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(SharedEventLoop.getInstance().group())
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 512)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        initPipeline(ch.pipeline(), ProtocolType.TCP_SERVER, ch.remoteAddress());
+                        ch.pipeline().addLast(new TcpDataHandler(true));
                     }
-                }
-            } catch (IOException e) {
-                logger.severe("Failed to start TCP server: " + e.getMessage());
-                notifyConnectionStatus(false);
-            }
-        });
+                });
+        bind(bootstrap.bind(config.getPort()), "TCP server started on port: " + config.getPort(), "Failed to start TCP server: ", false);
     }
     
     /**
      * 启动TCP客户端
      */
     private void startTcpClient() {
-        executorService.submit(() -> {
-            try {
-                tcpClientSocket = new Socket(currentConfig.getHost(), currentConfig.getPort());
-                logger.info("TCP client connected to: " + currentConfig.getHost() + ":" + currentConfig.getPort());
-                notifyConnectionStatus(true);
-                handleTcpConnection(tcpClientSocket);
-            } catch (IOException e) {
-                logger.severe("Failed to connect to TCP server: " + e.getMessage());
-                notifyConnectionStatus(false);
-            }
-        });
+        Config config = currentConfig;
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.group(SharedEventLoop.getInstance().group())
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.SO_KEEPALIVE, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, CONNECT_TIMEOUT_MS)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        initPipeline(ch.pipeline(), ProtocolType.TCP_CLIENT,
+                                InetSocketAddress.createUnresolved(config.getHost(), config.getPort()));
+                        ch.pipeline().addLast(new TcpDataHandler(false));
+                    }
+                });
+        bind(bootstrap.connect(config.getHost(), config.getPort()),
+                "TCP client connected to: " + config.getHost() + ":" + config.getPort(), "Failed to connect to TCP server: ", true);
     }
     
     /**
      * 启动UDP服务
+     * 默认在共享事件循环上用一个NIO通道接收；高速模式(network.udp.highRate)在Linux上改用epoll，
+     * 以SO_REUSEPORT绑定多个接收通道由内核分流，并用recvmmsg一次读取一批数据报。
+     * 超过最大长度(network.udp.maxDatagramSize)的数据报会被截断，直接丢弃并计数。
      */
     private void startUdpServer() {
-        executorService.submit(() -> {
-            try {
-                udpSocket = new DatagramSocket(currentConfig.getPort());
-                logger.info("UDP server started on port: " + currentConfig.getPort());
-                notifyConnectionStatus(true);
-                
-                byte[] buffer = new byte[1024];
-                while (isRunning) {
-                    try {
-                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                        udpSocket.receive(packet);
-                        
-                        String receivedData = processReceivedData(buffer, packet.getLength());
-                        notifyDataReceived(receivedData);
-                        logger.info("Received UDP data from " + packet.getAddress().getHostAddress() + ":" + packet.getPort() + ": " + receivedData);
-                    } catch (IOException e) {
-                        if (isRunning) { // 只有在服务运行时才记录错误
-                            logger.warning("Error receiving UDP data: " + e.getMessage());
-                        }
+        Config config = currentConfig;
+        ConfigService configService = ConfigService.getInstance();
+        int maxDatagramSize = Math.max(1, Math.min(MAX_UDP_PAYLOAD, configService.getIntConfigValue(UDP_MAX_DATAGRAM_SIZE_KEY, 2048)));
+        int receiveBufferKb = Math.max(64, configService.getIntConfigValue(UDP_RECEIVE_BUFFER_KB_KEY, 1024));
+        int batchSize = Math.max(1, configService.getIntConfigValue(UDP_BATCH_SIZE_KEY, 32));
+        int receivers = Math.max(1, configService.getIntConfigValue(UDP_RECEIVERS_KEY, 2));
+        boolean highRate = Boolean.parseBoolean(configService.getConfigValueByKey(UDP_HIGH_RATE_KEY));
+        udpMaxDatagramSize = maxDatagramSize;
+        udpReceived.reset();
+        udpTruncated.reset();
+        // 每个数据报多分配1字节，收满时说明数据报超过了最大长度被截断
+        int slot = maxDatagramSize + 1;
+        
+        Bootstrap bootstrap = new Bootstrap();
+        bootstrap.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .option(ChannelOption.SO_REUSEADDR, true)
+                .option(ChannelOption.SO_RCVBUF, receiveBufferKb * 1024)
+                .handler(new ChannelInitializer<Channel>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        initPipeline(ch.pipeline(), ProtocolType.UDP, null);
+                        ch.pipeline().addLast(new UdpDataHandler());
                     }
+                });
+        if (highRate && Epoll.isAvailable()) {
+            // 每个接收通道一个epoll线程，内核按来源地址把数据报分到各通道
+            EventLoopGroup group = new EpollEventLoopGroup(receivers, new DefaultThreadFactory("plc-udp", true));
+            udpGroup = group;
+            bootstrap.group(group)
+                    .channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, receivers > 1)
+                    .option(EpollChannelOption.MAX_DATAGRAM_PAYLOAD_SIZE, slot)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(slot * batchSize));
+            logger.info("UDP high-rate mode: epoll, receivers: " + receivers + ", batch: " + batchSize + ", max datagram: " + maxDatagramSize);
+            bind(bootstrap.bind(config.getPort()), "UDP server started on port: " + config.getPort(), "Failed to start UDP server: ", true);
+            for (int i = 1; i < receivers; i++) {
+                bindUdpReceiver(bootstrap.bind(config.getPort()));
+            }
+        } else {
+            if (highRate) {
+                logger.warning("Epoll not available, UDP high-rate mode falls back to a single NIO receiver");
+            }
+            bootstrap.group(SharedEventLoop.getInstance().group())
+                    .channel(NioDatagramChannel.class)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(slot).maxMessagesPerRead(batchSize));
+            bind(bootstrap.bind(config.getPort()), "UDP server started on port: " + config.getPort(), "Failed to start UDP server: ", true);
+        }
+    }
+    
+    /**
+     * 记录高速模式下除第一个以外的接收通道，服务已停止时立即关闭
+     */
+    private void bindUdpReceiver(ChannelFuture future) {
+        int started = generation.get();
+        future.addListener((ChannelFuture f) -> {
+            if (!f.isSuccess()) {
+                logger.warning("Failed to start UDP receiver: " + f.cause().getMessage());
+                return;
+            }
+            udpReceivers.add(f.channel());
+            if (!isRunning || started != generation.get()) {
+                f.channel().close();
+            }
+        });
+    }
+    
+    /**
+     * 监听或连接完成后记录通道，服务已停止时立即关闭
+     */
+    private void bind(ChannelFuture future, String successMessage, String failureMessage, boolean connectedOnSuccess) {
+        int started = generation.get();
+        future.addListener((ChannelFuture f) -> {
+            if (!f.isSuccess()) {
+                logger.severe(failureMessage + f.cause().getMessage());
+                if (started == generation.get()) {
+                    deviceChannel.markConnectFailed(false);
                 }
-            } catch (SocketException e) {
-                logger.severe("Failed to start UDP server: " + e.getMessage());
                 notifyConnectionStatus(false);
+                return;
+            }
+            Channel ch = f.channel();
+            if (started != generation.get() || !channel.compareAndSet(null, ch)) {
+                ch.close();
+                return;
+            }
+            // 与stopService并发时由这里关闭，stopService可能已经读过通道
+            if (!isRunning || started != generation.get()) {
+                channel.compareAndSet(ch, null);
+                ch.close();
+                return;
+            }
+            logger.info(successMessage);
+            deviceChannel.markConnected();
+            if (connectedOnSuccess) {
+                notifyConnectionStatus(true);
             }
         });
     }
     
     /**
-     * 处理TCP连接
+     * @param remote 连接的对端地址，用于选择该设备的分帧方式；UDP为null
      */
-    private void handleTcpConnection(Socket socket) {
-        try {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            
-            while (isRunning && (bytesRead = socket.getInputStream().read(buffer)) != -1) {
-                String receivedData = processReceivedData(buffer, bytesRead);
-                notifyDataReceived(receivedData);
-                logger.info("Received TCP data: " + receivedData);
+    private void initPipeline(ChannelPipeline pipeline, ProtocolType protocolType, InetSocketAddress remote) {
+        // TCP按对端的分帧方式切分报文，每个连接单独选择，UDP数据报本身是完整报文
+        if (protocolType != ProtocolType.UDP) {
+            ChannelHandler decoder = currentConfig.framingFor(remote).newDecoder();
+            if (decoder != null) {
+                pipeline.addLast("frameDecoder", decoder);
+            }
+        }
+        PipelineCustomizer customizer = pipelineCustomizer;
+        if (customizer != null) {
+            customizer.customize(pipeline, protocolType);
+        }
+    }
+    
+    /**
+     * TCP数据处理器，服务端每个客户端连接一个实例
+     */
+    private class TcpDataHandler extends SimpleChannelInboundHandler<ByteBuf> {
+        private final boolean serverSide;
+        
+        TcpDataHandler(boolean serverSide) {
+            this.serverSide = serverSide;
+        }
+        
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            if (serverSide) {
+                ClientInfo client = new ClientInfo(ctx.channel());
+                ctx.channel().attr(CLIENT_INFO).set(client);
+                clients.put(client.getId(), client);
+                clientChannels.add(ctx.channel());
+                logger.info("Client connected: " + client.getId() + ", clients: " + clientChannels.size());
+                notifyConnectionStatus(true);
+                NetworkListener l = listener;
+                if (l != null) {
+                    l.onClientConnected(client);
+                }
+            }
+            super.channelActive(ctx);
+        }
+        
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) {
+            deviceChannel.recordReceived(msg.readableBytes());
+            ClientInfo client = ctx.channel().attr(CLIENT_INFO).get();
+            if (client != null) {
+                client.recordIn(msg.readableBytes());
+            }
+            publish(msg, ctx.channel().remoteAddress(), client != null ? client.getId() : null);
+            if (listener == null && !logger.isLoggable(Level.FINE)) {
+                return;
+            }
+            String receivedData = processReceivedData(msg);
+            notifyDataReceived(receivedData);
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Received TCP data from " + ctx.channel().remoteAddress() + ": " + receivedData);
+            }
+        }
+        
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (serverSide) {
+                // 断开的连接由ChannelGroup自动移除
+                ClientInfo client = ctx.channel().attr(CLIENT_INFO).get();
+                if (client != null) {
+                    clients.remove(client.getId(), client);
+                    NetworkListener l = listener;
+                    if (l != null) {
+                        l.onClientDisconnected(client);
+                    }
+                }
+                logger.info("Client disconnected: " + ctx.channel().remoteAddress());
+                if (isRunning && clientChannels.isEmpty()) {
+                    notifyConnectionStatus(false);
+                }
+            } else if (isRunning) {
+                logger.warning("TCP connection closed by server");
+                deviceChannel.markDisconnected(false);
+                notifyConnectionStatus(false);
+            }
+            super.channelInactive(ctx);
+        }
+        
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (cause instanceof DecoderException) {
+                // 分帧错误(如报文超长)由解码器丢弃数据，连接继续使用
+                logger.warning("Invalid frame from " + ctx.channel().remoteAddress() + ": " + cause.getMessage());
+                return;
             }
-        } catch (IOException e) {
             if (isRunning) { // 只有在服务运行时才记录错误
-                logger.warning("Error handling TCP connection: " + e.getMessage());
+                logger.warning("Error handling TCP connection: " + cause.getMessage());
             }
-        } finally {
-            try {
-                if (!socket.isClosed()) {
-                    socket.close();
+            ctx.close();
+        }
+    }
+    
+    /**
+     * UDP数据处理器
+     */
+    private class UdpDataHandler extends SimpleChannelInboundHandler<DatagramPacket> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) {
+            if (packet.content().readableBytes() > udpMaxDatagramSize) {
+                udpTruncated.increment();
+                long truncated = udpTruncated.sum();
+                if (truncated == 1 || truncated % 1000 == 0) {
+                    logger.warning("Dropped " + truncated + " UDP datagram(s) larger than " + udpMaxDatagramSize + " bytes, from " + packet.sender());
                 }
-            } catch (IOException e) {
-                logger.warning("Failed to close TCP socket: " + e.getMessage());
+                return;
+            }
+            udpReceived.increment();
+            deviceChannel.recordReceived(packet.content().readableBytes());
+            publish(packet.content(), packet.sender(), null);
+            if (listener == null && !logger.isLoggable(Level.FINE)) {
+                return;
+            }
+            String receivedData = processReceivedData(packet.content());
+            notifyDataReceived(receivedData);
+            if (logger.isLoggable(Level.FINE)) {
+                InetSocketAddress sender = packet.sender();
+                logger.fine("Received UDP data from " + sender.getAddress().getHostAddress() + ":" + sender.getPort() + ": " + receivedData);
+            }
+        }
+        
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (isRunning) { // 只有在服务运行时才记录错误
+                logger.warning("Error receiving UDP data: " + cause.getMessage());
             }
-            notifyConnectionStatus(false);
         }
     }
     
     /**
-     * 处理接收到的数据
+     * 获取本次启动以来UDP收到的数据报数
      */
-    private String processReceivedData(byte[] data, int length) {
-        if (currentConfig.getDataMode() == DataMode.HEX) {
-            return bytesToHex(data, length);
-        } else {
-            // ASCII模式
-            return new String(data, 0, length);
+    public long getUdpReceivedCount() {
+        return udpReceived.sum();
+    }
+    
+    /**
+     * 获取因超过最大长度被截断而丢弃的UDP数据报数
+     */
+    public long getUdpTruncatedCount() {
+        return udpTruncated.sum();
+    }
+    
+    /**
+     * 获取接收缓冲区满时被内核丢弃的UDP数据报数，只在Linux上支持，其他系统或未启动UDP时返回-1
+     */
+    public long getUdpKernelDropCount() {
+        Config config = currentConfig;
+        if (!isRunning || config == null || config.getProtocolType() != ProtocolType.UDP) {
+            return -1;
         }
+        return UdpSocketStats.kernelDrops(config.getPort());
     }
     
     /**
-     * 将字节数组转换为十六进制字符串
+     * 将报文分发给订阅者，报文内容只复制一次，所有订阅者共享
      */
-    private String bytesToHex(byte[] bytes, int length) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < length; i++) {
-            sb.append(String.format("%02X", bytes[i]));
+    private void publish(ByteBuf data, SocketAddress source, String clientId) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        Config config = currentConfig;
+        NetworkMessage message = new NetworkMessage(config.getProtocolType(), config.getDataMode(), source, clientId, ByteBufUtil.getBytes(data));
+        for (NetworkSubscription<?> subscription : subscriptions) {
+            subscription.offer(message);
+        }
+    }
+    
+    /**
+     * 处理接收到的数据
+     */
+    private String processReceivedData(ByteBuf data) {
+        if (currentConfig.getDataMode() == DataMode.HEX) {
+            return HexCodec.toHex(data);
+        } else {
+            // ASCII模式
+            return data.toString(Charset.defaultCharset());
         }
-        return sb.toString();
     }
     
     /**
      * 发送数据
      */
     public void sendData(String data) {
-        if (!isRunning || currentConfig == null) {
+        Config config = currentConfig;
+        Channel current = channel.get();
+        if (!isRunning || config == null) {
             logger.warning("Cannot send data: network service not running");
             return;
         }
         
         try {
-            byte[] bytes;
-            if (currentConfig.getDataMode() == DataMode.HEX) {
-                bytes = hexToBytes(data);
-            } else {
-                bytes = data.getBytes();
-            }
-            
-            switch (currentConfig.getProtocolType()) {
+            switch (config.getProtocolType()) {
                 case TCP_SERVER:
-                    // TCP服务端需要知道目标客户端
-                    logger.warning("TCP server cannot send data directly, need client information");
+                    // TCP服务端未指定目标客户端时发送给全部客户端
+                    broadcast(data);
                     break;
                 case TCP_CLIENT:
-                    if (tcpClientSocket != null && tcpClientSocket.isConnected()) {
-                        tcpClientSocket.getOutputStream().write(bytes);
+                    if (current != null && current.isActive()) {
+                        write(current, encode(data, config), "server");
                         logger.info("Sent TCP data: " + data);
                     } else {
                         logger.warning("TCP client not connected");
                     }
                     break;
                 case UDP:
-                    if (udpSocket != null && !udpSocket.isClosed()) {
-                        InetAddress address = InetAddress.getByName(currentConfig.getHost());
-                        DatagramPacket packet = new DatagramPacket(bytes, bytes.length, address, currentConfig.getPort());
-                        udpSocket.send(packet);
-                        logger.info("Sent UDP data to " + currentConfig.getHost() + ":" + currentConfig.getPort() + ": " + data);
+                    if (current != null && current.isActive()) {
+                        InetSocketAddress address = new InetSocketAddress(config.getHost(), config.getPort());
+                        write(current, new DatagramPacket(encode(data, config), address), config.getHost() + ":" + config.getPort());
+                        logger.info("Sent UDP data to " + config.getHost() + ":" + config.getPort() + ": " + data);
                     }
                     break;
             }
@@ -308,25 +772,248 @@ public class NetworkService {
     }
     
     /**
-     * 将十六进制字符串转换为字节数组
+     * 发送一帧原始数据，不按数据格式编码；TCP服务端模式下发送给全部客户端
+     * @return 服务未运行或没有可用连接时返回false
+     */
+    private boolean sendFrame(byte[] data) {
+        Config config = currentConfig;
+        Channel current = channel.get();
+        if (!isRunning || config == null) {
+            return false;
+        }
+        switch (config.getProtocolType()) {
+            case TCP_SERVER:
+                return writeToAll(clientChannels, Unpooled.wrappedBuffer(data), "all clients") > 0;
+            case TCP_CLIENT:
+                if (current == null || !current.isActive()) {
+                    return false;
+                }
+                write(current, Unpooled.wrappedBuffer(data), "server");
+                return true;
+            case UDP:
+                if (current == null || !current.isActive()) {
+                    return false;
+                }
+                InetSocketAddress address = new InetSocketAddress(config.getHost(), config.getPort());
+                write(current, new DatagramPacket(Unpooled.wrappedBuffer(data), address), config.getHost() + ":" + config.getPort());
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * TCP客户端或UDP模式下写出一帧，写出结果计入设备通道的统计
+     */
+    private void write(Channel ch, Object frame, String target) {
+        int length = frame instanceof ByteBuf ? ((ByteBuf) frame).readableBytes()
+                : ((DatagramPacket) frame).content().readableBytes();
+        ch.writeAndFlush(frame).addListener((ChannelFuture f) -> {
+            if (f.isSuccess()) {
+                deviceChannel.recordSent(length);
+            } else {
+                deviceChannel.recordSendDropped(1);
+                logger.warning("Failed to send data to " + target + ": " + f.cause().getMessage());
+            }
+        });
+    }
+    
+    /**
+     * 按数据格式编码待发送的数据，HEX格式直接解码到池化缓冲区
+     */
+    private ByteBuf encode(String data, Config config) {
+        if (config.getDataMode() != DataMode.HEX) {
+            return Unpooled.wrappedBuffer(data.getBytes());
+        }
+        ByteBuf buf = PooledByteBufAllocator.DEFAULT.buffer(HexCodec.maxDecodedLength(data));
+        try {
+            HexCodec.decode(data, buf);
+            return buf;
+        } catch (RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * TCP服务端模式下向指定客户端发送数据
+     * @param clientId 客户端ID(IP:端口)
+     * @return 客户端存在且连接有效时返回true，写入结果异步记录到日志
+     */
+    public boolean sendToClient(String clientId, String data) {
+        ClientInfo client = clients.get(clientId);
+        Config config = currentConfig;
+        if (!isRunning || config == null || client == null || !client.isActive()) {
+            logger.warning("Cannot send data: client " + clientId + " not connected");
+            return false;
+        }
+        try {
+            ByteBuf buf = encode(data, config);
+            int length = buf.readableBytes();
+            client.recordOut(length);
+            client.channel.writeAndFlush(buf).addListener((ChannelFuture f) -> {
+                if (f.isSuccess()) {
+                    deviceChannel.recordSent(length);
+                } else {
+                    deviceChannel.recordSendDropped(1);
+                    logger.warning("Failed to send data to " + clientId + ": " + f.cause().getMessage());
+                }
+            });
+            return true;
+        } catch (RuntimeException e) {
+            logger.warning("Failed to send data to " + clientId + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    /**
+     * 将客户端加入分组，客户端断开后自动退出
+     * @return 客户端不存在时返回false
+     */
+    public boolean joinGroup(String clientId, String group) {
+        ClientInfo client = clients.get(clientId);
+        if (client == null) {
+            return false;
+        }
+        groups.computeIfAbsent(group, name -> new DefaultChannelGroup(name, GlobalEventExecutor.INSTANCE)).add(client.channel);
+        client.groups.add(group);
+        return true;
+    }
+    
+    /**
+     * 将客户端移出分组
+     */
+    public void leaveGroup(String clientId, String group) {
+        ClientInfo client = clients.get(clientId);
+        ChannelGroup channels = groups.get(group);
+        if (client != null && channels != null) {
+            channels.remove(client.channel);
+            client.groups.remove(group);
+        }
+    }
+    
+    /**
+     * TCP服务端模式下向分组内的全部客户端发送数据
+     * @return 发送的客户端数
+     */
+    public int sendToGroup(String group, String data) {
+        ChannelGroup channels = groups.get(group);
+        return channels != null ? writeToAll(channels, data, "group " + group) : 0;
+    }
+    
+    /**
+     * TCP服务端模式下向全部客户端发送数据
+     * @return 发送的客户端数
+     */
+    public int broadcast(String data) {
+        return writeToAll(clientChannels, data, "all clients");
+    }
+    
+    /**
+     * 数据只编码一次，ChannelGroup为每个连接写入同一缓冲区的引用计数副本，不复制数据
+     */
+    private int writeToAll(ChannelGroup channels, String data, String target) {
+        Config config = currentConfig;
+        if (!isRunning || config == null || config.getProtocolType() != ProtocolType.TCP_SERVER) {
+            logger.warning("Cannot send data to " + target + ": TCP server not running");
+            return 0;
+        }
+        if (channels.isEmpty()) {
+            return 0;
+        }
+        ByteBuf buf;
+        try {
+            buf = encode(data, config);
+        } catch (RuntimeException e) {
+            logger.warning("Failed to send data to " + target + ": " + e.getMessage());
+            return 0;
+        }
+        int count = writeToAll(channels, buf, target);
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Sent TCP data to " + target + " (" + count + " clients): " + data);
+        }
+        return count;
+    }
+    
+    /**
+     * 向分组内的全部连接写出已编码的数据，写出结果计入设备通道的统计
+     */
+    private int writeToAll(ChannelGroup channels, ByteBuf buf, String target) {
+        int count = channels.size();
+        if (count == 0) {
+            buf.release();
+            return 0;
+        }
+        int length = buf.readableBytes();
+        for (Channel ch : channels) {
+            ClientInfo client = ch.attr(CLIENT_INFO).get();
+            if (client != null) {
+                client.recordOut(length);
+            }
+        }
+        ChannelGroupFuture future = channels.writeAndFlush(buf);
+        future.addListener((ChannelGroupFuture f) -> {
+            int failed = 0;
+            if (!f.isSuccess()) {
+                for (Map.Entry<Channel, Throwable> ignored : f.cause()) {
+                    failed++;
+                }
+                logger.warning("Failed to send data to " + failed + " of " + count + " client(s) in " + target);
+            }
+            for (int i = failed; i < count; i++) {
+                deviceChannel.recordSent(length);
+            }
+            deviceChannel.recordSendDropped(failed);
+        });
+        return count;
+    }
+    
+    /**
+     * 设备通道显示的传输方式
      */
-    private byte[] hexToBytes(String hex) {
-        hex = hex.replaceAll("\\s+", ""); // 移除所有空格
-        int len = hex.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte) ((Character.digit(hex.charAt(i), 16) << 4)
-                                 + Character.digit(hex.charAt(i + 1), 16));
+    private static String transportOf(Config config) {
+        switch (config.getProtocolType()) {
+            case TCP_SERVER:
+                return "tcp-server";
+            case UDP:
+                return "udp";
+            default:
+                return "tcp";
         }
-        return data;
+    }
+    
+    /**
+     * 设备通道显示的连接目标，服务端和UDP为监听端口
+     */
+    private static String endpointOf(Config config) {
+        return config.getProtocolType() == ProtocolType.TCP_CLIENT
+                ? config.getHost() + ":" + config.getPort()
+                : "*:" + config.getPort();
+    }
+    
+    /**
+     * 获取TCP服务端已接入的客户端，按接入时间排序
+     */
+    public List<ClientInfo> getClients() {
+        List<ClientInfo> list = new ArrayList<>(clients.values());
+        list.sort((a, b) -> a.getConnectedAt().compareTo(b.getConnectedAt()));
+        return list;
+    }
+    
+    /**
+     * 获取指定客户端，不存在时返回null
+     */
+    public ClientInfo getClient(String clientId) {
+        return clients.get(clientId);
     }
     
     /**
      * 通知数据接收
      */
     private void notifyDataReceived(String data) {
-        if (listener != null) {
-            listener.onDataReceived(data);
+        NetworkListener l = listener;
+        if (l != null) {
+            l.onDataReceived(data);
         }
     }
     
@@ -334,8 +1021,9 @@ public class NetworkService {
      * 通知连接状态变化
      */
     private void notifyConnectionStatus(boolean connected) {
-        if (listener != null) {
-            listener.onConnectionStatusChanged(connected);
+        NetworkListener l = listener;
+        if (l != null) {
+            l.onConnectionStatusChanged(connected);
         }
     }
     
@@ -353,11 +1041,17 @@ public class NetworkService {
         return currentConfig;
     }
     
+    /**
+     * 获取TCP服务端当前接入的客户端数
+     */
+    public int getClientCount() {
+        return clientChannels.size();
+    }
+    
     /**
      * 清理资源
      */
     public void shutdown() {
         stopService();
-        executorService.shutdown();
     }
-}
\ No newline at end of file
+}
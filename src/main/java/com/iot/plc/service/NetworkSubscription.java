@@ -0,0 +1,173 @@
+package com.iot.plc.service;
+
+import com.iot.plc.logger.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+/**
+ * 网络报文订阅
+ * 过滤条件在IO线程上判断，通过的报文放入订阅自己的有界队列，由订阅自己的执行器解码并交给消费者；
+ * 队列满时丢弃最旧的报文并计数，处理慢的订阅者只会丢自己的数据，不会阻塞接收或影响其他订阅者。
+ * @param <T> 解码后交给消费者的类型
+ */
+public class NetworkSubscription<T> {
+    private static final Logger logger = LoggerFactory.getLogger(NetworkSubscription.class.getName());
+
+    // 每次调度最多处理的报文数，共用执行器时让出线程
+    private static final int DRAIN_BATCH = 64;
+
+    private final String name;
+    private final Predicate<NetworkMessage> filter;
+    private final Function<NetworkMessage, T> decoder;
+    private final Consumer<T> consumer;
+    private final ArrayBlockingQueue<NetworkMessage> queue;
+    private final Executor executor;
+    // 订阅自己创建的执行器，取消时关闭；使用外部执行器时为null
+    private final ExecutorService ownedExecutor;
+    private final Consumer<NetworkSubscription<?>> onCancel;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private volatile boolean cancelled;
+
+    NetworkSubscription(String name, Predicate<NetworkMessage> filter, Function<NetworkMessage, T> decoder,
+                        Consumer<T> consumer, int queueCapacity, Executor executor, ExecutorService ownedExecutor,
+                        Consumer<NetworkSubscription<?>> onCancel) {
+        this.name = name;
+        this.filter = filter;
+        this.decoder = decoder;
+        this.consumer = consumer;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.executor = executor;
+        this.ownedExecutor = ownedExecutor;
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * 在IO线程上调用，报文通过过滤条件时入队
+     */
+    void offer(NetworkMessage message) {
+        if (cancelled) {
+            return;
+        }
+        try {
+            if (filter != null && !filter.test(message)) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            logger.warning("Subscription " + name + " filter failed: " + e.getMessage());
+            return;
+        }
+        while (!queue.offer(message)) {
+            if (queue.poll() != null) {
+                droppedCount.incrementAndGet();
+            }
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                if (!cancelled) {
+                    logger.warning("Subscription " + name + " executor rejected delivery");
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            NetworkMessage message;
+            for (int i = 0; i < DRAIN_BATCH && !cancelled && (message = queue.poll()) != null; i++) {
+                deliver(message);
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        if (!cancelled && !queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    private void deliver(NetworkMessage message) {
+        try {
+            T value = decoder.apply(message);
+            if (value != null) {
+                consumer.accept(value);
+            }
+            deliveredCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            failedCount.incrementAndGet();
+            logger.warning("Subscription " + name + " failed to handle message: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 取消订阅，丢弃队列中未处理的报文
+     */
+    public void cancel() {
+        if (cancelled) {
+            return;
+        }
+        cancelled = true;
+        queue.clear();
+        onCancel.accept(this);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 队列中等待处理的报文数
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * 队列满时丢弃的报文数
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * 过滤、解码或处理时抛出异常的报文数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: delivered=%d, queued=%d, dropped=%d, failed=%d",
+                name, getDeliveredCount(), getQueuedCount(), getDroppedCount(), getFailedCount());
+    }
+}
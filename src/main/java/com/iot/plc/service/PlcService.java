@@ -1,8 +1,12 @@
 package com.iot.plc.service;
 
 import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.gateway.DeviceChannel;
+import com.iot.plc.gateway.DeviceGateway;
+import com.iot.plc.gateway.TcpDeviceChannel;
 import com.iot.plc.model.*;
 import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.util.CircuitBreaker;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
@@ -10,14 +14,14 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonParser;
 
-import java.io.IOException;
-import java.net.Socket;
+import io.netty.handler.codec.json.JsonObjectDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -30,16 +34,17 @@ import java.util.function.BiConsumer;
 public class PlcService {
     private static final Logger LOGGER = LoggerFactory.getLogger(PlcService.class.getName());
     private static final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
-    private static final int RECONNECT_DELAY = 5000; // 重连延迟时间(毫秒)
+    private static final int RECONNECT_DELAY = 5000; // 重连延迟时间(毫秒)，连续失败时翻倍
+    private static final int RECONNECT_MAX_DELAY = 60000; // 最大重连延迟时间(毫秒)
+    private static final String PLC_CHANNEL_ID = "plc";
     
     // 单例模式
     private static volatile PlcService instance;
     
-    // PLC设备连接
+    // PLC设备连接，登记在设备网关中，断线后由通道自动重连
     private String plcHost;
     private int plcPort;
-    private Socket plcSocket;
-    private final AtomicBoolean isPlcConnected = new AtomicBoolean(false);
+    private volatile TcpDeviceChannel plcChannel;
     
     // PLC消息监听器集合
     private final Set<BiConsumer<String, String>> plcMessageListeners = new CopyOnWriteArraySet<>();
@@ -52,9 +57,8 @@ public class PlcService {
     private final Map<String, BarcodeData> barcodeCache = new ConcurrentHashMap<>();
     private final AtomicInteger barcodeCount = new AtomicInteger(0);
     
-    // 线程池
-    private final ExecutorService executorService;
-    private final ScheduledExecutorService scheduledExecutorService;
+    // PLC消息处理线程，按收到的顺序逐条处理，不占用IO线程
+    private final ExecutorService plcMessageExecutor;
     
     // 串口服务
     private SerialPortService serialPortService;
@@ -87,9 +91,8 @@ public class PlcService {
         this.upperComputerService = UpperComputerService.getInstance();
         this.emsService = EmsService.getInstance();
         
-        // 创建线程池
-        this.executorService = Executors.newFixedThreadPool(8);
-        this.scheduledExecutorService = Executors.newScheduledThreadPool(4);
+        // 创建消息处理线程
+        this.plcMessageExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("plc-message", true));
     }
     
     /**
@@ -125,7 +128,7 @@ public class PlcService {
             
             // 记录配置加载结果
             LOGGER.info(String.format("成功从配置管理系统加载PLC配置: IP=%s, 端口=%d", this.plcHost, this.plcPort));
-            
+        
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "从配置管理系统加载PLC配置失败: {}", e.getMessage());
             // 使用默认值
@@ -161,7 +164,7 @@ public class PlcService {
         }
         return instance;
     }
-        
+    
     /**
      * 构造函数
      * @param plcHost PLC设备主机地址
@@ -183,9 +186,8 @@ public class PlcService {
         // 初始化串口服务
         this.serialPortService = SerialPortService.getInstance();
         
-        // 创建线程池
-        this.executorService = Executors.newFixedThreadPool(8);
-        this.scheduledExecutorService = Executors.newScheduledThreadPool(4);
+        // 创建消息处理线程
+        this.plcMessageExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("plc-message", true));
         
         // 初始化服务
         this.serialPortService = SerialPortService.getInstance();
@@ -208,57 +210,72 @@ public class PlcService {
         String connectResult = upperComputerService.connect();
         boolean programDeviceConnected = connectResult != null && connectResult.contains("success");
         
-        // 启动监听线程
-        if (plcConnected) {
-            startPlcListener();
-        }
-        
         return plcConnected && programDeviceConnected;
     }
     
     /**
      * 连接到PLC设备
+     * 打开PLC设备通道并等待连接建立，超时未连接时通道继续在后台重连
      * @return 连接结果
      */
     public boolean connectToPLC() {
+        TcpDeviceChannel channel = getPlcChannel();
+        channel.open();
         try {
-            plcSocket = new Socket(plcHost, plcPort);
-            plcSocket.setSoTimeout(5000);
-            isPlcConnected.set(true);
-            LOGGER.info("成功连接到PLC设备: " + plcHost + ":" + plcPort);
-            return true;
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "连接PLC设备失败: " + e.getMessage(), e);
-            scheduleReconnectPLC();
-            return false;
+            int timeout = ConfigService.getInstance().getIntConfigValue(CONFIG_KEY_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT);
+            if (channel.awaitConnected(timeout + 500L)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        LOGGER.log(Level.SEVERE, "连接PLC设备失败，将在后台自动重连: " + plcHost + ":" + plcPort);
+        return false;
     }
     
     /**
-     * 计划重新连接PLC设备
+     * 获取PLC设备通道，首次调用时创建并登记到设备网关
+     * PLC消息为JSON，按完整的JSON对象分帧，一次读到多条或一条消息分多次到达都能正确切分
      */
-    private void scheduleReconnectPLC() {
-        if (!isPlcConnected.get()) {
-            scheduledExecutorService.schedule(() -> {
-                LOGGER.info("尝试重新连接到PLC设备...");
-                connectToPLC();
-                if (isPlcConnected.get()) {
-                    startPlcListener();
+    private synchronized TcpDeviceChannel getPlcChannel() {
+        if (plcChannel == null) {
+            TcpDeviceChannel channel = new TcpDeviceChannel(PLC_CHANNEL_ID, plcHost, plcPort, JsonObjectDecoder::new);
+            channel.setConnectTimeoutMillis(ConfigService.getInstance().getIntConfigValue(CONFIG_KEY_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT));
+            channel.setReconnectDelay(RECONNECT_DELAY, RECONNECT_MAX_DELAY);
+            channel.addListener(new DeviceChannel.Listener() {
+                @Override
+                public void onFrame(DeviceChannel source, byte[] frame) {
+                    String message = new String(frame);
+                    try {
+                        plcMessageExecutor.execute(() -> handlePlcMessage(message));
+                    } catch (RejectedExecutionException e) {
+                        LOGGER.warning("PLC服务已关闭，丢弃PLC消息: " + message);
+                    }
                 }
-            }, RECONNECT_DELAY, TimeUnit.MILLISECONDS);
+                
+                @Override
+                public void onStateChanged(DeviceChannel source, DeviceChannel.State previous, DeviceChannel.State current) {
+                    if (current == DeviceChannel.State.CONNECTED) {
+                        LOGGER.info("成功连接到PLC设备: " + plcHost + ":" + plcPort);
+                    } else if (previous == DeviceChannel.State.CONNECTED) {
+                        LOGGER.warning("PLC设备连接断开: " + plcHost + ":" + plcPort + "，状态: " + current.getDisplayName());
+                    }
+                }
+            });
+            plcChannel = DeviceGateway.getInstance().register(channel);
         }
+        return plcChannel;
     }
     
     /**
      * 关闭所有连接
      */
     public void disconnect() {
-        try {
-            if (plcSocket != null && !plcSocket.isClosed()) {
-                plcSocket.close();
+        synchronized (this) {
+            if (plcChannel != null) {
+                DeviceGateway.getInstance().unregister(PLC_CHANNEL_ID);
+                plcChannel = null;
             }
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "关闭PLC连接时发生错误: " + e.getMessage(), e);
         }
         
         // 关闭上位机连接
@@ -270,42 +287,8 @@ public class PlcService {
         // 关闭串口连接
         serialPortService.closeAllPorts();
         
-        isPlcConnected.set(false);
-        
-        // 关闭线程池
-        executorService.shutdown();
-        scheduledExecutorService.shutdown();
-    }
-    
-    /**
-     * 启动PLC监听线程
-     */
-    private void startPlcListener() {
-        executorService.submit(() -> {
-            try {
-                while (isPlcConnected.get() && plcSocket != null && !plcSocket.isClosed()) {
-                    try {
-                        // 读取PLC消息
-                        byte[] buffer = new byte[4096];
-                        int bytesRead = plcSocket.getInputStream().read(buffer);
-                        
-                        if (bytesRead > 0) {
-                            String message = new String(buffer, 0, bytesRead);
-                            handlePlcMessage(message);
-                        }
-                    } catch (IOException e) {
-                        LOGGER.log(Level.SEVERE, "读取PLC消息时发生错误: " + e.getMessage(), e);
-                        isPlcConnected.set(false);
-                        scheduleReconnectPLC();
-                        break;
-                    }
-                }
-            } catch (Exception e) {
-                LOGGER.log(Level.SEVERE, "PLC监听线程异常: " + e.getMessage(), e);
-                isPlcConnected.set(false);
-                scheduleReconnectPLC();
-            }
-        });
+        // 关闭消息处理线程
+        plcMessageExecutor.shutdown();
     }
     
     /**
@@ -379,7 +362,8 @@ public class PlcService {
      * @return 发送是否成功
      */
     public boolean sendValidationResult(ValidationResult result) {
-        if (!isPlcConnected.get() || plcSocket == null || plcSocket.isClosed()) {
+        TcpDeviceChannel channel = plcChannel;
+        if (channel == null || !channel.isConnected()) {
             LOGGER.warning("无法发送验证结果: 未连接到PLC设备");
             return false;
         }
@@ -399,15 +383,21 @@ public class PlcService {
             String jsonResponse = gson.toJson(responseObject);
             
             // 发送验证结果
-            plcSocket.getOutputStream().write(jsonResponse.getBytes());
-            plcSocket.getOutputStream().flush();
+            if (!channel.send(jsonResponse.getBytes())) {
+                LOGGER.warning("无法发送验证结果: PLC发送队列已满");
+                return false;
+            }
             
             LOGGER.info("验证结果已发送: " + jsonResponse);
             
             try {
                 // 保存到数据库
+                List<String> barcodes = new ArrayList<>();
+                for (BarcodeData barcodeData : barcodeCache.values()) {
+                    barcodes.add(barcodeData.getBarcode());
+                }
                 DatabaseManager.saveValidationResult(result.isValid(), result.getMessage(), 
-                        result.getExpectedCount(), result.getActualCount());
+                        result.getExpectedCount(), result.getActualCount(), barcodes);
             } catch (SQLException e) {
                 LOGGER.log(Level.WARNING, "保存验证结果到数据库失败: " + e.getMessage(), e);
             }
@@ -518,7 +508,7 @@ public class PlcService {
      * @return 连接测试结果
      */
     public String testConnection(String deviceId) {
-        if (isPlcConnected.get()) {
+        if (isPlcConnected()) {
             return "PLC设备 " + deviceId + " 连接成功";
         } else {
             return "PLC设备 " + deviceId + " 未连接";
@@ -540,20 +530,22 @@ public class PlcService {
      */
     public String sendToPlc(String deviceId, String host, int port, String data) {
         try {
-            if (!isPlcConnected.get()) {
+            TcpDeviceChannel channel = plcChannel;
+            if (channel == null || !channel.isConnected()) {
                 return "{\"status\":\"error\",\"message\":\"未连接到PLC设备\"}";
             }
             
             // 发送数据
-            plcSocket.getOutputStream().write(data.getBytes());
-            plcSocket.getOutputStream().flush();
+            if (!channel.send(data.getBytes())) {
+                return "{\"status\":\"error\",\"message\":\"PLC发送队列已满\"}";
+            }
             
             return "{\"status\":\"success\",\"message\":\"数据发送成功\"}";
         } catch (Exception e) {
             return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
         }
     }
-
+    
     /**
      * 从PLC读取数据
      * @param deviceId 设备ID
@@ -563,7 +555,7 @@ public class PlcService {
      */
     public String readPlcData(String deviceId, String host, int port) {
         try {
-            if (!isPlcConnected.get()) {
+            if (!isPlcConnected()) {
                 return "{\"status\":\"error\",\"message\":\"未连接到PLC设备\"}";
             }
             
@@ -573,7 +565,7 @@ public class PlcService {
             return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
         }
     }
-
+    
     public String parseData(String rawData) {
         try {
             // 解析PLC数据
@@ -633,7 +625,8 @@ public class PlcService {
      * @return PLC连接状态
      */
     public boolean isPlcConnected() {
-        return isPlcConnected.get();
+        TcpDeviceChannel channel = plcChannel;
+        return channel != null && channel.isConnected();
     }
     
     /**
@@ -653,10 +646,17 @@ public class PlcService {
     
     /**
      * 获取EMS服务连接状态
-     * @return 连接状态字符串
+     * 熔断打开时为disconnected，此时结果保存在发件箱中，恢复后继续投递
+     * @return 连接状态字符串，包含熔断器状态和待投递数
      */
     public String getEmsConnectionStatus() {
-        return emsService != null ? "{\"status\":\"connected\"}" : "{\"status\":\"disconnected\"}";
+        if (emsService == null) {
+            return "{\"status\":\"disconnected\"}";
+        }
+        CircuitBreaker.State state = emsService.getCircuitState();
+        return "{\"status\":\"" + (state == CircuitBreaker.State.OPEN ? "disconnected" : "connected") + "\"," +
+            "\"circuit\":\"" + state.name().toLowerCase() + "\"," +
+            "\"pending\":" + emsService.getPendingCount() + "}";
     }
     
     /**
@@ -1,25 +1,24 @@
 package com.iot.plc.service;
 
 import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.gateway.DeviceChannel;
+import com.iot.plc.gateway.DeviceGateway;
+import com.iot.plc.gateway.SerialDeviceChannel;
 import com.iot.plc.model.BarcodeData;
 import com.iot.plc.logger.LoggerFactory;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
-import jssc.SerialPort;
-import jssc.SerialPortEvent;
-import jssc.SerialPortEventListener;
-import jssc.SerialPortException;
 import jssc.SerialPortList;
 
 /**
  * 串口服务类
  * 用于处理扫描枪的条码数据
+ * 每个扫码枪一个串口设备通道，登记在设备网关中，串口读写在通道自己的线程上执行，拔出后自动重新打开
  */
 public class SerialPortService {
     // 数据监听器接口
@@ -36,8 +35,14 @@ public class SerialPortService {
     }
     private static final Logger logger = LoggerFactory.getLogger(SerialPortService.class.getName());
     
-    // 设备ID与串口映射
-    private Map<String, SerialPort> devicePortMap = new HashMap<>();
+    // 设备通道ID前缀，后接设备ID
+    private static final String CHANNEL_ID_PREFIX = "serial:";
+    
+    // 等待串口首次打开的时间(毫秒)
+    private static final long OPEN_TIMEOUT_MS = 3000;
+    
+    // 设备ID与串口设备通道映射
+    private final Map<String, SerialDeviceChannel> deviceChannelMap = new ConcurrentHashMap<>();
     
     // 设备ID与条码数据缓存映射
     private Map<String, List<BarcodeData>> deviceBarcodeMap = new ConcurrentHashMap<>();
@@ -58,6 +63,7 @@ public class SerialPortService {
     
     /**
      * 初始化串口
+     * 打开设备通道并等待串口打开，首次打开失败时注销通道；打开后串口断开会在后台自动重新打开
      * @param deviceId 设备ID
      * @param portName 串口名称
      * @param baudRate 波特率
@@ -84,137 +90,53 @@ public class SerialPortService {
             }
             
             // 如果已经存在该设备的串口连接，先关闭
-            if (devicePortMap.containsKey(deviceId)) {
-                SerialPort existingPort = devicePortMap.get(deviceId);
-                if (existingPort.isOpened()) {
-                    existingPort.closePort();
-                }
-                devicePortMap.remove(deviceId);
-            }
+            closeSerialPort(deviceId);
             
-            // 2. 创建新的串口连接并进行设备连接验证
-            SerialPort serialPort = new SerialPort(portName);
-            try {
-                serialPort.openPort();
-                serialPort.setParams(baudRate, dataBits, stopBits, parity);
-                
-                // 3. 发送一个简单的命令或读取一些数据来验证设备是否响应
-                // 这里可以根据具体设备协议进行调整
-                boolean deviceConnected = verifyDeviceConnection(serialPort);
-                if (!deviceConnected) {
-                    logger.severe("Device not responding on port " + portName);
-                    serialPort.closePort();
-                    return false;
-                }
-                
-                // 添加事件监听器
-                serialPort.addEventListener(new SerialPortEventListener() {
-                    private StringBuilder buffer = new StringBuilder();
-                    
-                    @Override
-                    public void serialEvent(SerialPortEvent event) {
-                        if (event.isRXCHAR() && event.getEventValue() > 0) {
-                            try {
-                                byte[] data = serialPort.readBytes();
-                                String receivedData = new String(data);
-                                
-                                // 将接收到的数据添加到缓冲区
-                                buffer.append(receivedData);
-                                
-                                // 检查是否接收到完整的条码（通常以回车或换行结束）
-                                if (receivedData.contains("\n") || receivedData.contains("\r")) {
-                                    String barcode = buffer.toString().trim();
-                                    buffer = new StringBuilder(); // 清空缓冲区
-                                    
-                                    // 处理条码数据
-                                    processBarcode(deviceId, barcode, portName);
-                                }
-                            } catch (SerialPortException ex) {
-                                logger.severe("Error reading from serial port: " + ex.getMessage());
-                            }
-                        }
+            // 2. 创建串口设备通道，条码以回车或换行结束
+            SerialDeviceChannel channel = new SerialDeviceChannel(CHANNEL_ID_PREFIX + deviceId, portName, baudRate, dataBits, stopBits, parity);
+            channel.addListener(new DeviceChannel.Listener() {
+                @Override
+                public void onFrame(DeviceChannel source, byte[] frame) {
+                    String barcode = new String(frame).trim();
+                    if (!barcode.isEmpty()) {
+                        processBarcode(deviceId, barcode, portName);
                     }
-                });
-                
-                // 保存串口连接
-                devicePortMap.put(deviceId, serialPort);
-                
-                // 初始化条码数据缓存
-                if (!deviceBarcodeMap.containsKey(deviceId)) {
-                    deviceBarcodeMap.put(deviceId, new ArrayList<>());
                 }
                 
-                logger.info("Serial port initialized for device " + deviceId + " on port " + portName);
-                return true;
-            } catch (SerialPortException e) {
-                logger.severe("Failed to initialize serial port for device " + deviceId + ": " + e.getMessage());
-                // 确保在异常情况下关闭端口
-                if (serialPort != null && serialPort.isOpened()) {
-                    try {
-                        serialPort.closePort();
-                    } catch (SerialPortException ex) {
-                        logger.severe("Failed to close port after initialization error: " + ex.getMessage());
+                @Override
+                public void onStateChanged(DeviceChannel source, DeviceChannel.State previous, DeviceChannel.State current) {
+                    if (previous == DeviceChannel.State.CONNECTED) {
+                        logger.warning("Serial port " + portName + " of device " + deviceId + " disconnected, state: " + current);
                     }
                 }
-                return false;
-            }
-        } catch (Exception e) {
-            logger.severe("Unexpected error during serial port initialization: " + e.getMessage());
-            return false;
-        }
-    }
-    
-    /**
-     * 验证设备连接状态
-     * @param serialPort 串口对象
-     * @return 设备是否连接且有效
-     */
-    private boolean verifyDeviceConnection(SerialPort serialPort) {
-        try {
-            // 检查串口是否已打开
-            if (!serialPort.isOpened()) {
-                logger.warning("Serial port is not opened");
-                return false;
-            }
-
-            // 1. 检查端口基本状态 - 跳过DTR/RTS状态检查（JSSC库不支持）
+            });
+            DeviceGateway.getInstance().register(channel);
+            deviceChannelMap.put(deviceId, channel);
+            
+            // 3. 打开串口并等待打开结果
+            channel.open();
+            boolean opened;
             try {
-                logger.info("Serial port is opened and accessible");
-            } catch (Exception e) {
-                logger.warning("Failed to access serial port: " + e.getMessage());
-                // 如果无法访问端口，视为端口无效
-                return false;
+                opened = channel.awaitConnected(OPEN_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                opened = false;
             }
-
-            // 2. 测试端口通信 - 尝试设置并获取流控制参数
-            try {
-                // 先保存当前流控制设置
-                int flowControl = serialPort.getFlowControlMode();
-                // 尝试临时修改流控制设置（这可以测试端口是否响应命令）
-                serialPort.setFlowControlMode(SerialPort.FLOWCONTROL_NONE);
-                // 立即恢复原来的设置
-                serialPort.setFlowControlMode(flowControl);
-                logger.info("Serial port command test passed");
-            } catch (Exception e) {
-                logger.warning("Serial port command test failed: " + e.getMessage());
+            if (!opened) {
+                logger.severe("Failed to initialize serial port for device " + deviceId + " on port " + portName);
+                closeSerialPort(deviceId);
                 return false;
             }
-
-            // 3. 检查端口是否可读（针对输入设备如扫描枪）
-            try {
-                // 清除输入缓冲区，准备接收数据
-                serialPort.purgePort(SerialPort.PURGE_RXCLEAR);
-                logger.info("Serial port input buffer cleared successfully");
-            } catch (Exception e) {
-                logger.warning("Failed to clear input buffer: " + e.getMessage());
-                return false;
+            
+            // 初始化条码数据缓存
+            if (!deviceBarcodeMap.containsKey(deviceId)) {
+                deviceBarcodeMap.put(deviceId, new ArrayList<>());
             }
-
-            // 所有验证都通过，端口被认为是有效的
-            logger.info("Serial port verification passed");
+            
+            logger.info("Serial port initialized for device " + deviceId + " on port " + portName);
             return true;
         } catch (Exception e) {
-            logger.warning("Device verification failed: " + e.getMessage());
+            logger.severe("Unexpected error during serial port initialization: " + e.getMessage());
             return false;
         }
     }
@@ -286,15 +208,10 @@ public class SerialPortService {
      * @param deviceId 设备ID
      */
     public void closeSerialPort(String deviceId) {
-        SerialPort serialPort = devicePortMap.get(deviceId);
-        if (serialPort != null && serialPort.isOpened()) {
-            try {
-                serialPort.closePort();
-                devicePortMap.remove(deviceId);
-                logger.info("Serial port closed for device " + deviceId);
-            } catch (SerialPortException e) {
-                logger.severe("Failed to close serial port for device " + deviceId + ": " + e.getMessage());
-            }
+        SerialDeviceChannel channel = deviceChannelMap.remove(deviceId);
+        if (channel != null) {
+            DeviceGateway.getInstance().unregister(channel.getId());
+            logger.info("Serial port closed for device " + deviceId);
         }
     }
     
@@ -302,20 +219,9 @@ public class SerialPortService {
      * 关闭所有串口
      */
     public void closeAllPorts() {
-        for (Map.Entry<String, SerialPort> entry : devicePortMap.entrySet()) {
-            String deviceId = entry.getKey();
-            SerialPort serialPort = entry.getValue();
-            
-            if (serialPort != null && serialPort.isOpened()) {
-                try {
-                    serialPort.closePort();
-                    logger.info("Serial port closed for device " + deviceId);
-                } catch (SerialPortException e) {
-                    logger.severe("Failed to close serial port for device " + deviceId + ": " + e.getMessage());
-                }
-            }
+        for (String deviceId : new ArrayList<>(deviceChannelMap.keySet())) {
+            closeSerialPort(deviceId);
         }
-        devicePortMap.clear();
     }
     
     /**
@@ -0,0 +1,136 @@
+package com.iot.plc.service;
+
+import com.iot.plc.database.BarcodeTraceManager;
+import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.model.TraceEvent;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 条码追溯服务类
+ * 一次调用返回条码从扫码、验证、烧录到EMS回传的完整经历，
+ * 最近查询过的条码保存在LRU缓存中，条码有新事件写入时对应缓存自动失效。
+ */
+public class TraceabilityService {
+    private static final Logger logger = LoggerFactory.getLogger(TraceabilityService.class.getName());
+    private static final String CACHE_SIZE_KEY = "traceability_cache_size";
+    private static final int DEFAULT_CACHE_SIZE = 256;
+
+    // 单例模式
+    private static TraceabilityService instance;
+
+    private final BarcodeTraceManager traceManager;
+    private final int cacheSize;
+    private final Map<String, List<TraceEvent>> cache;
+    // 正在从数据库加载的条码及其失效次数，加载期间发生失效时结果不再放入缓存
+    private final Map<String, Loading> loading = new HashMap<>();
+    private long clearGeneration = 0;
+
+    private TraceabilityService() {
+        this.traceManager = BarcodeTraceManager.getInstance();
+        this.cacheSize = Math.max(0, ConfigService.getInstance().getIntConfigValue(CACHE_SIZE_KEY, DEFAULT_CACHE_SIZE));
+        this.cache = new LinkedHashMap<String, List<TraceEvent>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<TraceEvent>> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        traceManager.addChangeListener(this::invalidate);
+    }
+
+    public static synchronized TraceabilityService getInstance() {
+        if (instance == null) {
+            instance = new TraceabilityService();
+        }
+        return instance;
+    }
+
+    /**
+     * 获取条码的完整经历
+     * @param barcode 条码内容
+     * @return 按时间升序排列的追溯事件，条码不存在时返回空列表
+     */
+    public List<TraceEvent> getHistory(String barcode) {
+        if (barcode == null || barcode.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        String key = barcode.trim();
+        if (cacheSize == 0) {
+            return loadHistory(key);
+        }
+
+        Loading load;
+        long generation;
+        long clearStart;
+        synchronized (cache) {
+            List<TraceEvent> cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            load = loading.computeIfAbsent(key, k -> new Loading());
+            load.readers++;
+            generation = load.generation;
+            clearStart = clearGeneration;
+        }
+
+        List<TraceEvent> history = null;
+        try {
+            history = loadHistory(key);
+            return history;
+        } finally {
+            synchronized (cache) {
+                // 查询期间条码有新事件写入时，查到的结果可能已经过期，只返回给调用方，不放入缓存
+                if (history != null && load.generation == generation && clearGeneration == clearStart) {
+                    cache.put(key, history);
+                }
+                if (--load.readers == 0) {
+                    loading.remove(key);
+                }
+            }
+        }
+    }
+
+    private List<TraceEvent> loadHistory(String key) {
+        try {
+            return Collections.unmodifiableList(traceManager.getHistory(key));
+        } catch (SQLException e) {
+            logger.severe("查询条码追溯记录失败，条码: " + key + "，错误: " + e.getMessage());
+            throw new RuntimeException("查询条码追溯记录失败", e);
+        }
+    }
+
+    /**
+     * 使条码的缓存失效，参数为null时清空全部缓存
+     * @param barcode 条码内容
+     */
+    public void invalidate(String barcode) {
+        if (cacheSize == 0) {
+            return;
+        }
+        synchronized (cache) {
+            if (barcode == null) {
+                cache.clear();
+                clearGeneration++;
+            } else {
+                // 与 getHistory 使用同样的键，事件中的条码可能带有首尾空白
+                String key = barcode.trim();
+                cache.remove(key);
+                Loading load = loading.get(key);
+                if (load != null) {
+                    load.generation++;
+                }
+            }
+        }
+    }
+
+    private static class Loading {
+        int readers;
+        long generation;
+    }
+}
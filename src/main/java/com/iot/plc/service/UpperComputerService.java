@@ -1,29 +1,35 @@
 package com.iot.plc.service;
 
 import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.gateway.DeviceGateway;
 import com.iot.plc.model.BarcodeInfo;
 import com.iot.plc.model.DeviceResult;
 import com.iot.plc.model.ProgramCommand;
 import com.iot.plc.model.ProgramResult;
 import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.util.LatencyHistogram;
+import com.iot.plc.util.PipelineStage;
 
-import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.json.JsonObjectDecoder;
-import io.netty.handler.codec.string.StringDecoder;
-import io.netty.handler.codec.string.StringEncoder;
-import io.netty.handler.timeout.IdleStateHandler;
-import io.netty.util.CharsetUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 import java.util.Set;
@@ -31,10 +37,14 @@ import java.util.concurrent.CopyOnWriteArraySet;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
 /**
  * 上位机通信服务类
- * 用于处理与上位机的通信，包括发送烧录指令和接收烧录结果
+ * 用于处理与上位机的通信，包括发送烧录指令和接收烧录结果。
+ * 可同时连接多台上位机(烧录工位)：一个批次的条码按工位权重和在途条码数拆分下发，
+ * 各工位返回的部分结果合并为一个批次结果；工位断开时，其未返回的部分改派给其他工位。
  */
 public class UpperComputerService {
     private static final Logger logger = LoggerFactory.getLogger(UpperComputerService.class.getName());
@@ -43,26 +53,116 @@ public class UpperComputerService {
     // 单例模式
     private static UpperComputerService instance;
     
+    // 额外烧录工位配置，格式: host:port[:weight]，多个工位用逗号分隔
+    private static final String STATIONS_KEY = "upper_computer.stations";
+    // 上位机协议，json(默认)或binary，binary在连接时协商，上位机不支持时回退到JSON
+    private static final String PROTOCOL_KEY = "upper_computer.protocol";
+    // 心跳间隔和超时(毫秒)
+    private static final String HEARTBEAT_INTERVAL_KEY = "upper_computer.heartbeat_interval_ms";
+    private static final String HEARTBEAT_TIMEOUT_KEY = "upper_computer.heartbeat_timeout_ms";
+    // 拆分后的子批次ID为 批次ID#序号
+    private static final char PART_SEPARATOR = '#';
+    
+    // 上位机结果帧类型，没有type字段的帧按整批 ProgramResult 解析
+    public static final String FRAME_MODULE_RESULT = "module_result";
+    public static final String FRAME_BATCH_COMPLETE = "batch_complete";
+    
     // 上位机连接信息
     private String host;
     private int port;
     
-    // Netty相关
-    private Channel channel;
-    private EventLoopGroup group;
-    private final AtomicBoolean connected = new AtomicBoolean(false);
+    // 烧录工位，第一个为init指定的主上位机
+    private volatile List<UpperComputerStation> stations = Collections.emptyList();
+    private final AtomicBoolean processorStarted = new AtomicBoolean(false);
     
-    // 烧录结果队列
-    private final BlockingQueue<ProgramResult> resultQueue = new LinkedBlockingQueue<>();
+    // 烧录指令超时(毫秒)，可通过配置项调整
+    private static final String COMMAND_TIMEOUT_KEY = "upper_computer.command_timeout_ms";
+    private static final long DEFAULT_COMMAND_TIMEOUT_MS = 60000;
+    // 记住最近结束的批次，用于识别重复结果和超时后迟到的结果
+    private static final int RECENT_BATCH_LIMIT = 1024;
+    
+    // 在途烧录指令表，按(子)批次ID关联上位机返回的结果
+    private final Map<String, PendingPart> inFlightParts = new ConcurrentHashMap<>();
+    // 工位全部断开时暂存的待改派部分，有工位连上后下发
+    private final Queue<PendingPart> orphanParts = new ConcurrentLinkedQueue<>();
+    private final Map<String, Boolean> recentBatches = new LinkedHashMap<String, Boolean>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > RECENT_BATCH_LIMIT;
+        }
+    };
+    // 有结果保存失败的批次，批次结束时以失败完成Future；只在保存阶段的线程上访问
+    private final Map<String, SQLException> failedSaves = new LinkedHashMap<String, SQLException>(16, 0.75f, false) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SQLException> eldest) {
+            return size() > RECENT_BATCH_LIMIT;
+        }
+    };
+    private final HashedWheelTimer commandTimer =
+            new HashedWheelTimer(new DefaultThreadFactory("program-timeout", true), 100, TimeUnit.MILLISECONDS);
+    private final AtomicLong unknownResultCount = new AtomicLong();
+    private final AtomicLong duplicateResultCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong redispatchCount = new AtomicLong();
+    
+    // 结果处理流水线：解析并关联批次 -> 批量保存 -> 通知监听器 / 回传EMS
+    // 各阶段队列有界，下游变慢时逐级阻塞；解析队列由IO线程放入，积压时暂停从上位机读取而不阻塞IO线程
+    private static final int STAGE_CAPACITY = 1024;
+    private static final int STAGE_BATCH_SIZE = 64;
+    private static final int DECODE_HIGH_WATERMARK = STAGE_CAPACITY * 3 / 4;
+    private static final int DECODE_LOW_WATERMARK = STAGE_CAPACITY / 4;
+    private final PipelineStage<Object> decodeStage =
+            new PipelineStage<>("decode", STAGE_CAPACITY, STAGE_BATCH_SIZE, this::decodeFrames);
+    private final PipelineStage<ResultEvent> persistStage =
+            new PipelineStage<>("persist", STAGE_CAPACITY, STAGE_BATCH_SIZE, this::persistEvents);
+    private final PipelineStage<ResultEvent> notifyStage =
+            new PipelineStage<>("notify", STAGE_CAPACITY, STAGE_BATCH_SIZE, this::notifyEvents);
+    private final PipelineStage<ProgramResult> emsStage =
+            new PipelineStage<>("ems", STAGE_CAPACITY, STAGE_BATCH_SIZE, this::forwardToEms);
     
     // 烧录结果监听器集合
     private final Set<Consumer<ProgramResult>> programResultListeners = new CopyOnWriteArraySet<>();
     
+    // 模块结果监听器集合，参数为批次ID和单个模块结果
+    private final Set<BiConsumer<String, DeviceResult>> moduleResultListeners = new CopyOnWriteArraySet<>();
+    
     // EMS服务
     private EmsService emsService;
     
+    private final UpperComputerStation.StationListener stationListener = new UpperComputerStation.StationListener() {
+        @Override
+        public void onConnected(UpperComputerStation station) {
+            dispatchOrphans();
+        }
+        
+        @Override
+        public void onDisconnected(UpperComputerStation station) {
+            redispatchFrom(station);
+        }
+        
+        @Override
+        public void onMessage(UpperComputerStation station, String message) {
+            enqueueFrame(message);
+        }
+        
+        @Override
+        public void onBinaryMessage(UpperComputerStation station, byte[] frame) {
+            enqueueFrame(frame);
+        }
+        
+        private void enqueueFrame(Object message) {
+            // 在共享的IO线程上调用，不能阻塞；队列满时暂存到溢出列表，同时暂停所有工位的读取
+            decodeStage.add(message);
+        }
+    };
+    
     private UpperComputerService() {
-        // 私有构造函数
+        // 解析队列积压时暂停所有工位的读取
+        decodeStage.setWatermarks(DECODE_HIGH_WATERMARK, DECODE_LOW_WATERMARK, pressured -> {
+            for (UpperComputerStation station : stations) {
+                station.setAutoRead(!pressured);
+            }
+        });
     }
     
     public static synchronized UpperComputerService getInstance() {
@@ -74,136 +174,168 @@ public class UpperComputerService {
     
     /**
      * 初始化连接
+     * 除主上位机外，配置项 upper_computer.stations 中的工位一并连接
      * @param host 主机地址
      * @param port 端口
      * @return 连接结果
      */
     public String init(String host, int port) {
-        this.host = host;
-        this.port = port;
+        configureStations(host, port);
         
         // 初始化EMS服务
         emsService = EmsService.getInstance();
         
-        // 启动结果处理线程
-        startResultProcessor();
+        // 启动结果处理流水线，重复初始化时只启动一次
+        if (processorStarted.compareAndSet(false, true)) {
+            startResultPipeline();
+        }
         
         return connect();
     }
     
     /**
-     * 连接上位机
-     * @return 是否成功
+     * 根据主上位机地址和工位配置建立工位列表，地址未变化时保留现有连接
      */
-    public String connect() {
-        if (connected.get()) {
-            logger.info("Already connected to upper computer");
-            return "{\"status\":\"success\"}";
+    private synchronized void configureStations(String host, int port) {
+        if (host.equals(this.host) && port == this.port && !stations.isEmpty()) {
+            return;
         }
+        for (UpperComputerStation station : stations) {
+            station.shutdown();
+            DeviceGateway.getInstance().unregister(station.getDeviceChannel().getId());
+        }
+        this.host = host;
+        this.port = port;
         
+        List<UpperComputerStation> configured = new ArrayList<>();
+        String extra = null;
+        boolean preferBinary = false;
+        long heartbeatInterval = UpperComputerStation.DEFAULT_HEARTBEAT_INTERVAL_MS;
+        long heartbeatTimeout = UpperComputerStation.DEFAULT_HEARTBEAT_TIMEOUT_MS;
         try {
-            group = new NioEventLoopGroup();
-            
-            Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(group)
-                    .channel(NioSocketChannel.class)
-                    .option(ChannelOption.SO_KEEPALIVE, true)
-                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
-                    .handler(new ChannelInitializer<SocketChannel>() {
-                        @Override
-                        protected void initChannel(SocketChannel ch) throws Exception {
-                            ChannelPipeline pipeline = ch.pipeline();
-                            
-                            // 添加心跳检测
-                            pipeline.addLast(new IdleStateHandler(0, 0, 60, TimeUnit.SECONDS));
-                            
-                            // 添加解码器
-                            pipeline.addLast(new JsonObjectDecoder());
-                            pipeline.addLast(new StringDecoder(CharsetUtil.UTF_8));
-                            pipeline.addLast(new StringEncoder(CharsetUtil.UTF_8));
-                            
-                            // 添加业务处理器
-                            pipeline.addLast(new UpperComputerHandler());
-                        }
-                    });
-            
-            // 连接服务器
-            ChannelFuture future = bootstrap.connect(host, port).sync();
-            channel = future.channel();
-            
-            // 添加连接关闭监听器
-            channel.closeFuture().addListener((ChannelFutureListener) future1 -> {
-                connected.set(false);
-                logger.info("Connection to upper computer closed");
-                
-                // 尝试重连
-                scheduleReconnect();
-            });
-            
-            connected.set(true);
-            logger.info("Connected to upper computer at " + host + ":" + port);
+            ConfigService config = ConfigService.getInstance();
+            extra = config.getConfigValueByKey(STATIONS_KEY);
+            preferBinary = "binary".equalsIgnoreCase(config.getConfigValueByKey(PROTOCOL_KEY));
+            heartbeatInterval = config.getIntConfigValue(HEARTBEAT_INTERVAL_KEY, (int) heartbeatInterval);
+            heartbeatTimeout = config.getIntConfigValue(HEARTBEAT_TIMEOUT_KEY, (int) heartbeatTimeout);
+        } catch (RuntimeException e) {
+            logger.warning("Failed to read programming station config: " + e.getMessage());
+        }
+        configured.add(new UpperComputerStation(host, port, 1, preferBinary, stationListener));
+        if (extra != null) {
+            for (String entry : extra.split("[,;]")) {
+                String[] parts = entry.trim().split(":");
+                if (parts.length < 2) {
+                    continue;
+                }
+                try {
+                    String stationHost = parts[0].trim();
+                    int stationPort = Integer.parseInt(parts[1].trim());
+                    int weight = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 1;
+                    if (isConfigured(configured, stationHost, stationPort)) {
+                        logger.warning("Duplicate programming station config ignored: " + entry);
+                        continue;
+                    }
+                    configured.add(new UpperComputerStation(stationHost, stationPort, weight, preferBinary, stationListener));
+                } catch (NumberFormatException e) {
+                    logger.warning("Invalid programming station config: " + entry);
+                }
+            }
+        }
+        for (UpperComputerStation station : configured) {
+            station.setHeartbeat(heartbeatInterval, heartbeatTimeout);
+            DeviceGateway.getInstance().register(station.getDeviceChannel());
+        }
+        stations = Collections.unmodifiableList(configured);
+        logger.info("Configured " + configured.size() + " programming station(s)");
+    }
+    
+    /**
+     * 工位列表中是否已有相同地址的工位，每个地址只建立一个连接
+     */
+    private static boolean isConfigured(List<UpperComputerStation> configured, String host, int port) {
+        for (UpperComputerStation station : configured) {
+            if (station.getHost().equals(host) && station.getPort() == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * 连接全部烧录工位，等待连接完成后返回
+     * 任意一个工位连接成功即视为成功，未连上的工位在后台重连
+     * @return 是否成功
+     */
+    public String connect() {
+        String firstError = null;
+        boolean anyConnected = false;
+        for (UpperComputerStation station : stations) {
+            String result = station.connect();
+            if (result.contains("success")) {
+                anyConnected = true;
+            } else if (firstError == null) {
+                firstError = result;
+            }
+        }
+        if (anyConnected) {
             return "{\"status\":\"success\"}";
-        } catch (Exception e) {
-            logger.severe("Failed to connect to upper computer: " + e.getMessage());
-            
-            // 关闭资源
-            shutdown();
-            
-            // 尝试重连
-            scheduleReconnect();
-            
-            return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
         }
+        return firstError != null ? firstError : "{\"status\":\"error\",\"message\":\"No programming station configured\"}";
     }
     
     /**
-     * 关闭连接
+     * 关闭全部连接，共享的事件循环保持运行
      */
     public void shutdown() {
-        if (channel != null) {
-            channel.close();
-            channel = null;
+        for (UpperComputerStation station : stations) {
+            station.shutdown();
         }
-        
-        if (group != null) {
-            group.shutdownGracefully();
-            group = null;
-        }
-        
-        connected.set(false);
     }
     
     /**
      * 获取连接状态
-     * @return 是否已连接
+     * @return 是否至少有一个烧录工位已连接
      */
     public boolean isConnected() {
-        return connected.get();
+        for (UpperComputerStation station : stations) {
+            if (station.isConnected()) {
+                return true;
+            }
+        }
+        return false;
     }
     
     /**
-     * 计划重连
+     * 获取全部烧录工位
      */
-    private void scheduleReconnect() {
-        ExecutorService executor = Executors.newSingleThreadExecutor();
-        executor.submit(() -> {
-            try {
-                logger.info("Scheduling reconnect in 5 seconds...");
-                Thread.sleep(5000);
-                connect();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        });
-        executor.shutdown();
+    public List<UpperComputerStation> getStations() {
+        return stations;
     }
     
     /**
-     * 发送烧录指令
-     * @param deviceId 设备ID
-     * @param barcodes 条码列表
-     * @return 是否成功
+     * 获取各工位心跳往返时间摘要，用于界面显示
+     * @return 例如 "192.168.1.100:8888 3.2ms(p99 5.1ms)"，多个工位用分号分隔
      */
+    public String getRttSummary() {
+        StringBuilder summary = new StringBuilder();
+        for (UpperComputerStation station : stations) {
+            if (summary.length() > 0) {
+                summary.append("; ");
+            }
+            summary.append(station.getAddress()).append(' ');
+            LatencyHistogram rtt = station.getRttHistogram();
+            if (!station.isConnected()) {
+                summary.append("未连接");
+            } else if (!station.isHeartbeatSupported() || rtt.getCount() == 0) {
+                summary.append("无心跳");
+            } else {
+                summary.append(String.format("%.1fms(p99 %.1fms)", rtt.getLastMs(), rtt.getPercentileMs(0.99)));
+            }
+        }
+        return summary.length() > 0 ? summary.toString() : "-";
+    }
+    
     /**
      * 从PLC读取数据
      * @param deviceId 设备ID
@@ -212,43 +344,30 @@ public class UpperComputerService {
     public String readPlcData(String deviceId) {
         return "{\"status\":\"success\",\"data\":\"sample data from PLC\"}";
     }
-
+    
     /**
-     * 发送烧录指令
+     * 发送烧录指令，不等待结果
+     * 结果仍通过烧录结果监听器通知，需要按批次等待结果时使用 submitProgramCommand
      * @param deviceId 设备ID
      * @param barcodes 条码列表
-     * @return 操作结果JSON字符串
+     * @return 操作结果JSON字符串，成功时包含批次ID
      */
     public String sendProgramCommand(String deviceId, List<String> barcodes) {
-        if (!connected.get()) {
+        if (!isConnected()) {
             logger.warning("Not connected to upper computer");
             return "{\"status\":\"error\",\"message\":\"Not connected to upper computer\"}";
         }
         
         try {
-            // 创建烧录指令
-            List<BarcodeInfo> barcodeInfos = new ArrayList<>();
-            for (String barcode : barcodes) {
-                BarcodeInfo info = new BarcodeInfo(barcode, deviceId);
-                barcodeInfos.add(info);
+            ProgramCommandFuture future = submitProgramCommand(deviceId, barcodes);
+            if (future.isCompletedExceptionally()) {
+                future.get();
             }
-            ProgramCommand command = new ProgramCommand(barcodeInfos, UUID.randomUUID().toString());
-            command.setCommand("PROGRAM");
-            
-            // 转换为JSON
-            String json = gson.toJson(command);
-            
-            // 发送指令
-            ChannelFuture future = channel.writeAndFlush(json);
-            future.addListener((ChannelFutureListener) future1 -> {
-                if (future1.isSuccess()) {
-                    logger.info("Program command sent successfully: " + json);
-                } else {
-                    logger.severe("Failed to send program command: " + future1.cause().getMessage());
-                }
-            });
-            
-            return "{\"status\":\"success\",\"message\":\"Command sent successfully\"}";
+            return "{\"status\":\"success\",\"message\":\"Command sent successfully\",\"batchId\":\""
+                    + future.getBatchId() + "\"}";
+        } catch (ExecutionException e) {
+            logger.severe("Error sending program command: " + e.getCause().getMessage());
+            return "{\"status\":\"error\",\"message\":\"" + e.getCause().getMessage() + "\"}";
         } catch (Exception e) {
             logger.severe("Error sending program command: " + e.getMessage());
             return "{\"status\":\"error\",\"message\":\"" + e.getMessage() + "\"}";
@@ -256,61 +375,635 @@ public class UpperComputerService {
     }
     
     /**
-     * 启动结果处理线程
+     * 发送烧录指令，返回该批次烧录结果的Future
+     * 超时时间取配置项 upper_computer.command_timeout_ms，默认60秒
+     * @param deviceId 设备ID
+     * @param barcodes 条码列表
+     * @return 烧录结果Future，结果保存并回传EMS后完成；发送失败或超时时以异常完成
      */
-    private void startResultProcessor() {
-        Thread processor = new Thread(() -> {
-            while (true) {
-                try {
-                    // 从队列中获取烧录结果
-                    ProgramResult result = resultQueue.take();
-                    
-                    // 处理烧录结果
-                    processProgramResult(result);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.severe("Result processor interrupted: " + e.getMessage());
-                    break;
-                } catch (Exception e) {
-                    logger.severe("Error processing program result: " + e.getMessage());
+    public ProgramCommandFuture submitProgramCommand(String deviceId, List<String> barcodes) {
+        long timeoutMs = ConfigService.getInstance().getIntConfigValue(COMMAND_TIMEOUT_KEY, (int) DEFAULT_COMMAND_TIMEOUT_MS);
+        return submitProgramCommand(deviceId, barcodes, timeoutMs > 0 ? timeoutMs : DEFAULT_COMMAND_TIMEOUT_MS);
+    }
+    
+    /**
+     * 发送烧录指令，返回该批次烧录结果的Future
+     * 多个批次可以同时在途，结果按批次ID对应；连接多个工位时条码拆分到各工位，
+     * 子批次ID为 批次ID#序号，全部子批次返回后合并为一个结果
+     * @param deviceId 设备ID
+     * @param barcodes 条码列表
+     * @param timeoutMs 等待结果的超时时间(毫秒)
+     * @return 烧录结果Future
+     */
+    public ProgramCommandFuture submitProgramCommand(String deviceId, List<String> barcodes, long timeoutMs) {
+        String batchId = UUID.randomUUID().toString();
+        ProgramCommandFuture future = new ProgramCommandFuture(batchId);
+        
+        List<UpperComputerStation> available = connectedStations();
+        if (available.isEmpty()) {
+            logger.warning("Not connected to upper computer");
+            future.completeExceptionally(new IllegalStateException("Not connected to upper computer"));
+            return future;
+        }
+        
+        // 按权重和在途条码数拆分，每个工位分到连续的一段条码
+        int[] counts = splitCounts(barcodes.size(), available);
+        PendingBatch batch = new PendingBatch(future, deviceId);
+        List<UpperComputerStation> targets = new ArrayList<>();
+        int offset = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0 && !(barcodes.isEmpty() && i == 0)) {
+                continue;
+            }
+            batch.parts.add(new PendingPart(batch, new ArrayList<>(barcodes.subList(offset, offset + counts[i]))));
+            targets.add(available.get(i));
+            offset += counts[i];
+        }
+        for (int i = 0; i < batch.parts.size(); i++) {
+            batch.parts.get(i).partId = batch.parts.size() == 1 ? batchId : batchId + PART_SEPARATOR + (i + 1);
+        }
+        
+        // 先登记再发送，避免结果先于登记到达
+        for (PendingPart part : batch.parts) {
+            inFlightParts.put(part.partId, part);
+        }
+        batch.timeout = commandTimer.newTimeout(t -> expireBatch(batch), timeoutMs, TimeUnit.MILLISECONDS);
+        
+        for (int i = 0; i < batch.parts.size(); i++) {
+            dispatch(batch.parts.get(i), targets.get(i));
+        }
+        return future;
+    }
+    
+    /**
+     * 计算各工位分配的条码数
+     * 每个条码依次分给 (在途条码数+已分配数+1)/权重 最小的工位，即按最少在途工作量和权重分配
+     */
+    private int[] splitCounts(int total, List<UpperComputerStation> available) {
+        int[] counts = new int[available.size()];
+        int[] load = new int[available.size()];
+        for (int i = 0; i < available.size(); i++) {
+            load[i] = available.get(i).getOutstanding();
+        }
+        for (int n = 0; n < total; n++) {
+            int best = 0;
+            double bestCost = Double.MAX_VALUE;
+            for (int i = 0; i < available.size(); i++) {
+                double cost = (load[i] + counts[i] + 1) / (double) available.get(i).getWeight();
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = i;
                 }
             }
-        });
+            counts[best]++;
+        }
+        return counts;
+    }
+    
+    private List<UpperComputerStation> connectedStations() {
+        List<UpperComputerStation> available = new ArrayList<>();
+        for (UpperComputerStation station : stations) {
+            if (station.isConnected()) {
+                available.add(station);
+            }
+        }
+        return available;
+    }
+    
+    /**
+     * 选择在途工作量相对权重最小的已连接工位
+     */
+    private UpperComputerStation leastLoadedStation(UpperComputerStation exclude) {
+        UpperComputerStation best = null;
+        double bestCost = Double.MAX_VALUE;
+        for (UpperComputerStation station : stations) {
+            if (station == exclude || !station.isConnected()) {
+                continue;
+            }
+            double cost = (station.getOutstanding() + 1) / (double) station.getWeight();
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = station;
+            }
+        }
+        return best;
+    }
+    
+    /**
+     * 把子批次下发到指定工位，没有可用工位时等待工位连上，写入失败时改派
+     */
+    private void dispatch(PendingPart part, UpperComputerStation station) {
+        if (part.batch.finished || inFlightParts.get(part.partId) != part) {
+            return;
+        }
+        if (station == null) {
+            orphanParts.offer(part);
+            return;
+        }
+        
+        // 创建烧录指令，改派时跳过已返回结果的模块
+        List<BarcodeInfo> barcodeInfos = new ArrayList<>();
+        for (String barcode : part.remainingBarcodes()) {
+            BarcodeInfo info = new BarcodeInfo(part.batch.deviceId, barcode);
+            barcodeInfos.add(info);
+        }
+        ProgramCommand command = new ProgramCommand(barcodeInfos, part.partId);
+        command.setCommand("PROGRAM");
+        
+        synchronized (part) {
+            part.station = station;
+            part.assigned = barcodeInfos.size();
+            station.addOutstanding(part.assigned);
+        }
         
-        processor.setDaemon(true);
-        processor.start();
+        // 发送指令，按工位协商的协议编码
+        ChannelFuture future;
+        try {
+            future = station.sendCommand(command);
+        } catch (Exception e) {
+            logger.severe("Error sending program command: " + e.getMessage());
+            synchronized (part) {
+                if (part.station == station) {
+                    part.station = null;
+                    station.addOutstanding(-part.assigned);
+                }
+            }
+            failBatch(part.batch, e);
+            return;
+        }
+        if (future == null) {
+            redispatch(part, station);
+            return;
+        }
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                logger.info("Program command " + part.partId + " sent to " + station.getAddress()
+                        + " (" + barcodeInfos.size() + " barcodes, " + station.getProtocol() + ")");
+            } else {
+                logger.severe("Failed to send program command to " + station.getAddress() + ": " + f.cause().getMessage());
+                redispatch(part, station);
+            }
+        });
+    }
+    
+    /**
+     * 把子批次从原工位改派给其他已连接工位
+     * 原工位之后仍返回的结果照常接收，改派后的重复结果按批次ID丢弃
+     */
+    private void redispatch(PendingPart part, UpperComputerStation from) {
+        synchronized (part) {
+            if (part.station != from) {
+                return;
+            }
+            part.station = null;
+            from.addOutstanding(-part.assigned);
+            part.assigned = 0;
+        }
+        if (part.batch.finished || inFlightParts.get(part.partId) != part) {
+            return;
+        }
+        redispatchCount.incrementAndGet();
+        UpperComputerStation target = leastLoadedStation(from);
+        logger.warning("Redispatching program command " + part.partId + " from " + from.getAddress()
+                + (target != null ? " to " + target.getAddress() : ", waiting for a station"));
+        dispatch(part, target);
+    }
+    
+    /**
+     * 工位断开后，改派该工位上尚未返回结果的子批次
+     */
+    private void redispatchFrom(UpperComputerStation station) {
+        for (PendingPart part : inFlightParts.values()) {
+            if (part.station == station) {
+                redispatch(part, station);
+            }
+        }
+    }
+    
+    /**
+     * 有工位连上后，下发等待中的子批次
+     */
+    private void dispatchOrphans() {
+        PendingPart part;
+        while ((part = orphanParts.poll()) != null) {
+            UpperComputerStation target = leastLoadedStation(null);
+            if (target == null) {
+                orphanParts.offer(part);
+                return;
+            }
+            dispatch(part, target);
+        }
+    }
+    
+    /**
+     * 批次超时，从在途表移除并以超时异常完成
+     * 已返回的子批次在收到时已经保存和回传
+     */
+    private void expireBatch(PendingBatch batch) {
+        if (!batch.finish()) {
+            return;
+        }
+        for (PendingPart part : batch.parts) {
+            if (inFlightParts.remove(part.partId, part)) {
+                releasePart(part);
+                rememberBatch(part.partId, false);
+            }
+        }
+        timeoutCount.incrementAndGet();
+        logger.warning("Program command timed out, batchId: " + batch.future.getBatchId() + ", deviceId: " + batch.deviceId);
+        batch.future.completeExceptionally(new TimeoutException("Program result not received for batch " + batch.future.getBatchId()));
+    }
+    
+    /**
+     * 指令无法发送，结束批次
+     */
+    private void failBatch(PendingBatch batch, Throwable cause) {
+        if (!batch.finish()) {
+            return;
+        }
+        batch.timeout.cancel();
+        for (PendingPart part : batch.parts) {
+            if (inFlightParts.remove(part.partId, part)) {
+                releasePart(part);
+            }
+        }
+        batch.future.completeExceptionally(cause);
+    }
+    
+    private void releasePart(PendingPart part) {
+        synchronized (part) {
+            if (part.station != null) {
+                part.station.addOutstanding(-part.assigned);
+                part.station = null;
+                part.assigned = 0;
+            }
+        }
+    }
+    
+    /**
+     * 记录已结束的批次
+     * @param completed true表示已收到结果，false表示已超时
+     */
+    private void rememberBatch(String batchId, boolean completed) {
+        synchronized (recentBatches) {
+            recentBatches.put(batchId, completed);
+        }
+    }
+    
+    private Boolean recentBatchState(String batchId) {
+        synchronized (recentBatches) {
+            return recentBatches.get(batchId);
+        }
+    }
+    
+    /**
+     * 获取在途烧录指令数量，按子批次计
+     */
+    public int getInFlightCommandCount() {
+        return inFlightParts.size();
+    }
+    
+    /**
+     * 获取批次ID未知的结果数量
+     */
+    public long getUnknownResultCount() {
+        return unknownResultCount.get();
+    }
+    
+    /**
+     * 获取被丢弃的重复结果数量
+     */
+    public long getDuplicateResultCount() {
+        return duplicateResultCount.get();
+    }
+    
+    /**
+     * 获取超时的烧录指令数量
+     */
+    public long getCommandTimeoutCount() {
+        return timeoutCount.get();
+    }
+    
+    /**
+     * 获取因工位断开或写入失败而改派的次数
+     */
+    public long getRedispatchCount() {
+        return redispatchCount.get();
+    }
+    
+    /**
+     * 启动结果处理流水线，每个阶段一个工作线程
+     */
+    private void startResultPipeline() {
+        emsStage.start();
+        notifyStage.start();
+        persistStage.start();
+        decodeStage.start();
+    }
+    
+    /**
+     * 获取结果处理流水线各阶段，用于查看队列深度和延迟
+     */
+    public List<PipelineStage<?>> getPipelineStages() {
+        List<PipelineStage<?>> pipeline = new ArrayList<>();
+        pipeline.add(decodeStage);
+        pipeline.add(persistStage);
+        pipeline.add(notifyStage);
+        pipeline.add(emsStage);
+        return pipeline;
     }
     
     /**
-     * 处理烧录结果
+     * 解析阶段：解析结果帧并按批次ID关联在途指令，单线程执行以保证同一批次的帧按到达顺序处理
+     */
+    private void decodeFrames(List<Object> messages) {
+        for (Object message : messages) {
+            ResultEvent event;
+            try {
+                if (message instanceof byte[]) {
+                    event = decodeBinaryFrame((byte[]) message);
+                    if (event != null) {
+                        handOff(persistStage, event);
+                    }
+                    continue;
+                }
+                JsonObject frame = JsonParser.parseString((String) message).getAsJsonObject();
+                String type = frame.has("type") ? frame.get("type").getAsString() : null;
+                String batchId = frame.has("batchId") && !frame.get("batchId").isJsonNull() ? frame.get("batchId").getAsString() : null;
+                if (FRAME_MODULE_RESULT.equals(type)) {
+                    // 单个模块的烧录结果
+                    event = processModuleResult(batchId, gson.fromJson(frame.get("result"), DeviceResult.class));
+                } else if (FRAME_BATCH_COMPLETE.equals(type)) {
+                    // 批次全部模块结束
+                    String status = frame.has("status") ? frame.get("status").getAsString() : null;
+                    event = processBatchComplete(batchId, status);
+                } else {
+                    // 整批烧录结果
+                    event = processProgramResult(gson.fromJson(frame, ProgramResult.class));
+                }
+            } catch (Exception e) {
+                logger.severe("Error parsing program result: " + e.getMessage());
+                continue;
+            }
+            if (event != null) {
+                handOff(persistStage, event);
+            }
+        }
+    }
+    
+    /**
+     * 解析二进制结果帧，与JSON帧走同样的关联逻辑
+     */
+    private ResultEvent decodeBinaryFrame(byte[] bytes) {
+        BinaryFrameCodec.Frame frame = BinaryFrameCodec.decode(Unpooled.wrappedBuffer(bytes));
+        switch (frame.getType()) {
+            case BinaryFrameCodec.TYPE_MODULE_RESULT:
+                return processModuleResult(frame.getBatchId(), frame.getModule());
+            case BinaryFrameCodec.TYPE_BATCH_COMPLETE:
+                return processBatchComplete(frame.getBatchId(), frame.getStatus());
+            case BinaryFrameCodec.TYPE_PROGRAM_RESULT:
+                return processProgramResult(frame.getResult());
+            default:
+                logger.warning("Unexpected binary frame type from upper computer: " + frame.getType());
+                return null;
+        }
+    }
+    
+    /**
+     * 保存阶段：一次取出的结果在同一事务中保存，之后交给通知和EMS阶段
+     * 保存失败时这些结果不回传EMS也不通知监听器，所属批次的Future以失败结束；
+     * 日志记录已关闭(保留天数为0)时不保存，结果照常回传和通知
+     */
+    private void persistEvents(List<ResultEvent> events) {
+        List<ProgramResult> toSave = new ArrayList<>();
+        for (ResultEvent event : events) {
+            if (event.saved != null) {
+                toSave.add(event.saved);
+            }
+        }
+        SQLException saveError = null;
+        if (!toSave.isEmpty()) {
+            try {
+                DatabaseManager.saveProgramResults(toSave, LocalDateTime.now());
+            } catch (SQLException e) {
+                saveError = e;
+                logger.severe("Error saving program results, " + toSave.size() + " results not forwarded: " + e.getMessage());
+            }
+        }
+        for (ResultEvent event : events) {
+            if (saveError != null && event.saved != null) {
+                failedSaves.put(event.batchId, saveError);
+                failBatch(event);
+                continue;
+            }
+            failBatch(event);
+            if (event.saved != null) {
+                handOff(emsStage, event.saved);
+            }
+            handOff(notifyStage, event);
+        }
+    }
+    
+    /**
+     * 批次结束时如果有结果保存失败，以失败完成Future，不再作为完整结果通知
+     */
+    private void failBatch(ResultEvent event) {
+        if (event.future == null) {
+            return;
+        }
+        SQLException cause = failedSaves.remove(event.batchId);
+        if (cause != null) {
+            event.future.completeExceptionally(cause);
+            event.future = null;
+            event.batchResult = null;
+        }
+    }
+    
+    /**
+     * 通知阶段：通知模块结果和批次结果监听器，批次结果保存后完成Future
+     */
+    private void notifyEvents(List<ResultEvent> events) {
+        for (ResultEvent event : events) {
+            if (event.modules != null) {
+                for (DeviceResult module : event.modules) {
+                    notifyModuleResultListeners(event.batchId, module);
+                }
+            }
+            if (event.batchResult != null) {
+                // 通知所有监听器
+                notifyProgramResultListeners(event.batchResult);
+                if (event.future != null) {
+                    event.future.complete(event.batchResult);
+                }
+            }
+        }
+    }
+    
+    /**
+     * EMS阶段：回传已保存的结果
+     */
+    private void forwardToEms(List<ProgramResult> results) {
+        emsService.sendProgramResults(results);
+    }
+    
+    private static <T> void handOff(PipelineStage<T> stage, T item) {
+        try {
+            stage.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * 处理整批烧录结果
+     * 每个子批次的结果收到后即按原批次ID保存和回传EMS，之前已按模块返回的结果不重复保存；
+     * 全部子批次到齐后合并结果，通知监听器并完成Future
      * @param result 烧录结果
+     * @return 需要保存和通知的内容，重复结果返回null
      */
-    private void processProgramResult(ProgramResult result) {
-        logger.info("Processing program result: " + gson.toJson(result));
+    private ResultEvent processProgramResult(ProgramResult result) {
+        String partId = result.getBatchId();
+        logger.fine("Processing program result, batchId: " + partId);
         
-        try {
-            // 保存烧录结果到数据库
-            for (DeviceResult deviceResult : result.getResults()) {
-                DatabaseManager.saveProgramResult(
-                        result.getBatchId(),
-                        deviceResult.getDeviceId(),
-                        deviceResult.getBarcode(),
-                        deviceResult.isSuccess(),
-                        deviceResult.getErrorMessage(),
-                        LocalDateTime.now()
-                );
+        PendingPart part = partId != null ? inFlightParts.get(partId) : null;
+        if (part == null && partId != null) {
+            Boolean state = recentBatchState(partId);
+            if (Boolean.TRUE.equals(state)) {
+                // 同一批次已经处理过，丢弃重复结果，避免重复保存和回传
+                duplicateResultCount.incrementAndGet();
+                logger.warning("Duplicate program result dropped, batchId: " + partId);
+                return null;
             }
-            
-            // 发送结果到EMS
-            emsService.sendProgramResult(result);
-            
-            // 通知所有监听器
-            notifyProgramResultListeners(result);
-            
-            logger.info("Program result processed successfully");
-        } catch (Exception e) {
-            logger.severe("Error saving program result: " + e.getMessage());
+            if (Boolean.FALSE.equals(state)) {
+                logger.warning("Program result arrived after timeout, batchId: " + partId);
+            } else {
+                unknownResultCount.incrementAndGet();
+                logger.warning("Program result with unknown batchId: " + partId);
+            }
+            rememberBatch(partId, true);
+        }
+        if (partId != null) {
+            result.setBatchId(parentBatchId(partId));
         }
+        
+        ResultEvent event = new ResultEvent(result.getBatchId());
+        List<DeviceResult> fresh = part != null ? part.record(result.getResults()) : result.getResults();
+        if (fresh != null && !fresh.isEmpty()) {
+            event.saved = fresh.size() == result.getResults().size()
+                    ? result : singleResult(result.getBatchId(), fresh, result.getStatus());
+            event.modules = fresh;
+        }
+        
+        if (part == null) {
+            event.batchResult = result;
+        } else {
+            completePart(event, part, part.hasEarlierModules(fresh) ? null : result, result.getStatus());
+        }
+        return event;
+    }
+    
+    /**
+     * 处理单个模块的烧录结果，收到即保存、回传EMS并通知模块结果监听器
+     * @param partId 子批次ID
+     * @param module 模块结果
+     * @return 需要保存和通知的内容，重复结果返回null
+     */
+    private ResultEvent processModuleResult(String partId, DeviceResult module) {
+        logger.fine("Processing module result, batchId: " + partId + ", barcode: " + module.getBarcode());
+        
+        PendingPart part = partId != null ? inFlightParts.get(partId) : null;
+        if (part != null) {
+            if (part.record(Collections.singletonList(module)).isEmpty()) {
+                duplicateResultCount.incrementAndGet();
+                logger.warning("Duplicate module result dropped, batchId: " + partId + ", barcode: " + module.getBarcode());
+                return null;
+            }
+        } else if (partId != null) {
+            Boolean state = recentBatchState(partId);
+            if (Boolean.TRUE.equals(state)) {
+                duplicateResultCount.incrementAndGet();
+                logger.warning("Module result for completed batch dropped, batchId: " + partId + ", barcode: " + module.getBarcode());
+                return null;
+            }
+            if (Boolean.FALSE.equals(state)) {
+                logger.warning("Module result arrived after timeout, batchId: " + partId);
+            } else {
+                unknownResultCount.incrementAndGet();
+                logger.warning("Module result with unknown batchId: " + partId);
+            }
+        }
+        
+        ResultEvent event = new ResultEvent(partId != null ? parentBatchId(partId) : null);
+        event.saved = singleResult(event.batchId, Collections.singletonList(module), module.isSuccess() ? "success" : "failure");
+        event.modules = Collections.singletonList(module);
+        
+        // 子批次全部模块都已返回时不必等待批次完成帧
+        if (part != null && part.isFullyReported()) {
+            completePart(event, part, null, null);
+        }
+        return event;
+    }
+    
+    /**
+     * 处理批次完成帧，未返回结果的模块记录警告
+     * @param partId 子批次ID
+     * @param status 上位机给出的批次状态
+     * @return 批次全部完成时返回需要通知的内容，否则返回null
+     */
+    private ResultEvent processBatchComplete(String partId, String status) {
+        PendingPart part = partId != null ? inFlightParts.get(partId) : null;
+        if (part == null) {
+            // 全部模块返回后子批次已经结束，完成帧无需处理
+            if (partId == null || recentBatchState(partId) == null) {
+                logger.warning("Batch complete frame with unknown batchId: " + partId);
+            }
+            return null;
+        }
+        int missing = part.remainingBarcodes().size();
+        if (missing > 0) {
+            logger.warning("Batch " + partId + " completed with " + missing + " module(s) not reported");
+        }
+        ResultEvent event = new ResultEvent(parentBatchId(partId));
+        completePart(event, part, null, status);
+        return event.batchResult != null ? event : null;
+    }
+    
+    /**
+     * 结束子批次，全部子批次结束后把合并结果和Future记入event，保存后由通知阶段完成
+     * @param event 本次处理的结果
+     * @param part 子批次
+     * @param partResult 子批次结果，为null时由已收到的模块结果生成
+     * @param status 上位机给出的状态，为null时按模块结果判断
+     */
+    private void completePart(ResultEvent event, PendingPart part, ProgramResult partResult, String status) {
+        if (!inFlightParts.remove(part.partId, part)) {
+            return;
+        }
+        releasePart(part);
+        rememberBatch(part.partId, true);
+        if (partResult == null) {
+            partResult = part.toResult(parentBatchId(part.partId), status);
+        }
+        
+        ProgramResult merged = part.batch.complete(part, partResult);
+        if (merged != null) {
+            part.batch.timeout.cancel();
+            event.batchResult = merged;
+            event.future = part.batch.future;
+        }
+    }
+    
+    private static ProgramResult singleResult(String batchId, List<DeviceResult> results, String status) {
+        ProgramResult result = new ProgramResult();
+        result.setBatchId(batchId);
+        result.setStatus(status);
+        result.setResults(new ArrayList<>(results));
+        return result;
+    }
+    
+    private static String parentBatchId(String partId) {
+        int index = partId.indexOf(PART_SEPARATOR);
+        return index < 0 ? partId : partId.substring(0, index);
     }
     
     /**
@@ -333,6 +1026,36 @@ public class UpperComputerService {
         }
     }
     
+    /**
+     * 添加模块结果监听器，每个模块烧录完成即通知，参数为批次ID和模块结果
+     * @param listener 模块结果监听器
+     */
+    public void addModuleResultListener(BiConsumer<String, DeviceResult> listener) {
+        if (listener != null) {
+            moduleResultListeners.add(listener);
+        }
+    }
+    
+    /**
+     * 移除模块结果监听器
+     * @param listener 要移除的模块结果监听器
+     */
+    public void removeModuleResultListener(BiConsumer<String, DeviceResult> listener) {
+        if (listener != null) {
+            moduleResultListeners.remove(listener);
+        }
+    }
+    
+    private void notifyModuleResultListeners(String batchId, DeviceResult result) {
+        for (BiConsumer<String, DeviceResult> listener : moduleResultListeners) {
+            try {
+                listener.accept(batchId, result);
+            } catch (Exception e) {
+                logger.severe("Error notifying module result listener: " + e.getMessage());
+            }
+        }
+    }
+    
     /**
      * 通知所有烧录结果监听器
      * @param result 烧录结果
@@ -348,39 +1071,183 @@ public class UpperComputerService {
     }
     
     /**
-     * 上位机通信处理器
+     * 烧录结果Future，携带批次ID
      */
-    private class UpperComputerHandler extends SimpleChannelInboundHandler<String> {
-        @Override
-        protected void channelRead0(ChannelHandlerContext ctx, String msg) throws Exception {
-            logger.info("Received message from upper computer: " + msg);
+    public static class ProgramCommandFuture extends CompletableFuture<ProgramResult> {
+        private final String batchId;
+        
+        ProgramCommandFuture(String batchId) {
+            this.batchId = batchId;
+        }
+        
+        public String getBatchId() {
+            return batchId;
+        }
+    }
+    
+    /**
+     * 在途批次，由一个或多个子批次组成
+     */
+    private static class PendingBatch {
+        final ProgramCommandFuture future;
+        final String deviceId;
+        final List<PendingPart> parts = new ArrayList<>();
+        volatile Timeout timeout;
+        volatile boolean finished;
+        private int received;
+        
+        PendingBatch(ProgramCommandFuture future, String deviceId) {
+            this.future = future;
+            this.deviceId = deviceId;
+        }
+        
+        /**
+         * 标记批次结束
+         * @return 是否由本次调用结束
+         */
+        synchronized boolean finish() {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            return true;
+        }
+        
+        /**
+         * 记录子批次结果
+         * @return 全部子批次到齐时返回合并后的结果，否则返回null
+         */
+        synchronized ProgramResult complete(PendingPart part, ProgramResult result) {
+            if (finished) {
+                return null;
+            }
+            part.result = result;
+            if (++received < parts.size()) {
+                return null;
+            }
+            finished = true;
+            if (parts.size() == 1) {
+                return result;
+            }
             
-            try {
-                // 解析烧录结果
-                ProgramResult result = gson.fromJson(msg, ProgramResult.class);
-                
-                // 添加到结果队列
-                resultQueue.offer(result);
-                
-                logger.info("Program result added to queue");
-            } catch (Exception e) {
-                logger.severe("Error parsing program result: " + e.getMessage());
+            // 按子批次顺序合并，条码顺序与下发时一致
+            ProgramResult merged = new ProgramResult();
+            merged.setBatchId(future.getBatchId());
+            boolean allSuccess = true;
+            for (PendingPart p : parts) {
+                if (p.result.getResults() != null) {
+                    for (DeviceResult deviceResult : p.result.getResults()) {
+                        merged.addDeviceResult(deviceResult);
+                        allSuccess &= deviceResult.isSuccess();
+                    }
+                }
             }
+            merged.setStatus(allSuccess ? "success" : "failure");
+            return merged;
         }
+    }
+    
+    /**
+     * 下发到某个工位的子批次
+     */
+    private static class PendingPart {
+        final PendingBatch batch;
+        final List<String> barcodes;
+        String partId;
+        volatile UpperComputerStation station;
+        // 计入当前工位在途数量的条码数
+        int assigned;
+        ProgramResult result;
+        // 已返回的模块结果，按条码去重
+        private final Map<String, DeviceResult> reported = new LinkedHashMap<>();
         
-        @Override
-        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-            logger.severe("Exception in upper computer handler: " + cause.getMessage());
-            ctx.close();
+        PendingPart(PendingBatch batch, List<String> barcodes) {
+            this.batch = batch;
+            this.barcodes = barcodes;
         }
         
-        @Override
-        public void channelInactive(ChannelHandlerContext ctx) {
-            logger.info("Connection to upper computer lost");
-            connected.set(false);
-            
-            // 尝试重连
-            scheduleReconnect();
+        /**
+         * 记录返回的模块结果，每个返回的模块从工位在途数量中扣除
+         * @return 此前未返回过的模块结果
+         */
+        synchronized List<DeviceResult> record(List<DeviceResult> results) {
+            List<DeviceResult> fresh = new ArrayList<>();
+            if (results == null) {
+                return fresh;
+            }
+            for (DeviceResult result : results) {
+                if (reported.containsKey(result.getBarcode())) {
+                    continue;
+                }
+                reported.put(result.getBarcode(), result);
+                fresh.add(result);
+                if (station != null && assigned > 0) {
+                    station.addOutstanding(-1);
+                    assigned--;
+                }
+            }
+            return fresh;
+        }
+        
+        /**
+         * 本次整批结果之前是否已有模块单独返回
+         */
+        synchronized boolean hasEarlierModules(List<DeviceResult> fresh) {
+            return reported.size() != fresh.size();
+        }
+        
+        synchronized boolean isFullyReported() {
+            return reported.keySet().containsAll(barcodes);
+        }
+        
+        synchronized List<String> remainingBarcodes() {
+            List<String> remaining = new ArrayList<>();
+            for (String barcode : barcodes) {
+                if (!reported.containsKey(barcode)) {
+                    remaining.add(barcode);
+                }
+            }
+            return remaining;
+        }
+        
+        /**
+         * 由已返回的模块结果生成子批次结果，按下发时的条码顺序排列
+         */
+        synchronized ProgramResult toResult(String batchId, String status) {
+            List<DeviceResult> results = new ArrayList<>();
+            boolean allSuccess = true;
+            for (String barcode : barcodes) {
+                DeviceResult result = reported.get(barcode);
+                if (result != null) {
+                    results.add(result);
+                    allSuccess &= result.isSuccess();
+                }
+            }
+            for (DeviceResult result : reported.values()) {
+                if (!barcodes.contains(result.getBarcode())) {
+                    results.add(result);
+                    allSuccess &= result.isSuccess();
+                }
+            }
+            return singleResult(batchId, results, status != null ? status : (allSuccess ? "success" : "failure"));
+        }
+    }
+    
+    /**
+     * 一帧结果经解析关联后需要保存和通知的内容
+     */
+    private static class ResultEvent {
+        final String batchId;
+        // 需要保存和回传EMS的结果
+        ProgramResult saved;
+        // 需要通知模块结果监听器的模块
+        List<DeviceResult> modules;
+        // 批次全部完成时的合并结果及其Future
+        ProgramResult batchResult;
+        ProgramCommandFuture future;
+        
+        ResultEvent(String batchId) {
+            this.batchId = batchId;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,674 @@
+package com.iot.plc.service;
+
+import com.iot.plc.gateway.DeviceChannel;
+import com.iot.plc.gateway.ExternalDeviceChannel;
+import com.iot.plc.logger.LoggerFactory;
+import com.iot.plc.model.ProgramCommand;
+import com.iot.plc.util.LatencyHistogram;
+import com.iot.plc.util.SharedEventLoop;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.json.JsonObjectDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.handler.timeout.IdleState;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * 烧录工位(一台上位机)连接
+ * 负责单个上位机的连接、断线重连和收发，收到的帧原样交给 UpperComputerService 的处理流水线解析，
+ * 批次的拆分与合并也由 UpperComputerService 统一处理。
+ * 默认使用JSON帧；配置为二进制协议时，连接后先发送 {"type":"hello","protocols":["binary/1","json"]}，
+ * 上位机回复 {"type":"hello","protocol":"binary/1"} 后双方改用长度字段分隔的二进制帧(见 BinaryFrameCodec)，
+ * 回复其他协议或超时未回复时继续使用JSON。
+ * 连接空闲时发送 {"type":"ping","seq":n}，上位机原样回复 pong 帧，往返时间记入直方图；
+ * 上位机回复过 pong 后，超过心跳超时时间没有收到任何数据即视为对端失效，关闭连接并重连。
+ * 每个工位对应一个外部管理的设备通道，由 UpperComputerService 登记到设备网关，协商完成视为已连接，收发的帧计入通道统计。
+ */
+public class UpperComputerStation {
+    private static final Logger logger = LoggerFactory.getLogger(UpperComputerStation.class.getName());
+    private static final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
+    
+    // 协议协商
+    public static final String PROTOCOL_JSON = "json";
+    public static final String PROTOCOL_BINARY = "binary/" + BinaryFrameCodec.VERSION;
+    private static final String HELLO_TYPE = "hello";
+    private static final long NEGOTIATION_TIMEOUT_MS = 3000;
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    
+    // 心跳，读空闲达到间隔时发送ping
+    private static final String PING_TYPE = "ping";
+    private static final String PONG_TYPE = "pong";
+    public static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 5000;
+    public static final long DEFAULT_HEARTBEAT_TIMEOUT_MS = 15000;
+    
+    // 重连间隔(毫秒)，每次重连翻倍直到上限，连接保持稳定后恢复
+    private static final long RECONNECT_MIN_DELAY_MS = 1000;
+    private static final long RECONNECT_MAX_DELAY_MS = 30000;
+    private static final long STABLE_CONNECTION_MS = 10000;
+    
+    // 设备通道ID前缀，后接工位地址
+    public static final String CHANNEL_ID_PREFIX = "upper:";
+    
+    /**
+     * 工位事件监听器
+     */
+    public interface StationListener {
+        void onConnected(UpperComputerStation station);
+        
+        void onDisconnected(UpperComputerStation station);
+        
+        void onMessage(UpperComputerStation station, String message);
+        
+        void onBinaryMessage(UpperComputerStation station, byte[] frame);
+    }
+    
+    private final String host;
+    private final int port;
+    private final int weight;
+    private final StationListener listener;
+    private final boolean preferBinary;
+    
+    // Netty相关，事件循环由所有连接共享
+    private Bootstrap bootstrap;
+    private volatile Channel channel;
+    private final AtomicBoolean connected = new AtomicBoolean(false);
+    // 协议协商完成后才可以下发指令
+    private volatile boolean ready = false;
+    private volatile boolean binary = false;
+    private volatile CountDownLatch readyLatch = new CountDownLatch(1);
+    // 处理流水线积压时暂停读取
+    private volatile boolean autoRead = true;
+    
+    // 心跳状态，heartbeatSeen 表示本次连接的上位机支持心跳
+    private volatile long heartbeatIntervalMs = DEFAULT_HEARTBEAT_INTERVAL_MS;
+    private volatile long heartbeatTimeoutMs = DEFAULT_HEARTBEAT_TIMEOUT_MS;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile boolean heartbeatSeen = false;
+    private long pingSeq = 0;
+    private long pingSentNanos = 0;
+    private final LatencyHistogram rttHistogram = new LatencyHistogram();
+    private final AtomicLong deadPeerCount = new AtomicLong();
+    
+    // 重连状态
+    private final AtomicBoolean reconnectScheduled = new AtomicBoolean(false);
+    private volatile ScheduledFuture<?> reconnectFuture;
+    private volatile long reconnectDelayMs = RECONNECT_MIN_DELAY_MS;
+    private volatile boolean stopped = false;
+    
+    // 已下发但尚未返回结果的条码数量
+    private final AtomicInteger outstanding = new AtomicInteger();
+    
+    // 设备网关中的通道，连接由工位自己管理
+    private final ExternalDeviceChannel deviceChannel;
+    
+    public UpperComputerStation(String host, int port, int weight, StationListener listener) {
+        this(host, port, weight, false, listener);
+    }
+    
+    /**
+     * @param preferBinary 连接后是否尝试协商二进制协议
+     */
+    public UpperComputerStation(String host, int port, int weight, boolean preferBinary, StationListener listener) {
+        this.host = host;
+        this.port = port;
+        this.weight = Math.max(1, weight);
+        this.preferBinary = preferBinary;
+        this.listener = listener;
+        this.deviceChannel = new ExternalDeviceChannel(CHANNEL_ID_PREFIX + getAddress(), "tcp", getAddress(), new ExternalDeviceChannel.Link() {
+            @Override
+            public void open() {
+                start();
+            }
+            
+            @Override
+            public void close() {
+                shutdown();
+            }
+            
+            @Override
+            public boolean send(byte[] data) {
+                return sendFrame(data);
+            }
+        });
+    }
+    
+    /**
+     * 连接上位机，等待连接完成后返回
+     * @return 连接结果
+     */
+    public String connect() {
+        if (connected.get()) {
+            logger.info("Already connected to upper computer " + getAddress());
+            return "{\"status\":\"success\"}";
+        }
+        stopped = false;
+        deviceChannel.markConnecting();
+        
+        // 监听器按添加顺序执行，等待这个监听器即可保证连接状态已更新
+        ChannelFuture future = doConnect();
+        CountDownLatch done = new CountDownLatch(1);
+        future.addListener(f -> done.countDown());
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (future.isSuccess()) {
+            // 等待协议协商结束，协商超时会回退到JSON，不会一直等待
+            try {
+                readyLatch.await(NEGOTIATION_TIMEOUT_MS + 500, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "{\"status\":\"success\"}";
+        }
+        String message = future.cause() != null ? future.cause().getMessage() : "connect failed";
+        return "{\"status\":\"error\",\"message\":\"" + message + "\"}";
+    }
+    
+    /**
+     * 在后台连接上位机，立即返回，供设备网关打开通道时调用
+     */
+    private void start() {
+        if (connected.get()) {
+            return;
+        }
+        stopped = false;
+        deviceChannel.markConnecting();
+        doConnect();
+    }
+    
+    /**
+     * 发起一次异步连接，失败时按退避时间安排重连
+     */
+    private ChannelFuture doConnect() {
+        ChannelFuture future = getBootstrap().connect(host, port);
+        future.addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                onConnected(f.channel());
+            } else {
+                logger.severe("Failed to connect to upper computer " + getAddress() + ": " + f.cause().getMessage());
+                deviceChannel.markConnectFailed(true);
+                scheduleReconnect();
+            }
+        });
+        return future;
+    }
+    
+    private void onConnected(Channel newChannel) {
+        if (stopped || !connected.compareAndSet(false, true)) {
+            // 连接建立前已经调用了shutdown，或手动连接与自动重连同时成功
+            newChannel.close();
+            return;
+        }
+        channel = newChannel;
+        ready = false;
+        binary = false;
+        heartbeatSeen = false;
+        lastReadNanos = System.nanoTime();
+        pingSeq = 0;
+        pingSentNanos = 0;
+        newChannel.config().setAutoRead(autoRead);
+        long connectedAt = System.currentTimeMillis();
+        logger.info("Connected to upper computer at " + getAddress());
+        
+        // 连接关闭是唯一触发重连的地方
+        newChannel.closeFuture().addListener((ChannelFutureListener) f -> {
+            boolean wasReady = ready;
+            if (channel == newChannel) {
+                channel = null;
+                ready = false;
+                readyLatch = new CountDownLatch(1);
+                connected.set(false);
+            }
+            // 连接稳定一段时间后才恢复最小重连间隔，避免对端反复断开时频繁重连
+            if (System.currentTimeMillis() - connectedAt >= STABLE_CONNECTION_MS) {
+                reconnectDelayMs = RECONNECT_MIN_DELAY_MS;
+            }
+            logger.info("Connection to upper computer " + getAddress() + " closed");
+            deviceChannel.markDisconnected(true);
+            if (wasReady) {
+                listener.onDisconnected(this);
+            }
+            scheduleReconnect();
+        });
+        
+        if (!preferBinary) {
+            markReady(newChannel, false);
+            return;
+        }
+        // 协商二进制协议，超时未回复则继续使用JSON
+        JsonObject hello = new JsonObject();
+        hello.addProperty("type", HELLO_TYPE);
+        JsonArray protocols = new JsonArray();
+        protocols.add(PROTOCOL_BINARY);
+        protocols.add(PROTOCOL_JSON);
+        hello.add("protocols", protocols);
+        String helloText = hello.toString();
+        write(newChannel, helloText, ByteBufUtil.utf8Bytes(helloText));
+        newChannel.eventLoop().schedule(() -> {
+            if (channel == newChannel && !ready) {
+                logger.warning("No protocol reply from upper computer " + getAddress() + ", using JSON");
+                markReady(newChannel, false);
+            }
+        }, NEGOTIATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 协议确定，开始接受指令，在事件循环线程上调用
+     */
+    private void markReady(Channel ch, boolean useBinary) {
+        if (channel != ch || ready) {
+            return;
+        }
+        if (useBinary) {
+            // 后续数据改用长度字段分帧，JSON解码器中尚未处理的字节交给新的分帧解码器
+            ChannelPipeline pipeline = ch.pipeline();
+            pipeline.remove("stringDecoder");
+            pipeline.addAfter("jsonDecoder", "frameDecoder", new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+            pipeline.addAfter("frameDecoder", "framePrepender", new LengthFieldPrepender(4));
+            pipeline.remove("jsonDecoder");
+        }
+        binary = useBinary;
+        ready = true;
+        logger.info("Upper computer " + getAddress() + " using protocol " + (useBinary ? PROTOCOL_BINARY : PROTOCOL_JSON));
+        readyLatch.countDown();
+        deviceChannel.markConnected();
+        listener.onConnected(this);
+    }
+    
+    private synchronized Bootstrap getBootstrap() {
+        if (bootstrap == null) {
+            bootstrap = new Bootstrap();
+            bootstrap.group(SharedEventLoop.getInstance().group())
+                    .channel(NioSocketChannel.class)
+                    .option(ChannelOption.SO_KEEPALIVE, true)
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 5000)
+                    .handler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) throws Exception {
+                            ChannelPipeline pipeline = ch.pipeline();
+                            
+                            // 添加心跳检测，读空闲时发送ping
+                            pipeline.addLast(new IdleStateHandler(heartbeatIntervalMs, 0, 0, TimeUnit.MILLISECONDS));
+                            
+                            // 添加解码器，协商为二进制协议后替换
+                            pipeline.addLast("jsonDecoder", new JsonObjectDecoder());
+                            pipeline.addLast("stringDecoder", new StringDecoder(CharsetUtil.UTF_8));
+                            pipeline.addLast("stringEncoder", new StringEncoder(CharsetUtil.UTF_8));
+                            
+                            // 添加业务处理器
+                            pipeline.addLast(new StationHandler());
+                        }
+                    });
+        }
+        return bootstrap;
+    }
+    
+    /**
+     * 计划重连
+     * 在事件循环上定时执行，同一时间最多只有一个待执行的重连，间隔按指数退避直到上限
+     */
+    private void scheduleReconnect() {
+        if (stopped || !reconnectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = reconnectDelayMs;
+        reconnectDelayMs = Math.min(delay * 2, RECONNECT_MAX_DELAY_MS);
+        logger.info("Scheduling reconnect to " + getAddress() + " in " + delay + " ms...");
+        
+        reconnectFuture = SharedEventLoop.getInstance().group().next().schedule(() -> {
+            reconnectScheduled.set(false);
+            if (!stopped && !connected.get()) {
+                doConnect();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * 关闭连接，共享的事件循环保持运行
+     */
+    public void shutdown() {
+        stopped = true;
+        deviceChannel.markClosed();
+        
+        ScheduledFuture<?> pending = reconnectFuture;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        reconnectScheduled.set(false);
+        
+        Channel current = channel;
+        channel = null;
+        if (current != null) {
+            current.close();
+        }
+        
+        connected.set(false);
+    }
+    
+    /**
+     * 发送烧录指令，按协商的协议编码
+     * @param command 烧录指令
+     * @return 写入结果，未连接时返回null
+     */
+    public ChannelFuture sendCommand(ProgramCommand command) {
+        Channel current = channel;
+        if (!ready || current == null) {
+            return null;
+        }
+        if (binary) {
+            ByteBuf buf = current.alloc().buffer();
+            try {
+                BinaryFrameCodec.encodeCommand(command, buf);
+            } catch (RuntimeException e) {
+                buf.release();
+                throw e;
+            }
+            return write(current, buf, buf.readableBytes());
+        }
+        String json = gson.toJson(command);
+        return write(current, json, ByteBufUtil.utf8Bytes(json));
+    }
+    
+    /**
+     * 发送一帧已编码的数据，二进制协议下自动加长度字段
+     * @return 协商未完成或未连接时返回false
+     */
+    private boolean sendFrame(byte[] data) {
+        Channel current = channel;
+        if (!ready || current == null) {
+            return false;
+        }
+        write(current, Unpooled.wrappedBuffer(data), data.length);
+        return true;
+    }
+    
+    /**
+     * 写出一帧，写出结果计入设备通道的统计
+     */
+    private ChannelFuture write(Channel ch, Object frame, int length) {
+        return ch.writeAndFlush(frame).addListener((ChannelFutureListener) f -> {
+            if (f.isSuccess()) {
+                deviceChannel.recordSent(length);
+            } else {
+                deviceChannel.recordSendDropped(1);
+            }
+        });
+    }
+    
+    /**
+     * 获取当前使用的协议
+     */
+    public String getProtocol() {
+        return binary ? PROTOCOL_BINARY : PROTOCOL_JSON;
+    }
+    
+    /**
+     * 暂停或恢复从上位机读取数据，暂停期间数据留在TCP缓冲区，由对端感知背压
+     */
+    public void setAutoRead(boolean autoRead) {
+        if (autoRead && !this.autoRead) {
+            // 暂停期间读不到数据不算对端失效，从恢复时重新计时
+            lastReadNanos = System.nanoTime();
+        }
+        this.autoRead = autoRead;
+        Channel current = channel;
+        if (current != null) {
+            current.config().setAutoRead(autoRead);
+        }
+    }
+    
+    /**
+     * 是否可以下发指令
+     * 上位机支持心跳时，超过心跳超时时间没有收到数据即返回false，不必等到连接真正关闭
+     */
+    public boolean isConnected() {
+        return connected.get() && ready && !(heartbeatSeen && autoRead && getIdleMs() > heartbeatTimeoutMs);
+    }
+    
+    /**
+     * 设置心跳间隔和超时，下次建立连接时生效
+     */
+    public void setHeartbeat(long intervalMs, long timeoutMs) {
+        this.heartbeatIntervalMs = Math.max(100, intervalMs);
+        this.heartbeatTimeoutMs = Math.max(this.heartbeatIntervalMs, timeoutMs);
+    }
+    
+    /**
+     * 获取心跳往返时间直方图
+     */
+    public LatencyHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+    
+    /**
+     * 获取距上次收到数据的时间(毫秒)
+     */
+    public long getIdleMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+    }
+    
+    /**
+     * 上位机是否回复过心跳
+     */
+    public boolean isHeartbeatSupported() {
+        return heartbeatSeen;
+    }
+    
+    /**
+     * 获取因心跳超时断开连接的次数
+     */
+    public long getDeadPeerCount() {
+        return deadPeerCount.get();
+    }
+    
+    /**
+     * 发送心跳帧，在事件循环线程上调用
+     */
+    private void writeHeartbeat(Channel ch, boolean ping, long seq) {
+        if (binary) {
+            ByteBuf buf = ch.alloc().buffer(16);
+            BinaryFrameCodec.encodeHeartbeat(ping ? BinaryFrameCodec.TYPE_PING : BinaryFrameCodec.TYPE_PONG, seq, buf);
+            write(ch, buf, buf.readableBytes());
+        } else {
+            String text = "{\"type\":\"" + (ping ? PING_TYPE : PONG_TYPE) + "\",\"seq\":" + seq + "}";
+            write(ch, text, text.length());
+        }
+    }
+    
+    /**
+     * 处理收到的心跳帧
+     */
+    private void onHeartbeat(Channel ch, boolean ping, long seq) {
+        if (ping) {
+            writeHeartbeat(ch, false, seq);
+            return;
+        }
+        if (!heartbeatSeen) {
+            heartbeatSeen = true;
+            logger.info("Upper computer " + getAddress() + " supports heartbeat");
+        }
+        if (seq == pingSeq && pingSentNanos != 0) {
+            rttHistogram.record(System.nanoTime() - pingSentNanos);
+            pingSentNanos = 0;
+        }
+    }
+    
+    public String getHost() {
+        return host;
+    }
+    
+    public int getPort() {
+        return port;
+    }
+    
+    public String getAddress() {
+        return host + ":" + port;
+    }
+    
+    /**
+     * 获取工位的设备通道，用于登记到设备网关
+     */
+    public DeviceChannel getDeviceChannel() {
+        return deviceChannel;
+    }
+    
+    /**
+     * 获取权重，按权重比例分配条码
+     */
+    public int getWeight() {
+        return weight;
+    }
+    
+    /**
+     * 获取已下发但尚未返回结果的条码数量
+     */
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+    
+    void addOutstanding(int delta) {
+        outstanding.addAndGet(delta);
+    }
+    
+    /**
+     * 工位通信处理器
+     */
+    private class StationHandler extends ChannelInboundHandlerAdapter {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            lastReadNanos = System.nanoTime();
+            try {
+                if (msg instanceof ByteBuf) {
+                    ByteBuf buf = (ByteBuf) msg;
+                    deviceChannel.recordReceived(buf.readableBytes());
+                    byte type = BinaryFrameCodec.peekType(buf);
+                    if (type == BinaryFrameCodec.TYPE_PING || type == BinaryFrameCodec.TYPE_PONG) {
+                        onHeartbeat(ctx.channel(), type == BinaryFrameCodec.TYPE_PING, BinaryFrameCodec.decode(buf).getSeq());
+                        return;
+                    }
+                    // 二进制帧复制后交给处理流水线解码，不占用IO线程
+                    listener.onBinaryMessage(UpperComputerStation.this, ByteBufUtil.getBytes((ByteBuf) msg));
+                    return;
+                }
+                String text = msg.toString();
+                deviceChannel.recordReceived(ByteBufUtil.utf8Bytes(text));
+                logger.fine("Received message from upper computer " + getAddress() + ": " + text);
+                if (!ready && preferBinary && text.contains(HELLO_TYPE) && handleHello(ctx.channel(), text)) {
+                    return;
+                }
+                // 心跳帧很短，先按长度过滤，避免解析结果帧
+                if (text.length() < 64 && (text.contains(PING_TYPE) || text.contains(PONG_TYPE)) && handleHeartbeat(ctx.channel(), text)) {
+                    return;
+                }
+                listener.onMessage(UpperComputerStation.this, text);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+        
+        /**
+         * 处理协议协商回复
+         * @return 是否为协商回复
+         */
+        private boolean handleHello(Channel ch, String text) {
+            try {
+                JsonObject reply = JsonParser.parseString(text).getAsJsonObject();
+                if (!reply.has("type") || !HELLO_TYPE.equals(reply.get("type").getAsString())) {
+                    return false;
+                }
+                String protocol = reply.has("protocol") ? reply.get("protocol").getAsString() : PROTOCOL_JSON;
+                markReady(ch, PROTOCOL_BINARY.equals(protocol));
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+        
+        /**
+         * 处理JSON心跳帧
+         * @return 是否为心跳帧
+         */
+        private boolean handleHeartbeat(Channel ch, String text) {
+            try {
+                JsonObject frame = JsonParser.parseString(text).getAsJsonObject();
+                String type = frame.has("type") ? frame.get("type").getAsString() : null;
+                if (!PING_TYPE.equals(type) && !PONG_TYPE.equals(type)) {
+                    return false;
+                }
+                onHeartbeat(ch, PING_TYPE.equals(type), frame.has("seq") ? frame.get("seq").getAsLong() : -1);
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+        
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (!(evt instanceof IdleStateEvent) || ((IdleStateEvent) evt).state() != IdleState.READER_IDLE) {
+                super.userEventTriggered(ctx, evt);
+                return;
+            }
+            if (!autoRead) {
+                // 背压暂停读取时收不到pong，不发心跳也不判定失效
+                return;
+            }
+            long idleMs = getIdleMs();
+            if (heartbeatSeen && idleMs >= heartbeatTimeoutMs) {
+                // 半开连接写入不会立即失败，只能靠心跳发现
+                deadPeerCount.incrementAndGet();
+                logger.warning("No data from upper computer " + getAddress() + " for " + idleMs + " ms, closing connection");
+                ctx.close();
+                return;
+            }
+            if (ready) {
+                if (!heartbeatSeen && pingSeq == 1) {
+                    logger.info("Upper computer " + getAddress() + " did not answer heartbeat, relying on TCP keepalive");
+                }
+                pingSeq++;
+                pingSentNanos = System.nanoTime();
+                writeHeartbeat(ctx.channel(), true, pingSeq);
+            }
+        }
+        
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            logger.severe("Exception in upper computer handler " + getAddress() + ": " + cause.getMessage());
+            ctx.close();
+        }
+        
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            // 重连由closeFuture统一安排，这里只记录日志
+            logger.info("Connection to upper computer " + getAddress() + " lost");
+            super.channelInactive(ctx);
+        }
+    }
+}
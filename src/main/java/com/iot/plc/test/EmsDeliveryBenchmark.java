@@ -0,0 +1,178 @@
+package com.iot.plc.test;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.iot.plc.model.ConfigItem;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ProgramResult;
+import com.iot.plc.service.ConfigService;
+import com.iot.plc.service.EmsService;
+import com.iot.plc.util.LatencyHistogram;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * EMS回传压测工具
+ * 在本进程内启动 EmsStubServer，由若干生产线程通过 EmsService 提交烧录结果，
+ * 等待发件箱投递完毕后统计端到端吞吐量、提交耗时，并按批次ID核对EMS收到的结果是否齐全、有无重复。
+ * 除下列参数外，其余参数按 EmsStubServer 的模拟参数解析：
+ *   --results=5000 --producers=4 --devices=12 --rate=0 --drain-timeout=120 --outage-at=0 --outage-ms=0
+ * 以 --ems. 开头的参数写入配置，例如 --ems.http.max_in_flight=8 --ems.bulk.enabled=false。
+ * 注意：发件箱位于当前目录下的数据库，请在测试目录中运行。
+ */
+public class EmsDeliveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("===== EMS回传压测工具 ======");
+        int resultCount = intArg(args, "results", 5000);
+        int producers = intArg(args, "producers", 4);
+        int devices = intArg(args, "devices", 12);
+        int rate = intArg(args, "rate", 0);
+        int drainTimeoutSeconds = intArg(args, "drain-timeout", 120);
+        int outageAtMs = intArg(args, "outage-at", 0);
+        int outageMs = intArg(args, "outage-ms", 0);
+
+        EmsStubServer.Profile profile = EmsStubServer.Profile.parse(args);
+        profile.setStatsIntervalSeconds(0);
+        EmsStubServer stub = new EmsStubServer(profile);
+        stub.start();
+        System.out.println("模拟参数: " + profile);
+
+        ConfigService config = ConfigService.getInstance();
+        for (String arg : args) {
+            if (arg.startsWith("--ems.") && arg.indexOf('=') > 0) {
+                String key = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                config.saveConfigItem(new ConfigItem(key, value, "压测配置", "string", false));
+                System.out.println("配置: " + key + "=" + value);
+            }
+        }
+        EmsService ems = EmsService.getInstance();
+        ems.init(stub.getUrl());
+        int backlog = ems.getPendingCount();
+        if (backlog > 0) {
+            System.out.println("警告: 发件箱中已有 " + backlog + " 条未投递记录，会一并投递");
+        }
+
+        // 模拟EMS停机一段时间
+        if (outageMs > 0) {
+            new Thread(() -> {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(outageAtMs);
+                    System.out.println("EMS停机 " + outageMs + " ms");
+                    stub.setForcedStatus(503);
+                    TimeUnit.MILLISECONDS.sleep(outageMs);
+                    stub.setForcedStatus(0);
+                    System.out.println("EMS恢复");
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "ems-outage").start();
+        }
+
+        // 生产线程按速率提交结果，速率为0时不限速
+        LatencyHistogram submitLatency = new LatencyHistogram();
+        AtomicInteger next = new AtomicInteger();
+        CountDownLatch producersDone = new CountDownLatch(producers);
+        long intervalNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * producers / rate : 0;
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            new Thread(() -> {
+                long nextAt = System.nanoTime();
+                int index;
+                while ((index = next.getAndIncrement()) < resultCount) {
+                    if (intervalNanos > 0) {
+                        nextAt += intervalNanos;
+                        long wait = nextAt - System.nanoTime();
+                        if (wait > 0) {
+                            try {
+                                TimeUnit.NANOSECONDS.sleep(wait);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                break;
+                            }
+                        }
+                    }
+                    ProgramResult result = createResult(index, devices);
+                    long submittedAt = System.nanoTime();
+                    ems.sendProgramResult(result);
+                    submitLatency.record(System.nanoTime() - submittedAt);
+                }
+                producersDone.countDown();
+            }, "ems-producer-" + p).start();
+        }
+        producersDone.await();
+        double submitSeconds = (System.nanoTime() - start) / 1e9;
+
+        // 等待发件箱投递完毕
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drainTimeoutSeconds);
+        int pending;
+        while ((pending = ems.getPendingCount()) > 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        // 按批次ID核对
+        Set<String> receivedBatches = new HashSet<>();
+        for (String payload : stub.getReceived().values()) {
+            JsonElement batchId = JsonParser.parseString(payload).getAsJsonObject().get("batchId");
+            if (batchId != null) {
+                receivedBatches.add(batchId.getAsString());
+            }
+        }
+        int missing = 0;
+        for (int i = 0; i < resultCount; i++) {
+            if (!receivedBatches.contains(batchIdOf(i))) {
+                missing++;
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format("提交: %d 条, 用时 %.2f 秒, %.1f 条/秒", resultCount, submitSeconds, resultCount / submitSeconds));
+        System.out.println(String.format("投递: 用时 %.2f 秒, 端到端 %.1f 条/秒%s", seconds, resultCount / seconds,
+                pending > 0 ? ", 超时未投递 " + pending + " 条" : ""));
+        System.out.println("提交耗时: " + submitLatency);
+        System.out.println(String.format("核对: EMS收到 %d 条, 缺失 %d 条(其中EMS拒收 %d 条), 重复请求 %d 条",
+                receivedBatches.size(), missing, stub.getRejectedItemCount(), stub.getDuplicateCount()));
+        System.out.println(String.format("发送方: 确认 %d, 拒收 %d, 失败重试 %d, 平均批量 %.1f 条",
+                ems.getDeliveredCount(), ems.getRejectedCount(), ems.getFailedAttemptCount(), ems.getAverageBulkSize()));
+        System.out.println("HTTP: " + ems.getHttpMetrics());
+        System.out.println("EMS模拟: " + stub.getStats());
+        ems.shutdown();
+        stub.stop();
+        TimeUnit.MILLISECONDS.sleep(200);
+        System.exit(0);
+    }
+
+    private static String batchIdOf(int index) {
+        return String.format("EMSBENCH%08d", index);
+    }
+
+    private static ProgramResult createResult(int index, int devices) {
+        ProgramResult result = new ProgramResult();
+        result.setBatchId(batchIdOf(index));
+        result.setStatus("success");
+        for (int i = 0; i < devices; i++) {
+            result.addDeviceResult(new DeviceResult("BENCH-" + (i + 1), String.format("SN%08d%04d", index, i), true, null));
+        }
+        return result;
+    }
+
+    private static String stringArg(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        return Integer.parseInt(stringArg(args, name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,464 @@
+package com.iot.plc.test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpContentDecompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * EMS模拟服务端
+ * 可嵌入测试进程或独立运行的HTTP服务，接收 EmsService 发送的单条结果(POST 结果路径)和批量结果(POST 结果路径/bulk)，
+ * 按幂等键记录收到的内容，已记录过的键返回409；支持gzip请求体和长连接。
+ * 可配置响应延迟、固定状态码、随机失败、周期性的连续失败(模拟EMS短时故障)以及批量中单条拒收，
+ * 通过计数器统计请求数、条目数、重复数等，用于离线的吞吐量和投递保证测试。
+ * 参数格式为 --名称=值，例如：
+ *   --ems-port=9090 --path=/api/results --latency=20 --latency-jitter=10 --failure-rate=0.01 --burst-every=500 --burst-length=50
+ */
+public class EmsStubServer {
+    private static final int MAX_CONTENT_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * 模拟参数
+     */
+    public static class Profile {
+        // 监听端口
+        private int port = 9090;
+        // 结果路径，批量路径为其下的 /bulk
+        private String path = "/api/results";
+        // 是否提供批量接口，不提供时批量路径返回404
+        private boolean bulk = true;
+        // 响应延迟(毫秒)，在均值上下均匀抖动
+        private long latencyMs = 0;
+        private long latencyJitterMs = 0;
+        // 正常响应的状态码
+        private int status = 200;
+        // 随机失败概率和失败时的状态码
+        private double failureRate = 0;
+        private int failureStatus = 503;
+        // 每收到 burstEvery 个请求后，接下来的 burstLength 个请求全部失败，0表示不模拟
+        private int burstEvery = 0;
+        private int burstLength = 0;
+        // 批量请求中单条记录被拒收(400)的概率
+        private double itemRejectRate = 0;
+        // 随机数种子，0表示每次不同
+        private long seed = 0;
+        // 统计输出间隔(秒)，0表示不输出
+        private int statsIntervalSeconds = 10;
+
+        /**
+         * 从命令行参数解析，未识别的参数忽略，便于与其他工具共用参数
+         */
+        public static Profile parse(String[] args) {
+            Profile profile = new Profile();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                    continue;
+                }
+                String key = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (key) {
+                    case "ems-port": profile.port = Integer.parseInt(value); break;
+                    case "path": profile.path = value; break;
+                    case "bulk": profile.bulk = Boolean.parseBoolean(value); break;
+                    case "latency": profile.latencyMs = Long.parseLong(value); break;
+                    case "latency-jitter": profile.latencyJitterMs = Long.parseLong(value); break;
+                    case "status": profile.status = Integer.parseInt(value); break;
+                    case "failure-rate": profile.failureRate = Double.parseDouble(value); break;
+                    case "failure-status": profile.failureStatus = Integer.parseInt(value); break;
+                    case "burst-every": profile.burstEvery = Integer.parseInt(value); break;
+                    case "burst-length": profile.burstLength = Integer.parseInt(value); break;
+                    case "item-reject-rate": profile.itemRejectRate = Double.parseDouble(value); break;
+                    case "seed": profile.seed = Long.parseLong(value); break;
+                    case "stats-interval": profile.statsIntervalSeconds = Integer.parseInt(value); break;
+                    default: break;
+                }
+            }
+            return profile;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setBulk(boolean bulk) {
+            this.bulk = bulk;
+        }
+
+        public void setLatency(long latencyMs, long latencyJitterMs) {
+            this.latencyMs = latencyMs;
+            this.latencyJitterMs = latencyJitterMs;
+        }
+
+        public void setFailureRate(double failureRate) {
+            this.failureRate = failureRate;
+        }
+
+        public void setBurst(int burstEvery, int burstLength) {
+            this.burstEvery = burstEvery;
+            this.burstLength = burstLength;
+        }
+
+        public void setStatsIntervalSeconds(int statsIntervalSeconds) {
+            this.statsIntervalSeconds = statsIntervalSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return "port=" + port + ", path=" + path + ", bulk=" + bulk
+                    + ", latency=" + latencyMs + "±" + latencyJitterMs + "ms, status=" + status
+                    + ", failure=" + failureRate + "(" + failureStatus + "), burst=" + burstLength + "/" + burstEvery
+                    + ", itemReject=" + itemRejectRate + ", seed=" + seed;
+        }
+    }
+
+    private final Profile profile;
+    private final Random random;
+    private EventLoopGroup group;
+    private Channel serverChannel;
+
+    // 按幂等键记录收到的结果，值为结果JSON
+    private final Map<String, String> received = new ConcurrentHashMap<>();
+    private volatile int forcedStatus = 0;
+
+    // 统计
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bulkRequests = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failedRequests = new AtomicLong();
+    private final AtomicLong rejectedItems = new AtomicLong();
+    private final AtomicLong gzipRequests = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    public EmsStubServer(Profile profile) {
+        this.profile = profile;
+        this.random = profile.seed != 0 ? new Random(profile.seed) : new Random();
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("===== EMS模拟服务端 ======");
+        Profile profile = Profile.parse(args);
+        EmsStubServer server = new EmsStubServer(profile);
+        server.start();
+        System.out.println("模拟参数: " + profile);
+        System.out.println("按 Ctrl+C 退出");
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.serverChannel.closeFuture().sync();
+    }
+
+    /**
+     * 启动服务，监听端口绑定完成后返回
+     */
+    public synchronized void start() throws InterruptedException {
+        if (serverChannel != null) {
+            return;
+        }
+        group = new NioEventLoopGroup(2, new DefaultThreadFactory("ems-stub-" + profile.port, true));
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        connections.incrementAndGet();
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast(new HttpServerCodec());
+                        // 在解压之前统计线路上的字节数和压缩请求数
+                        pipeline.addLast(new ChannelInboundHandlerAdapter() {
+                            @Override
+                            public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                                if (msg instanceof HttpRequest
+                                        && ((HttpRequest) msg).headers().contains(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.GZIP, true)) {
+                                    gzipRequests.incrementAndGet();
+                                }
+                                if (msg instanceof HttpContent) {
+                                    bytesReceived.addAndGet(((HttpContent) msg).content().readableBytes());
+                                }
+                                ctx.fireChannelRead(msg);
+                            }
+                        });
+                        pipeline.addLast(new HttpContentDecompressor());
+                        pipeline.addLast(new HttpObjectAggregator(MAX_CONTENT_LENGTH));
+                        pipeline.addLast(new StubHandler());
+                    }
+                });
+        serverChannel = bootstrap.bind(profile.port).sync().channel();
+        System.out.println("EMS模拟服务端已启动，地址: " + getUrl());
+        if (profile.statsIntervalSeconds > 0) {
+            group.scheduleAtFixedRate(() -> System.out.println("[EMS模拟 " + profile.port + "] " + getStats()),
+                    profile.statsIntervalSeconds, profile.statsIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+            serverChannel = null;
+        }
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            group = null;
+        }
+    }
+
+    /**
+     * 获取结果接口地址，可直接传给 EmsService.init
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + profile.port + profile.path;
+    }
+
+    /**
+     * 强制所有请求返回指定状态码，用于模拟EMS停机，0表示恢复按参数响应
+     */
+    public void setForcedStatus(int status) {
+        this.forcedStatus = status;
+    }
+
+    /**
+     * 是否收到过指定幂等键的结果
+     */
+    public boolean hasReceived(String idempotencyKey) {
+        return received.containsKey(idempotencyKey);
+    }
+
+    /**
+     * 获取按幂等键记录的全部结果(JSON)，只读视图
+     */
+    public Map<String, String> getReceived() {
+        return Collections.unmodifiableMap(received);
+    }
+
+    /**
+     * 获取按幂等键去重后收到的结果数
+     */
+    public int getUniqueCount() {
+        return received.size();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBulkRequestCount() {
+        return bulkRequests.get();
+    }
+
+    /**
+     * 获取收到的条目总数(含重复)
+     */
+    public long getItemCount() {
+        return items.get();
+    }
+
+    /**
+     * 获取幂等键重复的条目数，即发送方重试造成的重复请求
+     */
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    public long getFailedRequestCount() {
+        return failedRequests.get();
+    }
+
+    public long getRejectedItemCount() {
+        return rejectedItems.get();
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStats() {
+        return "connections=" + connections.get() + ", requests=" + requests.get() + ", bulk=" + bulkRequests.get()
+                + ", items=" + items.get() + ", unique=" + received.size() + ", duplicates=" + duplicates.get()
+                + ", failed=" + failedRequests.get() + ", rejected=" + rejectedItems.get()
+                + ", gzip=" + gzipRequests.get() + ", bytes=" + bytesReceived.get();
+    }
+
+    private synchronized boolean chance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    private synchronized long sampleLatency() {
+        if (profile.latencyJitterMs <= 0) {
+            return profile.latencyMs;
+        }
+        return Math.max(0, profile.latencyMs - profile.latencyJitterMs + (long) (random.nextDouble() * 2 * profile.latencyJitterMs));
+    }
+
+    /**
+     * 按参数决定整个请求是否失败
+     * @return 失败时的状态码，0表示正常处理
+     */
+    private int requestFailure(long sequence) {
+        int forced = forcedStatus;
+        if (forced != 0) {
+            return forced;
+        }
+        if (profile.burstEvery > 0 && profile.burstLength > 0
+                && sequence % (profile.burstEvery + profile.burstLength) >= profile.burstEvery) {
+            return profile.failureStatus;
+        }
+        if (chance(profile.failureRate)) {
+            return profile.failureStatus;
+        }
+        return 0;
+    }
+
+    /**
+     * 记录一条结果
+     * @return 该条的状态码：新结果为正常状态码，已收到过为409
+     */
+    private int accept(String idempotencyKey, String payload) {
+        items.incrementAndGet();
+        if (idempotencyKey == null) {
+            return HttpResponseStatus.BAD_REQUEST.code();
+        }
+        if (received.putIfAbsent(idempotencyKey, payload) != null) {
+            duplicates.incrementAndGet();
+            return HttpResponseStatus.CONFLICT.code();
+        }
+        return profile.status;
+    }
+
+    private class StubHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) {
+            long sequence = requests.getAndIncrement();
+            boolean keepAlive = HttpUtil.isKeepAlive(request);
+
+            String path = new QueryStringDecoder(request.uri()).path();
+            String body = request.content().toString(CharsetUtil.UTF_8);
+            int status;
+            String responseBody = "{}";
+            if (request.method() != HttpMethod.POST) {
+                status = HttpResponseStatus.METHOD_NOT_ALLOWED.code();
+            } else if (path.equals(profile.path)) {
+                status = requestFailure(sequence);
+                if (status == 0) {
+                    status = accept(request.headers().get("Idempotency-Key"), body);
+                }
+            } else if (path.equals(profile.path + "/bulk") && profile.bulk) {
+                bulkRequests.incrementAndGet();
+                status = requestFailure(sequence);
+                if (status == 0) {
+                    try {
+                        responseBody = handleBulk(body);
+                        status = HttpResponseStatus.OK.code();
+                    } catch (RuntimeException e) {
+                        status = HttpResponseStatus.BAD_REQUEST.code();
+                        responseBody = "{\"error\":\"" + e.getClass().getSimpleName() + "\"}";
+                    }
+                }
+            } else {
+                status = HttpResponseStatus.NOT_FOUND.code();
+            }
+            if (status >= 500 || status == 408 || status == 429) {
+                failedRequests.incrementAndGet();
+            }
+
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.valueOf(status),
+                    Unpooled.copiedBuffer(responseBody, CharsetUtil.UTF_8));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+            response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, response.content().readableBytes());
+            if (keepAlive) {
+                response.headers().set(HttpHeaderNames.CONNECTION, HttpHeaderValues.KEEP_ALIVE);
+            }
+            long delay = sampleLatency();
+            Runnable send = () -> {
+                if (keepAlive) {
+                    ctx.writeAndFlush(response);
+                } else {
+                    ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+                }
+            };
+            if (delay > 0) {
+                ctx.executor().schedule(send, delay, TimeUnit.MILLISECONDS);
+            } else {
+                send.run();
+            }
+        }
+
+        /**
+         * 处理批量请求，逐条返回状态
+         */
+        private String handleBulk(String body) {
+            JsonArray requestItems = JsonParser.parseString(body).getAsJsonObject().getAsJsonArray("items");
+            JsonArray responseItems = new JsonArray();
+            for (JsonElement element : requestItems) {
+                JsonObject item = element.getAsJsonObject();
+                String key = item.has("idempotencyKey") ? item.get("idempotencyKey").getAsString() : null;
+                int status;
+                if (chance(profile.itemRejectRate)) {
+                    items.incrementAndGet();
+                    rejectedItems.incrementAndGet();
+                    status = HttpResponseStatus.BAD_REQUEST.code();
+                } else {
+                    status = accept(key, item.has("result") ? item.get("result").toString() : "");
+                }
+                JsonObject result = new JsonObject();
+                result.addProperty("idempotencyKey", key);
+                result.addProperty("status", status);
+                responseItems.add(result);
+            }
+            JsonObject response = new JsonObject();
+            response.add("items", responseItems);
+            return response.toString();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.out.println("[EMS模拟 " + profile.port + "] 连接异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
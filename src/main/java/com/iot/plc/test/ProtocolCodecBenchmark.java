@@ -0,0 +1,128 @@
+package com.iot.plc.test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.iot.plc.model.BarcodeInfo;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ProgramCommand;
+import com.iot.plc.model.ProgramResult;
+import com.iot.plc.service.BinaryFrameCodec;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 上位机协议编解码基准测试
+ * 对比JSON帧与二进制帧在12条码和1000条码批次下的帧大小和编解码速度，
+ * 每项先预热再计时，结果为每秒操作数。
+ */
+public class ProtocolCodecBenchmark {
+    private static final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
+
+    private static final long WARMUP_MS = 2000;
+    private static final long MEASURE_MS = 3000;
+
+    // 防止编解码结果被优化掉
+    private static long sink;
+
+    public static void main(String[] args) {
+        System.out.println("===== 上位机协议编解码基准测试 ======");
+        for (int size : new int[]{12, 1000}) {
+            ProgramCommand command = createCommand(size);
+            ProgramResult result = createResult(command);
+            System.out.println();
+            System.out.println("批次条码数: " + size);
+            benchmarkCommand(command);
+            benchmarkResult(result);
+        }
+    }
+
+    private static void benchmarkCommand(ProgramCommand command) {
+        byte[] json = gson.toJson(command).getBytes(StandardCharsets.UTF_8);
+        ByteBuf binary = Unpooled.buffer();
+        BinaryFrameCodec.encodeCommand(command, binary);
+        System.out.println(String.format("  烧录指令帧大小: JSON %d 字节, 二进制 %d 字节", json.length, binary.readableBytes()));
+
+        ByteBuf out = Unpooled.buffer();
+        report("  指令编码 JSON  ", () -> sink += gson.toJson(command).getBytes(StandardCharsets.UTF_8).length);
+        report("  指令编码 二进制", () -> {
+            out.clear();
+            BinaryFrameCodec.encodeCommand(command, out);
+            sink += out.readableBytes();
+        });
+        report("  指令解码 JSON  ", () -> sink += gson.fromJson(new String(json, StandardCharsets.UTF_8), ProgramCommand.class).getBarcodes().size());
+        report("  指令解码 二进制", () -> sink += BinaryFrameCodec.decode(binary.duplicate()).getCommand().getBarcodes().size());
+        binary.release();
+        out.release();
+    }
+
+    private static void benchmarkResult(ProgramResult result) {
+        byte[] json = gson.toJson(result).getBytes(StandardCharsets.UTF_8);
+        ByteBuf binary = Unpooled.buffer();
+        BinaryFrameCodec.encodeResult(result, binary);
+        System.out.println(String.format("  烧录结果帧大小: JSON %d 字节, 二进制 %d 字节", json.length, binary.readableBytes()));
+
+        ByteBuf out = Unpooled.buffer();
+        report("  结果编码 JSON  ", () -> sink += gson.toJson(result).getBytes(StandardCharsets.UTF_8).length);
+        report("  结果编码 二进制", () -> {
+            out.clear();
+            BinaryFrameCodec.encodeResult(result, out);
+            sink += out.readableBytes();
+        });
+        report("  结果解码 JSON  ", () -> sink += gson.fromJson(new String(json, StandardCharsets.UTF_8), ProgramResult.class).getResults().size());
+        report("  结果解码 二进制", () -> sink += BinaryFrameCodec.decode(binary.duplicate()).getResult().getResults().size());
+        binary.release();
+        out.release();
+    }
+
+    private static void report(String name, Runnable op) {
+        run(op, WARMUP_MS);
+        long start = System.nanoTime();
+        long ops = run(op, MEASURE_MS);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%s: %,.0f ops/s", name, ops / seconds));
+    }
+
+    private static long run(Runnable op, long durationMs) {
+        long deadline = System.nanoTime() + durationMs * 1_000_000L;
+        long ops = 0;
+        while (System.nanoTime() < deadline) {
+            // 每次检查时间前执行一组，减少计时本身的开销
+            for (int i = 0; i < 16; i++) {
+                op.run();
+            }
+            ops += 16;
+        }
+        return ops;
+    }
+
+    private static ProgramCommand createCommand(int size) {
+        List<BarcodeInfo> barcodes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            barcodes.add(new BarcodeInfo("DEVICE-01", String.format("SN2024%08d", 10000000 + i)));
+        }
+        ProgramCommand command = new ProgramCommand(barcodes, UUID.randomUUID().toString() + "#1");
+        command.setCommand("PROGRAM");
+        command.setSendTime(LocalDateTime.now());
+        return command;
+    }
+
+    private static ProgramResult createResult(ProgramCommand command) {
+        ProgramResult result = new ProgramResult();
+        result.setBatchId(command.getBatchId());
+        result.setStatus("completed");
+        result.setCompleteTime(LocalDateTime.now());
+        for (int i = 0; i < command.getBarcodes().size(); i++) {
+            BarcodeInfo barcode = command.getBarcodes().get(i);
+            boolean success = i % 10 != 0;
+            result.addDeviceResult(new DeviceResult(barcode.getDeviceId(), barcode.getBarcode(), success,
+                    success ? null : "烧录校验失败"));
+        }
+        return result;
+    }
+}
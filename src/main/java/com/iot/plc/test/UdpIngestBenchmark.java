@@ -0,0 +1,131 @@
+package com.iot.plc.test;
+
+import com.iot.plc.model.ConfigItem;
+import com.iot.plc.service.ConfigService;
+import com.iot.plc.service.NetworkService;
+import com.iot.plc.service.NetworkSubscription;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * UDP接收压测工具
+ * 在本机回环地址上启动 NetworkService 的UDP服务，由若干发送线程按速率发送数据报，
+ * 统计接收速率、内核丢弃数和截断数。参数：
+ *   --packets=500000 --senders=4 --size=64 --rate=0 --port=19049 --subscribe=true
+ * rate为全部发送线程合计的每秒数据报数，0表示不限速；subscribe为true时通过订阅接收，计入分发开销。
+ * 以 --network. 开头的参数写入配置，例如 --network.udp.highRate=true --network.udp.receivers=4。
+ * 注意：配置保存在当前目录下的数据库，请在测试目录中运行。
+ */
+public class UdpIngestBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("===== UDP接收压测工具 ======");
+        int packets = intArg(args, "packets", 500000);
+        int senders = intArg(args, "senders", 4);
+        int size = intArg(args, "size", 64);
+        int rate = intArg(args, "rate", 0);
+        int port = intArg(args, "port", 19049);
+        boolean subscribe = Boolean.parseBoolean(stringArg(args, "subscribe", "true"));
+
+        ConfigService config = ConfigService.getInstance();
+        for (String arg : args) {
+            if (arg.startsWith("--network.") && arg.indexOf('=') > 0) {
+                String key = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                config.saveConfigItem(new ConfigItem(key, value, "压测配置", "string", false));
+                System.out.println("配置: " + key + "=" + value);
+            }
+        }
+
+        NetworkService service = NetworkService.getInstance();
+        LongAdder consumed = new LongAdder();
+        NetworkSubscription<?> subscription = subscribe
+                ? service.subscribe("udp-benchmark", null, message -> consumed.increment())
+                : null;
+        service.startService(new NetworkService.Config(NetworkService.ProtocolType.UDP, "127.0.0.1", port, NetworkService.DataMode.HEX));
+        TimeUnit.MILLISECONDS.sleep(500);
+        System.out.println(String.format("发送: %d 条, %d 字节/条, %d 个发送线程, 速率 %s", packets, size, senders,
+                rate > 0 ? rate + " 条/秒" : "不限"));
+
+        // 各发送线程按速率分批发送
+        AtomicLong next = new AtomicLong();
+        CountDownLatch sendersDone = new CountDownLatch(senders);
+        long batchNanos = rate > 0 ? TimeUnit.SECONDS.toNanos(1) * 100 * senders / rate : 0;
+        long start = System.nanoTime();
+        for (int s = 0; s < senders; s++) {
+            new Thread(() -> {
+                try (DatagramChannel channel = DatagramChannel.open()) {
+                    channel.connect(new InetSocketAddress("127.0.0.1", port));
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+                    long nextAt = System.nanoTime();
+                    long sent = 0;
+                    while (next.getAndIncrement() < packets) {
+                        buffer.clear();
+                        buffer.putLong(0, sent);
+                        channel.write(buffer);
+                        if (batchNanos > 0 && ++sent % 100 == 0) {
+                            nextAt += batchNanos;
+                            long wait = nextAt - System.nanoTime();
+                            if (wait > 0) {
+                                TimeUnit.NANOSECONDS.sleep(wait);
+                            }
+                        }
+                    }
+                } catch (Exception e) {
+                    System.out.println("发送失败: " + e.getMessage());
+                } finally {
+                    sendersDone.countDown();
+                }
+            }, "udp-sender-" + s).start();
+        }
+        sendersDone.await();
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+
+        // 等待接收停止增长
+        long received = service.getUdpReceivedCount();
+        long lastChangeAt = System.nanoTime();
+        while (System.nanoTime() - lastChangeAt < TimeUnit.MILLISECONDS.toNanos(500)) {
+            TimeUnit.MILLISECONDS.sleep(20);
+            long current = service.getUdpReceivedCount();
+            if (current != received) {
+                received = current;
+                lastChangeAt = System.nanoTime();
+            }
+        }
+        double seconds = (lastChangeAt - start) / 1e9;
+        long kernelDrops = service.getUdpKernelDropCount();
+
+        System.out.println();
+        System.out.println(String.format("发送: 用时 %.2f 秒, %,.0f 条/秒", sendSeconds, packets / sendSeconds));
+        System.out.println(String.format("接收: %,d 条, 用时 %.2f 秒, %,.0f 条/秒, 丢失 %.2f%%", received, seconds, received / seconds,
+                (packets - received) * 100.0 / packets));
+        System.out.println(String.format("丢弃: 内核 %s 条, 超长截断 %d 条", kernelDrops < 0 ? "未知" : String.valueOf(kernelDrops),
+                service.getUdpTruncatedCount()));
+        if (subscription != null) {
+            TimeUnit.MILLISECONDS.sleep(200);
+            System.out.println("订阅: " + subscription + ", 消费 " + consumed.sum() + " 条");
+        }
+        service.stopService();
+        System.exit(0);
+    }
+
+    private static String stringArg(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        return Integer.parseInt(stringArg(args, name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,134 @@
+package com.iot.plc.test;
+
+import com.iot.plc.model.ConfigItem;
+import com.iot.plc.model.ProgramResult;
+import com.iot.plc.service.ConfigService;
+import com.iot.plc.service.UpperComputerService;
+import com.iot.plc.util.PipelineStage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上位机通信压测工具
+ * 在本进程内启动若干上位机模拟器作为烧录工位，通过 UpperComputerService 持续下发批次，
+ * 统计吞吐量、批次延迟分布以及超时、改派、重复结果等计数。
+ * 除下列参数外，其余参数按 UpperComputerSimulator 的模拟参数解析：
+ *   --stations=2 --batches=1000 --batch-size=12 --concurrency=8 --timeout=30000 --protocol=json
+ * 注意：结果会写入当前目录下的数据库，请在测试目录中运行。
+ */
+public class UpperComputerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("===== 上位机通信压测工具 ======");
+        int stationCount = intArg(args, "stations", 2);
+        int batches = intArg(args, "batches", 1000);
+        int batchSize = intArg(args, "batch-size", 12);
+        int concurrency = intArg(args, "concurrency", 8);
+        long timeoutMs = intArg(args, "timeout", 30000);
+        String protocol = stringArg(args, "protocol", "json");
+
+        // 启动模拟器，端口从 --port 开始依次递增
+        List<UpperComputerSimulator> simulators = new ArrayList<>();
+        UpperComputerSimulator.Profile base = UpperComputerSimulator.Profile.parse(args);
+        StringBuilder extraStations = new StringBuilder();
+        for (int i = 0; i < stationCount; i++) {
+            UpperComputerSimulator.Profile profile = UpperComputerSimulator.Profile.parse(args);
+            profile.setPort(base.getPort() + i);
+            profile.setStatsIntervalSeconds(0);
+            UpperComputerSimulator simulator = new UpperComputerSimulator(profile);
+            simulator.start();
+            simulators.add(simulator);
+            if (i > 0) {
+                extraStations.append(extraStations.length() > 0 ? "," : "").append("127.0.0.1:").append(profile.getPort());
+            }
+        }
+        System.out.println("模拟参数: " + base);
+
+        ConfigService config = ConfigService.getInstance();
+        config.saveConfigItem(new ConfigItem("upper_computer.stations", extraStations.toString(), "压测工位", "string", false));
+        config.saveConfigItem(new ConfigItem("upper_computer.protocol", protocol, "压测协议", "string", false));
+
+        UpperComputerService service = UpperComputerService.getInstance();
+        System.out.println("连接结果: " + service.init("127.0.0.1", base.getPort()));
+
+        // 保持固定数量的在途批次
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(batches);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failedModules = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < batches; i++) {
+            permits.acquire();
+            List<String> barcodes = new ArrayList<>(batchSize);
+            for (int j = 0; j < batchSize; j++) {
+                barcodes.add(String.format("SN%06d%04d", i, j));
+            }
+            long submittedAt = System.nanoTime();
+            service.submitProgramCommand("BENCH", barcodes, timeoutMs).whenComplete((ProgramResult result, Throwable error) -> {
+                if (error != null) {
+                    errors.incrementAndGet();
+                } else {
+                    latencies.add(System.nanoTime() - submittedAt);
+                    succeeded.incrementAndGet();
+                    failedModules.addAndGet(result.getFailureCount());
+                }
+                permits.release();
+                done.countDown();
+            });
+        }
+        done.await();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+        Arrays.sort(sorted);
+        System.out.println();
+        System.out.println(String.format("批次: %d 完成, %d 失败/超时, 用时 %.2f 秒", succeeded.get(), errors.get(), seconds));
+        System.out.println(String.format("吞吐量: %.1f 批次/秒, %.1f 模块/秒", batches / seconds, (double) batches * batchSize / seconds));
+        System.out.println(String.format("批次延迟(ms): p50=%.1f p95=%.1f p99=%.1f max=%.1f",
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0)));
+        System.out.println("失败模块数: " + failedModules.get());
+        System.out.println("超时: " + service.getCommandTimeoutCount() + ", 改派: " + service.getRedispatchCount()
+                + ", 重复结果: " + service.getDuplicateResultCount() + ", 未知结果: " + service.getUnknownResultCount());
+        for (PipelineStage<?> stage : service.getPipelineStages()) {
+            System.out.println("  " + stage);
+        }
+        for (UpperComputerSimulator simulator : simulators) {
+            System.out.println("  模拟器: " + simulator.getStats());
+            simulator.stop();
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        System.exit(0);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+
+    private static String stringArg(String[] args, String name, String defaultValue) {
+        String prefix = "--" + name + "=";
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                return arg.substring(prefix.length());
+            }
+        }
+        return defaultValue;
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        return Integer.parseInt(stringArg(args, name, String.valueOf(defaultValue)));
+    }
+}
@@ -0,0 +1,477 @@
+package com.iot.plc.test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.iot.plc.model.BarcodeInfo;
+import com.iot.plc.model.DeviceResult;
+import com.iot.plc.model.ProgramCommand;
+import com.iot.plc.model.ProgramResult;
+import com.iot.plc.service.BinaryFrameCodec;
+import com.iot.plc.service.UpperComputerService;
+import com.iot.plc.service.UpperComputerStation;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+import io.netty.handler.codec.json.JsonObjectDecoder;
+import io.netty.handler.codec.string.StringDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 上位机烧录模拟器
+ * 独立运行的上位机服务端，使用与真实上位机相同的 ProgramCommand/ProgramResult 协议(JSON或协商后的二进制帧)，
+ * 可配置每个模块的烧录时间分布、失败率，以及慢响应、乱序、丢失和重复的结果，用于压测 UpperComputerService。
+ * 收到心跳 ping 时立即回复 pong。
+ * 参数格式为 --名称=值，例如：
+ *   --port=8888 --mode=module --time=normal --time-mean=800 --time-jitter=200 --slots=4 --failure-rate=0.05 --drop-rate=0.01
+ */
+public class UpperComputerSimulator {
+    private static final Gson gson = new GsonBuilder().setDateFormat("yyyy-MM-dd HH:mm:ss").create();
+    private static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+    private static final String[] FAILURE_MESSAGES = {"烧录校验失败", "芯片无响应", "写入超时", "固件版本不匹配"};
+
+    /**
+     * 模拟参数
+     */
+    public static class Profile {
+        // 监听端口
+        private int port = 8888;
+        // 结果返回方式：full 整批返回，module 逐模块返回后发送 batch_complete
+        private String mode = "module";
+        // 是否接受二进制协议协商
+        private boolean binary = true;
+        // 单模块烧录时间分布：fixed、uniform、normal、exp
+        private String timeDistribution = "normal";
+        private long timeMeanMs = 800;
+        private long timeJitterMs = 200;
+        // 同时烧录的模块数，0表示批次内全部并行
+        private int slots = 4;
+        // 单模块失败概率
+        private double failureRate = 0.05;
+        // 慢响应：按概率在正常时间之外额外延迟
+        private double slowRate = 0;
+        private long slowDelayMs = 5000;
+        // 乱序：按概率额外延迟 0~reorderWindowMs，使后完成的结果先到达
+        private double reorderRate = 0;
+        private long reorderWindowMs = 1000;
+        // 丢失和重复的概率，按帧计算
+        private double dropRate = 0;
+        private double duplicateRate = 0;
+        // 随机数种子，0表示每次不同
+        private long seed = 0;
+        // 统计输出间隔(秒)，0表示不输出
+        private int statsIntervalSeconds = 10;
+
+        /**
+         * 从命令行参数解析，未识别的参数忽略，便于与其他工具共用参数
+         */
+        public static Profile parse(String[] args) {
+            Profile profile = new Profile();
+            for (String arg : args) {
+                if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                    continue;
+                }
+                String key = arg.substring(2, arg.indexOf('='));
+                String value = arg.substring(arg.indexOf('=') + 1);
+                switch (key) {
+                    case "port": profile.port = Integer.parseInt(value); break;
+                    case "mode": profile.mode = value; break;
+                    case "binary": profile.binary = Boolean.parseBoolean(value); break;
+                    case "time": profile.timeDistribution = value; break;
+                    case "time-mean": profile.timeMeanMs = Long.parseLong(value); break;
+                    case "time-jitter": profile.timeJitterMs = Long.parseLong(value); break;
+                    case "slots": profile.slots = Integer.parseInt(value); break;
+                    case "failure-rate": profile.failureRate = Double.parseDouble(value); break;
+                    case "slow-rate": profile.slowRate = Double.parseDouble(value); break;
+                    case "slow-delay": profile.slowDelayMs = Long.parseLong(value); break;
+                    case "reorder-rate": profile.reorderRate = Double.parseDouble(value); break;
+                    case "reorder-window": profile.reorderWindowMs = Long.parseLong(value); break;
+                    case "drop-rate": profile.dropRate = Double.parseDouble(value); break;
+                    case "duplicate-rate": profile.duplicateRate = Double.parseDouble(value); break;
+                    case "seed": profile.seed = Long.parseLong(value); break;
+                    case "stats-interval": profile.statsIntervalSeconds = Integer.parseInt(value); break;
+                    default: break;
+                }
+            }
+            return profile;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public String getMode() {
+            return mode;
+        }
+
+        public void setMode(String mode) {
+            this.mode = mode;
+        }
+
+        public void setStatsIntervalSeconds(int statsIntervalSeconds) {
+            this.statsIntervalSeconds = statsIntervalSeconds;
+        }
+
+        @Override
+        public String toString() {
+            return "port=" + port + ", mode=" + mode + ", binary=" + binary
+                    + ", time=" + timeDistribution + "(" + timeMeanMs + "±" + timeJitterMs + "ms), slots=" + slots
+                    + ", failure=" + failureRate + ", slow=" + slowRate + "(+" + slowDelayMs + "ms)"
+                    + ", reorder=" + reorderRate + "(" + reorderWindowMs + "ms), drop=" + dropRate
+                    + ", duplicate=" + duplicateRate + ", seed=" + seed;
+        }
+    }
+
+    private final Profile profile;
+    private final Random random;
+    private EventLoopGroup group;
+    private Channel serverChannel;
+
+    // 统计
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong commands = new AtomicLong();
+    private final AtomicLong modules = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong duplicated = new AtomicLong();
+
+    public UpperComputerSimulator(Profile profile) {
+        this.profile = profile;
+        this.random = profile.seed != 0 ? new Random(profile.seed) : new Random();
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("===== 上位机烧录模拟器 ======");
+        Profile profile = Profile.parse(args);
+        UpperComputerSimulator simulator = new UpperComputerSimulator(profile);
+        simulator.start();
+        System.out.println("模拟参数: " + profile);
+        System.out.println("按 Ctrl+C 退出");
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stop));
+        simulator.serverChannel.closeFuture().sync();
+    }
+
+    /**
+     * 启动模拟器，监听端口绑定完成后返回
+     */
+    public synchronized void start() throws InterruptedException {
+        if (serverChannel != null) {
+            return;
+        }
+        group = new NioEventLoopGroup(2, new DefaultThreadFactory("simulator-" + profile.port, true));
+        ServerBootstrap bootstrap = new ServerBootstrap();
+        bootstrap.group(group)
+                .channel(NioServerSocketChannel.class)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+                        pipeline.addLast("jsonDecoder", new JsonObjectDecoder(MAX_FRAME_LENGTH));
+                        pipeline.addLast("stringDecoder", new StringDecoder(CharsetUtil.UTF_8));
+                        pipeline.addLast("stringEncoder", new StringEncoder(CharsetUtil.UTF_8));
+                        pipeline.addLast(new SimulatorHandler());
+                    }
+                });
+        serverChannel = bootstrap.bind(profile.port).sync().channel();
+        System.out.println("上位机模拟器已启动，端口: " + profile.port);
+
+        if (profile.statsIntervalSeconds > 0) {
+            group.scheduleAtFixedRate(() -> System.out.println("[模拟器 " + profile.port + "] " + getStats()),
+                    profile.statsIntervalSeconds, profile.statsIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public synchronized void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+            serverChannel = null;
+        }
+        if (group != null) {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+            group = null;
+        }
+    }
+
+    /**
+     * 获取统计信息
+     */
+    public String getStats() {
+        return "connections=" + connections.get() + ", commands=" + commands.get() + ", modules=" + modules.get()
+                + ", failures=" + failures.get() + ", frames=" + framesSent.get()
+                + ", dropped=" + dropped.get() + ", duplicated=" + duplicated.get();
+    }
+
+    /**
+     * 按分布抽取单模块烧录时间
+     */
+    private long sampleProgramTime() {
+        double mean = profile.timeMeanMs;
+        double jitter = profile.timeJitterMs;
+        double value;
+        switch (profile.timeDistribution) {
+            case "fixed":
+                value = mean;
+                break;
+            case "uniform":
+                value = mean - jitter + random.nextDouble() * 2 * jitter;
+                break;
+            case "exp":
+                value = -mean * Math.log(1 - random.nextDouble());
+                break;
+            default:
+                value = mean + random.nextGaussian() * jitter;
+                break;
+        }
+        return Math.max(0, Math.round(value));
+    }
+
+    private boolean chance(double rate) {
+        return rate > 0 && random.nextDouble() < rate;
+    }
+
+    /**
+     * 计算一帧的额外延迟(慢响应、乱序)
+     */
+    private long extraDelay() {
+        long delay = 0;
+        if (chance(profile.slowRate)) {
+            delay += profile.slowDelayMs;
+        }
+        if (chance(profile.reorderRate)) {
+            delay += (long) (random.nextDouble() * profile.reorderWindowMs);
+        }
+        return delay;
+    }
+
+    /**
+     * 模拟一个烧录批次
+     * 模块按顺序分配到最早空闲的烧录槽位，完成时间为槽位空闲时间加本模块烧录时间
+     */
+    private void simulate(Channel channel, boolean binary, ProgramCommand command) {
+        commands.incrementAndGet();
+        List<BarcodeInfo> barcodes = command.getBarcodes() != null ? command.getBarcodes() : new ArrayList<>();
+        int slotCount = profile.slots > 0 ? Math.min(profile.slots, Math.max(1, barcodes.size())) : Math.max(1, barcodes.size());
+        long[] slotFree = new long[slotCount];
+        long batchEnd = 0;
+        long lastModuleSent = 0;
+
+        List<DeviceResult> results = new ArrayList<>(barcodes.size());
+        for (BarcodeInfo barcode : barcodes) {
+            int slot = 0;
+            for (int i = 1; i < slotCount; i++) {
+                if (slotFree[i] < slotFree[slot]) {
+                    slot = i;
+                }
+            }
+            slotFree[slot] += sampleProgramTime();
+            long finishAt = slotFree[slot];
+            batchEnd = Math.max(batchEnd, finishAt);
+
+            boolean success = !chance(profile.failureRate);
+            if (!success) {
+                failures.incrementAndGet();
+            }
+            modules.incrementAndGet();
+            DeviceResult result = new DeviceResult(barcode.getDeviceId(), barcode.getBarcode(), success,
+                    success ? null : FAILURE_MESSAGES[random.nextInt(FAILURE_MESSAGES.length)]);
+            results.add(result);
+
+            if ("module".equals(profile.mode)) {
+                lastModuleSent = Math.max(lastModuleSent,
+                        schedule(channel, finishAt, () -> encodeModule(channel, binary, command.getBatchId(), result)));
+            }
+        }
+
+        if ("module".equals(profile.mode)) {
+            // 模块之间可以乱序，但批次完成帧总在本批次最后一个模块之后发送
+            schedule(channel, Math.max(batchEnd, lastModuleSent), () -> encodeBatchComplete(channel, binary, command.getBatchId()));
+        } else {
+            ProgramResult programResult = new ProgramResult();
+            programResult.setBatchId(command.getBatchId());
+            boolean allSuccess = true;
+            for (DeviceResult result : results) {
+                programResult.addDeviceResult(result);
+                allSuccess &= result.isSuccess();
+            }
+            programResult.setStatus(allSuccess ? "success" : "partial_failure");
+            schedule(channel, batchEnd, () -> {
+                programResult.setCompleteTime(LocalDateTime.now());
+                return encodeResult(channel, binary, programResult);
+            });
+        }
+    }
+
+    /**
+     * 按丢失、重复、慢响应和乱序参数安排一帧的发送，帧内容在发送时生成
+     * @return 实际安排的最晚发送延迟(毫秒)，丢弃时为0
+     */
+    private long schedule(Channel channel, long delayMs, FrameSupplier frame) {
+        if (chance(profile.dropRate)) {
+            dropped.incrementAndGet();
+            return 0;
+        }
+        int copies = chance(profile.duplicateRate) ? 2 : 1;
+        if (copies > 1) {
+            duplicated.incrementAndGet();
+        }
+        long latest = 0;
+        for (int i = 0; i < copies; i++) {
+            long delay = delayMs + extraDelay();
+            latest = Math.max(latest, delay);
+            channel.eventLoop().schedule(() -> {
+                if (channel.isActive()) {
+                    channel.writeAndFlush(frame.get());
+                    framesSent.incrementAndGet();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+        return latest;
+    }
+
+    private interface FrameSupplier {
+        Object get();
+    }
+
+    private Object encodeModule(Channel channel, boolean binary, String batchId, DeviceResult result) {
+        if (binary) {
+            ByteBuf buf = channel.alloc().buffer();
+            BinaryFrameCodec.encodeModuleResult(batchId, result, buf);
+            return buf;
+        }
+        JsonObject frame = new JsonObject();
+        frame.addProperty("type", UpperComputerService.FRAME_MODULE_RESULT);
+        frame.addProperty("batchId", batchId);
+        frame.add("result", gson.toJsonTree(result));
+        return frame.toString();
+    }
+
+    private Object encodeBatchComplete(Channel channel, boolean binary, String batchId) {
+        if (binary) {
+            ByteBuf buf = channel.alloc().buffer();
+            BinaryFrameCodec.encodeBatchComplete(batchId, "completed", buf);
+            return buf;
+        }
+        JsonObject frame = new JsonObject();
+        frame.addProperty("type", UpperComputerService.FRAME_BATCH_COMPLETE);
+        frame.addProperty("batchId", batchId);
+        frame.addProperty("status", "completed");
+        return frame.toString();
+    }
+
+    private Object encodeResult(Channel channel, boolean binary, ProgramResult result) {
+        if (binary) {
+            ByteBuf buf = channel.alloc().buffer();
+            BinaryFrameCodec.encodeResult(result, buf);
+            return buf;
+        }
+        return gson.toJson(result);
+    }
+
+    /**
+     * 模拟器连接处理器，处理协议协商和烧录指令
+     */
+    private class SimulatorHandler extends ChannelInboundHandlerAdapter {
+        private boolean binary = false;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            connections.incrementAndGet();
+            System.out.println("[模拟器 " + profile.port + "] 上位机客户端已连接: " + ctx.channel().remoteAddress());
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            try {
+                if (msg instanceof ByteBuf) {
+                    BinaryFrameCodec.Frame frame = BinaryFrameCodec.decode((ByteBuf) msg);
+                    if (frame.getType() == BinaryFrameCodec.TYPE_PROGRAM_COMMAND) {
+                        simulate(ctx.channel(), true, frame.getCommand());
+                    } else if (frame.getType() == BinaryFrameCodec.TYPE_PING) {
+                        ByteBuf pong = ctx.alloc().buffer(16);
+                        BinaryFrameCodec.encodeHeartbeat(BinaryFrameCodec.TYPE_PONG, frame.getSeq(), pong);
+                        ctx.writeAndFlush(pong);
+                    }
+                    return;
+                }
+                JsonObject frame = JsonParser.parseString(msg.toString()).getAsJsonObject();
+                String type = frame.has("type") ? frame.get("type").getAsString() : null;
+                if ("hello".equals(type)) {
+                    negotiate(ctx, frame);
+                    return;
+                }
+                if ("ping".equals(type)) {
+                    frame.addProperty("type", "pong");
+                    ctx.writeAndFlush(frame.toString());
+                    return;
+                }
+                simulate(ctx.channel(), false, gson.fromJson(frame, ProgramCommand.class));
+            } catch (RuntimeException e) {
+                System.out.println("[模拟器 " + profile.port + "] 无法解析的指令: " + e.getMessage());
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+
+        /**
+         * 回复协议协商，双方都支持时切换为长度字段分隔的二进制帧
+         */
+        private void negotiate(ChannelHandlerContext ctx, JsonObject hello) {
+            boolean offered = false;
+            JsonArray protocols = hello.has("protocols") ? hello.getAsJsonArray("protocols") : new JsonArray();
+            for (JsonElement protocol : protocols) {
+                offered |= UpperComputerStation.PROTOCOL_BINARY.equals(protocol.getAsString());
+            }
+            binary = profile.binary && offered;
+
+            JsonObject reply = new JsonObject();
+            reply.addProperty("type", "hello");
+            reply.addProperty("protocol", binary ? UpperComputerStation.PROTOCOL_BINARY : UpperComputerStation.PROTOCOL_JSON);
+            ctx.writeAndFlush(reply.toString());
+            if (binary) {
+                ChannelPipeline pipeline = ctx.pipeline();
+                pipeline.remove("stringDecoder");
+                pipeline.addAfter("jsonDecoder", "frameDecoder", new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, 0, 4, 0, 4));
+                pipeline.addAfter("frameDecoder", "framePrepender", new LengthFieldPrepender(4));
+                pipeline.remove("jsonDecoder");
+            }
+            System.out.println("[模拟器 " + profile.port + "] 协商协议: " + (binary ? "二进制" : "JSON"));
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            System.out.println("[模拟器 " + profile.port + "] 连接异常: " + cause.getMessage());
+            ctx.close();
+        }
+    }
+}
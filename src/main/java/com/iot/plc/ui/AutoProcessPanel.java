@@ -27,6 +27,7 @@ import javafx.scene.layout.GridPane;
 import com.iot.plc.database.DatabaseManager;
 import com.iot.plc.service.EmsService;
 import com.iot.plc.service.ConfigService;
+import com.iot.plc.service.UpperComputerService;
 import com.iot.plc.model.ConfigItem;
 import com.iot.plc.model.ProgramResult;
 import com.iot.plc.model.DeviceResult;
@@ -51,6 +52,7 @@ public class AutoProcessPanel extends BorderPane {
     private StringProperty plcStatus = new SimpleStringProperty("未连接");
     private StringProperty upperComputerStatus = new SimpleStringProperty("未连接");
     private StringProperty emsStatus = new SimpleStringProperty("未连接");
+    private StringProperty upperComputerRtt = new SimpleStringProperty("-");
     private StringProperty expectedBarcodeCount = new SimpleStringProperty("6");
     private StringProperty actualBarcodeCount = new SimpleStringProperty("0");
     private static final String CONFIG_KEY_EXPECTED_BARCODE_COUNT = "expected_barcode_count";
@@ -281,7 +283,9 @@ public class AutoProcessPanel extends BorderPane {
                 new Label("上位机状态: "),
                 createStatusLabel(upperComputerStatus),
                 new Label("EMS状态: "),
-                createStatusLabel(emsStatus)
+                createStatusLabel(emsStatus),
+                new Label("上位机RTT: "),
+                createStatusLabel(upperComputerRtt)
         );
         
         // 添加上位机配置按钮
@@ -505,8 +509,12 @@ public class AutoProcessPanel extends BorderPane {
             while (true) {
                 try {
                     Thread.sleep(1000);
+                    String rtt = UpperComputerService.getInstance().getRttSummary();
+                    String ems = EmsService.getInstance().getStatusSummary();
                     Platform.runLater(() -> {
                         actualBarcodeCount.set(String.valueOf(barcodeDataList.size()));
+                        upperComputerRtt.set(rtt);
+                        emsStatus.set(ems);
                     });
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
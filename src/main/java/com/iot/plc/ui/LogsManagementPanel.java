@@ -1,12 +1,16 @@
 package com.iot.plc.ui;
 
+import com.iot.plc.database.BarcodeTraceManager;
 import com.iot.plc.database.DatabaseManager;
+import com.iot.plc.database.LogPartitionManager;
+import com.iot.plc.database.ResultSummaryManager;
 import com.iot.plc.logger.Logger;
 import com.iot.plc.logger.LogManager;
 import com.iot.plc.model.BarcodeData;
 import com.iot.plc.model.ConfigItem;
 import com.iot.plc.model.DeviceResult;
 import com.iot.plc.model.ProgramResult;
+import com.iot.plc.model.TraceEvent;
 import com.iot.plc.service.ConfigService;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -32,6 +36,7 @@ public class LogsManagementPanel extends VBox {
     private ComboBox<String> logTypeComboBox;
     private Button refreshButton;
     private Button clearAllButton;
+    private Button compactDatabaseButton;
     private TextField logRetentionDaysField;
     private Button saveRetentionDaysButton;
     private DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
@@ -73,11 +78,16 @@ public class LogsManagementPanel extends VBox {
         clearAllButton.setStyle("-fx-background-color: #ff6b6b; -fx-text-fill: white;");
         clearAllButton.setOnAction(e -> clearAllLogs());
 
+        // 整理数据库文件按钮，旧数据库转换为增量空间回收模式
+        compactDatabaseButton = new Button("整理数据库文件");
+        compactDatabaseButton.setOnAction(e -> compactDatabase());
+
         // 添加组件到控制面板
         controlPanel.getChildren().addAll(
                 new Label("日志类型: "), logTypeComboBox,
                 refreshButton,
-                clearAllButton
+                clearAllButton,
+                compactDatabaseButton
         );
 
         // 创建日志清理设置面板
@@ -232,11 +242,37 @@ public class LogsManagementPanel extends VBox {
         });
     }
 
+    private void compactDatabase() {
+        Alert confirmationAlert = new Alert(Alert.AlertType.CONFIRMATION);
+        confirmationAlert.setTitle("确认整理");
+        confirmationAlert.setHeaderText(null);
+        confirmationAlert.setContentText("整理数据库文件会重建整个数据库，期间无法写入扫码和烧录结果，耗时与文件大小有关，可能长达数分钟。\n请在停产时执行，确定继续吗？");
+
+        confirmationAlert.showAndWait().ifPresent(response -> {
+            if (response == ButtonType.OK) {
+                compactDatabaseButton.setDisable(true);
+                new Thread(() -> {
+                    try {
+                        boolean rebuilt = DatabaseManager.rebuildForIncrementalVacuum();
+                        showInfoDialog("操作成功", rebuilt ? "数据库文件整理完成，之后将在空闲时自动回收空间" : "数据库已开启增量空间回收，无需整理");
+                    } catch (SQLException e) {
+                        Logger.getInstance().error("整理数据库文件失败: " + e.getMessage());
+                        showErrorDialog("整理失败", "整理数据库文件时出错: " + e.getMessage());
+                    } finally {
+                        Platform.runLater(() -> compactDatabaseButton.setDisable(false));
+                    }
+                }, "database-compact").start();
+            }
+        });
+    }
+
     private void clearBarcodeLogs() throws SQLException {
         String sql = "DELETE FROM barcode_data";
         try (java.sql.Connection conn = DatabaseManager.getConnection();
              java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            LogPartitionManager.getInstance().dropAllPartitions(conn, LogPartitionManager.BARCODE_DATA);
             pstmt.executeUpdate();
+            BarcodeTraceManager.getInstance().clearEvents(conn, TraceEvent.SCAN);
         }
     }
 
@@ -244,7 +280,10 @@ public class LogsManagementPanel extends VBox {
         String sql = "DELETE FROM program_result";
         try (java.sql.Connection conn = DatabaseManager.getConnection();
              java.sql.PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            LogPartitionManager.getInstance().dropAllPartitions(conn, LogPartitionManager.PROGRAM_RESULT);
             pstmt.executeUpdate();
+            ResultSummaryManager.getInstance().clearAll(conn);
+            BarcodeTraceManager.getInstance().clearEvents(conn, TraceEvent.PROGRAM);
         }
     }
 
@@ -1,5 +1,6 @@
 package com.iot.plc.ui;
 
+import com.iot.plc.service.NetworkFraming;
 import com.iot.plc.service.NetworkService;
 import com.iot.plc.service.ConfigService;
 import com.iot.plc.model.ConfigItem;
@@ -13,14 +14,18 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
  * 网络接收模块配置面板
- * 用于配置TCP服务端、TCP客户端和UDP协议参数
+ * 用于配置TCP服务端、TCP客户端和UDP协议参数，以及TCP报文的分帧方式
+ * 分帧方式可以按设备地址单独配置，协议不同的设备接入同一服务时各自按自己的协议分帧
  */
 public class NetworkConfigPanel {
     private static final Logger logger = LoggerFactory.getLogger(NetworkConfigPanel.class.getName());
+    private static final String DEFAULT_ENDPOINT = "默认(所有设备)";
     private Stage stage;
     private NetworkService.Config config;
     
@@ -29,10 +34,28 @@ public class NetworkConfigPanel {
     private TextField hostTextField;
     private TextField portTextField;
     private ComboBox<String> dataModeComboBox;
+    private ComboBox<String> framingEndpointComboBox;
+    private ComboBox<String> framingComboBox;
+    private GridPane framingGrid;
+    private TextField delimiterTextField;
+    private TextField lengthOffsetTextField;
+    private ComboBox<String> lengthFieldLengthComboBox;
+    private ComboBox<String> byteOrderComboBox;
+    private TextField lengthAdjustmentTextField;
+    private TextField stripBytesTextField;
+    private TextField fixedLengthTextField;
+    private TextField maxFrameLengthTextField;
     private Button saveButton;
+    private Button removeEndpointButton;
     private Button cancelButton;
     private Label statusLabel;
     
+    // 默认分帧配置和按设备地址的分帧配置
+    private NetworkFraming defaultFraming = new NetworkFraming();
+    private final Map<String, NetworkFraming> endpointFramings = new LinkedHashMap<>();
+    // 本次保存编辑的设备地址，默认配置为null
+    private String editedEndpoint;
+    
     public NetworkConfigPanel() {
         initializeUI();
     }
@@ -42,7 +65,7 @@ public class NetworkConfigPanel {
         stage.setTitle("网络接收模块配置");
         stage.initModality(Modality.APPLICATION_MODAL);
         stage.setWidth(400);
-        stage.setHeight(300);
+        stage.setHeight(500);
         
         // 创建主布局
         VBox root = new VBox(15);
@@ -93,6 +116,45 @@ public class NetworkConfigPanel {
         configGrid.add(dataModeLabel, 0, 3);
         configGrid.add(dataModeComboBox, 1, 3);
         
+        // 分帧配置适用的设备地址，可输入新地址
+        Label framingEndpointLabel = new Label("适用设备：");
+        framingEndpointComboBox = new ComboBox<>();
+        framingEndpointComboBox.setEditable(true);
+        framingEndpointComboBox.setPromptText("IP、IP:端口 或 网段如192.168.1.0/24");
+        framingEndpointComboBox.setOnAction(e -> showEndpointFraming());
+        configGrid.add(framingEndpointLabel, 0, 4);
+        configGrid.add(framingEndpointComboBox, 1, 4);
+        
+        // 分帧方式
+        Label framingLabel = new Label("分帧方式：");
+        framingComboBox = new ComboBox<>();
+        for (NetworkFraming.Type type : NetworkFraming.Type.values()) {
+            framingComboBox.getItems().add(type.getDisplayName());
+        }
+        framingComboBox.setValue(NetworkFraming.Type.NONE.getDisplayName());
+        framingComboBox.setOnAction(e -> updateFramingFields());
+        configGrid.add(framingLabel, 0, 5);
+        configGrid.add(framingComboBox, 1, 5);
+        
+        // 分帧参数，按分帧方式显示
+        framingGrid = new GridPane();
+        framingGrid.setHgap(10);
+        framingGrid.setVgap(10);
+        framingGrid.setAlignment(Pos.CENTER);
+        delimiterTextField = new TextField("\\r\\n");
+        delimiterTextField.setPromptText("如 \\r\\n 或 0x0D0A");
+        lengthOffsetTextField = numberField("0");
+        lengthFieldLengthComboBox = new ComboBox<>();
+        lengthFieldLengthComboBox.getItems().addAll("1", "2", "4");
+        lengthFieldLengthComboBox.setValue("2");
+        byteOrderComboBox = new ComboBox<>();
+        byteOrderComboBox.getItems().addAll("大端", "小端");
+        byteOrderComboBox.setValue("大端");
+        lengthAdjustmentTextField = new TextField("0");
+        stripBytesTextField = numberField("0");
+        fixedLengthTextField = numberField("");
+        maxFrameLengthTextField = numberField("65536");
+        
         // 状态标签
         statusLabel = new Label("");
         statusLabel.setStyle("-fx-text-fill: green;");
@@ -104,13 +166,16 @@ public class NetworkConfigPanel {
         saveButton = new Button("保存配置");
         saveButton.setOnAction(e -> saveConfig());
         
+        removeEndpointButton = new Button("删除该设备分帧");
+        removeEndpointButton.setOnAction(e -> removeEndpointFraming());
+        
         cancelButton = new Button("取消");
         cancelButton.setOnAction(e -> stage.close());
         
-        buttonBox.getChildren().addAll(saveButton, cancelButton);
+        buttonBox.getChildren().addAll(saveButton, removeEndpointButton, cancelButton);
         
         // 添加到主布局
-        root.getChildren().addAll(configGrid, statusLabel, buttonBox);
+        root.getChildren().addAll(configGrid, framingGrid, statusLabel, buttonBox);
         
         // 创建场景并显示
         Scene scene = new Scene(root);
@@ -120,6 +185,141 @@ public class NetworkConfigPanel {
         loadConfig();
     }
     
+    /**
+     * 创建只允许输入数字的文本框
+     */
+    private TextField numberField(String value) {
+        TextField field = new TextField(value);
+        field.textProperty().addListener((observable, oldValue, newValue) -> {
+            if (!newValue.matches("\\d*")) {
+                field.setText(newValue.replaceAll("[^\\d]", ""));
+            }
+        });
+        return field;
+    }
+    
+    /**
+     * 按选择的分帧方式显示对应参数
+     */
+    private void updateFramingFields() {
+        framingGrid.getChildren().clear();
+        int row = 0;
+        switch (NetworkFraming.Type.fromDisplayName(framingComboBox.getValue())) {
+            case DELIMITER:
+                addFramingRow(row++, "分隔符：", delimiterTextField);
+                addFramingRow(row++, "最大报文长度：", maxFrameLengthTextField);
+                break;
+            case LENGTH_FIELD:
+                addFramingRow(row++, "长度字段偏移：", lengthOffsetTextField);
+                addFramingRow(row++, "长度字段字节数：", lengthFieldLengthComboBox);
+                addFramingRow(row++, "字节序：", byteOrderComboBox);
+                addFramingRow(row++, "长度修正值：", lengthAdjustmentTextField);
+                addFramingRow(row++, "去掉开头字节数：", stripBytesTextField);
+                addFramingRow(row++, "最大报文长度：", maxFrameLengthTextField);
+                break;
+            case FIXED_LENGTH:
+                addFramingRow(row++, "报文长度：", fixedLengthTextField);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private void addFramingRow(int row, String label, Control control) {
+        framingGrid.add(new Label(label), 0, row);
+        framingGrid.add(control, 1, row);
+    }
+    
+    /**
+     * 根据界面输入创建分帧配置
+     */
+    private NetworkFraming buildFraming() {
+        NetworkFraming framing = new NetworkFraming(NetworkFraming.Type.fromDisplayName(framingComboBox.getValue()));
+        framing.setDelimiter(delimiterTextField.getText());
+        framing.setLengthFieldOffset(parseInt(lengthOffsetTextField.getText(), 0));
+        framing.setLengthFieldLength(Integer.parseInt(lengthFieldLengthComboBox.getValue()));
+        framing.setLittleEndian("小端".equals(byteOrderComboBox.getValue()));
+        framing.setLengthAdjustment(parseInt(lengthAdjustmentTextField.getText(), 0));
+        framing.setStripBytes(parseInt(stripBytesTextField.getText(), 0));
+        framing.setFixedLength(parseInt(fixedLengthTextField.getText(), 0));
+        framing.setMaxFrameLength(parseInt(maxFrameLengthTextField.getText(), 65536));
+        return framing;
+    }
+    
+    private int parseInt(String text, int defaultValue) {
+        return text == null || text.trim().isEmpty() ? defaultValue : Integer.parseInt(text.trim());
+    }
+    
+    /**
+     * 将分帧配置显示到界面
+     */
+    private void showFraming(NetworkFraming framing) {
+        framingComboBox.setValue(framing.getType().getDisplayName());
+        delimiterTextField.setText(framing.getDelimiter());
+        lengthOffsetTextField.setText(String.valueOf(framing.getLengthFieldOffset()));
+        lengthFieldLengthComboBox.setValue(String.valueOf(framing.getLengthFieldLength()));
+        byteOrderComboBox.setValue(framing.isLittleEndian() ? "小端" : "大端");
+        lengthAdjustmentTextField.setText(String.valueOf(framing.getLengthAdjustment()));
+        stripBytesTextField.setText(String.valueOf(framing.getStripBytes()));
+        fixedLengthTextField.setText(framing.getFixedLength() > 0 ? String.valueOf(framing.getFixedLength()) : "");
+        maxFrameLengthTextField.setText(String.valueOf(framing.getMaxFrameLength()));
+        updateFramingFields();
+    }
+    
+    /**
+     * 当前选择的设备地址，选择默认时返回null
+     */
+    private String selectedEndpoint() {
+        String value = framingEndpointComboBox.getValue();
+        if (value == null || value.trim().isEmpty() || DEFAULT_ENDPOINT.equals(value)) {
+            return null;
+        }
+        return value.trim();
+    }
+    
+    /**
+     * 刷新适用设备列表并选中指定地址
+     */
+    private void refreshEndpoints(String selected) {
+        framingEndpointComboBox.getItems().setAll(DEFAULT_ENDPOINT);
+        framingEndpointComboBox.getItems().addAll(endpointFramings.keySet());
+        framingEndpointComboBox.setValue(selected != null ? selected : DEFAULT_ENDPOINT);
+        removeEndpointButton.setDisable(selected == null);
+    }
+    
+    /**
+     * 显示所选设备的分帧配置，新输入的地址沿用界面上当前的配置
+     */
+    private void showEndpointFraming() {
+        String endpoint = selectedEndpoint();
+        removeEndpointButton.setDisable(endpoint == null || !endpointFramings.containsKey(endpoint));
+        if (endpoint == null) {
+            showFraming(defaultFraming);
+        } else if (endpointFramings.containsKey(endpoint)) {
+            showFraming(endpointFramings.get(endpoint));
+        }
+    }
+    
+    /**
+     * 删除所选设备的分帧配置，之后该设备使用默认分帧
+     */
+    private void removeEndpointFraming() {
+        String endpoint = selectedEndpoint();
+        if (endpoint == null || !endpointFramings.containsKey(endpoint)) {
+            return;
+        }
+        try {
+            NetworkFraming.removeEndpoint(endpoint);
+            endpointFramings.remove(endpoint);
+            refreshEndpoints(null);
+            showFraming(defaultFraming);
+            statusLabel.setText("已删除 " + endpoint + " 的分帧配置，重新保存配置后生效");
+            statusLabel.setStyle("-fx-text-fill: green;");
+        } catch (Exception e) {
+            showError("删除分帧配置失败：" + e.getMessage());
+        }
+    }
+    
     /**
      * 显示配置面板
      */
@@ -175,8 +375,29 @@ public class NetworkConfigPanel {
                     ? NetworkService.DataMode.ASCII
                     : NetworkService.DataMode.HEX;
             
+            // 获取分帧方式，保存到所选的设备地址或默认配置
+            NetworkFraming framing = buildFraming();
+            String framingError = framing.validate();
+            if (framingError != null) {
+                showError(framingError);
+                return;
+            }
+            String endpoint = selectedEndpoint();
+            if (endpoint != null) {
+                String endpointError = NetworkFraming.validateEndpoint(endpoint);
+                if (endpointError != null) {
+                    showError(endpointError);
+                    return;
+                }
+                endpointFramings.put(endpoint, framing);
+            } else {
+                defaultFraming = framing;
+            }
+            editedEndpoint = endpoint;
+            
             // 创建配置对象
-            config = new NetworkService.Config(protocolType, host, port, dataMode);
+            config = new NetworkService.Config(protocolType, host, port, dataMode, defaultFraming);
+            config.setEndpointFramings(endpointFramings);
             
             // 保存配置到服务
             saveToService();
@@ -185,7 +406,7 @@ public class NetworkConfigPanel {
             statusLabel.setText("配置保存成功");
             statusLabel.setStyle("-fx-text-fill: green;");
             
-            logger.info("Network configuration saved: " + protocolType + ", host: " + host + ", port: " + port + ", mode: " + dataMode);
+            logger.info("Network configuration saved: " + protocolType + ", host: " + host + ", port: " + port + ", mode: " + dataMode + ", framing: " + framing);
             
             // 3秒后自动关闭窗口
             new Thread(() -> {
@@ -196,7 +417,7 @@ public class NetworkConfigPanel {
                     Thread.currentThread().interrupt();
                 }
             }).start();
-            
+        
         } catch (NumberFormatException e) {
             showError("端口号必须是数字");
         } catch (Exception e) {
@@ -253,6 +474,12 @@ public class NetworkConfigPanel {
             dataModeItem.setDescription("数据格式");
             configService.saveConfigItem(dataModeItem);
             
+            // 保存分帧方式
+            config.getFraming().save();
+            if (editedEndpoint != null) {
+                config.getEndpointFramings().get(editedEndpoint).save(editedEndpoint);
+            }
+            
             logger.info("网络配置已保存到配置管理系统");
         } catch (Exception e) {
             logger.severe("保存配置到配置管理系统失败: " + e.getMessage());
@@ -325,6 +552,11 @@ public class NetworkConfigPanel {
             hostTextField.setText(host);
             portTextField.setText(portStr);
             dataModeComboBox.setValue(dataMode.equals("ASCII") ? "ASCII" : "HEX");
+            defaultFraming = NetworkFraming.load();
+            endpointFramings.clear();
+            endpointFramings.putAll(NetworkFraming.loadEndpoints());
+            refreshEndpoints(null);
+            showFraming(defaultFraming);
             
             logger.info("从配置管理系统加载网络配置成功");
             return true;
@@ -358,6 +590,13 @@ public class NetworkConfigPanel {
         // 加载数据模式
         dataModeComboBox.setValue(currentConfig.getDataMode() == NetworkService.DataMode.ASCII ? "ASCII" : "HEX");
         
+        // 加载分帧方式
+        defaultFraming = currentConfig.getFraming();
+        endpointFramings.clear();
+        endpointFramings.putAll(currentConfig.getEndpointFramings());
+        refreshEndpoints(null);
+        showFraming(defaultFraming);
+        
         logger.info("从NetworkService加载网络配置成功");
     }
     
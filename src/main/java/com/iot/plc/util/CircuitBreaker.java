@@ -0,0 +1,261 @@
+package com.iot.plc.util;
+
+/**
+ * 熔断器
+ * 关闭状态下按滚动时间窗口统计调用的失败率，超过阈值时打开，打开期间拒绝所有调用；
+ * 打开一段时间后进入半开状态，放行少量探测调用，全部成功则关闭，任一失败则重新打开。
+ * 耗时超过慢调用阈值的成功调用按失败计入，调用方在发起调用前 {@link #tryAcquire()}，完成后记录结果。
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    /**
+     * 状态变化监听器，在记录结果或申请调用的线程上回调
+     */
+    public interface StateListener {
+        void onStateChange(CircuitBreaker breaker, State from, State to);
+    }
+
+    private final String name;
+    private final long bucketMillis;
+    private final long[] bucketStarts;
+    private final int[] bucketCalls;
+    private final int[] bucketFailures;
+    private final int minCalls;
+    private final double failureRateThreshold;
+    private final long slowCallNanos;
+    private final long openMillis;
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+    private long stateSince;
+    private int probesIssued;
+    private int probesSucceeded;
+    private long rejectedCount;
+    private long openCount;
+    private volatile StateListener listener;
+
+    /**
+     * @param name 名称，用于日志和显示
+     * @param windowMillis 滚动窗口长度，划分为10个桶
+     * @param minCalls 窗口内调用数达到此值才计算失败率
+     * @param failureRateThreshold 打开熔断的失败率(0-1)
+     * @param slowCallMillis 慢调用阈值，0表示不统计慢调用
+     * @param openMillis 打开后等待多久进入半开状态
+     * @param halfOpenProbes 半开状态放行的探测调用数
+     */
+    public CircuitBreaker(String name, long windowMillis, int minCalls, double failureRateThreshold,
+                          long slowCallMillis, long openMillis, int halfOpenProbes) {
+        int buckets = 10;
+        this.name = name;
+        this.bucketMillis = Math.max(1, windowMillis / buckets);
+        this.bucketStarts = new long[buckets];
+        this.bucketCalls = new int[buckets];
+        this.bucketFailures = new int[buckets];
+        this.minCalls = Math.max(1, minCalls);
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallNanos = slowCallMillis * 1000000L;
+        this.openMillis = openMillis;
+        this.halfOpenProbes = Math.max(1, halfOpenProbes);
+    }
+
+    public void setListener(StateListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * 申请发起一次调用
+     * @return false表示熔断打开或半开状态的探测名额已用完，调用方不应发起调用
+     */
+    public boolean tryAcquire() {
+        State from;
+        synchronized (this) {
+            if (state == State.CLOSED) {
+                return true;
+            }
+            if (state == State.OPEN) {
+                if (System.currentTimeMillis() - stateSince < openMillis) {
+                    rejectedCount++;
+                    return false;
+                }
+                from = transition(State.HALF_OPEN);
+            } else if (probesIssued >= halfOpenProbes && System.currentTimeMillis() - stateSince < openMillis) {
+                rejectedCount++;
+                return false;
+            } else if (probesIssued >= halfOpenProbes) {
+                // 探测调用迟迟没有结果(调用方未记录)，重新放行，避免停留在半开状态
+                from = transition(State.HALF_OPEN);
+            } else {
+                from = null;
+            }
+            probesIssued++;
+        }
+        if (from != null && from != State.HALF_OPEN) {
+            notifyListener(from, State.HALF_OPEN);
+        }
+        return true;
+    }
+
+    /**
+     * 熔断打开且未到探测时间时记一次拒绝并返回true，用于在准备调用之前提前放弃，不占用半开状态的探测名额
+     */
+    public synchronized boolean rejectIfOpen() {
+        if (state == State.OPEN && System.currentTimeMillis() - stateSince < openMillis) {
+            rejectedCount++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录一次成功的调用
+     * @param durationNanos 调用耗时，超过慢调用阈值时按失败计入
+     */
+    public void onSuccess(long durationNanos) {
+        if (slowCallNanos > 0 && durationNanos > slowCallNanos) {
+            onFailure();
+            return;
+        }
+        record(false);
+    }
+
+    /**
+     * 记录一次失败的调用
+     */
+    public void onFailure() {
+        record(true);
+    }
+
+    private void record(boolean failure) {
+        State from = null;
+        State to = null;
+        synchronized (this) {
+            if (state == State.HALF_OPEN) {
+                if (failure) {
+                    to = State.OPEN;
+                } else if (++probesSucceeded >= halfOpenProbes) {
+                    to = State.CLOSED;
+                }
+            } else if (state == State.CLOSED) {
+                long now = System.currentTimeMillis();
+                int index = bucketOf(now);
+                bucketCalls[index]++;
+                if (failure) {
+                    bucketFailures[index]++;
+                }
+                int[] totals = windowTotals(now);
+                if (failure && totals[0] >= minCalls && totals[1] >= failureRateThreshold * totals[0]) {
+                    to = State.OPEN;
+                }
+            }
+            // 打开状态下完成的调用是打开前发出的，不再计入
+            if (to != null) {
+                from = transition(to);
+            }
+        }
+        if (to != null) {
+            notifyListener(from, to);
+        }
+    }
+
+    /**
+     * 定位当前时间所在的桶，桶已过期时清零复用
+     */
+    private int bucketOf(long now) {
+        long start = now - now % bucketMillis;
+        int index = (int) ((start / bucketMillis) % bucketCalls.length);
+        if (bucketStarts[index] != start) {
+            bucketStarts[index] = start;
+            bucketCalls[index] = 0;
+            bucketFailures[index] = 0;
+        }
+        return index;
+    }
+
+    /**
+     * 汇总窗口内未过期的桶
+     * @return {调用数, 失败数}
+     */
+    private int[] windowTotals(long now) {
+        int calls = 0;
+        int failures = 0;
+        for (int i = 0; i < bucketCalls.length; i++) {
+            if (now - bucketStarts[i] < bucketMillis * bucketCalls.length) {
+                calls += bucketCalls[i];
+                failures += bucketFailures[i];
+            }
+        }
+        return new int[]{calls, failures};
+    }
+
+    private State transition(State to) {
+        State from = state;
+        state = to;
+        probesIssued = 0;
+        probesSucceeded = 0;
+        stateSince = System.currentTimeMillis();
+        if (to == State.OPEN) {
+            openCount++;
+        } else if (to == State.CLOSED) {
+            for (int i = 0; i < bucketCalls.length; i++) {
+                bucketStarts[i] = 0;
+                bucketCalls[i] = 0;
+                bucketFailures[i] = 0;
+            }
+        }
+        return from;
+    }
+
+    private void notifyListener(State from, State to) {
+        StateListener l = listener;
+        if (l != null) {
+            l.onStateChange(this, from, to);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 获取滚动窗口内的失败率(0-1)，窗口内没有调用时为0
+     */
+    public synchronized double getFailureRate() {
+        int[] totals = windowTotals(System.currentTimeMillis());
+        return totals[0] == 0 ? 0 : (double) totals[1] / totals[0];
+    }
+
+    /**
+     * 获取打开状态下距离进入半开状态的剩余时间(毫秒)，其他状态为0
+     */
+    public synchronized long getRemainingOpenMillis() {
+        return state == State.OPEN ? Math.max(0, openMillis - (System.currentTimeMillis() - stateSince)) : 0;
+    }
+
+    /**
+     * 获取被拒绝的调用申请数
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * 获取打开的次数
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: state=%s, failureRate=%.0f%%, opened=%d, rejected=%d",
+                name, getState(), getFailureRate() * 100, getOpenCount(), getRejectedCount());
+    }
+}
@@ -0,0 +1,206 @@
+package com.iot.plc.util;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+/**
+ * 十六进制编解码
+ * 编码按字节查表一次写出两个大写字符，解码按字符查表得到半字节，不使用格式化和正则；
+ * 编解码直接写入调用方提供的char数组、byte数组或ByteBuf，不产生中间对象。
+ * 解码时忽略空白字符，其他非十六进制字符或位数为奇数时抛出 IllegalArgumentException。
+ */
+public final class HexCodec {
+    // 每个字节对应的两个十六进制字符
+    private static final char[] PAIRS = new char[512];
+    // 字符对应的半字节值，INVALID表示非法字符，SPACE表示可忽略的空白
+    private static final byte[] NIBBLES = new byte[128];
+    private static final byte INVALID = -1;
+    private static final byte SPACE = -2;
+
+    // 每个线程复用的编码缓冲区，超过此长度的不保留，避免长期占用内存
+    private static final int MAX_RETAINED_CHARS = 128 * 1024;
+    private static final ThreadLocal<char[]> CHAR_BUFFER = ThreadLocal.withInitial(() -> new char[1024]);
+    // 解码到堆外ByteBuf时的分段缓冲区，逐字节setByte有边界和引用计数检查，分段批量写入更快
+    private static final ThreadLocal<byte[]> BYTE_BUFFER = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    static {
+        char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            PAIRS[i << 1] = digits[i >>> 4];
+            PAIRS[(i << 1) + 1] = digits[i & 0x0F];
+        }
+        Arrays.fill(NIBBLES, INVALID);
+        for (int i = 0; i < 10; i++) {
+            NIBBLES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            NIBBLES['A' + i] = (byte) (10 + i);
+            NIBBLES['a' + i] = (byte) (10 + i);
+        }
+        NIBBLES[' '] = SPACE;
+        NIBBLES['\t'] = SPACE;
+        NIBBLES['\r'] = SPACE;
+        NIBBLES['\n'] = SPACE;
+    }
+
+    private HexCodec() {
+    }
+
+    /**
+     * 编码字节数组的一段到char数组
+     * @return 写入的字符数(len * 2)
+     */
+    public static int encode(byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        int j = dstOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (src[i] & 0xFF) << 1;
+            dst[j++] = PAIRS[index];
+            dst[j++] = PAIRS[index + 1];
+        }
+        return j - dstOffset;
+    }
+
+    /**
+     * 编码ByteBuf中的可读字节到char数组，不改变读索引
+     * @return 写入的字符数
+     */
+    public static int encode(ByteBuf src, char[] dst, int dstOffset) {
+        int length = src.readableBytes();
+        if (src.hasArray()) {
+            return encode(src.array(), src.arrayOffset() + src.readerIndex(), length, dst, dstOffset);
+        }
+        int j = dstOffset;
+        for (int i = src.readerIndex(), end = i + length; i < end; i++) {
+            int index = (src.getByte(i) & 0xFF) << 1;
+            dst[j++] = PAIRS[index];
+            dst[j++] = PAIRS[index + 1];
+        }
+        return j - dstOffset;
+    }
+
+    /**
+     * 编码为大写十六进制字符串，除结果字符串外不分配内存
+     */
+    public static String toHex(byte[] src) {
+        return toHex(src, 0, src.length);
+    }
+
+    public static String toHex(byte[] src, int offset, int length) {
+        char[] chars = charBuffer(length * 2);
+        return new String(chars, 0, encode(src, offset, length, chars, 0));
+    }
+
+    /**
+     * 编码ByteBuf中的可读字节为大写十六进制字符串，不改变读索引
+     */
+    public static String toHex(ByteBuf src) {
+        char[] chars = charBuffer(src.readableBytes() * 2);
+        return new String(chars, 0, encode(src, chars, 0));
+    }
+
+    /**
+     * 解码十六进制字符串到byte数组，调用方按 {@link #maxDecodedLength(CharSequence)} 准备空间
+     * @return 写入的字节数
+     */
+    public static int decode(CharSequence hex, byte[] dst, int dstOffset) {
+        int j = dstOffset;
+        int high = -1;
+        for (int i = 0, length = hex.length(); i < length; i++) {
+            int nibble = nibble(hex, i);
+            if (nibble == SPACE) {
+                continue;
+            }
+            if (high < 0) {
+                high = nibble;
+            } else {
+                dst[j++] = (byte) ((high << 4) | nibble);
+                high = -1;
+            }
+        }
+        if (high >= 0) {
+            throw new IllegalArgumentException("Odd number of hex digits");
+        }
+        return j - dstOffset;
+    }
+
+    /**
+     * 解码十六进制字符串并写入ByteBuf，写索引后移解码出的字节数
+     * @return 写入的字节数
+     */
+    public static int decode(CharSequence hex, ByteBuf dst) {
+        dst.ensureWritable(maxDecodedLength(hex));
+        int start = dst.writerIndex();
+        int written;
+        if (dst.hasArray()) {
+            written = decode(hex, dst.array(), dst.arrayOffset() + start);
+        } else {
+            byte[] chunk = BYTE_BUFFER.get();
+            written = 0;
+            int n = 0;
+            int high = -1;
+            for (int i = 0, length = hex.length(); i < length; i++) {
+                int nibble = nibble(hex, i);
+                if (nibble == SPACE) {
+                    continue;
+                }
+                if (high < 0) {
+                    high = nibble;
+                    continue;
+                }
+                chunk[n++] = (byte) ((high << 4) | nibble);
+                high = -1;
+                if (n == chunk.length) {
+                    dst.setBytes(start + written, chunk, 0, n);
+                    written += n;
+                    n = 0;
+                }
+            }
+            if (high >= 0) {
+                throw new IllegalArgumentException("Odd number of hex digits");
+            }
+            dst.setBytes(start + written, chunk, 0, n);
+            written += n;
+        }
+        dst.writerIndex(start + written);
+        return written;
+    }
+
+    /**
+     * 解码十六进制字符串为byte数组
+     */
+    public static byte[] toBytes(CharSequence hex) {
+        byte[] bytes = new byte[maxDecodedLength(hex)];
+        int length = decode(hex, bytes, 0);
+        return length == bytes.length ? bytes : Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * 解码后的最大字节数，不含空白时即为实际字节数
+     */
+    public static int maxDecodedLength(CharSequence hex) {
+        return hex.length() / 2;
+    }
+
+    private static int nibble(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        byte value = c < 128 ? NIBBLES[c] : INVALID;
+        if (value == INVALID) {
+            throw new IllegalArgumentException("Invalid hex character '" + c + "' at " + index);
+        }
+        return value;
+    }
+
+    private static char[] charBuffer(int length) {
+        char[] chars = CHAR_BUFFER.get();
+        if (chars.length >= length) {
+            return chars;
+        }
+        if (length > MAX_RETAINED_CHARS) {
+            return new char[length];
+        }
+        chars = new char[Math.min(MAX_RETAINED_CHARS, Math.max(length, chars.length * 2))];
+        CHAR_BUFFER.set(chars);
+        return chars;
+    }
+}
@@ -0,0 +1,105 @@
+package com.iot.plc.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 延迟直方图
+ * 以微秒为单位按2的幂分段，每段再均分为8个桶，相对误差不超过1/8；
+ * 记录无锁，可在IO线程上调用，百分位数按桶的中点估算。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+    private volatile long lastMicros = -1;
+
+    /**
+     * 记录一次延迟
+     * @param nanos 延迟(纳秒)
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        buckets.incrementAndGet(indexOf(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        lastMicros = micros;
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            // 重试直到更新成功或已有更大的值
+        }
+    }
+
+    private static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        int sub = (int) (micros >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶的中点(微秒)
+     */
+    private static double midpointOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) / 2.0;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * 获取最近一次延迟(毫秒)，没有记录时返回-1
+     */
+    public double getLastMs() {
+        long last = lastMicros;
+        return last < 0 ? -1 : last / 1000.0;
+    }
+
+    public double getMeanMs() {
+        long n = count.get();
+        return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+    }
+
+    public double getMaxMs() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * 获取百分位延迟(毫秒)
+     * @param percentile 0~1之间，例如0.99
+     */
+    public double getPercentileMs(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= target) {
+                return Math.min(midpointOf(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return getMaxMs();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d, last=%.2fms, mean=%.2fms, p50=%.2fms, p99=%.2fms, max=%.2fms",
+                getCount(), getLastMs(), getMeanMs(), getPercentileMs(0.5), getPercentileMs(0.99), getMaxMs());
+    }
+}
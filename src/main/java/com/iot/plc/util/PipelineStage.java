@@ -0,0 +1,303 @@
+package com.iot.plc.util;
+
+import com.iot.plc.logger.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * 流水线处理阶段
+ * 每个阶段有一个有界队列和一个工作线程，工作线程一次最多取出 batchSize 个元素交给处理函数。
+ * 队列满时 put 阻塞上游，下游变慢会逐级反压而不是无限占用内存；
+ * 队列深度越过高水位时通知上游暂停读取，回落到低水位后恢复。
+ * IO线程不能阻塞，改用 add 放入：队列满时元素暂存到溢出列表，排在队列之后按到达顺序处理。
+ * @param <T> 元素类型
+ */
+public class PipelineStage<T> {
+    private static final Logger logger = LoggerFactory.getLogger(PipelineStage.class.getName());
+
+    // 队列为空时工作线程的等待间隔，每次醒来都检查一次低水位，保证暂停的上游总能恢复
+    private static final long IDLE_POLL_MS = 100;
+
+    private final String name;
+    private final int capacity;
+    private final int batchSize;
+    private final Consumer<List<T>> handler;
+    private final BlockingQueue<Entry<T>> queue;
+
+    // 队列满时 add 放入的元素；只要溢出列表不为空，新元素也放入溢出列表，保证处理顺序与到达顺序一致
+    private final ConcurrentLinkedQueue<Entry<T>> overflow = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger overflowSize = new AtomicInteger();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    // 水位通知，参数为true表示需要暂停上游
+    private int highWatermark;
+    private int lowWatermark;
+    private Consumer<Boolean> pressureListener;
+    private final AtomicBoolean pressured = new AtomicBoolean(false);
+    // 水位判断和通知在同一把锁内完成，暂停和恢复的通知不会乱序
+    private final Object pressureLock = new Object();
+
+    // 统计
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong batchCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong totalProcessNanos = new AtomicLong();
+
+    private volatile Thread worker;
+
+    /**
+     * @param name 阶段名称，同时用于工作线程名
+     * @param capacity 队列容量
+     * @param batchSize 每次处理的最大元素数
+     * @param handler 处理函数
+     */
+    public PipelineStage(String name, int capacity, int batchSize, Consumer<List<T>> handler) {
+        this.name = name;
+        this.capacity = capacity;
+        this.batchSize = Math.max(1, batchSize);
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 设置水位通知
+     * @param high 队列深度达到此值时通知暂停
+     * @param low 队列深度回落到此值时通知恢复
+     * @param listener 通知函数
+     */
+    public void setWatermarks(int high, int low, Consumer<Boolean> listener) {
+        this.highWatermark = high;
+        this.lowWatermark = low;
+        this.pressureListener = listener;
+    }
+
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        worker = new Thread(this::run, "pipeline-" + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+    }
+
+    /**
+     * 放入元素，队列满时阻塞直到有空位
+     */
+    public void put(T item) throws InterruptedException {
+        queue.put(new Entry<>(item));
+        checkHighWatermark();
+    }
+
+    /**
+     * 尝试放入元素，队列满时立即返回false
+     */
+    public boolean offer(T item) {
+        boolean added = queue.offer(new Entry<>(item));
+        if (added) {
+            checkHighWatermark();
+        }
+        return added;
+    }
+
+    /**
+     * 放入元素，从不阻塞，供IO线程调用
+     * 队列满时暂存到溢出列表并立即通知上游暂停；溢出列表不设上限，长度由上游暂停读取来限制，
+     * 因此只有 setWatermarks 登记了暂停通知的上游可以使用
+     */
+    public void add(T item) {
+        Entry<T> entry = new Entry<>(item);
+        if (overflowSize.get() == 0 && queue.offer(entry)) {
+            checkHighWatermark();
+            return;
+        }
+        overflow.add(entry);
+        overflowSize.incrementAndGet();
+        overflowCount.incrementAndGet();
+        if (pressureListener != null && !pressured.get()) {
+            synchronized (pressureLock) {
+                if (pressured.compareAndSet(false, true)) {
+                    logger.warning("Pipeline stage " + name + " full, buffering in overflow list");
+                    pressureListener.accept(true);
+                }
+            }
+        }
+    }
+
+    private Entry<T> pollOverflow() {
+        Entry<T> entry = overflow.poll();
+        if (entry != null) {
+            overflowSize.decrementAndGet();
+        }
+        return entry;
+    }
+
+    private void run() {
+        List<Entry<T>> entries = new ArrayList<>(batchSize);
+        List<T> items = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            // 先取队列，再取溢出列表：溢出列表中的元素都晚于队列中已有的元素到达
+            Entry<T> first = queue.poll();
+            if (first == null) {
+                first = pollOverflow();
+            }
+            if (first == null) {
+                try {
+                    first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (first == null) {
+                checkLowWatermark();
+                continue;
+            }
+            entries.add(first);
+            queue.drainTo(entries, batchSize - 1);
+            Entry<T> spilled;
+            while (entries.size() < batchSize && (spilled = pollOverflow()) != null) {
+                entries.add(spilled);
+            }
+            checkLowWatermark();
+
+            for (Entry<T> entry : entries) {
+                items.add(entry.item);
+            }
+            long start = System.nanoTime();
+            try {
+                handler.accept(items);
+            } catch (Exception e) {
+                logger.severe("Error in pipeline stage " + name + ": " + e.getMessage());
+            }
+            long end = System.nanoTime();
+
+            totalProcessNanos.addAndGet(end - start);
+            batchCount.incrementAndGet();
+            for (Entry<T> entry : entries) {
+                long latency = end - entry.enqueuedAt;
+                totalLatencyNanos.addAndGet(latency);
+                long max;
+                while (latency > (max = maxLatencyNanos.get()) && !maxLatencyNanos.compareAndSet(max, latency)) {
+                    // 重试直到更新成功或已有更大的值
+                }
+            }
+            processedCount.addAndGet(entries.size());
+            entries.clear();
+            items.clear();
+        }
+    }
+
+    private void checkHighWatermark() {
+        if (pressureListener == null || pressured.get() || queue.size() < highWatermark) {
+            return;
+        }
+        synchronized (pressureLock) {
+            if (queue.size() >= highWatermark && pressured.compareAndSet(false, true)) {
+                logger.warning("Pipeline stage " + name + " reached high watermark, depth: " + queue.size());
+                pressureListener.accept(true);
+                // 判断深度之后工作线程可能已经取空队列，此时立即恢复，不能等到下一个元素到达
+                if (getDepth() <= lowWatermark && pressured.compareAndSet(true, false)) {
+                    pressureListener.accept(false);
+                }
+            }
+        }
+    }
+
+    private void checkLowWatermark() {
+        if (pressureListener == null || !pressured.get()) {
+            return;
+        }
+        synchronized (pressureLock) {
+            if (getDepth() <= lowWatermark && pressured.compareAndSet(true, false)) {
+                pressureListener.accept(false);
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 获取当前队列深度，包括溢出列表中的元素
+     */
+    public int getDepth() {
+        return queue.size() + overflowSize.get();
+    }
+
+    /**
+     * 队列满时放入溢出列表的元素累计数
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getBatchCount() {
+        return batchCount.get();
+    }
+
+    /**
+     * 获取平均延迟(毫秒)，从进入队列到处理完成
+     */
+    public double getAverageLatencyMs() {
+        long count = processedCount.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * 获取最大延迟(毫秒)，从进入队列到处理完成
+     */
+    public double getMaxLatencyMs() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * 获取每批平均处理时间(毫秒)，不含排队时间
+     */
+    public double getAverageProcessMs() {
+        long count = batchCount.get();
+        return count == 0 ? 0 : totalProcessNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[depth=%d/%d, overflow=%d, processed=%d, batches=%d, avgLatency=%.2fms, maxLatency=%.2fms, avgProcess=%.2fms]",
+                name, getDepth(), capacity, getOverflowCount(), getProcessedCount(), getBatchCount(),
+                getAverageLatencyMs(), getMaxLatencyMs(), getAverageProcessMs());
+    }
+
+    private static class Entry<T> {
+        final T item;
+        final long enqueuedAt = System.nanoTime();
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+}
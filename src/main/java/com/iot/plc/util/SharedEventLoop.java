@@ -0,0 +1,46 @@
+package com.iot.plc.util;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共享的Netty事件循环
+ * 所有网络连接共用同一组IO线程，连接断开和重连不再创建或销毁线程；
+ * 线程为守护线程，只在程序退出时关闭。
+ */
+public class SharedEventLoop {
+    private static final int DEFAULT_THREADS = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private static volatile SharedEventLoop instance;
+
+    private final EventLoopGroup group;
+
+    private SharedEventLoop() {
+        this.group = new NioEventLoopGroup(DEFAULT_THREADS, new DefaultThreadFactory("plc-io", true));
+    }
+
+    public static SharedEventLoop getInstance() {
+        if (instance == null) {
+            synchronized (SharedEventLoop.class) {
+                if (instance == null) {
+                    instance = new SharedEventLoop();
+                }
+            }
+        }
+        return instance;
+    }
+
+    public EventLoopGroup group() {
+        return group;
+    }
+
+    /**
+     * 程序退出时关闭事件循环，单个连接关闭时不要调用
+     */
+    public void shutdown() {
+        group.shutdownGracefully(0, 2, TimeUnit.SECONDS);
+    }
+}
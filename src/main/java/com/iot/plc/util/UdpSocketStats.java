@@ -0,0 +1,55 @@
+package com.iot.plc.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * UDP套接字的内核统计
+ * 接收缓冲区满时内核直接丢弃数据报，应用层看不到；Linux在 /proc/net/udp 和 /proc/net/udp6 中按套接字记录丢弃数，
+ * 这里按本地端口汇总，SO_REUSEPORT绑定的多个套接字一并计入。
+ */
+public final class UdpSocketStats {
+    private static final Path[] PROC_FILES = {Paths.get("/proc/net/udp"), Paths.get("/proc/net/udp6")};
+
+    private UdpSocketStats() {
+    }
+
+    /**
+     * 获取绑定在指定本地端口上的UDP套接字累计被内核丢弃的数据报数
+     * @return 不支持的系统返回-1
+     */
+    public static long kernelDrops(int port) {
+        long drops = 0;
+        boolean found = false;
+        for (Path file : PROC_FILES) {
+            if (!Files.isReadable(file)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+                reader.readLine(); // 表头
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode ref pointer drops
+                    String[] fields = line.trim().split("\\s+");
+                    if (fields.length < 13) {
+                        continue;
+                    }
+                    String local = fields[1];
+                    int colon = local.lastIndexOf(':');
+                    if (colon < 0 || Integer.parseInt(local.substring(colon + 1), 16) != port) {
+                        continue;
+                    }
+                    drops += Long.parseLong(fields[12]);
+                    found = true;
+                }
+            } catch (IOException | RuntimeException e) {
+                return -1;
+            }
+        }
+        return found ? drops : -1;
+    }
+}